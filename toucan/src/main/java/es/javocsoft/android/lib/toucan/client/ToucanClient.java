@@ -22,7 +22,9 @@
 package es.javocsoft.android.lib.toucan.client;
 
 import java.net.URLEncoder;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import android.content.Context;
 import android.content.Intent;
@@ -30,19 +32,45 @@ import android.os.Bundle;
 import android.util.Base64;
 import android.util.Log;
 import es.javocsoft.android.lib.toolbox.ToolBox;
-import es.javocsoft.android.lib.toolbox.crypto.SHA1Encoding;
-import es.javocsoft.android.lib.toolbox.crypto.exception.SHA1EncodingException;
 import es.javocsoft.android.lib.toolbox.json.GsonProcessor;
 import es.javocsoft.android.lib.toucan.client.request.ACKRequest;
 import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
 import es.javocsoft.android.lib.toucan.client.request.DeviceRegistrationRequest;
 import es.javocsoft.android.lib.toucan.client.request.bean.DeviceRegistrationBean;
+import es.javocsoft.android.lib.toucan.client.response.Response;
 import es.javocsoft.android.lib.toucan.client.service.PendingOperationsDeliveryService;
+import es.javocsoft.android.lib.toucan.client.thread.ACKBatcher;
+import es.javocsoft.android.lib.toucan.client.thread.EnvelopePacker;
+import es.javocsoft.android.lib.toucan.client.thread.OperationLauncher;
+import es.javocsoft.android.lib.toucan.client.thread.RegistrationCoalescer;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
 import es.javocsoft.android.lib.toucan.client.thread.ToucanGetWorker;
 import es.javocsoft.android.lib.toucan.client.thread.ToucanPostWorker;
 import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
 import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_PRIORITY;
+import es.javocsoft.android.lib.toucan.client.thread.callback.CallbackDispatcher;
+import es.javocsoft.android.lib.toucan.client.thread.callback.CallbackDispatcher.CALLBACK_DELIVERY_MODE;
 import es.javocsoft.android.lib.toucan.client.thread.callback.ResponseCallback;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.AdmissionController;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.AdmissionController.ADMISSION_OVERFLOW_POLICY;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.BackpressureGate;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ConcurrencyLimiter;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.DeadlinePolicy;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.FlushResult;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.InFlightRegistry;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
+import es.javocsoft.android.lib.toucan.client.thread.interceptor.OperationInterceptor;
+import es.javocsoft.android.lib.toucan.client.thread.interceptor.OperationPipeline;
+import es.javocsoft.android.lib.toucan.client.transport.CompressionPolicy;
+import es.javocsoft.android.lib.toucan.client.transport.PooledHttpTransport;
+import es.javocsoft.android.lib.toucan.client.transport.PrewarmResult;
+import es.javocsoft.android.lib.toucan.client.transport.ToucanTransport;
+import es.javocsoft.android.lib.toucan.client.transport.ResponseCache;
+import es.javocsoft.android.lib.toucan.client.transport.TransportManager;
+import es.javocsoft.android.lib.toucan.client.wire.WireFormatNegotiator;
+import es.javocsoft.android.lib.toucan.client.wire.WireFormatNegotiator.WIRE_FORMAT;
 
 /**
  * This is the Toucan client API library main class.<br><br>
@@ -55,21 +83,34 @@ import es.javocsoft.android.lib.toucan.client.thread.callback.ResponseCallback;
 public class ToucanClient {
 
 	/** The instance of the API client */
-	private static ToucanClient toucanClient;
+	private static volatile ToucanClient toucanClient;
+	/** The tenant clients, by {@link ToucanClientConfig#getTenantKey()} */
+	private static final Map<String, ToucanClient> tenantClients = new HashMap<String, ToucanClient>();
 
-	private static final String JVC_API_ENDPOINT = "https://api.toucan.javocsoft.es";
-	
-	private static String API_ENDPOINT_BASE = JVC_API_ENDPOINT;
-	
 	private static final String OS_TAG = "Android";
 	public static final String LOG_TAG = "ToucanClient";
 	
-	private Context context = null;
-	private String appPublicKey = null;
+	private final Context context;
+	/** Endpoints, tokens and SSL policy of this client */
+	private final ToucanClientConfig config;
 	private String deviceUniqueId = null;
-	private String deviceNotificationToken = null;
-	private String apiToken = null;
-	private boolean ignoreSSLErrors = false;
+	private volatile String deviceNotificationToken = null;
+	/** Operations of the same application and device are ordered */
+	private String chainKey = null;
+	
+	/** Runs the operations in a bounded thread pool */
+	private ToucanDispatcher dispatcher = null;
+	/** Once shut down, operations are saved to disk instead of being sent */
+	private volatile boolean shutdown = false;
+	/** The last connection pre-warm done by this client */
+	private volatile PrewarmResult prewarmResult = null;
+	/** Set while a blocking operation is launched, it runs in the calling thread */
+	private final ThreadLocal<Long> blockingTimeout = new ThreadLocal<Long>();
+	/** Groups the ACKs sent close in time, when enabled */
+	private ACKBatcher ackBatcher = null;
+	private volatile boolean ackBatching = false;
+	/** Merges the registration updates launched close in time, when enabled */
+	private RegistrationCoalescer registrationCoalescer = null;
 
 	private String OSInfo = null;
 	private String DEVInfo = null;
@@ -95,27 +136,17 @@ public class ToucanClient {
 	public static final String NOTIFICATION_MESSAGE_TS = "ts";
 	
 	
-	//ENDPOINTS OF THE API OPERATIONS
-	private static String API_ENDPOINT_REGISTRATION = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dr";
-	private static String API_ENDPOINT_UNREGISTRATION = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?du";
-	private static String API_ENDPOINT_ENABLE_REGISTERED_DEVICE = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?de";
-	private static String API_ENDPOINT_ACK_RECEIVED = API_ENDPOINT_BASE + "/PushNOTApi/ackreport" +  "?op=2";
-	private static String API_ENDPOINT_ACK_READ = API_ENDPOINT_BASE + "/PushNOTApi/ackreport" +  "?op=1";
-	private static String API_ENDPOINT_ADD_TAGS = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dta";
-	private static String API_ENDPOINT_REMOVE_TAGS = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dtr";
-	private static String API_ENDPOINT_LIST_TAGS = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dtl";
-	private static String API_ENDPOINT_RESET_TAGS = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dtrs";
-		
-	private static final String API_OPERATION_DEVICE_REGISTRATION = "DeviceRegistration";
-	private static final String API_OPERATION_DEVICE_UNREGISTRATION = "DeviceUnRegistration";
-	private static final String API_OPERATION_DEVICE_ENABLE = "DeviceEnableRegistered";
-	private static final String API_OPERATION_INFORM_REFERRAL = "InformReferral";
-	private static final String API_OPERATION_ADD_TAGS = "AddTags";
-	private static final String API_OPERATION_REMOVE_TAGS = "RemoveTags";
-	private static final String API_OPERATION_LIST_TAGS = "ListTags";
-	private static final String API_OPERATION_RESET_TAGS = "ResetTags";
-	private static final String API_OPERATION_ACK_RECEIVED = "NotificationReceivedACK";
-	private static final String API_OPERATION_ACK_READ = "NotificationReadACK";
+	public static final String API_OPERATION_DEVICE_REGISTRATION = "DeviceRegistration";
+	public static final String API_OPERATION_DEVICE_UNREGISTRATION = "DeviceUnRegistration";
+	public static final String API_OPERATION_DEVICE_ENABLE = "DeviceEnableRegistered";
+	public static final String API_OPERATION_INFORM_REFERRAL = "InformReferral";
+	public static final String API_OPERATION_ADD_TAGS = "AddTags";
+	public static final String API_OPERATION_REMOVE_TAGS = "RemoveTags";
+	public static final String API_OPERATION_LIST_TAGS = "ListTags";
+	public static final String API_OPERATION_RESET_TAGS = "ResetTags";
+	public static final String API_OPERATION_ACK_RECEIVED = "NotificationReceivedACK";
+	public static final String API_OPERATION_ACK_READ = "NotificationReadACK";
+	public static final String API_OPERATION_ENVELOPE = "OperationsEnvelope";
 	
 	
 	
@@ -142,7 +173,7 @@ public class ToucanClient {
 	 * @param context	The context where the library is initiallized.
 	 * @param apiToken	The notification server API TOKEN for communications.
 	 * @param appPublicKey	The application Public key.
-	 * @param svcUrl Optional. If null, default value is set {@link ToucanClient#JVC_API_ENDPOINT}.
+	 * @param svcUrl Optional. If null, default value is set {@link ToucanClientConfig#DEFAULT_API_ENDPOINT}.
 	 * @return
 	 */
 	public static ToucanClient getInstance(Context context,
@@ -157,7 +188,7 @@ public class ToucanClient {
 	 * @param context	The context where the library is initiallized.
 	 * @param apiToken	The notification server API TOKEN for communications.
 	 * @param appPublicKey	The application Public key.
-	 * @param svcUrl Optional. If null, default value is set {@link ToucanClient#JVC_API_ENDPOINT}.
+	 * @param svcUrl Optional. If null, default value is set {@link ToucanClientConfig#DEFAULT_API_ENDPOINT}.
 	 * @param ignoreSSLErrors	Set to TRUE to make Toucan ignore any SSL error when contacting with
 	 *                          the notification server.
 	 * @return
@@ -167,32 +198,82 @@ public class ToucanClient {
 										   String apiToken, String appPublicKey, String svcUrl,
 										   boolean ignoreSSLErrors) {
 		if(toucanClient==null) {
-			toucanClient = new ToucanClient();
-			toucanClient.context = context;
-			toucanClient.appPublicKey = appPublicKey;
-			toucanClient.apiToken = apiToken;
-			toucanClient.ignoreSSLErrors = ignoreSSLErrors;
-
-			if(svcUrl!=null && svcUrl.length()>0) {
-				toucanClient.API_ENDPOINT_BASE = svcUrl;
-				//We must override the endpoints URLs
-				toucanClient.API_ENDPOINT_REGISTRATION = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dr";
-				toucanClient.API_ENDPOINT_UNREGISTRATION = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?du";
-				toucanClient.API_ENDPOINT_ENABLE_REGISTERED_DEVICE = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?de";
-				toucanClient.API_ENDPOINT_ACK_RECEIVED = API_ENDPOINT_BASE + "/PushNOTApi/ackreport" +  "?op=2";
-				toucanClient.API_ENDPOINT_ACK_READ = API_ENDPOINT_BASE + "/PushNOTApi/ackreport" +  "?op=1";
-				toucanClient.API_ENDPOINT_ADD_TAGS = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dta";
-				toucanClient.API_ENDPOINT_REMOVE_TAGS = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dtr";
-				toucanClient.API_ENDPOINT_LIST_TAGS = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dtl";
-				toucanClient.API_ENDPOINT_RESET_TAGS = API_ENDPOINT_BASE + "/PushNOTApi/NOTPushApi" +  "?dtrs";
+			synchronized (ToucanClient.class) {
+				if(toucanClient==null) {
+					toucanClient = new ToucanClient(context, 
+							new ToucanClientConfig(apiToken, appPublicKey, svcUrl, ignoreSSLErrors));
+				}
 			}
+		}
+		return toucanClient;
+	}
 
-			toucanClient.init();
+	/**
+	 * Gets the instance of the Toucan client with the given configuration.
+	 * 
+	 * @param context	The context where the library is initiallized.
+	 * @param config	The client configuration.
+	 * @return
+	 */
+	@SuppressWarnings({"unused"})
+	public static ToucanClient getInstance(Context context, ToucanClientConfig config) {
+		if(toucanClient==null) {
+			synchronized (ToucanClient.class) {
+				if(toucanClient==null) {
+					toucanClient = new ToucanClient(context, config);
+				}
+			}
 		}
 		return toucanClient;
 	}
+	
+	/**
+	 * Gets the client of a tenant (an application, by its public key and API
+	 * token, in a notification server). The same client is returned for the
+	 * same tenant.<br><br>
+	 * 
+	 * All the clients share the same dispatcher threads, HTTP connections 
+	 * and pending operations storage, so adding a tenant does not add 
+	 * threads nor sockets.
+	 * 
+	 * @param context	The context where the library is initiallized.
+	 * @param config	The configuration of the tenant.
+	 * @return
+	 * @throws IllegalArgumentException	If the tenant already has a client 
+	 * 			with other SSL policy or base URLs.
+	 */
+	@SuppressWarnings({"unused"})
+	public static ToucanClient getTenantInstance(Context context, ToucanClientConfig config) {
+		String tenantKey = config.getTenantKey();
+		synchronized (tenantClients) {
+			ToucanClient client = tenantClients.get(tenantKey);
+			if(client==null) {
+				client = new ToucanClient(context, config);
+				tenantClients.put(tenantKey, client);
+			}else if(client.config.isIgnoreSSLErrors()!=config.isIgnoreSSLErrors() || 
+					!client.config.getEndpointBases().equals(config.getEndpointBases())) {
+				throw new IllegalArgumentException("Tenant " + config.getAppPublicKey() + "@" + 
+						config.getEndpointBase() + " already has a client with other SSL policy or base URLs");
+			}
+			return client;
+		}
+	}
 
 	private void init() {
+		dispatcher = ToucanDispatcher.getInstance();
+		ackBatcher = new ACKBatcher(new OperationLauncher() {
+			@Override
+			public ToucanCall launch(ToucanWorker operation) {
+				return launchOperation(operation);
+			}
+		});
+		registrationCoalescer = new RegistrationCoalescer(new OperationLauncher() {
+			@Override
+			public ToucanCall launch(ToucanWorker operation) {
+				return sendOperation(operation);
+			}
+		});
+		
 		OSInfo = OS_TAG + " " + ToolBox.device_getOSVersion() + " - " + "(API Level " + ToolBox.device_getAPILevel() + ")";
 		DEVInfo = ToolBox.device_getExtraInfo();
 		
@@ -200,38 +281,358 @@ public class ToucanClient {
 		if(!ToolBox.prefs_existsPref(context, PREF_NAME, PREF_KEY_DEVICE_UNIQUEID)) {
 			String devUniqueId = ToolBox.device_getId(context);
 			ToolBox.prefs_savePreference(context, PREF_NAME, PREF_KEY_DEVICE_UNIQUEID, String.class, devUniqueId);
-			toucanClient.deviceUniqueId = devUniqueId;
+			deviceUniqueId = devUniqueId;
 		}else{
-			toucanClient.deviceUniqueId = (String)ToolBox.prefs_readPreference(context, PREF_NAME, PREF_KEY_DEVICE_UNIQUEID, String.class);
+			deviceUniqueId = (String)ToolBox.prefs_readPreference(context, PREF_NAME, PREF_KEY_DEVICE_UNIQUEID, String.class);
+		}
+		chainKey = config.getAppPublicKey() + "/" + deviceUniqueId;
+		
+		if(config.getEndpointBases().size()>1) {
+			TransportManager.getInstance().registerEndpoints(config.getEndpointBases());
 		}
 		
+		if(config.isPrewarmConnections()) {
+			prewarmConnections();
+		}
+
 	}
 	
 	/* Avoids normal instance */
-	private ToucanClient() {}
+	private ToucanClient(Context context, ToucanClientConfig config) {
+		this.context = context;
+		this.config = config;
+		init();
+	}
 	
 	
 	//PUBLIC METHODS
 	
 	
+	/**
+	 * Gets the configuration of this client.
+	 * 
+	 * @return
+	 */
+	public ToucanClientConfig getConfig() {
+		return config;
+	}
+	
+	/**
+	 * Sets where the operation callbacks are run: in the main thread, in
+	 * a thread shared by all the callbacks (default) or directly in the 
+	 * thread that finished the operation. It applies to all the clients.
+	 * 
+	 * @param deliveryMode	The callback delivery mode.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setCallbackDeliveryMode(CALLBACK_DELIVERY_MODE deliveryMode) {
+		CallbackDispatcher.getInstance().setDeliveryMode(deliveryMode);
+	}
+	
+	/**
+	 * Bounds the operations kept in memory, queued or running. Operations
+	 * that do not fit follow the overflow policy. The limits are shared 
+	 * by all the clients.
+	 * 
+	 * @param maxOperations	Maximum number of operations. By default, 
+	 * 						{@link AdmissionController#DEFAULT_MAX_OPERATIONS}.
+	 * @param maxBytes		Maximum bytes of serialized operation data. By 
+	 * 						default, {@link AdmissionController#DEFAULT_MAX_BYTES}.
+	 * @param overflowPolicy	Spill to disk (default), drop the oldest ACK or 
+	 * 							reject the operation.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setAdmissionLimits(int maxOperations, long maxBytes, ADMISSION_OVERFLOW_POLICY overflowPolicy) {
+		dispatcher.getAdmissionController().setLimits(maxOperations, maxBytes, overflowPolicy);
+	}
+	
+	/**
+	 * Gets the adaptive limiter of operations sent at the same time to the
+	 * API. It allows to check the current limit, the running operations and
+	 * how many times operations had to wait, and to tune its range.
+	 * 
+	 * @return
+	 */
+	@SuppressWarnings({"unused"})
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return dispatcher.getConcurrencyLimiter();
+	}
+	
+	/**
+	 * Sets the total time budget of a class of operations: registrations 
+	 * (CRITICAL), tag changes (HIGH), tag listing (NORMAL) or ACKs (LOW). 
+	 * It covers the time queued, connecting, sending and reading the 
+	 * response. Operations out of time are saved for a later delivery. It 
+	 * applies to all the clients. See {@link DeadlinePolicy} for the defaults.
+	 * 
+	 * @param operationClass	The class of operations.
+	 * @param budgetMillis		The budget. With 0, they have no deadline.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setOperationBudget(TOUCAN_WORKER_PRIORITY operationClass, long budgetMillis) {
+		dispatcher.getDeadlinePolicy().setBudget(operationClass, budgetMillis);
+	}
+	
+	/**
+	 * Sets the pause of the operations when the server says it is overloaded
+	 * (HTTP 429/503 or a system or database error) without a Retry-After 
+	 * header. It doubles with each consecutive overload answer. It applies 
+	 * to all the clients. See {@link BackpressureGate}.
+	 * 
+	 * @param initialPauseMillis	Pause on the first overload answer.
+	 * @param maxPauseMillis		Maximum pause.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setOverloadPause(long initialPauseMillis, long maxPauseMillis) {
+		dispatcher.getBackpressureGate().configure(initialPauseMillis, maxPauseMillis);
+	}
+	
+	/**
+	 * Enables or disables the sharing of responses between identical GET 
+	 * operations (list tags, enable or unregister the device) launched 
+	 * while one of them is in flight: only the first one is sent, the 
+	 * others get its response and their callbacks are run. It is enabled 
+	 * by default and applies to all the clients. See {@link InFlightRegistry}.
+	 * 
+	 * @param enabled
+	 */
+	@SuppressWarnings({"unused"})
+	public void setInFlightSharing(boolean enabled) {
+		dispatcher.getInFlightRegistry().setEnabled(enabled);
+	}
+	
+	/**
+	 * Sends together the ACKs of the notifications received or read close 
+	 * in time, as a single request with the list of ACKs. The first ACK 
+	 * waits up to the given time for others, and they are sent as soon as
+	 * there are the given number of them. Each ACK keeps its own handle and
+	 * callback. It is disabled by default, the notification server must 
+	 * support ACK batches. See {@link ACKBatcher}.
+	 * 
+	 * @param maxItems			Maximum number of ACKs sent together. With 1 
+	 * 							or less, batching is disabled.
+	 * @param maxDelayMillis	Maximum time an ACK waits for others.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setACKBatching(int maxItems, long maxDelayMillis) {
+		ackBatcher.configure(maxItems, maxDelayMillis);
+		ackBatching = maxItems>1;
+		if(!ackBatching)
+			ackBatcher.flushAll();
+	}
+	
+	/**
+	 * Merges the device registration updates (registrations, external ids 
+	 * and install referral) launched close in time, and sends them as a 
+	 * single registration. Each update waits up to the given time for 
+	 * others, the latest value of each field wins. Each update keeps its 
+	 * own handle and callback. It is disabled by default. See 
+	 * {@link RegistrationCoalescer}.
+	 * 
+	 * @param windowMillis	Time an update waits for others. With 0 or less,
+	 * 						the updates are sent as soon as launched.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setRegistrationDebounce(long windowMillis) {
+		registrationCoalescer.configure(windowMillis);
+	}
+	
+	/**
+	 * Sends the pending operations saved on disk (while the device was 
+	 * offline, for example) packed in a few requests, each one with the 
+	 * list of operations, instead of one request per operation. It is 
+	 * disabled by default, the notification server must support the 
+	 * operation envelopes. It applies to all the clients. See 
+	 * {@link EnvelopePacker}.
+	 * 
+	 * @param enabled		TRUE to send the pending operations packed.
+	 * @param maxOperations	Maximum number of operations per request.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setPendingOperationsEnvelopes(boolean enabled, int maxOperations) {
+		EnvelopePacker.getInstance().configure(enabled, maxOperations);
+	}
+	
+	/**
+	 * Sets the HTTP transport used to send the operations of all the 
+	 * clients. By default, a {@link PooledHttpTransport} that keeps the 
+	 * connections alive between operations.
+	 * 
+	 * @param transport	The transport.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setTransport(ToucanTransport transport) {
+		TransportManager.getInstance().setTransport(transport);
+	}
+	
+	/**
+	 * Gets the policy that decides, per operation, which request bodies are
+	 * sent gzip compressed. It applies to all the clients.
+	 * 
+	 * @return
+	 */
+	@SuppressWarnings({"unused"})
+	public CompressionPolicy getCompressionPolicy() {
+		return TransportManager.getInstance().getCompressionPolicy();
+	}
+
+	/**
+	 * Gets the cache of GET operation responses, like the tags list. They
+	 * are revalidated with conditional requests, so a list that did not 
+	 * change is not downloaded again. It applies to all the clients.
+	 *
+	 * @return
+	 */
+	@SuppressWarnings({"unused"})
+	public ResponseCache getResponseCache() {
+		return TransportManager.getInstance().getResponseCache();
+	}
+
+	/**
+	 * Sets the maximum size of the notification server responses. A bigger
+	 * response fails the operation for good, it is not sent again, since 
+	 * the server would answer the same. It applies to all the clients.
+	 *
+	 * @param maxResponseBytes	The size, in bytes.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setMaxResponseBytes(long maxResponseBytes) {
+		TransportManager.getInstance().setMaxResponseBytes(maxResponseBytes);
+	}
+
+	/**
+	 * Sets the preferred encoding of the request and response bodies. With 
+	 * JSON (the default), CBOR is never used. With CBOR, it is asked for and
+	 * used with the servers that answer in CBOR, JSON is used with the rest. 
+	 * It applies to all the clients.
+	 *
+	 * @param wireFormat	The format.
+	 */
+	@SuppressWarnings({"unused"})
+	public void setWireFormat(WIRE_FORMAT wireFormat) {
+		WireFormatNegotiator.getInstance().setPreferredFormat(wireFormat);
+	}
+
+	/**
+	 * Adds a stage to the pipeline the operation requests go through, before
+	 * the caching and network stages. It can change the request or the 
+	 * response, or answer by itself so the request is not sent. It applies 
+	 * to all the clients. See {@link OperationPipeline}.
+	 *
+	 * @param operationName	The operation it applies to (the API_OPERATION_* 
+	 * 						constants), or null for all.
+	 * @param interceptor	The interceptor.
+	 */
+	@SuppressWarnings({"unused"})
+	public void addOperationInterceptor(String operationName, OperationInterceptor interceptor) {
+		OperationPipeline.getInstance().addInterceptor(operationName, interceptor);
+	}
+
+	@SuppressWarnings({"unused"})
+	public boolean removeOperationInterceptor(OperationInterceptor interceptor) {
+		return OperationPipeline.getInstance().removeInterceptor(interceptor);
+	}
+
+	/**
+	 * Gets the requests, failures and average time of each operation, to 
+	 * be logged.
+	 *
+	 * @return
+	 */
+	@SuppressWarnings({"unused"})
+	public List<String> getOperationStats() {
+		return OperationPipeline.getInstance().getMetrics().getOperationStats();
+	}
+
+	/**
+	 * Opens, in background, a connection to the notification server: the 
+	 * host is resolved and the TCP and TLS handshakes are done, so the next
+	 * operation (usually the device registration) does not wait for them. 
+	 * It is done at initialization when the configuration asks for it.
+	 */
+	@SuppressWarnings({"unused"})
+	public void prewarmConnections() {
+		final boolean ignoreSSLErrors = config.isIgnoreSSLErrors();
+		for(final String url:config.getEndpointBases()) {
+			dispatcher.runInBackground(new Runnable() {
+				@Override
+				public void run() {
+					PrewarmResult result = TransportManager.getInstance().getTransport().prewarm(url, ignoreSSLErrors);
+					if(url.equals(config.getEndpointBase()))
+						prewarmResult = result;
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Gets the result of the last connection pre-warm of the primary base 
+	 * URL, with the time it spent resolving the host and connecting.
+	 * 
+	 * @return	The result or null if not done (yet).
+	 */
+	public PrewarmResult getPrewarmResult() {
+		return prewarmResult;
+	}
+	
+	/**
+	 * Waits, up to the given time, for the launched operations to be sent.
+	 * Those not sent in time are saved to disk and sent later by the 
+	 * pending operations delivery service. Call it, for example, when the 
+	 * application goes to background.
+	 * 
+	 * @param timeoutMillis	Time to wait for the operations to be sent.
+	 * @return	The number of operations sent, persisted, still running and 
+	 * 			dropped.
+	 */
+	@SuppressWarnings({"unused"})
+	public FlushResult flush(long timeoutMillis) {
+		ackBatcher.flushAll();
+		registrationCoalescer.flush();
+		return dispatcher.flush(timeoutMillis);
+	}
+	
+	/**
+	 * Flushes the launched operations, see {@link #flush(long)}, and from
+	 * then on the new operations are saved to disk instead of being sent.
+	 * Call it when the application is being terminated.
+	 * 
+	 * @param timeoutMillis	Time to wait for the operations to be sent.
+	 * @return	The number of operations sent, persisted, still running and 
+	 * 			dropped.
+	 */
+	@SuppressWarnings({"unused"})
+	public FlushResult shutdown(long timeoutMillis) {
+		ackBatcher.flushAll();
+		registrationCoalescer.flush();
+		shutdown = true;
+		return dispatcher.flush(timeoutMillis);
+	}
+	
+	public boolean isShutdown() {
+		return shutdown;
+	}
+	
+	
 	/**
 	 * Registers the device with the specified GCM registration token 
 	 * for the application.
 	 * 
 	 * @param notificationToken	The GCM notification token.	
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void deviceRegistration(String notificationToken, ResponseCallback callback) {
+	public ToucanCall deviceRegistration(String notificationToken, ResponseCallback callback) {
 		//Save the device GCM notification token.
-		toucanClient.deviceNotificationToken = notificationToken;
-		ToolBox.prefs_savePreference(toucanClient.context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
+		deviceNotificationToken = notificationToken;
+		ToolBox.prefs_savePreference(context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
 		
 		if(callback!=null)
 			callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_REGISTRATION);
 		
 		DeviceRegistrationRequest devRegRequest = generateDeviceRegistrationInfo(notificationToken);
-		launchDeviceRegistrationRequest(devRegRequest, callback);		
+		return launchDeviceRegistrationRequest(devRegRequest, callback);		
 	}
 	
 	/**
@@ -242,25 +643,26 @@ public class ToucanClient {
 	 * @param notificationToken	The GCM notification token.
 	 * @param externalId	An external id that links GCM with some kind of internal back-end.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void deviceRegistration(String notificationToken, int externalId, ResponseCallback callback) {
+	public ToucanCall deviceRegistration(String notificationToken, int externalId, ResponseCallback callback) {
 		//Save the device GCM notification token.
-		toucanClient.deviceNotificationToken = notificationToken;
-		ToolBox.prefs_savePreference(toucanClient.context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
+		deviceNotificationToken = notificationToken;
+		ToolBox.prefs_savePreference(context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
 		
 		DeviceRegistrationRequest devRegRequest = generateDeviceRegistrationInfo(notificationToken);
 		if(externalId>=1) {
 			devRegRequest.getData().setExtId(externalId);
 		
-			String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+			String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
 			devRegRequest.setHashSignature(hashSignature);
 		}
 			
 		if(callback!=null)
 			callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_REGISTRATION);
 		
-		launchDeviceRegistrationRequest(devRegRequest, callback);
+		return launchDeviceRegistrationRequest(devRegRequest, callback);
 	}
 
     /**
@@ -272,32 +674,33 @@ public class ToucanClient {
      * @param externalId	An external id that links GCM with some kind of internal back-end.
      * @param externalGroupId	An external group id that links FCM with some kind of internal back-end.
      * @param callback	A callback to run when operation finishes.
+     * @return	The handle of the operation.
      */
     @SuppressWarnings({"unused"})
-    public void deviceRegistration(String notificationToken, int externalId, int externalGroupId, ResponseCallback callback) {
+    public ToucanCall deviceRegistration(String notificationToken, int externalId, int externalGroupId, ResponseCallback callback) {
         //Save the device GCM notification token.
-        toucanClient.deviceNotificationToken = notificationToken;
-        ToolBox.prefs_savePreference(toucanClient.context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
+        deviceNotificationToken = notificationToken;
+        ToolBox.prefs_savePreference(context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
 
         DeviceRegistrationRequest devRegRequest = generateDeviceRegistrationInfo(notificationToken);
         if(externalId>=1) {
             devRegRequest.getData().setExtId(externalId);
 
-            String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+            String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
             devRegRequest.setHashSignature(hashSignature);
         }
 
         if(externalGroupId>=1) {
             devRegRequest.getData().setGroupId(externalGroupId);
 
-            String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+            String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
             devRegRequest.setHashSignature(hashSignature);
         }
 
         if(callback!=null)
             callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_REGISTRATION);
 
-        launchDeviceRegistrationRequest(devRegRequest, callback);
+        return launchDeviceRegistrationRequest(devRegRequest, callback);
     }
 	
 	/**
@@ -308,25 +711,26 @@ public class ToucanClient {
 	 * @param notificationToken	The GCM notification token.
 	 * @param installReferral	The installation referral data.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void deviceRegistration(String notificationToken, String installReferral, ResponseCallback callback) {
+	public ToucanCall deviceRegistration(String notificationToken, String installReferral, ResponseCallback callback) {
 		//Save the device GCM notification token.
-		toucanClient.deviceNotificationToken = notificationToken;
-		ToolBox.prefs_savePreference(toucanClient.context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
+		deviceNotificationToken = notificationToken;
+		ToolBox.prefs_savePreference(context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
 		
 		DeviceRegistrationRequest devRegRequest = generateDeviceRegistrationInfo(notificationToken);
 		if(installReferral!=null && installReferral.length()>0) {
 			devRegRequest.getData().setInstallReferral(installReferral);
 			
-			String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+			String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
 			devRegRequest.setHashSignature(hashSignature);
 		}
 		
 		if(callback!=null)
 			callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_REGISTRATION);
 				
-		launchDeviceRegistrationRequest(devRegRequest, callback);
+		return launchDeviceRegistrationRequest(devRegRequest, callback);
 	}
 	
 	/**
@@ -339,12 +743,13 @@ public class ToucanClient {
 	 * @param externalId	An external id that links GCM with some kind of internal back-end.
 	 * @param installReferral	The installation referral data.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void deviceRegistration(String notificationToken, int externalId, String installReferral, ResponseCallback callback) {
+	public ToucanCall deviceRegistration(String notificationToken, int externalId, String installReferral, ResponseCallback callback) {
 		//Save the device GCM notification token.
-		toucanClient.deviceNotificationToken = notificationToken;
-		ToolBox.prefs_savePreference(toucanClient.context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
+		deviceNotificationToken = notificationToken;
+		ToolBox.prefs_savePreference(context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
 		
 		DeviceRegistrationRequest devRegRequest = generateDeviceRegistrationInfo(notificationToken);
 		if(installReferral!=null && installReferral.length()>0) {
@@ -354,13 +759,13 @@ public class ToucanClient {
 			devRegRequest.getData().setExtId(externalId);		
 		}
 		
-		String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+		String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
 		devRegRequest.setHashSignature(hashSignature);
 		
 		if(callback!=null)
 			callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_REGISTRATION);
 		
-		launchDeviceRegistrationRequest(devRegRequest, callback);
+		return launchDeviceRegistrationRequest(devRegRequest, callback);
 	}
 
     /**
@@ -374,12 +779,13 @@ public class ToucanClient {
      * @param externalGroupId	An external group id that links GCM with some kind of internal back-end.
      * @param installReferral	The installation referral data.
      * @param callback	A callback to run when operation finishes.
+     * @return	The handle of the operation.
      */
     @SuppressWarnings({"unused"})
-    public void deviceRegistration(String notificationToken, int externalId, int externalGroupId, String installReferral, ResponseCallback callback) {
+    public ToucanCall deviceRegistration(String notificationToken, int externalId, int externalGroupId, String installReferral, ResponseCallback callback) {
         //Save the device GCM notification token.
-        toucanClient.deviceNotificationToken = notificationToken;
-        ToolBox.prefs_savePreference(toucanClient.context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
+        deviceNotificationToken = notificationToken;
+        ToolBox.prefs_savePreference(context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class, notificationToken);
 
         DeviceRegistrationRequest devRegRequest = generateDeviceRegistrationInfo(notificationToken);
         if(installReferral!=null && installReferral.length()>0) {
@@ -392,13 +798,13 @@ public class ToucanClient {
             devRegRequest.getData().setGroupId(externalGroupId);
         }
 
-        String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+        String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
         devRegRequest.setHashSignature(hashSignature);
 
         if(callback!=null)
             callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_REGISTRATION);
 
-        launchDeviceRegistrationRequest(devRegRequest, callback);
+        return launchDeviceRegistrationRequest(devRegRequest, callback);
     }
 	
 	/**
@@ -406,26 +812,28 @@ public class ToucanClient {
 	 * 
 	 * @param installReferral	The installation referral data.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void informInstallReferral(String installReferral, ResponseCallback callback) {
+	public ToucanCall informInstallReferral(String installReferral, ResponseCallback callback) {
 		
 		if(isNotificationTokenPresent()) {
 			DeviceRegistrationRequest devRegRequest = 
-					generateDeviceRegistrationInfo(toucanClient.deviceNotificationToken);
+					generateDeviceRegistrationInfo(deviceNotificationToken);
 			if(installReferral!=null && installReferral.length()>0) {
 				devRegRequest.getData().setInstallReferral(installReferral);
 				
-				String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+				String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
 				devRegRequest.setHashSignature(hashSignature);
 			}
 			
 			if(callback!=null)
 				callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_INFORMREFERRAL);
 			
-			launchInformReferralRequest(devRegRequest, callback);
+			return launchInformReferralRequest(devRegRequest, callback);
 		}else{
 			Log.i(LOG_TAG, API_OPERATION_INFORM_REFERRAL.toUpperCase() + " Error. Notification token not stablished. Please, execute 'deviceRegistration()' first.");
+			return ToucanCall.failedCall(API_OPERATION_INFORM_REFERRAL);
 		}
 	}
 
@@ -436,34 +844,36 @@ public class ToucanClient {
 	 * @param externalId	The external id.
 	 * @param externalGroupId	The external group id.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void informExternalIds(int externalId, int externalGroupId, ResponseCallback callback) {
+	public ToucanCall informExternalIds(int externalId, int externalGroupId, ResponseCallback callback) {
 
 		if(isNotificationTokenPresent()) {
 			DeviceRegistrationRequest devRegRequest =
-					generateDeviceRegistrationInfo(toucanClient.deviceNotificationToken);
+					generateDeviceRegistrationInfo(deviceNotificationToken);
 
 			if(externalId!=0) {
 				devRegRequest.getData().setExtId(externalId);
 
-				String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+				String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
 				devRegRequest.setHashSignature(hashSignature);
 			}
 
 			if(externalGroupId!=0) {
 				devRegRequest.getData().setGroupId(externalGroupId);
 
-				String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+				String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
 				devRegRequest.setHashSignature(hashSignature);
 			}
 
 			if(callback!=null)
 				callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_REGISTRATION);
 
-			launchDeviceRegistrationRequest(devRegRequest, callback);
+			return launchDeviceRegistrationRequest(devRegRequest, callback);
 		}else{
 			Log.i(LOG_TAG, API_OPERATION_INFORM_REFERRAL.toUpperCase() + " Error. Notification token not stablished. Please, execute 'deviceRegistration()' first.");
+			return ToucanCall.failedCall(API_OPERATION_INFORM_REFERRAL);
 		}
 	}
 
@@ -473,26 +883,28 @@ public class ToucanClient {
 	 * 
 	 * @param externalId	The external id.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void informExternalId(int externalId, ResponseCallback callback) {
+	public ToucanCall informExternalId(int externalId, ResponseCallback callback) {
 		
 		if(isNotificationTokenPresent()) {
 			DeviceRegistrationRequest devRegRequest = 
-					generateDeviceRegistrationInfo(toucanClient.deviceNotificationToken);
+					generateDeviceRegistrationInfo(deviceNotificationToken);
 			if(externalId!=0) {
 				devRegRequest.getData().setExtId(externalId);
 				
-				String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+				String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
 				devRegRequest.setHashSignature(hashSignature);
 			}
 			
 			if(callback!=null)
 				callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_REGISTRATION);
 
-			launchDeviceRegistrationRequest(devRegRequest, callback);
+			return launchDeviceRegistrationRequest(devRegRequest, callback);
 		}else{
 			Log.i(LOG_TAG, API_OPERATION_INFORM_REFERRAL.toUpperCase() + " Error. Notification token not stablished. Please, execute 'deviceRegistration()' first.");
+			return ToucanCall.failedCall(API_OPERATION_INFORM_REFERRAL);
 		}
 	}
 
@@ -502,26 +914,28 @@ public class ToucanClient {
      *
      * @param externalGroupId	The external group id.
      * @param callback	A callback to run when operation finishes.
+     * @return	The handle of the operation.
      */
     @SuppressWarnings({"unused"})
-    public void informExternalGroupId(int externalGroupId, ResponseCallback callback) {
+    public ToucanCall informExternalGroupId(int externalGroupId, ResponseCallback callback) {
 
         if(isNotificationTokenPresent()) {
             DeviceRegistrationRequest devRegRequest =
-                    generateDeviceRegistrationInfo(toucanClient.deviceNotificationToken);
+                    generateDeviceRegistrationInfo(deviceNotificationToken);
             if(externalGroupId!=0) {
                 devRegRequest.getData().setGroupId(externalGroupId);
 
-                String hashSignature = devRegRequest.getData().getSecurityHash(appPublicKey);
+                String hashSignature = devRegRequest.getData().getSecurityHash(config.getAppPublicKey());
                 devRegRequest.setHashSignature(hashSignature);
             }
 
             if(callback!=null)
                 callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_DEVICE_REGISTRATION);
 
-			launchDeviceRegistrationRequest(devRegRequest, callback);
+			return launchDeviceRegistrationRequest(devRegRequest, callback);
         }else{
             Log.i(LOG_TAG, API_OPERATION_INFORM_REFERRAL.toUpperCase() + " Error. Notification token not stablished. Please, execute 'deviceRegistration()' first.");
+            return ToucanCall.failedCall(API_OPERATION_INFORM_REFERRAL);
         }
     }
 	
@@ -531,22 +945,20 @@ public class ToucanClient {
 	 * @param notificationBundle	Registers the device with the specified 
 	 * 								GCM registration token for the application.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void doReceivedACK(Bundle notificationBundle, ResponseCallback callback) {
+	public ToucanCall doReceivedACK(Bundle notificationBundle, ResponseCallback callback) {
 		if(isNotificationTokenPresent()) {
 			ACKRequest ackRequest = generateACKnfo(notificationBundle);
 			if(callback!=null)
 				callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_ACK_RECEIVED);
 			
-			if(ToolBox.net_isNetworkAvailable(context)){
-				new ToucanPostWorker(context, apiToken, ackRequest, TOUCAN_WORKER_POST_DATA_TYPE.ACK, API_ENDPOINT_ACK_RECEIVED, API_OPERATION_ACK_RECEIVED, ignoreSSLErrors, callback).start();
-			}else{
-				cacheOperationRequest(new ToucanPostWorker(context, apiToken, ackRequest, TOUCAN_WORKER_POST_DATA_TYPE.ACK, API_ENDPOINT_ACK_RECEIVED, API_OPERATION_ACK_RECEIVED, ignoreSSLErrors, callback), true);
-			}
+			return launchACK(new ToucanPostWorker(context, config.getApiToken(), ackRequest, TOUCAN_WORKER_POST_DATA_TYPE.ACK, config.getAckReceivedEndpoint(), API_OPERATION_ACK_RECEIVED, config.isIgnoreSSLErrors(), callback));
 						
 		}else{
 			Log.i(LOG_TAG, API_OPERATION_ACK_RECEIVED.toUpperCase() + " Error. Notification token not stablished. Please, execute 'deviceRegistration()' first.");
+			return ToucanCall.failedCall(API_OPERATION_ACK_RECEIVED);
 		}
 	}
 	
@@ -556,22 +968,20 @@ public class ToucanClient {
 	 * @param notificationBundle	Registers the device with the specified 
 	 * 								GCM registration token for the application.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void doReadACK(Bundle notificationBundle, ResponseCallback callback) {
+	public ToucanCall doReadACK(Bundle notificationBundle, ResponseCallback callback) {
 		if(isNotificationTokenPresent()) {
 			ACKRequest ackRequest = generateACKnfo(notificationBundle);
 			if(callback!=null)
 				callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_ACK_READ);
 			
-			if(ToolBox.net_isNetworkAvailable(context)){
-				new ToucanPostWorker(context, apiToken, ackRequest, TOUCAN_WORKER_POST_DATA_TYPE.ACK, API_ENDPOINT_ACK_READ, API_OPERATION_ACK_READ, ignoreSSLErrors, callback).start();
-			}else{
-				cacheOperationRequest(new ToucanPostWorker(context, apiToken, ackRequest, TOUCAN_WORKER_POST_DATA_TYPE.ACK, API_ENDPOINT_ACK_READ, API_OPERATION_ACK_READ, ignoreSSLErrors, callback), true);
-			}
+			return launchACK(new ToucanPostWorker(context, config.getApiToken(), ackRequest, TOUCAN_WORKER_POST_DATA_TYPE.ACK, config.getAckReadEndpoint(), API_OPERATION_ACK_READ, config.isIgnoreSSLErrors(), callback));
 			
 		}else{
 			Log.i(LOG_TAG, API_OPERATION_ACK_READ.toUpperCase() + " Error. Notification token not stablished. Please, execute 'deviceRegistration()' first.");
+			return ToucanCall.failedCall(API_OPERATION_ACK_READ);
 		}
 	}
 	
@@ -580,29 +990,26 @@ public class ToucanClient {
 	 * 
 	 * @param tags	A list of tags.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void doAddTags(List<String> tags,ResponseCallback callback) {
+	public ToucanCall doAddTags(List<String> tags,ResponseCallback callback) {
 		//Prepare device registration request
 		AppDevTagsOperationRequest tagAddRequest = new AppDevTagsOperationRequest();
-		tagAddRequest.setAppKey(toucanClient.appPublicKey);
-		tagAddRequest.setDevId(toucanClient.deviceUniqueId);
+		tagAddRequest.setAppKey(config.getAppPublicKey());
+		tagAddRequest.setDevId(deviceUniqueId);
 		tagAddRequest.setTags(tags);
 				
-		String appHashSignature = generateSHA1(appPublicKey + apiToken);
+		String appHashSignature = config.getAppHashSignature();
 		tagAddRequest.setAppHashSignature(appHashSignature);
 				
-		String hashSignature = tagAddRequest.getSecurityHash(appPublicKey);
+		String hashSignature = tagAddRequest.getSecurityHash(config.getAppPublicKey());
 		tagAddRequest.setHashSignature(hashSignature);
 		
 		if(callback!=null)
 			callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_ADD_TAGS);
 				
-		if(ToolBox.net_isNetworkAvailable(context)){
-			new ToucanPostWorker(context, apiToken, tagAddRequest, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, API_ENDPOINT_ADD_TAGS, API_OPERATION_ADD_TAGS, ignoreSSLErrors, callback).start();
-		}else{
-			cacheOperationRequest(new ToucanPostWorker(context, apiToken, tagAddRequest, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, API_ENDPOINT_ADD_TAGS, API_OPERATION_ADD_TAGS, ignoreSSLErrors, callback), true);
-		}
+		return launchOperation(new ToucanPostWorker(context, config.getApiToken(), tagAddRequest, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, config.getAddTagsEndpoint(), API_OPERATION_ADD_TAGS, config.isIgnoreSSLErrors(), callback));
 				
 	}
 	
@@ -612,29 +1019,26 @@ public class ToucanClient {
 	 * 
 	 * @param tags		tags to add.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void doResetTags(List<String> tags,ResponseCallback callback) {
+	public ToucanCall doResetTags(List<String> tags,ResponseCallback callback) {
 		//Prepare device registration request
 		AppDevTagsOperationRequest tagAddRequest = new AppDevTagsOperationRequest();
-		tagAddRequest.setAppKey(toucanClient.appPublicKey);
-		tagAddRequest.setDevId(toucanClient.deviceUniqueId);
+		tagAddRequest.setAppKey(config.getAppPublicKey());
+		tagAddRequest.setDevId(deviceUniqueId);
 		tagAddRequest.setTags(tags);
 				
-		String appHashSignature = generateSHA1(appPublicKey + apiToken);
+		String appHashSignature = config.getAppHashSignature();
 		tagAddRequest.setAppHashSignature(appHashSignature);
 				
-		String hashSignature = tagAddRequest.getSecurityHash(appPublicKey);
+		String hashSignature = tagAddRequest.getSecurityHash(config.getAppPublicKey());
 		tagAddRequest.setHashSignature(hashSignature);
 		
 		if(callback!=null)
 			callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_RESET_TAGS);
 				
-		if(ToolBox.net_isNetworkAvailable(context)){
-			new ToucanPostWorker(context, apiToken, tagAddRequest, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, API_ENDPOINT_RESET_TAGS, API_OPERATION_RESET_TAGS, ignoreSSLErrors, callback).start();
-		}else{
-			cacheOperationRequest(new ToucanPostWorker(context, apiToken, tagAddRequest, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, API_ENDPOINT_RESET_TAGS, API_OPERATION_RESET_TAGS, ignoreSSLErrors, callback), true);
-		}
+		return launchOperation(new ToucanPostWorker(context, config.getApiToken(), tagAddRequest, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, config.getResetTagsEndpoint(), API_OPERATION_RESET_TAGS, config.isIgnoreSSLErrors(), callback));
 				
 	}
 	
@@ -643,29 +1047,26 @@ public class ToucanClient {
 	 * 
 	 * @param tags		A list of tags to remove.
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void doRemoveTags(List<String> tags, ResponseCallback callback) {
+	public ToucanCall doRemoveTags(List<String> tags, ResponseCallback callback) {
 		//Prepare device registration request
 		AppDevTagsOperationRequest tagAddRequest = new AppDevTagsOperationRequest();
-		tagAddRequest.setAppKey(toucanClient.appPublicKey);
-		tagAddRequest.setDevId(toucanClient.deviceUniqueId);
+		tagAddRequest.setAppKey(config.getAppPublicKey());
+		tagAddRequest.setDevId(deviceUniqueId);
 		tagAddRequest.setTags(tags);
 				
-		String appHashSignature = generateSHA1(appPublicKey + apiToken);
+		String appHashSignature = config.getAppHashSignature();
 		tagAddRequest.setAppHashSignature(appHashSignature);
 				
-		String hashSignature = tagAddRequest.getSecurityHash(appPublicKey);
+		String hashSignature = tagAddRequest.getSecurityHash(config.getAppPublicKey());
 		tagAddRequest.setHashSignature(hashSignature);
 		
 		if(callback!=null)
 			callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_LIST_TAGS);
 		
-		if(ToolBox.net_isNetworkAvailable(context)){
-			new ToucanPostWorker(context, apiToken, tagAddRequest, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, API_ENDPOINT_REMOVE_TAGS, API_OPERATION_REMOVE_TAGS, ignoreSSLErrors, callback).start();
-		}else{
-			cacheOperationRequest(new ToucanPostWorker(context, apiToken, tagAddRequest, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, API_ENDPOINT_REMOVE_TAGS, API_OPERATION_REMOVE_TAGS, ignoreSSLErrors, callback), true);
-		}
+		return launchOperation(new ToucanPostWorker(context, config.getApiToken(), tagAddRequest, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, config.getRemoveTagsEndpoint(), API_OPERATION_REMOVE_TAGS, config.isIgnoreSSLErrors(), callback));
 		
 	}
 	
@@ -673,29 +1074,27 @@ public class ToucanClient {
 	 * Gets the list of tags for the application and device Id.
 	 * 
 	 * @param callback A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void doListTags(ResponseCallback callback) {
+	public ToucanCall doListTags(ResponseCallback callback) {
 		try{ 
-			String appHashSignature = generateSHA1(appPublicKey + apiToken);
+			String appHashSignature = config.getAppHashSignature();
 		
-			String urlParams = "dUId=" + toucanClient.deviceUniqueId + "&appPubKey=" + appPublicKey + "&appHashSignature=" + appHashSignature;
+			String urlParams = "dUId=" + deviceUniqueId + "&appPubKey=" + config.getAppPublicKey() + "&appHashSignature=" + appHashSignature;
 			String encodedUrlParams = new String(Base64.encode(urlParams.getBytes(), 0), "UTF-8");
 			String urlEncodedUrlParams = URLEncoder.encode(encodedUrlParams, "UTF-8");
 		
-			String finalUrl = API_ENDPOINT_LIST_TAGS + "=" + urlEncodedUrlParams;
+			String finalUrl = config.getListTagsEndpoint() + "=" + urlEncodedUrlParams;
 		
 			if(callback!=null)
 				callback.setCallbackOperation(ResponseCallback.CALLBACK_OPERATION_LIST_TAGS);
 			
-			if(ToolBox.net_isNetworkAvailable(context)){
-				new ToucanGetWorker(context, apiToken, finalUrl, API_OPERATION_LIST_TAGS, ignoreSSLErrors, callback).start();
-			}else{
-				cacheOperationRequest(new ToucanGetWorker(context, apiToken, finalUrl, API_OPERATION_LIST_TAGS, ignoreSSLErrors, callback), true);
-			}
+			return launchOperation(new ToucanGetWorker(context, config.getApiToken(), finalUrl, API_OPERATION_LIST_TAGS, config.isIgnoreSSLErrors(), callback));
 			
 		}catch(Exception e){
 			Log.e(LOG_TAG, "Error doing operation " + API_OPERATION_LIST_TAGS.toUpperCase() + " to Toucan API (" + e.getMessage() + ")", e);
+			return ToucanCall.failedCall(API_OPERATION_LIST_TAGS);
 		}
 	}
 	
@@ -704,26 +1103,24 @@ public class ToucanClient {
 	 * notifications to it.
 	 * 
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void doDeviceUnregister(ResponseCallback callback) {
+	public ToucanCall doDeviceUnregister(ResponseCallback callback) {
 		try{ 
-			String appHashSignature = generateSHA1(appPublicKey + apiToken);
+			String appHashSignature = config.getAppHashSignature();
 		
-			String urlParams = "dUId=" + toucanClient.deviceUniqueId + "&appPubKey=" + appPublicKey + "&appHashSignature=" + appHashSignature;
+			String urlParams = "dUId=" + deviceUniqueId + "&appPubKey=" + config.getAppPublicKey() + "&appHashSignature=" + appHashSignature;
 			String encodedUrlParams = new String(Base64.encode(urlParams.getBytes(), 0), "UTF-8");
 			String urlEncodedUrlParams = URLEncoder.encode(encodedUrlParams, "UTF-8");
 		
-			String finalUrl = API_ENDPOINT_UNREGISTRATION + "=" + urlEncodedUrlParams;
+			String finalUrl = config.getUnregistrationEndpoint() + "=" + urlEncodedUrlParams;
 			
-			if(ToolBox.net_isNetworkAvailable(context)){
-				new ToucanGetWorker(context, apiToken, finalUrl, API_OPERATION_DEVICE_UNREGISTRATION, ignoreSSLErrors, callback).start();
-			}else{
-				cacheOperationRequest(new ToucanGetWorker(context, apiToken, finalUrl, API_OPERATION_DEVICE_UNREGISTRATION, ignoreSSLErrors, callback), true);
-			}
+			return launchOperation(new ToucanGetWorker(context, config.getApiToken(), finalUrl, API_OPERATION_DEVICE_UNREGISTRATION, config.isIgnoreSSLErrors(), callback));
 			
 		}catch(Exception e){
 			Log.e(LOG_TAG, "Error doing operation " + API_OPERATION_DEVICE_UNREGISTRATION.toUpperCase() + " to Toucan API (" + e.getMessage() + ")", e);
+			return ToucanCall.failedCall(API_OPERATION_DEVICE_UNREGISTRATION);
 		}
 	}
 	
@@ -731,41 +1128,463 @@ public class ToucanClient {
 	 * Enables a registered device.
 	 * 
 	 * @param callback	A callback to run when operation finishes.
+	 * @return	The handle of the operation.
 	 */
 	@SuppressWarnings({"unused"})
-	public void doEnableRegisteredDevice(ResponseCallback callback) {
+	public ToucanCall doEnableRegisteredDevice(ResponseCallback callback) {
 		
 		try{ 
-			String appHashSignature = generateSHA1(appPublicKey + apiToken);
+			String appHashSignature = config.getAppHashSignature();
 		
-			String urlParams = "dUId=" + toucanClient.deviceUniqueId + "&appPubKey=" + appPublicKey + "&appHashSignature=" + appHashSignature;
+			String urlParams = "dUId=" + deviceUniqueId + "&appPubKey=" + config.getAppPublicKey() + "&appHashSignature=" + appHashSignature;
 			String encodedUrlParams = new String(Base64.encode(urlParams.getBytes(), 0), "UTF-8");
 			String urlEncodedUrlParams = URLEncoder.encode(encodedUrlParams, "UTF-8");
 		
-			String finalUrl = API_ENDPOINT_ENABLE_REGISTERED_DEVICE + "=" + urlEncodedUrlParams;
+			String finalUrl = config.getEnableRegisteredDeviceEndpoint() + "=" + urlEncodedUrlParams;
 			 
-			if(ToolBox.net_isNetworkAvailable(context)){
-				new ToucanGetWorker(context, apiToken, finalUrl, API_OPERATION_DEVICE_ENABLE, ignoreSSLErrors, callback).start();
-			}else{
-				cacheOperationRequest(new ToucanGetWorker(context, apiToken, finalUrl, API_OPERATION_DEVICE_ENABLE, ignoreSSLErrors, callback), true);
-			}
+			return launchOperation(new ToucanGetWorker(context, config.getApiToken(), finalUrl, API_OPERATION_DEVICE_ENABLE, config.isIgnoreSSLErrors(), callback));
 			
 		}catch(Exception e){
 			Log.e(LOG_TAG, "Error doing operation " + API_OPERATION_DEVICE_ENABLE.toUpperCase() + " to Toucan API (" + e.getMessage() + ")", e);
+			return ToucanCall.failedCall(API_OPERATION_DEVICE_ENABLE);
+		}
+	}
+	
+	// SYNCHRONOUS OPERATIONS
+	
+	/**
+	 * Registers the device with the specified GCM registration token 
+	 * for the application.
+	 * <br><br>
+	 * Blocking version of {@link #deviceRegistration}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param notificationToken	The GCM notification token.	
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response deviceRegistrationSync(String notificationToken, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(deviceRegistration(notificationToken, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Registers the device with the specified GCM registration token 
+	 * for the application. We set also an external id for back-end
+	 * purposes.
+	 * <br><br>
+	 * Blocking version of {@link #deviceRegistration}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param notificationToken	The GCM notification token.
+	 * @param externalId	An external id that links GCM with some kind of internal back-end.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response deviceRegistrationSync(String notificationToken, int externalId, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(deviceRegistration(notificationToken, externalId, null));
+		}finally{
+			blockingTimeout.remove();
 		}
 	}
 	
+	/**
+	 * Registers the device with the specified FCM registration token
+	 * for the application. We can also set also an external id and
+	 * an external group id for back-end purposes.
+	 * <br><br>
+	 * Blocking version of {@link #deviceRegistration}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param notificationToken	The GCM notification token.
+	 * @param externalId	An external id that links GCM with some kind of internal back-end.
+	 * @param externalGroupId	An external group id that links FCM with some kind of internal back-end.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response deviceRegistrationSync(String notificationToken, int externalId, int externalGroupId, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(deviceRegistration(notificationToken, externalId, externalGroupId, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
 	
+	/**
+	 * Registers the device with the specified GCM registration token 
+	 * for the application. When the installation URL has some referral 
+	 * info, we send this info to the server to be saved.
+	 * <br><br>
+	 * Blocking version of {@link #deviceRegistration}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param notificationToken	The GCM notification token.
+	 * @param installReferral	The installation referral data.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response deviceRegistrationSync(String notificationToken, String installReferral, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(deviceRegistration(notificationToken, installReferral, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Registers the device with the specified FCM registration token
+	 * for the application. We set also an external id for back-end
+	 * purposes. When the installation URL has some referral 
+	 * info, we send this info to the server to be saved.
+	 * <br><br>
+	 * Blocking version of {@link #deviceRegistration}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param notificationToken	The GCM notification token.
+	 * @param externalId	An external id that links GCM with some kind of internal back-end.
+	 * @param installReferral	The installation referral data.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response deviceRegistrationSync(String notificationToken, int externalId, String installReferral, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(deviceRegistration(notificationToken, externalId, installReferral, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Registers the device with the specified FCM registration token
+	 * for the application. We can also set also an external id and an external group id
+	 * for back-end purposes. When the installation URL has some referral
+	 * info, we send this info to the server to be saved.
+	 * <br><br>
+	 * Blocking version of {@link #deviceRegistration}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param notificationToken	The GCM notification token.
+	 * @param externalId	An external id that links GCM with some kind of internal back-end.
+	 * @param externalGroupId	An external group id that links FCM with some kind of internal back-end.
+	 * @param installReferral	The installation referral data.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response deviceRegistrationSync(String notificationToken, int externalId, int externalGroupId, String installReferral, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(deviceRegistration(notificationToken, externalId, externalGroupId, installReferral, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Informs to the API the installation referral.
+	 * <br><br>
+	 * Blocking version of {@link #informInstallReferral}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param installReferral	The installation referral data.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response informInstallReferralSync(String installReferral, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(informInstallReferral(installReferral, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Informs to the API about the external ids (External User Id, External Group Id). This Ids links
+	 * device stored in notification API with an external CMS user iD AND GROUP iD.
+	 * <br><br>
+	 * Blocking version of {@link #informExternalIds}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param externalId	The external id.
+	 * @param externalGroupId	The external group id.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response informExternalIdsSync(int externalId, int externalGroupId, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(informExternalIds(externalId, externalGroupId, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Informs to the API about the external id. This Id links device 
+	 * stored in notification API with an external CMS.
+	 * <br><br>
+	 * Blocking version of {@link #informExternalId}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param externalId	The external id.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response informExternalIdSync(int externalId, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(informExternalId(externalId, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Informs to the API about the external group id. This Id links device
+	 * stored in notification API with an external CMS.
+	 * <br><br>
+	 * Blocking version of {@link #informExternalGroupId}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param externalGroupId	The external group id.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response informExternalGroupIdSync(int externalGroupId, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(informExternalGroupId(externalGroupId, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Informs to the API that a notification was received.
+	 * <br><br>
+	 * Blocking version of {@link #doReceivedACK}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param notificationBundle	Registers the device with the specified 
+	 * 								GCM registration token for the application.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response doReceivedACKSync(Bundle notificationBundle, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(doReceivedACK(notificationBundle, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Informs to the API that a notification was read.
+	 * <br><br>
+	 * Blocking version of {@link #doReadACK}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param notificationBundle	Registers the device with the specified 
+	 * 								GCM registration token for the application.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response doReadACKSync(Bundle notificationBundle, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(doReadACK(notificationBundle, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Allows adding tags for the application/deviceId.
+	 * <br><br>
+	 * Blocking version of {@link #doAddTags}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param tags	A list of tags.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response doAddTagsSync(List<String> tags, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(doAddTags(tags, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Deletes current application/DeviceId tags setting the specified
+	 * tags.
+	 * <br><br>
+	 * Blocking version of {@link #doResetTags}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param tags		tags to add.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response doResetTagsSync(List<String> tags, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(doResetTags(tags, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Removes the specified tags for the application and deviceId.
+	 * <br><br>
+	 * Blocking version of {@link #doRemoveTags}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param tags		A list of tags to remove.
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response doRemoveTagsSync(List<String> tags, long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(doRemoveTags(tags, null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Gets the list of tags for the application and device Id.
+	 * <br><br>
+	 * Blocking version of {@link #doListTags}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response doListTagsSync(long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(doListTags(null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Un-registers a device from server. Avoiding delivering 
+	 * notifications to it.
+	 * <br><br>
+	 * Blocking version of {@link #doDeviceUnregister}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response doDeviceUnregisterSync(long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(doDeviceUnregister(null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+	
+	/**
+	 * Enables a registered device.
+	 * <br><br>
+	 * Blocking version of {@link #doEnableRegisteredDevice}, it runs in the calling thread. 
+	 * Do not call it from the main thread.
+	 * 
+	 * @param timeoutMillis	Maximum time to wait for the previous operations of this 
+	 * 						device and to send this one.
+	 * @return	The server response or null if it was not delivered (it is then 
+	 * 			saved for a later delivery when possible).
+	 */
+	@SuppressWarnings({"unused"})
+	public Response doEnableRegisteredDeviceSync(long timeoutMillis) {
+		blockingTimeout.set(timeoutMillis);
+		try {
+			return deliveredResponse(doEnableRegisteredDevice(null));
+		}finally{
+			blockingTimeout.remove();
+		}
+	}
+
 	
 	//AUXILIAR
 	
 	private boolean isNotificationTokenPresent() {
-		if(ToolBox.prefs_existsPref(toucanClient.context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN)){
-			toucanClient.deviceNotificationToken = (String)ToolBox.prefs_readPreference(toucanClient.context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class);
+		if(ToolBox.prefs_existsPref(context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN)){
+			deviceNotificationToken = (String)ToolBox.prefs_readPreference(context, PREF_NAME, PREF_KEY_DEVICE_NOT_TOKEN, String.class);
 		}
 		
-		if(toucanClient.deviceNotificationToken!=null && 
-					toucanClient.deviceNotificationToken.length()>0) {
+		if(deviceNotificationToken!=null && 
+					deviceNotificationToken.length()>0) {
 			return true;
 		}else{
 			return false;
@@ -775,13 +1594,13 @@ public class ToucanClient {
 	private ACKRequest generateACKnfo(Bundle notificationBundle) {
 		//Prepare device registration request
 		ACKRequest ackRequest = new ACKRequest();
-		ackRequest.setAppKey(toucanClient.appPublicKey);
+		ackRequest.setAppKey(config.getAppPublicKey());
 		ackRequest.setnId(notificationBundle.getString(ToucanClient.NOTIFICATION_MESSAGE_ID));
 		ackRequest.setnRef(notificationBundle.getString(ToucanClient.NOTIFICATION_MESSAGE_REF));
-		ackRequest.setToken(toucanClient.deviceNotificationToken);		
+		ackRequest.setToken(deviceNotificationToken);		
 		//ackRequest.setMessage(message);
 		
-		String appHashSignature = generateSHA1(appPublicKey + apiToken);		
+		String appHashSignature = config.getAppHashSignature();		
 		ackRequest.setAppHashSignature(appHashSignature);
 		
 		return ackRequest;
@@ -801,48 +1620,107 @@ public class ToucanClient {
 		
 		//Prepare device registration request
 		DeviceRegistrationRequest devRegRequest = new DeviceRegistrationRequest();
-		devRegRequest.setAppKey(appPublicKey);
+		devRegRequest.setAppKey(config.getAppPublicKey());
 		devRegRequest.setData(devRegBean);
 		
-		String appHashSignature = generateSHA1(appPublicKey + apiToken);
+		String appHashSignature = config.getAppHashSignature();
 		devRegRequest.setAppHashSignature(appHashSignature);
 		
-		String hashSignature = devRegBean.getSecurityHash(appPublicKey);
+		String hashSignature = devRegBean.getSecurityHash(config.getAppPublicKey());
 		devRegRequest.setHashSignature(hashSignature);
 		
 		return devRegRequest;
 	}
 	
-	private void launchDeviceRegistrationRequest(DeviceRegistrationRequest devRegRequest, ResponseCallback callback) {
-		if(ToolBox.net_isNetworkAvailable(context)){
-			new ToucanPostWorker(context, apiToken, devRegRequest, TOUCAN_WORKER_POST_DATA_TYPE.REGISTRATION, API_ENDPOINT_REGISTRATION, API_OPERATION_DEVICE_REGISTRATION, ignoreSSLErrors, callback).start();
-		}else{
-			cacheOperationRequest(new ToucanPostWorker(context, apiToken, devRegRequest, TOUCAN_WORKER_POST_DATA_TYPE.REGISTRATION, API_ENDPOINT_REGISTRATION, API_OPERATION_DEVICE_REGISTRATION, ignoreSSLErrors, callback), true);
-		}
+	private ToucanCall launchDeviceRegistrationRequest(DeviceRegistrationRequest devRegRequest, ResponseCallback callback) {
+		return launchRegistrationUpdate(new ToucanPostWorker(context, config.getApiToken(), devRegRequest, TOUCAN_WORKER_POST_DATA_TYPE.REGISTRATION, config.getRegistrationEndpoint(), API_OPERATION_DEVICE_REGISTRATION, config.isIgnoreSSLErrors(), callback));
 	}
 	
-	private void launchInformReferralRequest(DeviceRegistrationRequest devRegRequest, ResponseCallback callback) {
-		if(ToolBox.net_isNetworkAvailable(context)){
-			new ToucanPostWorker(context, apiToken, devRegRequest, TOUCAN_WORKER_POST_DATA_TYPE.REGISTRATION, API_ENDPOINT_REGISTRATION, API_OPERATION_INFORM_REFERRAL, ignoreSSLErrors, callback).start();
-		}else{
-			cacheOperationRequest(new ToucanPostWorker(context, apiToken, devRegRequest, TOUCAN_WORKER_POST_DATA_TYPE.REGISTRATION, API_ENDPOINT_REGISTRATION, API_OPERATION_INFORM_REFERRAL, ignoreSSLErrors, callback), true);
-		}		
+	private ToucanCall launchInformReferralRequest(DeviceRegistrationRequest devRegRequest, ResponseCallback callback) {
+		return launchRegistrationUpdate(new ToucanPostWorker(context, config.getApiToken(), devRegRequest, TOUCAN_WORKER_POST_DATA_TYPE.REGISTRATION, config.getRegistrationEndpoint(), API_OPERATION_INFORM_REFERRAL, config.isIgnoreSSLErrors(), callback));
+	}
+	
+	/**
+	 * Launches a registration update, merged with others launched close in
+	 * time when enabled. Blocking updates are sent alone, after the ones 
+	 * waiting to be merged (see {@link #launchOperation(ToucanWorker)}) so 
+	 * the last one wins in the server.
+	 * 
+	 * @param update	The registration or install referral operation.
+	 * @return	The handle of the update.
+	 */
+	private ToucanCall launchRegistrationUpdate(ToucanPostWorker update) {
+		if(registrationCoalescer.isEnabled() && !shutdown && blockingTimeout.get()==null) {
+			return registrationCoalescer.add(update);
+		}
+		return launchOperation(update);
 	}
 		
-	private static String generateSHA1(String data) {	
-		//Android 6.0 release removes support for the Apache HTTP client.
-		//We used Apache Commons Codec for Digest but because Javocsoft
-		//Toolbox is using yet the legacy package "org.apache.http.legacy" jar,
-		//it conflicts with the Apache library commons codec.
+	/**
+	 * Queues the operation in the dispatcher or, if there is no network,
+	 * saves it to disk for later delivery. Operations are chained by the 
+	 * device unique id so they reach the server in a valid order, the
+	 * registration updates waiting to be merged are launched first.
+	 * 
+	 * @param operation	The operation to launch.
+	 * @return	The handle of the operation.
+	 */
+	private ToucanCall launchOperation(ToucanWorker operation) {
+		registrationCoalescer.flush();
+		return sendOperation(operation);
+	}
+	
+	/**
+	 * Queues the operation in the dispatcher or, if there is no network,
+	 * saves it to disk for later delivery.
+	 * 
+	 * @param operation	The operation to launch.
+	 * @return	The handle of the operation.
+	 */
+	private ToucanCall sendOperation(ToucanWorker operation) {
+		operation.setChainKey(chainKey);
 		
-		//We use a custom SHA-1 encoding class to avoid conflicts
-		try {
-			return SHA1Encoding.getSHA1(data);
-		} catch (SHA1EncodingException e) {
-			Log.e(ToucanClient.LOG_TAG, e.getMessage());
+		if(shutdown) {
+			//Sent by the pending operations delivery service next time.
+			cacheOperationRequest(operation, false);
+			operation.operationCached();
+		}else if(ToolBox.net_isNetworkAvailable(context)){
+			Long timeoutMillis = blockingTimeout.get();
+			if(timeoutMillis!=null) {
+				dispatcher.runBlocking(operation, timeoutMillis);
+			}else{
+				dispatcher.dispatch(operation);
+			}
+		}else{
+			cacheOperationRequest(operation, true);
+			operation.operationCached();
 		}
 		
-		return null;
+		return operation.getCall();
+	}
+		
+	/**
+	 * Launches an ACK operation, in a batch with other ACKs when batching 
+	 * is enabled. Blocking ACKs are always sent alone.
+	 * 
+	 * @param ack	The ACK operation.
+	 * @return	The handle of the ACK.
+	 */
+	private ToucanCall launchACK(ToucanPostWorker ack) {
+		if(ackBatching && !shutdown && blockingTimeout.get()==null) {
+			return ackBatcher.add(ack);
+		}
+		return launchOperation(ack);
+	}
+	
+	/**
+	 * Gets the response of a blocking operation.
+	 * 
+	 * @param call	The operation handle.
+	 * @return	The response or null if it was not delivered.
+	 */
+	private static Response deliveredResponse(ToucanCall call) {
+		return call.getStatus()==TOUCAN_CALL_STATUS.DONE?call.getResponse():null;
 	}
 
 	/**
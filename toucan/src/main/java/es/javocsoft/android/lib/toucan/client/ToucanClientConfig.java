@@ -0,0 +1,255 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toolbox.crypto.SHA1Encoding;
+import es.javocsoft.android.lib.toolbox.crypto.exception.SHA1EncodingException;
+import es.javocsoft.android.lib.toucan.client.transport.EndpointGroup;
+
+/**
+ * Immutable configuration of a {@link ToucanClient}: the API token, the 
+ * application public key, the notification server and the SSL policy.<br><br>
+ * 
+ * Everything derived from it (the endpoints of each API operation and the
+ * application hash signature) is built once, when the configuration is 
+ * created, so operations only read final fields.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public final class ToucanClientConfig {
+
+	/** The default notification server */
+	public static final String DEFAULT_API_ENDPOINT = "https://api.toucan.javocsoft.es";
+	
+	private static final String API_PATH_PUSH = "/PushNOTApi/NOTPushApi";
+	private static final String API_PATH_ACK = "/PushNOTApi/ackreport";
+	
+	private final String apiToken;
+	private final String appPublicKey;
+	private final String endpointBase;
+	private final List<String> endpointBases;
+	private final boolean ignoreSSLErrors;
+	private final boolean prewarmConnections;
+	
+	private final String appHashSignature;
+	
+	private final String registrationEndpoint;
+	private final String unregistrationEndpoint;
+	private final String enableRegisteredDeviceEndpoint;
+	private final String ackReceivedEndpoint;
+	private final String ackReadEndpoint;
+	private final String addTagsEndpoint;
+	private final String removeTagsEndpoint;
+	private final String listTagsEndpoint;
+	private final String resetTagsEndpoint;
+	
+	
+	/**
+	 * Creates a configuration.
+	 * 
+	 * @param apiToken	The notification server API TOKEN for communications.
+	 * @param appPublicKey	The application Public key.
+	 * @param svcUrl	Optional. If null, {@link #DEFAULT_API_ENDPOINT} is used.
+	 * @param ignoreSSLErrors	Set to TRUE to ignore any SSL error when contacting 
+	 * 							with the notification server.
+	 */
+	public ToucanClientConfig(String apiToken, String appPublicKey, String svcUrl, boolean ignoreSSLErrors) {
+		this(apiToken, appPublicKey, svcUrl, ignoreSSLErrors, false);
+	}
+	
+	/**
+	 * Creates a configuration.
+	 * 
+	 * @param apiToken	The notification server API TOKEN for communications.
+	 * @param appPublicKey	The application Public key.
+	 * @param svcUrl	Optional. If null, {@link #DEFAULT_API_ENDPOINT} is used.
+	 * @param ignoreSSLErrors	Set to TRUE to ignore any SSL error when contacting 
+	 * 							with the notification server.
+	 * @param prewarmConnections	Set to TRUE to open, in background, a connection 
+	 * 								to the notification server when the client is 
+	 * 								created, so the first operation finds it ready.
+	 */
+	public ToucanClientConfig(String apiToken, String appPublicKey, String svcUrl, boolean ignoreSSLErrors, boolean prewarmConnections) {
+		this(apiToken, appPublicKey, 
+				(svcUrl!=null && svcUrl.length()>0)?Collections.singletonList(svcUrl):null, 
+				ignoreSSLErrors, prewarmConnections);
+	}
+	
+	/**
+	 * Creates a configuration for a notification server reachable at several
+	 * base URLs (for example, one per region). Operations are sent to the 
+	 * fastest healthy one and, if it fails, to the next ones. See 
+	 * {@link EndpointGroup}.
+	 * 
+	 * @param apiToken	The notification server API TOKEN for communications.
+	 * @param appPublicKey	The application Public key.
+	 * @param svcUrls	The base URLs, the first one is the primary one. If null 
+	 * 					or empty, {@link #DEFAULT_API_ENDPOINT} is used.
+	 * @param ignoreSSLErrors	Set to TRUE to ignore any SSL error when contacting 
+	 * 							with the notification server.
+	 * @param prewarmConnections	Set to TRUE to open, in background, a connection 
+	 * 								to each base URL when the client is created.
+	 */
+	public ToucanClientConfig(String apiToken, String appPublicKey, List<String> svcUrls, boolean ignoreSSLErrors, boolean prewarmConnections) {
+		this.apiToken = apiToken;
+		this.appPublicKey = appPublicKey;
+		List<String> bases = new ArrayList<String>();
+		if(svcUrls!=null) {
+			for(String svcUrl:svcUrls) {
+				if(svcUrl!=null && svcUrl.length()>0 && !bases.contains(svcUrl))
+					bases.add(svcUrl);
+			}
+		}
+		if(bases.isEmpty())
+			bases.add(DEFAULT_API_ENDPOINT);
+		this.endpointBases = Collections.unmodifiableList(bases);
+		this.endpointBase = bases.get(0);
+		this.ignoreSSLErrors = ignoreSSLErrors;
+		this.prewarmConnections = prewarmConnections;
+		
+		this.appHashSignature = generateSHA1(appPublicKey + apiToken);
+		
+		String pushApi = endpointBase + API_PATH_PUSH;
+		String ackApi = endpointBase + API_PATH_ACK;
+		this.registrationEndpoint = pushApi + "?dr";
+		this.unregistrationEndpoint = pushApi + "?du";
+		this.enableRegisteredDeviceEndpoint = pushApi + "?de";
+		this.ackReceivedEndpoint = ackApi + "?op=2";
+		this.ackReadEndpoint = ackApi + "?op=1";
+		this.addTagsEndpoint = pushApi + "?dta";
+		this.removeTagsEndpoint = pushApi + "?dtr";
+		this.listTagsEndpoint = pushApi + "?dtl";
+		this.resetTagsEndpoint = pushApi + "?dtrs";
+	}
+	
+	
+	public String getApiToken() {
+		return apiToken;
+	}
+	
+	public String getAppPublicKey() {
+		return appPublicKey;
+	}
+	
+	public String getEndpointBase() {
+		return endpointBase;
+	}
+	
+	/**
+	 * Gets all the base URLs of the notification server, the primary one first.
+	 * 
+	 * @return
+	 */
+	public List<String> getEndpointBases() {
+		return endpointBases;
+	}
+	
+	public boolean isIgnoreSSLErrors() {
+		return ignoreSSLErrors;
+	}
+	
+	public boolean isPrewarmConnections() {
+		return prewarmConnections;
+	}
+	
+	/**
+	 * Gets the SHA-1 of the application public key and the API token, sent
+	 * by the operations to authenticate the application.
+	 * 
+	 * @return
+	 */
+	public String getAppHashSignature() {
+		return appHashSignature;
+	}
+	
+	/**
+	 * Gets the key that identifies the tenant of this configuration, the
+	 * application and API token in a notification server. The token is in
+	 * it by the hash signature, so it is not kept in clear.
+	 * 
+	 * @return
+	 */
+	public String getTenantKey() {
+		return appHashSignature + "@" + endpointBase;
+	}
+	
+	public String getRegistrationEndpoint() {
+		return registrationEndpoint;
+	}
+	
+	public String getUnregistrationEndpoint() {
+		return unregistrationEndpoint;
+	}
+	
+	public String getEnableRegisteredDeviceEndpoint() {
+		return enableRegisteredDeviceEndpoint;
+	}
+	
+	public String getAckReceivedEndpoint() {
+		return ackReceivedEndpoint;
+	}
+	
+	public String getAckReadEndpoint() {
+		return ackReadEndpoint;
+	}
+	
+	public String getAddTagsEndpoint() {
+		return addTagsEndpoint;
+	}
+	
+	public String getRemoveTagsEndpoint() {
+		return removeTagsEndpoint;
+	}
+	
+	public String getListTagsEndpoint() {
+		return listTagsEndpoint;
+	}
+	
+	public String getResetTagsEndpoint() {
+		return resetTagsEndpoint;
+	}
+	
+	@Override
+	public String toString() {
+		return "ToucanClientConfig [appPublicKey=" + appPublicKey + ", endpointBases=" + endpointBases + ", ignoreSSLErrors=" + ignoreSSLErrors + "]";
+	}
+	
+	
+	// AUXILIAR
+	
+	private static String generateSHA1(String data) {
+		try {
+			return SHA1Encoding.getSHA1(data);
+		} catch (SHA1EncodingException e) {
+			Log.e(ToucanClient.LOG_TAG, e.getMessage());
+		}
+		
+		return null;
+	}
+	
+}
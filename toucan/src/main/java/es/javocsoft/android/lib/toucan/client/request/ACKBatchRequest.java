@@ -0,0 +1,60 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.request;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.annotations.Expose;
+
+
+/**
+ * Several ACK requests, for read or received notifications, sent together.
+ * 
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class ACKBatchRequest {
+	
+	@Expose
+	private List<ACKRequest> acks;
+	
+	
+	public ACKBatchRequest() {}
+	
+	public ACKBatchRequest(List<ACKRequest> acks) {
+		this.acks = new ArrayList<ACKRequest>(acks);
+	}
+	
+	
+	public List<ACKRequest> getAcks() {
+		return acks;
+	}
+	public void setAcks(List<ACKRequest> acks) {
+		this.acks = acks;
+	}
+	
+	public int size() {
+		return acks!=null?acks.size():0;
+	}
+	
+}
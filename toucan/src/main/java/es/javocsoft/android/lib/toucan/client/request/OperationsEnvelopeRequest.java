@@ -0,0 +1,63 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.request;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.annotations.Expose;
+
+import es.javocsoft.android.lib.toucan.client.request.bean.EnvelopeOperationBean;
+
+
+/**
+ * Several pending operations, of any kind, sent together in one request.
+ * The server runs them in order and answers with the result of each one.
+ * 
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class OperationsEnvelopeRequest {
+	
+	@Expose
+	private List<EnvelopeOperationBean> ops;
+	
+	
+	public OperationsEnvelopeRequest() {}
+	
+	public OperationsEnvelopeRequest(List<EnvelopeOperationBean> ops) {
+		this.ops = new ArrayList<EnvelopeOperationBean>(ops);
+	}
+	
+	
+	public List<EnvelopeOperationBean> getOps() {
+		return ops;
+	}
+	public void setOps(List<EnvelopeOperationBean> ops) {
+		this.ops = ops;
+	}
+	
+	public int size() {
+		return ops!=null?ops.size():0;
+	}
+	
+}
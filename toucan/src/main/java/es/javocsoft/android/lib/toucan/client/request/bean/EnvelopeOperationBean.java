@@ -0,0 +1,101 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.request.bean;
+
+import com.google.gson.JsonElement;
+import com.google.gson.annotations.Expose;
+
+
+/**
+ * An operation inside an operations envelope.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class EnvelopeOperationBean {
+	
+	/** The operation job id, the same in every attempt to send it. */
+	@Expose
+	private String id;
+	
+	@Expose
+	private String op;
+	
+	@Expose
+	private String method;
+	
+	/** The API path and query of the operation, as sent on its own. */
+	@Expose
+	private String url;
+	
+	/** The request data of the operation, (may be <code>null</code>). */
+	@Expose
+	private JsonElement data;
+	
+	
+	public EnvelopeOperationBean() {}
+	
+	public EnvelopeOperationBean(String id, String op, String method, String url, JsonElement data) {
+		this.id = id;
+		this.op = op;
+		this.method = method;
+		this.url = url;
+		this.data = data;
+	}
+	
+	
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+	
+	public String getOp() {
+		return op;
+	}
+	public void setOp(String op) {
+		this.op = op;
+	}
+	
+	public String getMethod() {
+		return method;
+	}
+	public void setMethod(String method) {
+		this.method = method;
+	}
+	
+	public String getUrl() {
+		return url;
+	}
+	public void setUrl(String url) {
+		this.url = url;
+	}
+	
+	public JsonElement getData() {
+		return data;
+	}
+	public void setData(JsonElement data) {
+		this.data = data;
+	}
+	
+}
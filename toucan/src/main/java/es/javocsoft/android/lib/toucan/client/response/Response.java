@@ -21,7 +21,10 @@
  */
 package es.javocsoft.android.lib.toucan.client.response;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import com.google.gson.annotations.Expose;
 
@@ -126,4 +129,31 @@ public class Response {
 		this.appVersion = appVersion;
 	}	
 	
+	/**
+	 * Gets the responses of the operations of a request made of several 
+	 * ones (an ACK batch, an operations envelope). The result must be a 
+	 * list with the code, message and data of each operation, in order.
+	 * 
+	 * @param items	The number of operations.
+	 * @return	The responses or null if the result is not such a list.
+	 */
+	public List<Response> getItemResponses(int items) {
+		if(!(data instanceof List) || ((List<?>)data).size()!=items)
+			return null;
+		
+		List<Response> res = new ArrayList<Response>(items);
+		for(Object item:(List<?>)data) {
+			if(!(item instanceof Map) || !(((Map<?, ?>)item).get("code") instanceof Number))
+				return null;
+			
+			Map<?, ?> fields = (Map<?, ?>)item;
+			Object itemMsg = fields.get("msg");
+			Response itemResponse = new Response(((Number)fields.get("code")).intValue(), 
+					itemMsg!=null?itemMsg.toString():null, fields.get("data"));
+			itemResponse.setTs(ts);
+			res.add(itemResponse);
+		}
+		return res;
+	}
+	
 }
\ No newline at end of file
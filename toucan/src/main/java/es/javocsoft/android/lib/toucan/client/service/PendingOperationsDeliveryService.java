@@ -23,16 +23,35 @@ package es.javocsoft.android.lib.toucan.client.service;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
 import es.javocsoft.android.lib.toolbox.ToolBox;
 import es.javocsoft.android.lib.toucan.client.ToucanClient;
-import es.javocsoft.android.lib.toucan.client.thread.ToucanGetWorker;
-import es.javocsoft.android.lib.toucan.client.thread.ToucanPostWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ACKBatcher;
+import es.javocsoft.android.lib.toucan.client.thread.EnvelopePacker;
+import es.javocsoft.android.lib.toucan.client.thread.TagOperationCoalescer;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.CompletionListener;
 import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_PRIORITY;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.BackpressureGate;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
 
 /**
  * Service that delivers the pending operation request to the
@@ -75,7 +94,13 @@ public class PendingOperationsDeliveryService extends IntentService {
 		
 		String[] pendingOperations = listCachedOperations(getApplicationContext());
 		if(pendingOperations!=null && pendingOperations.length>0){
-			if(ToolBox.net_isNetworkAvailable(getApplicationContext())){
+			BackpressureGate backpressure = ToucanDispatcher.getInstance().getBackpressureGate();
+			if(backpressure.isPaused()) {
+				//Kept on disk, the dispatcher starts the service again when the pause is over.
+				Log.i(ToucanClient.LOG_TAG, SERVICE_NAME + ": the server asked to wait " + backpressure.getRemainingMillis() + 
+						"ms, pending operations kept.");
+				ToucanDispatcher.getInstance().deliverPendingWhenResumed(getApplicationContext());
+			}else if(ToolBox.net_isNetworkAvailable(getApplicationContext())){
 				Log.i(ToucanClient.LOG_TAG, "Total pending operations: " + pendingOperations.length);
 				sendCachedOperations(pendingOperations, getApplicationContext());
 			}else{
@@ -90,66 +115,160 @@ public class PendingOperationsDeliveryService extends IntentService {
 	private static synchronized String[] listCachedOperations(Context context){
 		String filePath = context.getFilesDir().getAbsolutePath();//returns current directory.
 		File appInternalDir = new File(filePath);
-		String[] pendingRequests = appInternalDir.list(new FilenameFilter(){
+		File[] pendingRequestFiles = appInternalDir.listFiles(new FilenameFilter(){
 			public boolean accept(File arg0, String name) {
 				return name.startsWith(ToucanClient.CACHED_REQUEST_FILE_PREFIX);			
 			}});
+		if(pendingRequestFiles==null)
+			return null;
+		
+		//Oldest first, so operations of the same device are chained in 
+		//the same order they were originally launched.
+		Arrays.sort(pendingRequestFiles, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long diff = f1.lastModified() - f2.lastModified();
+				return diff<0?-1:(diff>0?1:0);
+			}
+		});
+		
+		String[] pendingRequests = new String[pendingRequestFiles.length];
+		for(int i=0;i<pendingRequestFiles.length;i++) {
+			pendingRequests[i] = pendingRequestFiles[i].getName();
+		}
 		
 		return pendingRequests;
 	}
 	
 	private static synchronized void sendCachedOperations(String[] pendingRequestOp, Context context){
 		Log.i(ToucanClient.LOG_TAG, SERVICE_NAME + ": Pending operation requests to send: " + pendingRequestOp.length);
+		List<ToucanWorker> operations = new ArrayList<ToucanWorker>();
 		for(String requestOpFile:pendingRequestOp){			
+			//ACKs waiting in a batching window are sent by the batcher.
+			if(ACKBatcher.isPending(requestOpFile))
+				continue;
 			try {
 				byte[] pendingRequestBytes = ToolBox.storage_readDataFromInternalStorage(context, requestOpFile);
 				if(pendingRequestBytes!=null && pendingRequestBytes.length>0){
-					startOperation(pendingRequestBytes, context);					
+					String jsonData = new String(pendingRequestBytes);
+					if(jsonData.startsWith("[")) {
+						//Operations saved together when the dispatcher was flushed.
+						operations.addAll(loadOperationBatch(jsonData, requestOpFile, context));
+					}else{
+						ToucanWorker operation = loadOperation(pendingRequestBytes, context);
+						if(operation!=null)
+							operations.add(operation);
+					}
 				}
 				//We delete only if the operation is successfully done from the operations itself.				
 			} catch (Exception e) {
 				Log.e(ToucanClient.LOG_TAG, SERVICE_NAME + ": Error sending pending operation request ("+e.getMessage()+")",e);
 			}			
 		}
+		
+		//Chains with the most important operations first (registrations 
+		//before tags and ACKs). Operations of a chain must reach the server
+		//in order, so they all go with the best priority of their chain and
+		//the stable sort keeps them oldest first.
+		final Map<String, TOUCAN_WORKER_PRIORITY> chainPriorities = new HashMap<String, TOUCAN_WORKER_PRIORITY>();
+		for(ToucanWorker operation:operations) {
+			String chainKey = operation.getChainKey();
+			if(chainKey!=null) {
+				TOUCAN_WORKER_PRIORITY best = chainPriorities.get(chainKey);
+				if(best==null || operation.getPriority().ordinal()<best.ordinal())
+					chainPriorities.put(chainKey, operation.getPriority());
+			}
+		}
+		Collections.sort(operations, new Comparator<ToucanWorker>() {
+			@Override
+			public int compare(ToucanWorker o1, ToucanWorker o2) {
+				return getChainPriority(o1).ordinal() - getChainPriority(o2).ordinal();
+			}
+			
+			private TOUCAN_WORKER_PRIORITY getChainPriority(ToucanWorker operation) {
+				return operation.getChainKey()!=null?chainPriorities.get(operation.getChainKey()):operation.getPriority();
+			}
+		});
+		//The tag changes of each device are folded into the net change, 
+		//and all are packed in a few requests when envelopes are enabled.
+		operations = TagOperationCoalescer.coalesce(operations);
+		for(ToucanWorker operation:EnvelopePacker.getInstance().pack(operations)) {
+			ToucanDispatcher.getInstance().dispatch(operation);
+		}
 	}
 		
-	private static synchronized void startOperation(byte[] pendingRequestData, Context context) {
+	private static ToucanWorker loadOperation(byte[] pendingRequestData, Context context) {
 		String jsonData = new String(pendingRequestData);
 		if(jsonData!=null && jsonData.length()>0) {
-			new DeliverPendingRequest(jsonData, context).start();
+			return recoverOperation(jsonData, context);
 		}else{
 			Log.e(ToucanClient.LOG_TAG, "No JSON data to send cached operation!!.");
+			return null;
 		}
 	}
 	
-	
-	static class DeliverPendingRequest extends Thread implements Runnable {
+	/**
+	 * Recovers the operations of a batch file. The file is deleted once all
+	 * of them are finished, those not delivered are saved again on their own.
+	 * 
+	 * @param jsonData	The JSON array of operations.
+	 * @param batchFile	The batch file name.
+	 * @param context
+	 * @return
+	 */
+	private static List<ToucanWorker> loadOperationBatch(String jsonData, final String batchFile, final Context context) {
+		List<ToucanWorker> operations = new ArrayList<ToucanWorker>();
+		JsonArray batch = new JsonParser().parse(jsonData).getAsJsonArray();
+		for(JsonElement element:batch) {
+			try {
+				ToucanWorker operation = recoverOperation(element.toString(), context);
+				operation.setBatchFile(batchFile);
+				operations.add(operation);
+			}catch(Exception e) {
+				Log.e(ToucanClient.LOG_TAG, SERVICE_NAME + ": Error recovering operation from " + batchFile + " ("+e.getMessage()+")",e);
+			}
+		}
 		
-		private String jsonData;
-		private Context context;
+		if(operations.isEmpty()) {
+			ToolBox.storage_deleteDataFromInternalStorage(context, batchFile);
+			return operations;
+		}
 		
-		public DeliverPendingRequest(String jsonData, Context context) {
-			this.jsonData = jsonData;
-			this.context = context;
+		final AtomicInteger unfinished = new AtomicInteger(operations.size());
+		CompletionListener batchListener = new CompletionListener() {
+			@Override
+			public void onComplete(ToucanCall call) {
+				if(unfinished.decrementAndGet()==0) {
+					try {
+						ToolBox.storage_deleteDataFromInternalStorage(context, batchFile);
+						Log.i(ToucanClient.LOG_TAG, "Pending operations batch finished, deleted from disk (" + batchFile + ")");
+					}catch(Exception e) {
+						Log.e(ToucanClient.LOG_TAG, "Pending operations batch file could not be deleted [" + e.getMessage() + "].", e);
+					}
+				}
+			}
+		};
+		for(ToucanWorker operation:operations) {
+			operation.getCall().addCompletionListener(batchListener);
 		}
-
-		@Override
-		public void run() {
-			//Determine the delivery type
-			if(jsonData.indexOf("\"type\":\"POST\"")!=-1){
-				ToucanPostWorker temp = ToucanWorker.initializePOSTFromJSON(jsonData);
-				temp.initData();
-				temp.setContext(context);
-				temp.start();
-			}else{
-				//GET operation otherwise.
-				ToucanGetWorker temp = ToucanWorker.initializeGETFromJSON(jsonData);
-				temp.initData();
-				temp.setContext(context);				
-				temp.start();				
-			}			
+		
+		return operations;
+	}
+	
+	private static ToucanWorker recoverOperation(String jsonData, Context context) {
+		ToucanWorker operation = null;
+		
+		//Determine the delivery type
+		if(jsonData.indexOf("\"type\":\"POST\"")!=-1){
+			operation = ToucanWorker.initializePOSTFromJSON(jsonData);
+		}else{
+			//GET operation otherwise.
+			operation = ToucanWorker.initializeGETFromJSON(jsonData);
 		}
+		operation.initData();
+		operation.setContext(context);
 		
+		return operation;
 	}
 	
 }
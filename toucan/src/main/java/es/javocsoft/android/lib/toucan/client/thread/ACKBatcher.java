@@ -0,0 +1,324 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toolbox.ToolBox;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.ACKBatchRequest;
+import es.javocsoft.android.lib.toucan.client.request.ACKRequest;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.CompletionListener;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
+
+/**
+ * Groups the ACKs of read or received notifications sent to the same
+ * endpoint, so a burst of notifications is acknowledged with a single
+ * request instead of one per notification.<br><br>
+ *
+ * A window is opened by the first ACK and closed when it has the maximum
+ * number of ACKs or when its time is over, whatever happens first. Then
+ * its ACKs are sent together as one {@link ACKBatchRequest} operation, to
+ * the ACK endpoint with the "batch=1" parameter. A window with a single
+ * ACK is sent as a normal ACK.<br><br>
+ *
+ * Each ACK keeps its own {@link ToucanCall} and callback. When the server
+ * answers with a list of results (one per ACK, in order) in the response
+ * data, each ACK gets its own result, otherwise all of them get the batch
+ * response.<br><br>
+ * 
+ * Each ACK is saved to disk when it is added to a window, so it is not 
+ * lost if the application dies before the window is sent. It is deleted 
+ * from disk once settled, unless it is cached for a later delivery.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class ACKBatcher {
+
+	/** Default maximum number of ACKs sent together. */
+	public static final int DEFAULT_MAX_ITEMS = 20;
+	/** Default maximum time an ACK waits for others. */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 2000;
+	/** Parameter added to the ACK endpoint for the batches. */
+	public static final String BATCH_PARAMETER = "batch=1";
+
+	private final OperationLauncher launcher;
+	private volatile int maxItems = DEFAULT_MAX_ITEMS;
+	private volatile long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+	private final Object lock = new Object();
+	/** The open windows, by endpoint */
+	private final Map<String, List<ToucanPostWorker>> windows = new HashMap<String, List<ToucanPostWorker>>();
+
+	/** Disk files of the ACKs in a window or being sent, by job id */
+	private static final Set<String> pendingJobs = 
+			Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final AtomicLong batchesSent = new AtomicLong();
+	private final AtomicLong acksBatched = new AtomicLong();
+
+
+	public ACKBatcher(OperationLauncher launcher) {
+		this.launcher = launcher;
+	}
+
+
+	/**
+	 * Sets the size and the time of the windows.
+	 *
+	 * @param maxItems			Maximum number of ACKs sent together.
+	 * @param maxDelayMillis	Maximum time an ACK waits for others.
+	 */
+	public void configure(int maxItems, long maxDelayMillis) {
+		this.maxItems = Math.max(1, maxItems);
+		this.maxDelayMillis = Math.max(0, maxDelayMillis);
+	}
+
+	/**
+	 * Adds an ACK operation to the window of its endpoint.
+	 *
+	 * @param ack	The ACK operation, not launched.
+	 * @return	The handle of the ACK.
+	 */
+	public ToucanCall add(final ToucanPostWorker ack) {
+		pendingJobs.add(ack.getJobId());
+		ack.saveToDisk();
+		ack.getCall().addCompletionListener(new CompletionListener() {
+			@Override
+			public void onComplete(ToucanCall call) {
+				pendingJobs.remove(ack.getJobId());
+				if(call.getStatus()!=TOUCAN_CALL_STATUS.CACHED)
+					deleteFromDisk(ack);
+			}
+		});
+		
+		final String key = ack.endpoint;
+		final List<ToucanPostWorker> window;
+		List<ToucanPostWorker> full = null;
+		boolean opened = false;
+		synchronized (lock) {
+			List<ToucanPostWorker> current = windows.get(key);
+			if(current==null) {
+				current = new ArrayList<ToucanPostWorker>();
+				windows.put(key, current);
+				opened = true;
+			}
+			current.add(ack);
+			if(current.size()>=maxItems) {
+				full = windows.remove(key);
+			}
+			window = current;
+		}
+
+		if(full!=null) {
+			send(full);
+		}else if(opened) {
+			ToucanDispatcher.getInstance().schedule(new Runnable() {
+				@Override
+				public void run() {
+					closeWindow(key, window);
+				}
+			}, maxDelayMillis);
+		}
+		return ack.getCall();
+	}
+
+	/**
+	 * Sends right now the ACKs of all the open windows.
+	 *
+	 * @return	The number of ACKs sent.
+	 */
+	public int flushAll() {
+		List<List<ToucanPostWorker>> toSend;
+		synchronized (lock) {
+			toSend = new ArrayList<List<ToucanPostWorker>>(windows.values());
+			windows.clear();
+		}
+
+		int count = 0;
+		for(List<ToucanPostWorker> window:toSend) {
+			count += window.size();
+			send(window);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of ACKs waiting in the open windows.
+	 *
+	 * @return
+	 */
+	public int getPendingCount() {
+		int count = 0;
+		synchronized (lock) {
+			for(List<ToucanPostWorker> window:windows.values()) {
+				count += window.size();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Gets whether a saved operation is an ACK still in a window or being 
+	 * sent. The pending operations delivery service must not send it.
+	 * 
+	 * @param jobId	The job id of the operation, its file name.
+	 * @return
+	 */
+	public static boolean isPending(String jobId) {
+		return pendingJobs.contains(jobId);
+	}
+
+	public long getBatchesSent() {
+		return batchesSent.get();
+	}
+
+	public long getAcksBatched() {
+		return acksBatched.get();
+	}
+
+	/**
+	 * Splits the response of a batch in the responses of its ACKs. The
+	 * server may answer with a list of results, one per ACK in the order
+	 * they were sent, each with its code, message and data. Otherwise, the
+	 * batch response is the response of every ACK.
+	 *
+	 * @param response	The batch response.
+	 * @param items		The number of ACKs in the batch.
+	 * @return	The responses, one per ACK.
+	 */
+	public static List<Response> splitResponse(Response response, int items) {
+		List<Response> res = response!=null?response.getItemResponses(items):null;
+		if(res==null) {
+			res = new ArrayList<Response>(items);
+			for(int i=0;i<items;i++) {
+				res.add(response);
+			}
+		}
+		return res;
+	}
+
+
+	// AUXILIAR
+
+	private void closeWindow(String key, final List<ToucanPostWorker> window) {
+		synchronized (lock) {
+			//It may have been sent already, because it was full or flushed.
+			if(windows.get(key)!=window)
+				return;
+			windows.remove(key);
+		}
+
+		//Launching may save the operation to disk, out of the timer thread.
+		ToucanDispatcher.getInstance().runInBackground(new Runnable() {
+			@Override
+			public void run() {
+				send(window);
+			}
+		});
+	}
+
+	private void send(List<ToucanPostWorker> window) {
+		List<ToucanPostWorker> queued = new ArrayList<ToucanPostWorker>(window.size());
+		for(ToucanPostWorker ack:window) {
+			if(ack.getCall().getStatus()==TOUCAN_CALL_STATUS.QUEUED)
+				queued.add(ack);
+		}
+
+		if(queued.isEmpty()) {
+			return;
+		}else if(queued.size()==1) {
+			launcher.launch(queued.get(0));
+			return;
+		}
+
+		//The ACKs are settled with the batch, they are never run.
+		final List<ToucanPostWorker> items = new ArrayList<ToucanPostWorker>(queued.size());
+		List<ACKRequest> acks = new ArrayList<ACKRequest>(queued.size());
+		List<String> callbacks = new ArrayList<String>(queued.size());
+		List<String> jobIds = new ArrayList<String>(queued.size());
+		for(ToucanPostWorker ack:queued) {
+			if(ack.getCall().markInFlight()) {
+				items.add(ack);
+				acks.add((ACKRequest)ack.getData());
+				callbacks.add(ack.callbackString);
+				jobIds.add(ack.getJobId());
+			}
+		}
+		if(items.isEmpty())
+			return;
+
+		ToucanPostWorker first = items.get(0);
+		final ToucanPostWorker batch = new ToucanPostWorker(first.context, first.apiToken, new ACKBatchRequest(acks),
+				TOUCAN_WORKER_POST_DATA_TYPE.ACK_BATCH, batchEndpoint(first.endpoint), first.opname,
+				first.isIgnoreSSLErrors(), null);
+		batch.batchCallbackStrings = callbacks;
+		batch.batchJobIds = jobIds;
+		batch.getCall().addCompletionListener(new CompletionListener() {
+			@Override
+			public void onComplete(ToucanCall call) {
+				List<Response> responses = splitResponse(call.getResponse(), items.size());
+				for(int i=0;i<items.size();i++) {
+					items.get(i).getCall().settleAs(call, responses.get(i));
+				}
+				//A batch saved for later takes the place of its ACKs on disk.
+				if(call.getStatus()==TOUCAN_CALL_STATUS.CACHED && ToolBox.storage_checkIfFileExistsInInternalStorage(
+						batch.getContext(), batch.getJobId())) {
+					for(ToucanPostWorker item:items) {
+						deleteFromDisk(item);
+					}
+				}
+			}
+		});
+
+		batchesSent.incrementAndGet();
+		acksBatched.addAndGet(items.size());
+		Log.i(ToucanClient.LOG_TAG, "Sending " + items.size() + " ACKs together (" + first.opname + ")");
+		launcher.launch(batch);
+	}
+
+	private static void deleteFromDisk(ToucanPostWorker ack) {
+		try {
+			if(ToolBox.storage_checkIfFileExistsInInternalStorage(ack.getContext(), ack.getJobId()))
+				ToolBox.storage_deleteDataFromInternalStorage(ack.getContext(), ack.getJobId());
+		}catch(Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "ACK could not be deleted from disk [" + e.getMessage() + "].", e);
+		}
+	}
+
+	private static String batchEndpoint(String endpoint) {
+		return endpoint + (endpoint.indexOf('?')>=0?"&":"?") + BATCH_PARAMETER;
+	}
+
+}
@@ -0,0 +1,219 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_TYPE;
+
+/**
+ * Packs the pending operations of the backlog in {@link ToucanEnvelopeWorker}
+ * operations, so hundreds of registration, tag and ACK operations saved 
+ * while the device was offline are delivered in a few requests instead of 
+ * one request each.<br><br>
+ * 
+ * Operations are packed, up to the maximum per envelope, when they go to 
+ * the same notification server, with the same API token, SSL setting and 
+ * chain key. Each envelope takes the place of its first operation in the 
+ * delivery order, and the server runs the operations of an envelope in 
+ * order. An operation that can not be packed is delivered on its own, and
+ * the later operations of its chain go in a new envelope so they still 
+ * reach the server after it.
+ * <br><br>
+ * It is disabled by default, the notification server must support the 
+ * envelope endpoint ({@link #ENVELOPE_PATH}). Servers that do not are 
+ * remembered, and their operations are no longer packed.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class EnvelopePacker {
+
+	/** Default maximum number of operations in an envelope. */
+	public static final int DEFAULT_MAX_OPERATIONS = 50;
+	/** The envelope endpoint, after the server base URL. */
+	public static final String ENVELOPE_PATH = "/PushNOTApi/envelope";
+	
+	private static final String API_ROOT = "/PushNOTApi/";
+	
+	/** The shared packer instance */
+	private static volatile EnvelopePacker packer;
+	
+	private volatile boolean enabled = false;
+	private volatile int maxOperations = DEFAULT_MAX_OPERATIONS;
+	/** Envelope endpoints of the servers that do not support them */
+	private final Set<String> unsupportedEndpoints = 
+			Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	
+	public static EnvelopePacker getInstance() {
+		if(packer==null) {
+			synchronized (EnvelopePacker.class) {
+				if(packer==null) {
+					packer = new EnvelopePacker();
+				}
+			}
+		}
+		return packer;
+	}
+	
+	EnvelopePacker() {}
+	
+	
+	/**
+	 * Enables or disables the envelopes.
+	 * 
+	 * @param enabled		TRUE to pack the pending operations.
+	 * @param maxOperations	Maximum number of operations in an envelope.
+	 */
+	public void configure(boolean enabled, int maxOperations) {
+		this.maxOperations = Math.max(2, maxOperations);
+		this.enabled = enabled;
+		if(enabled)
+			unsupportedEndpoints.clear();
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Packs the given operations in envelopes.
+	 * 
+	 * @param operations	The operations, in delivery order.
+	 * @return	The operations to dispatch, in delivery order: the envelopes
+	 * 			and the operations that could not be packed.
+	 */
+	public List<ToucanWorker> pack(List<ToucanWorker> operations) {
+		if(!enabled || operations.size()<2)
+			return operations;
+		
+		//Each slot is an operation alone or the operations of an envelope.
+		List<Object> slots = new ArrayList<Object>(operations.size());
+		Map<String, List<ToucanWorker>> open = new HashMap<String, List<ToucanWorker>>();
+		for(ToucanWorker operation:operations) {
+			String envelopeEndpoint = getEnvelopeEndpoint(operation);
+			if(envelopeEndpoint==null) {
+				closeEnvelopes(open, operation.getChainKey());
+				slots.add(operation);
+				continue;
+			}
+			
+			String key = envelopeEndpoint + "|" + operation.apiToken + "|" + 
+					operation.isIgnoreSSLErrors() + "|" + operation.getChainKey();
+			List<ToucanWorker> envelope = open.get(key);
+			if(envelope==null || envelope.size()>=maxOperations) {
+				envelope = new ArrayList<ToucanWorker>();
+				open.put(key, envelope);
+				slots.add(envelope);
+			}
+			envelope.add(operation);
+		}
+		
+		List<ToucanWorker> res = new ArrayList<ToucanWorker>(slots.size());
+		int envelopes = 0;
+		for(Object slot:slots) {
+			if(slot instanceof ToucanWorker) {
+				res.add((ToucanWorker)slot);
+				continue;
+			}
+			
+			@SuppressWarnings("unchecked")
+			List<ToucanWorker> packed = (List<ToucanWorker>)slot;
+			if(packed.size()==1) {
+				res.add(packed.get(0));
+			}else{
+				ToucanWorker first = packed.get(0);
+				res.add(new ToucanEnvelopeWorker(first.getContext(), first.apiToken, getEnvelopeEndpoint(first), 
+						first.isIgnoreSSLErrors(), packed));
+				envelopes++;
+			}
+		}
+		
+		Log.i(ToucanClient.LOG_TAG, operations.size() + " pending operations packed in " + envelopes + 
+				" envelopes, " + res.size() + " requests to send.");
+		return res;
+	}
+	
+	/**
+	 * Stops packing the operations of a server that does not support the
+	 * envelopes.
+	 * 
+	 * @param envelopeEndpoint	The envelope endpoint of the server.
+	 */
+	public void onUnsupported(String envelopeEndpoint) {
+		unsupportedEndpoints.add(envelopeEndpoint);
+	}
+	
+	/**
+	 * Gets the API path and query of an endpoint, without the server base 
+	 * URL.
+	 * 
+	 * @param endpoint	The endpoint.
+	 * @return	The path or null if it is not an API endpoint.
+	 */
+	public static String getApiPath(String endpoint) {
+		int index = endpoint!=null?endpoint.indexOf(API_ROOT):-1;
+		return index>=0?endpoint.substring(index):null;
+	}
+	
+	
+	// AUXILIAR
+	
+	/**
+	 * Closes the open envelopes of the chain of an operation that can not 
+	 * be packed. Operations without chain are not ordered, see 
+	 * {@link ToucanWorker#getDependencyType()}.
+	 */
+	private static void closeEnvelopes(Map<String, List<ToucanWorker>> open, String chainKey) {
+		if(chainKey==null)
+			return;
+		
+		Iterator<List<ToucanWorker>> it = open.values().iterator();
+		while(it.hasNext()) {
+			if(chainKey.equals(it.next().get(0).getChainKey()))
+				it.remove();
+		}
+	}
+	
+	private String getEnvelopeEndpoint(ToucanWorker operation) {
+		if(operation.getType()!=TOUCAN_WORKER_TYPE.POST || !operation.isPersistable() || operation.dataString==null)
+			return null;
+		
+		int index = operation.endpoint!=null?operation.endpoint.indexOf(API_ROOT):-1;
+		if(index<=0)
+			return null;
+		
+		String envelopeEndpoint = operation.endpoint.substring(0, index) + ENVELOPE_PATH;
+		return unsupportedEndpoints.contains(envelopeEndpoint)?null:envelopeEndpoint;
+	}
+	
+}
@@ -0,0 +1,302 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.DeviceRegistrationRequest;
+import es.javocsoft.android.lib.toucan.client.request.bean.DeviceRegistrationBean;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.CompletionListener;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
+
+/**
+ * Merges the device registration updates (registrations, external ids, 
+ * install referral) launched close in time, so an application doing 
+ * several of them at start-up sends a single registration.<br><br>
+ * 
+ * The first update opens a window that is sent once no other update 
+ * arrives in the given time, and at most four times that time after the 
+ * first one. Then its updates are merged in one {@link DeviceRegistrationBean},
+ * the latest value of each field wins, signed again and sent once. A 
+ * window with a single update is sent as it is.<br><br>
+ * 
+ * Each update keeps its own {@link ToucanCall} and callback, all of them
+ * get the response of the merged registration.<br><br>
+ * 
+ * The client flushes the window before launching any other operation of 
+ * the device, so they reach the server after the registration.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class RegistrationCoalescer {
+
+	/** A window is sent at most after this number of debounce times. */
+	public static final int MAX_WINDOW_DEBOUNCES = 4;
+	
+	private final OperationLauncher launcher;
+	private volatile long windowMillis = 0;
+	
+	private final Object lock = new Object();
+	/** Held while a window is taken and launched, so it is launched before 
+	 * any operation launched after a flush */
+	private final Object sendLock = new Object();
+	/** The open window, null if there is none */
+	private List<ToucanPostWorker> window = null;
+	private long windowOpenedNanos = 0;
+	private long lastUpdateNanos = 0;
+	
+	private final AtomicLong registrationsSent = new AtomicLong();
+	private final AtomicLong updatesMerged = new AtomicLong();
+	
+	
+	public RegistrationCoalescer(OperationLauncher launcher) {
+		this.launcher = launcher;
+	}
+	
+	
+	/**
+	 * Sets the debounce time of the windows.
+	 * 
+	 * @param windowMillis	Time an update waits for others. With 0 or less,
+	 * 						the updates are not merged.
+	 */
+	public void configure(long windowMillis) {
+		this.windowMillis = Math.max(0, windowMillis);
+		if(this.windowMillis==0)
+			flush();
+	}
+	
+	public boolean isEnabled() {
+		return windowMillis>0;
+	}
+	
+	/**
+	 * Adds a registration update to the open window.
+	 * 
+	 * @param update	The registration or install referral operation, 
+	 * 					not launched.
+	 * @return	The handle of the update.
+	 */
+	public ToucanCall add(ToucanPostWorker update) {
+		final List<ToucanPostWorker> current;
+		boolean opened = false;
+		synchronized (lock) {
+			lastUpdateNanos = System.nanoTime();
+			if(window==null) {
+				window = new ArrayList<ToucanPostWorker>();
+				windowOpenedNanos = lastUpdateNanos;
+				opened = true;
+			}
+			window.add(update);
+			current = window;
+		}
+		
+		if(opened) {
+			scheduleClose(current, windowMillis);
+		}
+		return update.getCall();
+	}
+	
+	/**
+	 * Sends right now the updates of the open window.
+	 * 
+	 * @return	The number of updates sent.
+	 */
+	public int flush() {
+		synchronized (sendLock) {
+			List<ToucanPostWorker> toSend;
+			synchronized (lock) {
+				toSend = window;
+				window = null;
+			}
+			
+			if(toSend==null)
+				return 0;
+			send(toSend);
+			return toSend.size();
+		}
+	}
+	
+	/**
+	 * Gets the number of updates waiting in the open window.
+	 * 
+	 * @return
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return window!=null?window.size():0;
+		}
+	}
+	
+	public long getRegistrationsSent() {
+		return registrationsSent.get();
+	}
+	
+	public long getUpdatesMerged() {
+		return updatesMerged.get();
+	}
+	
+	/**
+	 * Merges the data of several registration updates, in the order they
+	 * were launched. The latest value of each field wins, an external id
+	 * or group id of 0 and an empty install referral are not values.
+	 * 
+	 * @param updates	The registration data of the updates.
+	 * @return	The merged registration data.
+	 */
+	public static DeviceRegistrationBean merge(List<DeviceRegistrationBean> updates) {
+		DeviceRegistrationBean res = new DeviceRegistrationBean();
+		for(DeviceRegistrationBean update:updates) {
+			if(update.getAppVersion()!=0)
+				res.setAppVersion(update.getAppVersion());
+			if(update.getExtId()!=0)
+				res.setExtId(update.getExtId());
+			if(update.getGroupId()!=0)
+				res.setGroupId(update.getGroupId());
+			if(update.getNotToken()!=null)
+				res.setNotToken(update.getNotToken());
+			if(update.getDevId()!=null)
+				res.setDevId(update.getDevId());
+			if(update.getDevOs()!=null)
+				res.setDevOs(update.getDevOs());
+			if(update.getDevExtra()!=null)
+				res.setDevExtra(update.getDevExtra());
+			if(update.getDevLocale()!=null)
+				res.setDevLocale(update.getDevLocale());
+			if(update.getDevResType()!=null)
+				res.setDevResType(update.getDevResType());
+			if(update.getInstallReferral()!=null && update.getInstallReferral().length()>0)
+				res.setInstallReferral(update.getInstallReferral());
+		}
+		return res;
+	}
+	
+	
+	// AUXILIAR
+	
+	private void scheduleClose(final List<ToucanPostWorker> current, long delayMillis) {
+		ToucanDispatcher.getInstance().schedule(new Runnable() {
+			@Override
+			public void run() {
+				closeWindow(current);
+			}
+		}, delayMillis);
+	}
+	
+	private void closeWindow(final List<ToucanPostWorker> current) {
+		synchronized (lock) {
+			//It may have been sent already, because it was flushed.
+			if(window!=current)
+				return;
+			
+			//Each update postpones the window, up to its maximum time.
+			long now = System.nanoTime();
+			long debounceNanos = windowMillis * 1000000L;
+			long closeNanos = Math.min(lastUpdateNanos + debounceNanos, 
+					windowOpenedNanos + MAX_WINDOW_DEBOUNCES * debounceNanos);
+			if(closeNanos>now) {
+				scheduleClose(current, Math.max(1, (closeNanos - now) / 1000000L));
+				return;
+			}
+		}
+		
+		//Launching may save the operation to disk, out of the timer thread.
+		//The window stays open until taken, so a flush meanwhile sends it.
+		ToucanDispatcher.getInstance().runInBackground(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (sendLock) {
+					synchronized (lock) {
+						if(window!=current)
+							return;
+						window = null;
+					}
+					send(current);
+				}
+			}
+		});
+	}
+	
+	private void send(List<ToucanPostWorker> current) {
+		List<ToucanPostWorker> queued = new ArrayList<ToucanPostWorker>(current.size());
+		for(ToucanPostWorker update:current) {
+			if(update.getCall().getStatus()==TOUCAN_CALL_STATUS.QUEUED)
+				queued.add(update);
+		}
+		
+		if(queued.isEmpty()) {
+			return;
+		}else if(queued.size()==1) {
+			launcher.launch(queued.get(0));
+			return;
+		}
+		
+		//The updates are settled with the merged registration, they are never run.
+		final List<ToucanPostWorker> items = new ArrayList<ToucanPostWorker>(queued.size());
+		List<DeviceRegistrationBean> updates = new ArrayList<DeviceRegistrationBean>(queued.size());
+		List<String> callbacks = new ArrayList<String>(queued.size());
+		String opname = ToucanClient.API_OPERATION_INFORM_REFERRAL;
+		for(ToucanPostWorker update:queued) {
+			if(update.getCall().markInFlight()) {
+				items.add(update);
+				updates.add(((DeviceRegistrationRequest)update.getData()).getData());
+				callbacks.add(update.callbackString);
+				if(ToucanClient.API_OPERATION_DEVICE_REGISTRATION.equals(update.opname))
+					opname = ToucanClient.API_OPERATION_DEVICE_REGISTRATION;
+			}
+		}
+		if(items.isEmpty())
+			return;
+		
+		ToucanPostWorker last = items.get(items.size()-1);
+		DeviceRegistrationRequest lastRequest = (DeviceRegistrationRequest)last.getData();
+		DeviceRegistrationBean merged = merge(updates);
+		DeviceRegistrationRequest request = new DeviceRegistrationRequest(lastRequest.getAppKey(), merged, 
+				lastRequest.getAppHashSignature(), merged.getSecurityHash(lastRequest.getAppKey()));
+		
+		ToucanPostWorker registration = new ToucanPostWorker(last.context, last.apiToken, request, 
+				TOUCAN_WORKER_POST_DATA_TYPE.REGISTRATION, last.endpoint, opname, 
+				last.isIgnoreSSLErrors(), null);
+		registration.batchCallbackStrings = callbacks;
+		registration.getCall().addCompletionListener(new CompletionListener() {
+			@Override
+			public void onComplete(ToucanCall call) {
+				for(ToucanPostWorker item:items) {
+					item.getCall().settleAs(call, call.getResponse());
+				}
+			}
+		});
+		
+		registrationsSent.incrementAndGet();
+		updatesMerged.addAndGet(items.size());
+		Log.i(ToucanClient.LOG_TAG, "Sending " + items.size() + " registration updates merged (" + opname + ")");
+		launcher.launch(registration);
+	}
+	
+}
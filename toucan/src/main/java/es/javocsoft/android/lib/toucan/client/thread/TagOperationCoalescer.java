@@ -0,0 +1,273 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toolbox.ToolBox;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_DEPENDENCY;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+
+/**
+ * Folds the pending tag changes of a device (add, remove and reset tags)
+ * into the minimal net change, so a tag toggled many times while offline
+ * costs one request instead of one per change.<br><br>
+ * 
+ * Only the changes between two lifecycle operations (registration, 
+ * un-registration, enabling) of the device chain are folded, those after
+ * a lifecycle operation must reach the server after it. The last change 
+ * of each tag wins, and a reset absorbs all the changes before it. The result is a reset (when there was one) with the final 
+ * tags, or one add and one remove with the tags added and removed. Their
+ * hash signatures are computed again.<br><br>
+ * 
+ * The net changes are saved to disk before the folded operations are 
+ * deleted from it, and they run the callbacks of the folded operations. 
+ * They take the place of the first folded operation in the delivery order.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public final class TagOperationCoalescer {
+
+	private static enum TAG_OPERATION {ADD, REMOVE, RESET};
+	
+	
+	private TagOperationCoalescer() {}
+	
+	
+	/**
+	 * Folds the tag changes of the given operations.
+	 * 
+	 * @param operations	The operations, in delivery order.
+	 * @return	The operations to dispatch, in delivery order.
+	 */
+	public static List<ToucanWorker> coalesce(List<ToucanWorker> operations) {
+		//Each slot is an operation or the tag changes of a device.
+		List<Object> slots = new ArrayList<Object>(operations.size());
+		Map<String, TagDelta> deltas = new LinkedHashMap<String, TagDelta>();
+		for(ToucanWorker operation:operations) {
+			TAG_OPERATION change = getChange(operation);
+			if(change==null) {
+				if(operation.getDependencyType()==TOUCAN_WORKER_DEPENDENCY.LIFECYCLE)
+					closeDeltas(deltas, operation.getChainKey());
+				slots.add(operation);
+				continue;
+			}
+			
+			AppDevTagsOperationRequest request = (AppDevTagsOperationRequest)operation.getData();
+			String key = request.getAppKey() + "/" + request.getDevId() + "|" + operation.apiToken + "|" + 
+					getApiBase(operation.endpoint) + "|" + operation.isIgnoreSSLErrors();
+			TagDelta delta = deltas.get(key);
+			if(delta==null) {
+				delta = new TagDelta();
+				deltas.put(key, delta);
+				slots.add(delta);
+			}
+			delta.apply(operation, change, request);
+		}
+		if(deltas.isEmpty())
+			return operations;
+		
+		List<ToucanWorker> res = new ArrayList<ToucanWorker>(slots.size());
+		int folded = 0, sent = 0;
+		for(Object slot:slots) {
+			if(slot instanceof ToucanWorker) {
+				res.add((ToucanWorker)slot);
+				continue;
+			}
+			
+			TagDelta delta = (TagDelta)slot;
+			List<ToucanWorker> net = delta.operations.size()>1?delta.replace():delta.operations;
+			folded += delta.operations.size();
+			sent += net.size();
+			res.addAll(net);
+		}
+		
+		if(folded>sent)
+			Log.i(ToucanClient.LOG_TAG, folded + " pending tag operations folded into " + sent + ".");
+		return res;
+	}
+	
+	
+	// AUXILIAR
+	
+	/**
+	 * Closes the tag changes of the chain of a lifecycle operation, later
+	 * changes start a new delta. Operations without chain close them all.
+	 */
+	private static void closeDeltas(Map<String, TagDelta> deltas, String chainKey) {
+		Iterator<TagDelta> it = deltas.values().iterator();
+		while(it.hasNext()) {
+			String deltaChain = it.next().operations.get(0).getChainKey();
+			if(chainKey==null || deltaChain==null || chainKey.equals(deltaChain))
+				it.remove();
+		}
+	}
+	
+	private static TAG_OPERATION getChange(ToucanWorker operation) {
+		if(operation.dataType!=TOUCAN_WORKER_POST_DATA_TYPE.TAGS || 
+				!(operation.getData() instanceof AppDevTagsOperationRequest))
+			return null;
+		
+		String opname = operation.getOperationName();
+		if(ToucanClient.API_OPERATION_ADD_TAGS.equals(opname)) {
+			return TAG_OPERATION.ADD;
+		}else if(ToucanClient.API_OPERATION_REMOVE_TAGS.equals(opname)) {
+			return TAG_OPERATION.REMOVE;
+		}else if(ToucanClient.API_OPERATION_RESET_TAGS.equals(opname)) {
+			return TAG_OPERATION.RESET;
+		}
+		return null;
+	}
+	
+	private static String getApiBase(String endpoint) {
+		int index = endpoint!=null?endpoint.indexOf('?'):-1;
+		return index>=0?endpoint.substring(0, index):endpoint;
+	}
+	
+	/**
+	 * The net tag change of a device.
+	 */
+	private static class TagDelta {
+		
+		final List<ToucanWorker> operations = new ArrayList<ToucanWorker>();
+		/** The last request, to take the device and application data from */
+		AppDevTagsOperationRequest template;
+		/** The endpoint of each kind of change */
+		final Map<TAG_OPERATION, String> endpoints = new EnumMap<TAG_OPERATION, String>(TAG_OPERATION.class);
+		
+		/** The tags after the last reset, null if there was none */
+		Set<String> reset = null;
+		final Set<String> added = new LinkedHashSet<String>();
+		final Set<String> removed = new LinkedHashSet<String>();
+		
+		
+		void apply(ToucanWorker operation, TAG_OPERATION change, AppDevTagsOperationRequest request) {
+			operations.add(operation);
+			template = request;
+			endpoints.put(change, operation.endpoint);
+			
+			List<String> tags = request.getTags()!=null?request.getTags():new ArrayList<String>();
+			switch (change) {
+				case RESET:
+					reset = new LinkedHashSet<String>(tags);
+					added.clear();
+					removed.clear();
+					break;
+				case ADD:
+					for(String tag:tags) {
+						removed.remove(tag);
+						if(reset!=null) {
+							reset.add(tag);
+						}else{
+							added.add(tag);
+						}
+					}
+					break;
+				case REMOVE:
+					for(String tag:tags) {
+						added.remove(tag);
+						if(reset!=null) {
+							reset.remove(tag);
+						}else{
+							removed.add(tag);
+						}
+					}
+					break;
+			}
+		}
+		
+		/**
+		 * Replaces, on disk, the folded operations by the net change.
+		 * 
+		 * @return	The net change operations, or the folded ones if the net 
+		 * 			change could not be saved.
+		 */
+		List<ToucanWorker> replace() {
+			List<ToucanWorker> net = new ArrayList<ToucanWorker>(2);
+			if(reset!=null) {
+				net.add(create(TAG_OPERATION.RESET, reset));
+			}else{
+				if(!removed.isEmpty())
+					net.add(create(TAG_OPERATION.REMOVE, removed));
+				if(!added.isEmpty())
+					net.add(create(TAG_OPERATION.ADD, added));
+			}
+			
+			//The callbacks of the folded operations run with the last change.
+			List<String> callbacks = new ArrayList<String>();
+			for(ToucanWorker operation:operations) {
+				if(operation.callbackString!=null && operation.callbackString.length()>0)
+					callbacks.add(operation.callbackString);
+			}
+			if(!callbacks.isEmpty())
+				net.get(net.size()-1).batchCallbackStrings = callbacks;
+			
+			Set<String> netJobs = new LinkedHashSet<String>();
+			for(ToucanWorker operation:net) {
+				if(!operation.saveToDisk())
+					return operations;
+				netJobs.add(operation.getJobId());
+			}
+			
+			for(ToucanWorker operation:operations) {
+				try {
+					if(!netJobs.contains(operation.getJobId()) && 
+							ToolBox.storage_checkIfFileExistsInInternalStorage(operation.getContext(), operation.getJobId())) {
+						ToolBox.storage_deleteDataFromInternalStorage(operation.getContext(), operation.getJobId());
+					}
+				}catch(Exception e) {
+					Log.e(ToucanClient.LOG_TAG, "Folded tag operation could not be deleted from disk [" + e.getMessage() + "].", e);
+				}
+				//Its change goes on in the net change, saved on disk.
+				operation.operationCached();
+			}
+			return net;
+		}
+		
+		private ToucanWorker create(TAG_OPERATION change, Set<String> tags) {
+			ToucanWorker first = operations.get(0);
+			AppDevTagsOperationRequest request = new AppDevTagsOperationRequest(template.getAppKey(), template.getDevId(), 
+					new ArrayList<String>(tags), template.getAppHashSignature(), null);
+			request.setHashSignature(request.getSecurityHash(template.getAppKey()));
+			
+			String opname = change==TAG_OPERATION.RESET?ToucanClient.API_OPERATION_RESET_TAGS:
+				(change==TAG_OPERATION.ADD?ToucanClient.API_OPERATION_ADD_TAGS:ToucanClient.API_OPERATION_REMOVE_TAGS);
+			ToucanPostWorker res = new ToucanPostWorker(first.getContext(), first.apiToken, request, TOUCAN_WORKER_POST_DATA_TYPE.TAGS, 
+					endpoints.get(change), opname, first.isIgnoreSSLErrors(), null);
+			res.setChainKey(first.getChainKey());
+			return res;
+		}
+		
+	}
+	
+}
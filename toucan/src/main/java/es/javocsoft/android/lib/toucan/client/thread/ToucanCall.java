@@ -0,0 +1,348 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.util.Log;
+import es.javocsoft.android.lib.toolbox.ToolBox;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+
+/**
+ * Handle of a launched Toucan API operation.<br><br>
+ *
+ * Allows to know the status of the operation, to cancel it while it is 
+ * not yet running, to wait for it with a timeout and to register listeners 
+ * that are run, without creating new threads, when the operation settles.
+ * <br><br>
+ * An operation is settled when it is done, failed, cancelled or when it has
+ * been cached to disk to be delivered later by the pending operations 
+ * delivery service.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class ToucanCall {
+
+	/** The status of an operation. */
+	public static enum TOUCAN_CALL_STATUS {QUEUED, IN_FLIGHT, CACHED, DONE, CANCELLED, FAILED, REJECTED};
+	
+	/**
+	 * Listener of the operation completion. It is run in the thread that 
+	 * settles the operation, or in the thread that registers it if the 
+	 * operation is already settled, so it should be short.
+	 */
+	public interface CompletionListener {
+		public void onComplete(ToucanCall call);
+	}
+	
+	
+	private final String opname;
+	private final ToucanWorker operation;
+	
+	private final Object lock = new Object();
+	private TOUCAN_CALL_STATUS status;
+	private Response response;
+	private String error;
+	private List<CompletionListener> listeners;
+	
+	
+	ToucanCall(ToucanWorker operation) {
+		this(operation.getOperationName(), operation);
+	}
+	
+	private ToucanCall(String opname, ToucanWorker operation) {
+		this.opname = opname;
+		this.operation = operation;
+		this.status = TOUCAN_CALL_STATUS.QUEUED;
+	}
+	
+	/**
+	 * Creates an already failed call, for operations that could not 
+	 * even be launched.
+	 * 
+	 * @param opname	The operation name.
+	 * @return
+	 */
+	public static ToucanCall failedCall(String opname) {
+		ToucanCall call = new ToucanCall(opname, null);
+		call.status = TOUCAN_CALL_STATUS.FAILED;
+		return call;
+	}
+	
+	
+	public String getOperationName() {
+		return opname;
+	}
+	
+	public String getJobId() {
+		return operation!=null?operation.getJobId():null;
+	}
+	
+	public TOUCAN_CALL_STATUS getStatus() {
+		synchronized (lock) {
+			return status;
+		}
+	}
+	
+	/**
+	 * Gets the server response, once the operation is done.
+	 * 
+	 * @return	The response or null if the operation is not done.
+	 */
+	public Response getResponse() {
+		synchronized (lock) {
+			return response;
+		}
+	}
+	
+	/**
+	 * Gets why the operation was rejected or failed before reaching the 
+	 * server.
+	 * 
+	 * @return	The error or null if there was none.
+	 */
+	public String getError() {
+		synchronized (lock) {
+			return error;
+		}
+	}
+	
+	public boolean isCancelled() {
+		return getStatus()==TOUCAN_CALL_STATUS.CANCELLED;
+	}
+	
+	public boolean isSettled() {
+		synchronized (lock) {
+			return isSettled(status);
+		}
+	}
+	
+	/**
+	 * Cancels the operation if it is not yet running. When the operation 
+	 * was cached to disk, the pending operation file is also deleted so it 
+	 * is never sent.
+	 * 
+	 * @return	TRUE if the operation was cancelled.
+	 */
+	public boolean cancel() {
+		List<CompletionListener> toNotify;
+		synchronized (lock) {
+			if(status!=TOUCAN_CALL_STATUS.QUEUED && status!=TOUCAN_CALL_STATUS.CACHED)
+				return false;
+			
+			status = TOUCAN_CALL_STATUS.CANCELLED;
+			lock.notifyAll();
+			toNotify = takeListeners();
+		}
+		
+		deletePendingFile();
+		notifyListeners(toNotify);
+		return true;
+	}
+	
+	/**
+	 * Waits until the operation is settled.
+	 * 
+	 * @param timeout	The maximum time to wait.
+	 * @param unit		The time unit of the timeout.
+	 * @return	TRUE if the operation is settled, FALSE if the time elapsed.
+	 * @throws InterruptedException
+	 */
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			while(!isSettled(status)) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining<=0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Adds a listener to run when the operation is settled. If it is 
+	 * already settled, the listener is run right now.
+	 * 
+	 * @param listener	The listener.
+	 * @return	This call, to allow chaining.
+	 */
+	public ToucanCall addCompletionListener(CompletionListener listener) {
+		synchronized (lock) {
+			if(!isSettled(status)) {
+				if(listeners==null)
+					listeners = new ArrayList<CompletionListener>();
+				listeners.add(listener);
+				return this;
+			}
+		}
+		
+		runListener(listener);
+		return this;
+	}
+	
+	
+	// STATUS CHANGES (done by the operation)
+	
+	/**
+	 * Marks the call as running.
+	 * 
+	 * @return	FALSE if the call was cancelled, or taken out to disk, and 
+	 * 			the operation must not run.
+	 */
+	boolean markInFlight() {
+		synchronized (lock) {
+			if(status!=TOUCAN_CALL_STATUS.QUEUED)
+				return false;
+			status = TOUCAN_CALL_STATUS.IN_FLIGHT;
+			return true;
+		}
+	}
+	
+	void markCached() {
+		settle(TOUCAN_CALL_STATUS.CACHED, null);
+	}
+	
+	/**
+	 * Takes a queued call out of the dispatcher because it is saved to disk.
+	 * 
+	 * @return	FALSE if the call is no longer queued.
+	 */
+	public boolean markCachedIfQueued() {
+		synchronized (lock) {
+			if(status!=TOUCAN_CALL_STATUS.QUEUED)
+				return false;
+		}
+		settle(TOUCAN_CALL_STATUS.CACHED, null);
+		return true;
+	}
+	
+	void markDone(Response response) {
+		settle(TOUCAN_CALL_STATUS.DONE, response);
+	}
+	
+	void markFailed(Response response) {
+		settle(TOUCAN_CALL_STATUS.FAILED, response);
+	}
+	
+	/**
+	 * Settles the call as the one of the operation it was sent in (a 
+	 * batch, a merged operation...).
+	 * 
+	 * @param sent		The call of the operation sent.
+	 * @param response	The response of this operation.
+	 */
+	void settleAs(ToucanCall sent, Response response) {
+		switch (sent.getStatus()) {
+			case DONE:
+				markDone(response);
+				break;
+			case CACHED:
+				//Sent later by the pending operations delivery service.
+				markCached();
+				break;
+			case REJECTED:
+				markRejected(sent.getError());
+				break;
+			default:
+				markFailed(sent.getResponse());
+				break;
+		}
+	}
+	
+	/**
+	 * Marks the call as rejected, the operation is never run.
+	 * 
+	 * @param error	Why the operation was rejected.
+	 */
+	public void markRejected(String error) {
+		synchronized (lock) {
+			this.error = error;
+		}
+		settle(TOUCAN_CALL_STATUS.REJECTED, null);
+	}
+	
+	
+	// AUXILIAR
+	
+	private void settle(TOUCAN_CALL_STATUS newStatus, Response response) {
+		List<CompletionListener> toNotify;
+		synchronized (lock) {
+			if(status==TOUCAN_CALL_STATUS.CANCELLED)
+				return;
+			this.status = newStatus;
+			this.response = response;
+			lock.notifyAll();
+			toNotify = takeListeners();
+		}
+		notifyListeners(toNotify);
+	}
+	
+	private List<CompletionListener> takeListeners() {
+		List<CompletionListener> res = listeners;
+		listeners = null;
+		return res;
+	}
+	
+	private void notifyListeners(List<CompletionListener> toNotify) {
+		if(toNotify!=null) {
+			for(CompletionListener listener:toNotify) {
+				runListener(listener);
+			}
+		}
+	}
+	
+	private void runListener(CompletionListener listener) {
+		try {
+			listener.onComplete(this);
+		}catch(Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "Completion listener of operation " + opname + " failed (" + e.getMessage() + ")", e);
+		}
+	}
+	
+	private void deletePendingFile() {
+		if(operation==null || operation.context==null)
+			return;
+		
+		Context context = operation.context;
+		String jobId = operation.getJobId();
+		try {
+			if(ToolBox.storage_checkIfFileExistsInInternalStorage(context, jobId)) {
+				ToolBox.storage_deleteDataFromInternalStorage(context, jobId);
+				Log.i(ToucanClient.LOG_TAG, "Cancelled operation request deleted from disk (" + jobId + ")");
+			}
+		}catch(Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "Cancelled operation request file could not be deleted [" + e.getMessage() + "].", e);
+		}
+	}
+	
+	private static boolean isSettled(TOUCAN_CALL_STATUS status) {
+		return status!=TOUCAN_CALL_STATUS.QUEUED && status!=TOUCAN_CALL_STATUS.IN_FLIGHT;
+	}
+	
+}
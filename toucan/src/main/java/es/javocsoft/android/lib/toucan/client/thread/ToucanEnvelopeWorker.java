@@ -0,0 +1,176 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.JsonParser;
+
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.OperationsEnvelopeRequest;
+import es.javocsoft.android.lib.toucan.client.request.bean.EnvelopeOperationBean;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.response.exception.ResponseParseException;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.CompletionListener;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest.HTTP_METHOD;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+
+/**
+ * POST operation that sends several pending operations together in one 
+ * {@link OperationsEnvelopeRequest}. See {@link EnvelopePacker}.<br><br>
+ * 
+ * The operations are not run on their own. When the server answers with
+ * the result of each one, each operation is finished with its result, as
+ * if it was sent alone. When the server does not support envelopes (HTTP
+ * 404, 405 or 501), the operations are dispatched on their own. When the 
+ * envelope is not sent or the server answers with an error, the operations
+ * are kept on disk, where they already are, and the envelope itself is 
+ * never saved.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class ToucanEnvelopeWorker extends ToucanWorker {
+
+	private final transient List<ToucanWorker> operations;
+	/** The server answered as it does not know the envelope endpoint */
+	private transient volatile boolean unsupported = false;
+	
+	
+	public ToucanEnvelopeWorker(Context context, String apiToken, String endpoint, boolean ignoreSSLErrors, List<ToucanWorker> operations) {
+		super(TOUCAN_WORKER_TYPE.POST, context, apiToken, buildRequest(operations), TOUCAN_WORKER_POST_DATA_TYPE.ENVELOPE, 
+				endpoint, ToucanClient.API_OPERATION_ENVELOPE, ignoreSSLErrors, null);
+		this.operations = Collections.unmodifiableList(new ArrayList<ToucanWorker>(operations));
+		this.chainKey = operations.get(0).getChainKey();
+		
+		//Not sent, the operations are still on disk.
+		call.addCompletionListener(new CompletionListener() {
+			@Override
+			public void onComplete(ToucanCall call) {
+				if(call.getStatus()!=TOUCAN_CALL_STATUS.DONE) {
+					for(ToucanWorker operation:ToucanEnvelopeWorker.this.operations) {
+						operation.getCall().markCached();
+					}
+				}
+			}
+		});
+	}
+	
+	
+	@Override
+	public void doWork() {
+		perform(new TransportRequest(HTTP_METHOD.POST, endpoint));
+	}
+	
+	public List<ToucanWorker> getOperations() {
+		return operations;
+	}
+	
+	/**
+	 * The priority of the most important operation in the envelope.
+	 */
+	@Override
+	public TOUCAN_WORKER_PRIORITY getPriority() {
+		TOUCAN_WORKER_PRIORITY res = TOUCAN_WORKER_PRIORITY.LOW;
+		for(ToucanWorker operation:operations) {
+			if(operation.getPriority().ordinal()<res.ordinal())
+				res = operation.getPriority();
+		}
+		return res;
+	}
+	
+	@Override
+	public boolean isPersistable() {
+		return false;
+	}
+	
+	@Override
+	public void spillToDisk() {
+		call.markCached();
+	}
+	
+	@Override
+	protected Response parseResponse(TransportResponse response) throws ResponseParseException {
+		int status = response.getStatusCode();
+		if(status==HttpURLConnection.HTTP_NOT_FOUND || status==HttpURLConnection.HTTP_BAD_METHOD || 
+				status==HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+			unsupported = true;
+			return new Response(Response.ERROR_BAD_REQUEST, "Operations envelope not supported (HTTP " + status + ")", null);
+		}
+		return super.parseResponse(response);
+	}
+	
+	@Override
+	protected void operationDone(boolean success, Response response) {
+		running = false;
+		if(!success) {
+			//The completion listener keeps the operations on disk.
+			call.markCached();
+			return;
+		}
+		
+		List<Response> results = unsupported?null:response.getItemResponses(operations.size());
+		if(results!=null) {
+			for(int i=0;i<operations.size();i++) {
+				operations.get(i).operationDone(true, results.get(i));
+			}
+			call.markDone(response);
+		}else if(unsupported) {
+			Log.w(ToucanClient.LOG_TAG, "Operations envelope not supported by the server [Code: " + response.getCode() + 
+					"]->" + response.getMsg() + ", sending its " + operations.size() + " operations on their own.");
+			EnvelopePacker.getInstance().onUnsupported(endpoint);
+			call.markDone(response);
+			for(ToucanWorker operation:operations) {
+				ToucanDispatcher.getInstance().dispatch(operation);
+			}
+		}else{
+			//The server could not run them, they are sent again later.
+			Log.w(ToucanClient.LOG_TAG, "Operations envelope failed [Code: " + response.getCode() + 
+					"]->" + response.getMsg() + ", its " + operations.size() + " operations are kept for a later delivery.");
+			call.markCached();
+		}
+	}
+	
+	
+	// AUXILIAR
+	
+	private static OperationsEnvelopeRequest buildRequest(List<ToucanWorker> operations) {
+		JsonParser parser = new JsonParser();
+		List<EnvelopeOperationBean> ops = new ArrayList<EnvelopeOperationBean>(operations.size());
+		for(ToucanWorker operation:operations) {
+			ops.add(new EnvelopeOperationBean(operation.getJobId(), operation.getOperationName(), 
+					operation.getType().name(), EnvelopePacker.getApiPath(operation.endpoint),
+					operation.dataString!=null?parser.parse(operation.dataString):null));
+		}
+		return new OperationsEnvelopeRequest(ops);
+	}
+	
+}
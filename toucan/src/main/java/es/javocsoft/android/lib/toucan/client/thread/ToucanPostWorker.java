@@ -21,18 +21,10 @@
  */
 package es.javocsoft.android.lib.toucan.client.thread;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import android.content.Context;
-import android.util.Log;
-import es.javocsoft.android.lib.toolbox.ToolBox;
-import es.javocsoft.android.lib.toolbox.ToolBox.HTTP_METHOD;
-import es.javocsoft.android.lib.toolbox.json.GsonProcessor;
-import es.javocsoft.android.lib.toucan.client.ToucanClient;
-import es.javocsoft.android.lib.toucan.client.response.Response;
-import es.javocsoft.android.lib.toucan.client.response.exception.ResponseParseException;
 import es.javocsoft.android.lib.toucan.client.thread.callback.ResponseCallback;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest.HTTP_METHOD;
 
 /**
  * POST operation to JavocSoft Toucan Notifications API.
@@ -53,44 +45,9 @@ public class ToucanPostWorker extends ToucanWorker {
 	}
 	
 	@Override
-	public void doWork() {			
-		//Do the POST request to the API			
-		try {
-			//Prepare header data for Toucan API
-			Map<String, String> headersData = new HashMap<String, String>();
-			headersData.put("Authorization", "ttmSecTKN " + apiToken);
-			
-			String jsonData = GsonProcessor.getInstance().getGsonWithExposedFilter().toJson(data);
-			String finalUrl = (endpoint);
-
-			Log.i(ToucanClient.LOG_TAG, opname.toUpperCase() + ". Request <<" + jsonData +
-					">>. Sent to Toucan API. IgnoreSSL? " + ignoreSSLErrors);
-
-			String jsonDataKey = null;
-        	String response = ToolBox.net_httpclient_doAction(
-        			HTTP_METHOD.POST, 
-        			finalUrl, 
-        			jsonDataKey, jsonData, headersData, ignoreSSLErrors);
-        	
-        	Log.i(ToucanClient.LOG_TAG, opname.toUpperCase() + ". Request <<" + jsonData + 
-                    ">>. Sent to Toucan API. Call response '" + response + "'");               
-        	        	
-        	Response res = parseResponse(response);
-        	if(res.getCode()==Response.RESULT_OK){
-				Log.i(ToucanClient.LOG_TAG, "Operation done and response from server OK.");
-			}else{
-				Log.i(ToucanClient.LOG_TAG, "Operation done but response code not OK [Code: " + res.getCode() + "]->" + res.getMsg());				    				
-			}
-        	
-        	operationDone(true, res);
-        
-		}catch(ResponseParseException e) {
-			Log.e(ToucanClient.LOG_TAG, "Error parsing server response for operation '" + opname.toUpperCase() + "' request to Toucan API (" + e.getMessage() + ")", e);
-			operationDone(false, null);
-    	}catch(Exception e) {
-    		Log.e(ToucanClient.LOG_TAG, "Error in operation " + opname.toUpperCase() + " request to Toucan API (" + e.getMessage() + ")", e);
-    		operationDone(false, null);
-    	}
+	public void doWork() {
+		//Do the POST request to the API, through the operation pipeline
+		perform(new TransportRequest(HTTP_METHOD.POST, endpoint));
 	}
 	
-}
\ No newline at end of file
+}
@@ -22,6 +22,8 @@
 package es.javocsoft.android.lib.toucan.client.thread;
 
 import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import android.content.Context;
 import android.util.Log;
@@ -33,25 +35,40 @@ import es.javocsoft.android.lib.toolbox.ToolBox;
 import es.javocsoft.android.lib.toolbox.ToolBox.HASH_TYPE;
 import es.javocsoft.android.lib.toolbox.json.GsonProcessor;
 import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.ACKBatchRequest;
 import es.javocsoft.android.lib.toucan.client.request.ACKRequest;
 import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
 import es.javocsoft.android.lib.toucan.client.request.DeviceRegistrationRequest;
 import es.javocsoft.android.lib.toucan.client.response.Response;
 import es.javocsoft.android.lib.toucan.client.response.exception.ResponseParseException;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.callback.CallbackDispatcher;
 import es.javocsoft.android.lib.toucan.client.thread.callback.ResponseCallback;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
+import es.javocsoft.android.lib.toucan.client.thread.interceptor.OperationPipeline;
+import es.javocsoft.android.lib.toucan.client.transport.DeadlineExceededException;
+import es.javocsoft.android.lib.toucan.client.transport.ResponseTooLargeException;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
 
 /**
- * Base API operation request to JavocSoft Toucan Notifications API.
+ * Base API operation request to JavocSoft Toucan Notifications API.<br><br>
+ *
+ * A worker is a plain task record, it is run by the {@link ToucanDispatcher}
+ * thread pool instead of having its own thread.
  *
  * @author JavocSoft, 2017
  * @since 2017
  *
  */
-public abstract class ToucanWorker extends Thread implements Runnable {
+public abstract class ToucanWorker implements Runnable {
 
 	public static enum TOUCAN_WORKER_TYPE {GET, POST};
-	public static enum TOUCAN_WORKER_POST_DATA_TYPE {REGISTRATION, ACK, TAGS};
-	
+	public static enum TOUCAN_WORKER_POST_DATA_TYPE {REGISTRATION, ACK, TAGS, ACK_BATCH, ENVELOPE};
+	/** How an operation depends on the previous ones of the same device. */
+	public static enum TOUCAN_WORKER_DEPENDENCY {LIFECYCLE, TAGS, ACK};
+	/** Priority classes of the operations, from the most important. */
+	public static enum TOUCAN_WORKER_PRIORITY {CRITICAL, HIGH, NORMAL, LOW};
 	
 	protected transient Context context;
 	
@@ -84,6 +101,23 @@ public abstract class ToucanWorker extends Thread implements Runnable {
 	protected ResponseCallback callback;
 	@Expose
 	protected String callbackString;
+	/** Callbacks of the items of a batch, in the order of the items. */
+	@Expose
+	protected List<String> batchCallbackStrings;
+	/** Jobs of the items of a batch, when they are saved on disk on their own. */
+	protected transient List<String> batchJobIds;
+	/** The pending operations file, shared with others, the operation was recovered from. */
+	protected transient String batchFile;
+	
+	/** Operations with the same chain key (the device unique id) are ordered. */
+	@Expose
+	protected String chainKey;
+	
+	/** The handle given to the caller of the operation */
+	protected transient ToucanCall call;
+	
+	/** {@link System#nanoTime()} when the operation runs out of time, 0 for none. */
+	protected transient long deadlineNanos = 0;
 	
 	
 	public ToucanWorker(TOUCAN_WORKER_TYPE type, Context context, String apiToken, String endpoint, String opName, boolean ignoreSSLErrors, ResponseCallback callback) {
@@ -122,23 +156,212 @@ public abstract class ToucanWorker extends Thread implements Runnable {
 		//We create the unique JobName				
 		jsonData = GsonProcessor.getInstance().getGsonWithExposedFilter().toJson(this);
 		this.jobName = ToucanClient.CACHED_REQUEST_FILE_PREFIX + ToolBox.crypto_getHASH(jsonData.getBytes(), HASH_TYPE.sha1);		
+		this.call = new ToucanCall(this);
 	}
 	
 	@Override
 	public void run() {
+		if(!call.markInFlight()) {
+			Log.i(ToucanClient.LOG_TAG, "Operation " + opname + " " + call.getStatus() + ", not sent (" + jobName + ")");
+			return;
+		}
+		
+		if(isExpired()) {
+			operationExpired("before being sent");
+			return;
+		}
+		
 		running = true;
 		if(ToolBox.net_isNetworkAvailable(context)){
 			doWork();
-		}		
+		}else{
+			//We keep it for a later delivery
+			operationDone(false, null);
+		}
+	}
+	
+	/**
+	 * Queues the operation in the shared {@link ToucanDispatcher}. No
+	 * new thread is created.
+	 */
+	public void start() {
+		ToucanDispatcher.getInstance().dispatch(this);
 	}
 	
 	public String getJobId() {
 		return jobName;
 	}
 	
+	/**
+	 * Gets the handle of the operation.
+	 * 
+	 * @return
+	 */
+	public ToucanCall getCall() {
+		return call;
+	}
+	
+	/**
+	 * Notifies that the operation was saved to disk, without being run, 
+	 * for a later delivery.
+	 */
+	public void operationCached() {
+		call.markCached();
+	}
+	
+	/**
+	 * Gets whether the operation is saved to disk when it is not sent. 
+	 * Operations made of others that are already on disk are not.
+	 * 
+	 * @return
+	 */
+	public boolean isPersistable() {
+		return true;
+	}
+	
+	/**
+	 * Gets whether what the operation sends is already saved on disk, in a
+	 * pending operations file of its own (or of its items, for a batch), so
+	 * it is delivered from there if it is not sent.
+	 * 
+	 * @return
+	 */
+	public boolean isOnDisk() {
+		if(batchJobIds!=null) {
+			for(String jobId:batchJobIds) {
+				if(!ToolBox.storage_checkIfFileExistsInInternalStorage(context, jobId))
+					return false;
+			}
+			return true;
+		}
+		return ToolBox.storage_checkIfFileExistsInInternalStorage(context, jobName);
+	}
+	
+	/**
+	 * Gets the pending operations file, shared with other operations, the 
+	 * operation was recovered from.
+	 * 
+	 * @return	The file name, null if it was not recovered from one.
+	 */
+	public String getBatchFile() {
+		return batchFile;
+	}
+	
+	public void setBatchFile(String batchFile) {
+		this.batchFile = batchFile;
+	}
+	
+	/**
+	 * Gets whether an identical operation launched while this one is in 
+	 * flight may share its response instead of being sent. Only operations
+	 * whose repetition changes nothing in the server are.
+	 * 
+	 * @return
+	 */
+	public boolean isShareable() {
+		return false;
+	}
+	
+	/**
+	 * Gets what the operation sends to the server. Unlike the job id, it
+	 * does not include the callback, so the same operation launched from
+	 * different places has the same content key.
+	 * 
+	 * @return
+	 */
+	public String getContentKey() {
+		return typeInt + "|" + opname + "|" + endpoint + "|" + apiToken + "|" + 
+				ignoreSSLErrors + "|" + (dataString!=null?dataString:"");
+	}
+	
+	/**
+	 * Settles the operation, without sending it, with the result of an 
+	 * identical one that was in flight. Its own callback is run.
+	 * 
+	 * @param shared	The call of the operation sent.
+	 */
+	public void operationShared(ToucanCall shared) {
+		if(!call.markInFlight())
+			return;
+		
+		if(shared.getStatus()==TOUCAN_CALL_STATUS.DONE) {
+			try {
+				//It may be a pending operation, delivered from disk.
+				if(ToolBox.storage_checkIfFileExistsInInternalStorage(context, jobName)) {
+					ToolBox.storage_deleteDataFromInternalStorage(context, jobName);
+					Log.i(ToucanClient.LOG_TAG, "Pending operation request deleted form disk (" + jobName + ")");
+				}
+				
+				launchCallback(callbackString, shared.getResponse());
+			} catch (Exception e) {
+				Log.e(ToucanClient.LOG_TAG, "Pending operation request cached file could not be deleted [" +e.getMessage() + "].",e);
+			}
+			call.markDone(shared.getResponse());
+		}else if(shared.getStatus()==TOUCAN_CALL_STATUS.CACHED) {
+			//Its callback is run when delivered later.
+			spillToDisk();
+		}else{
+			call.settleAs(shared, shared.getResponse());
+		}
+	}
+	
+	/**
+	 * Saves the operation to disk, it stays queued.
+	 * 
+	 * @return	TRUE if saved.
+	 */
+	boolean saveToDisk() {
+		return cacheOperationRequest(this);
+	}
+	
+	/**
+	 * Saves the operation to disk, without running it, for a later 
+	 * delivery.
+	 */
+	public void spillToDisk() {
+		cacheOperationRequest(this);
+		call.markCached();
+	}
+	
+	/**
+	 * Starts the time budget of the operation. It covers the time queued, 
+	 * connecting, sending and reading the response.
+	 * 
+	 * @param budgetMillis	The budget. With 0 or less, there is no deadline.
+	 */
+	public void startDeadline(long budgetMillis) {
+		deadlineNanos = budgetMillis>0?System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis):0;
+	}
+	
+	public boolean isExpired() {
+		return deadlineNanos!=0 && System.nanoTime() - deadlineNanos>=0;
+	}
+	
 	public String getOperationName() {
 		return opname;
 	}
+	
+	public String getApiToken() {
+		return apiToken;
+	}
+	
+	/**
+	 * Gets the request data of a POST operation.
+	 * 
+	 * @return
+	 */
+	public Object getData() {
+		return data;
+	}
+	
+	/**
+	 * Gets when the operation runs out of time, as {@link System#nanoTime()}. 
+	 * 
+	 * @return	The deadline or 0 if there is none.
+	 */
+	public long getDeadline() {
+		return deadlineNanos;
+	}
 
 	public boolean isIgnoreSSLErrors() {
 		return ignoreSSLErrors;
@@ -160,6 +383,83 @@ public abstract class ToucanWorker extends Thread implements Runnable {
 		this.context = context;		
 	}
 	
+	public Context getContext() {
+		return context;
+	}
+	
+	/**
+	 * Gets the approximate size, in bytes, of the serialized data held 
+	 * by the operation (request data, operation and callback JSON).
+	 * 
+	 * @return
+	 */
+	public int getPayloadSize() {
+		return (dataString!=null?dataString.length():0) + 
+				(jsonData!=null?jsonData.length():0) + 
+				(callbackString!=null?callbackString.length():0);
+	}
+	
+	public String getChainKey() {
+		return chainKey;
+	}
+	public void setChainKey(String chainKey) {
+		this.chainKey = chainKey;
+	}
+	
+	/**
+	 * Gets how this operation must be ordered against the previous 
+	 * operations of the same chain:
+	 * <ul>
+	 * 	<li>LIFECYCLE: registration, un-registration and enabling. Wait for 
+	 * 	any previous operation but ACKs, and any later operation waits 
+	 * 	for them.</li>
+	 * 	<li>TAGS: tag changes and listing. Run one after another.</li>
+	 * 	<li>ACK: independent between them.</li>
+	 * </ul>
+	 * 
+	 * @return
+	 */
+	public TOUCAN_WORKER_DEPENDENCY getDependencyType() {
+		if(type==TOUCAN_WORKER_TYPE.POST) {
+			if(dataType==TOUCAN_WORKER_POST_DATA_TYPE.ACK || dataType==TOUCAN_WORKER_POST_DATA_TYPE.ACK_BATCH) {
+				return TOUCAN_WORKER_DEPENDENCY.ACK;
+			}else if(dataType==TOUCAN_WORKER_POST_DATA_TYPE.TAGS) {
+				return TOUCAN_WORKER_DEPENDENCY.TAGS;
+			}
+		}else if(ToucanClient.API_OPERATION_LIST_TAGS.equals(opname)) {
+			return TOUCAN_WORKER_DEPENDENCY.TAGS;
+		}
+		
+		return TOUCAN_WORKER_DEPENDENCY.LIFECYCLE;
+	}
+	
+	/**
+	 * Gets the priority class of the operation:
+	 * <ul>
+	 * 	<li>CRITICAL: device registration (token updates), un-registration 
+	 * 	and enabling.</li>
+	 * 	<li>HIGH: install referral and tag changes.</li>
+	 * 	<li>NORMAL: tag listing.</li>
+	 * 	<li>LOW: notification ACKs.</li>
+	 * </ul>
+	 * 
+	 * @return
+	 */
+	public TOUCAN_WORKER_PRIORITY getPriority() {
+		if(ToucanClient.API_OPERATION_INFORM_REFERRAL.equals(opname))
+			return TOUCAN_WORKER_PRIORITY.HIGH;
+		
+		switch (getDependencyType()) {
+			case ACK:
+				return TOUCAN_WORKER_PRIORITY.LOW;
+			case TAGS:
+				return ToucanClient.API_OPERATION_LIST_TAGS.equals(opname)?
+						TOUCAN_WORKER_PRIORITY.NORMAL:TOUCAN_WORKER_PRIORITY.HIGH;
+			default:
+				return TOUCAN_WORKER_PRIORITY.CRITICAL;
+		}
+	}
+	
 	/**
 	 * Recreates a POSt data object from the JSOn string.
 	 */
@@ -175,6 +475,9 @@ public abstract class ToucanWorker extends Thread implements Runnable {
 				}else if(dataType==TOUCAN_WORKER_POST_DATA_TYPE.TAGS){
 					AppDevTagsOperationRequest tagsRequest = GsonProcessor.getInstance().getGsonWithExposedFilter().fromJson(dataString, AppDevTagsOperationRequest.class);
 					this.data = tagsRequest;
+				}else if(dataType==TOUCAN_WORKER_POST_DATA_TYPE.ACK_BATCH){
+					ACKBatchRequest batchRequest = GsonProcessor.getInstance().getGsonWithExposedFilter().fromJson(dataString, ACKBatchRequest.class);
+					this.data = batchRequest;
 				}
 			}else{
 				Log.i(ToucanClient.LOG_TAG, "Unknown data format.");
@@ -192,106 +495,187 @@ public abstract class ToucanWorker extends Thread implements Runnable {
 	protected void operationDone(boolean success, final Response response) {
 		running = false;
 		if(success) {
-			try {
-				if(ToolBox.storage_checkIfFileExistsInInternalStorage(context, jobName)) {
-					ToolBox.storage_deleteDataFromInternalStorage(context, jobName);
-					Log.i(ToucanClient.LOG_TAG, "Pending operation request deleted form disk (" + jobName + ")");
+			finishOperation(response);
+			call.markDone(response);
+		}else{
+			//We save to try again later
+			cacheOperationRequest(this);
+			call.markCached();
+		}
+	}
+	
+	/**
+	 * The operation can not succeed, sending it again would fail the same
+	 * way. It is not saved for a later delivery, its callbacks run with the 
+	 * error response.
+	 * 
+	 * @param response	The error response.
+	 */
+	protected void operationFailed(Response response) {
+		running = false;
+		finishOperation(response);
+		call.markFailed(response);
+	}
+	
+	/**
+	 * Deletes the operation from disk, if it was saved, and runs its 
+	 * callbacks with the response.
+	 * 
+	 * @param response
+	 */
+	private void finishOperation(Response response) {
+		try {
+			if(ToolBox.storage_checkIfFileExistsInInternalStorage(context, jobName)) {
+				ToolBox.storage_deleteDataFromInternalStorage(context, jobName);
+				Log.i(ToucanClient.LOG_TAG, "Pending operation request deleted form disk (" + jobName + ")");
+			}
+			
+			launchCallback(callbackString, response);
+			if(batchCallbackStrings!=null) {
+				//Each item of a batch has its own result and callback.
+				List<Response> itemResponses = ACKBatcher.splitResponse(response, batchCallbackStrings.size());
+				for(int i=0;i<batchCallbackStrings.size();i++) {
+					launchCallback(batchCallbackStrings.get(i), itemResponses.get(i));
 				}
+			}
+		} catch (Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "Pending operation request cached file could not be deleted [" +e.getMessage() + "].",e);
+		}
+	}
+	
+	/**
+	 * Recreates the callback of the operation, or of an item of a batch, and 
+	 * runs it with the response.
+	 * 
+	 * @param callbackString	The callback as JSON, may be null.
+	 * @param response			The response.
+	 */
+	private void launchCallback(String callbackString, final Response response) {
+		if(callbackString!=null && callbackString.length()>0) {
+			//TODO FIX. Until we discover why we can not access to any
+			//			of the method of a recovered ResponseCallback we
+			//			recreate it by this way, from the JSON string.
+			
+			String[] cbInfo = callbackString.split(","); //Just in case there are more fields.
+			if(cbInfo!=null && cbInfo.length>=1) {
 				
-				if(callbackString!=null && callbackString.length()>0) {
-					//TODO FIX. Until we discover why we can not access to any
-					//			of the method of a recovered ResponseCallback we
-					//			recreate it by this way, from the JSON string.
+				//Look for the custom assigned to operation callback class
+				String callbackClassName = null;
+				String callbackOperation = null;
+				String[] cbFieldInfo = null;
+				for(String cbClassField:cbInfo){
+					//Purge the string
+					cbClassField = cbClassField.replaceAll("\"", "")
+												.replaceAll("\\{", "")
+												.replaceAll("\\}", "");
 					
-					String[] cbInfo = callbackString.split(","); //Just in case there are more fields.
-					if(cbInfo!=null && cbInfo.length>=1) {
-						
-						//Look for the custom assigned to operation callback class
-						String callbackClassName = null;
-						String callbackOperation = null;
-						String[] cbFieldInfo = null;
-						for(String cbClassField:cbInfo){
-							//Purge the string
-							cbClassField = cbClassField.replaceAll("\"", "")
-														.replaceAll("\\{", "")
-														.replaceAll("\\}", "");
-							
-							cbFieldInfo = cbClassField.split(":");
-							if(cbFieldInfo!=null && cbFieldInfo.length==2) {								
-								String cbField = cbFieldInfo[0];
-								if(cbField.equals("callbackClassName")) {
-									String cbFieldvalue = cbFieldInfo[1];
-									callbackClassName = cbFieldvalue;									
-								}else if(cbField.equals("callbackOperation")) {
-									callbackOperation = cbFieldInfo[1];
-								}
-							}
+					cbFieldInfo = cbClassField.split(":");
+					if(cbFieldInfo!=null && cbFieldInfo.length==2) {								
+						String cbField = cbFieldInfo[0];
+						if(cbField.equals("callbackClassName")) {
+							String cbFieldvalue = cbFieldInfo[1];
+							callbackClassName = cbFieldvalue;									
+						}else if(cbField.equals("callbackOperation")) {
+							callbackOperation = cbFieldInfo[1];
 						}
-						
-						
-						if(callbackClassName!=null) {
-							Log.i(ToucanClient.LOG_TAG, "Operation callback present (" + callbackClassName + "). launching it.");
-							
-							//We recover the callback
-							try {
-								//Instantiate using the constructor and casting to 
-								//the desired object
-								Class clazz = Class.forName(callbackClassName);
-								Constructor constructor = clazz.getConstructor();						
-								ResponseCallback rc = (ResponseCallback)clazz.cast(constructor.newInstance());
-								rc.setContext(context);
-								rc.setResponse(response);
-								if(callbackOperation!=null && callbackOperation.length()>0)
-									rc.setCallbackOperation(Integer.parseInt(callbackOperation));
-								Log.i(ToucanClient.LOG_TAG, "Operation callback recreated.");
-								rc.start();
-								Log.i(ToucanClient.LOG_TAG, "Operation callback (" + callbackClassName + "). launched.");
-								
-							} catch (ClassNotFoundException e) {
-								Log.e(ToucanClient.LOG_TAG, "No callback class found! [" + callbackClassName + "] :: " + e.getMessage(), e);
-							} catch (InstantiationException e) {
-								Log.e(ToucanClient.LOG_TAG, "Callback class instantation error! [" + callbackClassName + "] :: " + e.getMessage(), e);
-							} catch (NoSuchMethodException e) {
-								Log.e(ToucanClient.LOG_TAG, "No callback method found [" + callbackClassName + "] :: " + e.getMessage(), e);
-							} catch (IllegalArgumentException e) {
-								Log.e(ToucanClient.LOG_TAG, "Callback class method mismatch arguments! [" + callbackClassName + "] :: " + e.getMessage(), e);
-							} catch (Exception e) {
-								Log.e(ToucanClient.LOG_TAG, "Callback class unexpected execution error! [" + callbackClassName + "] :: " + e.getMessage(), e);
-							}
-						}					
-					}else{
-						Log.e(ToucanClient.LOG_TAG, "Callback class without anay field! Aborted.");
 					}
 				}
-			} catch (Exception e) {
-				Log.e(ToucanClient.LOG_TAG, "Pending operation request cached file could not be deleted [" +e.getMessage() + "].",e);
+				
+				
+				if(callbackClassName!=null) {
+					Log.i(ToucanClient.LOG_TAG, "Operation callback present (" + callbackClassName + "). launching it.");
+					
+					//We recover the callback
+					try {
+						//Instantiate using the constructor and casting to 
+						//the desired object
+						Class clazz = Class.forName(callbackClassName);
+						Constructor constructor = clazz.getConstructor();						
+						ResponseCallback rc = (ResponseCallback)clazz.cast(constructor.newInstance());
+						rc.setContext(context);
+						rc.setResponse(response);
+						if(callbackOperation!=null && callbackOperation.length()>0)
+							rc.setCallbackOperation(Integer.parseInt(callbackOperation));
+						Log.i(ToucanClient.LOG_TAG, "Operation callback recreated.");
+						rc.start();
+						Log.i(ToucanClient.LOG_TAG, "Operation callback (" + callbackClassName + "). launched.");
+						
+					} catch (ClassNotFoundException e) {
+						Log.e(ToucanClient.LOG_TAG, "No callback class found! [" + callbackClassName + "] :: " + e.getMessage(), e);
+					} catch (InstantiationException e) {
+						Log.e(ToucanClient.LOG_TAG, "Callback class instantation error! [" + callbackClassName + "] :: " + e.getMessage(), e);
+					} catch (NoSuchMethodException e) {
+						Log.e(ToucanClient.LOG_TAG, "No callback method found [" + callbackClassName + "] :: " + e.getMessage(), e);
+					} catch (IllegalArgumentException e) {
+						Log.e(ToucanClient.LOG_TAG, "Callback class method mismatch arguments! [" + callbackClassName + "] :: " + e.getMessage(), e);
+					} catch (Exception e) {
+						Log.e(ToucanClient.LOG_TAG, "Callback class unexpected execution error! [" + callbackClassName + "] :: " + e.getMessage(), e);
+					}
+				}					
+			}else{
+				Log.e(ToucanClient.LOG_TAG, "Callback class without anay field! Aborted.");
 			}
-		}else{
-			//We save to try again later
-			cacheOperationRequest(this);
 		}
 	}
 	
 	/**
-	 * parses the server response.
+	 * The operation ran out of time. As any other failed operation, it is 
+	 * saved for a later delivery.
+	 * 
+	 * @param when	When it happened, for the log.
+	 */
+	protected void operationExpired(String when) {
+		Log.w(ToucanClient.LOG_TAG, "Operation " + opname.toUpperCase() + " out of time " + when + ", saved for later delivery (" + jobName + ")");
+		ToucanDispatcher.getInstance().getDeadlinePolicy().onExpired();
+		operationDone(false, null);
+	}
+	
+	/**
+	 * Sends the request of the operation through the {@link OperationPipeline} 
+	 * and finishes the operation with the API response.
 	 * 
-	 * @param jsonResponse
+	 * @param request	The request. The body of POST operations is set by the
+	 * 					pipeline, from the operation data.
+	 */
+	protected void perform(TransportRequest request) {
+		try {
+			Response res = parseResponse(OperationPipeline.getInstance().execute(this, request));
+			if(res.getCode()==Response.RESULT_OK){
+				Log.i(ToucanClient.LOG_TAG, "Operation done and response from server OK.");
+			}else{
+				Log.i(ToucanClient.LOG_TAG, "Operation done but response code not OK [Code: " + res.getCode() + "]->" + res.getMsg());				    				
+			}
+			
+			operationDone(true, res);
+			
+		}catch(DeadlineExceededException e) {
+			operationExpired("while being sent");
+		}catch(ResponseTooLargeException e) {
+			//The server would answer the same again.
+			Log.e(ToucanClient.LOG_TAG, "Operation " + opname.toUpperCase() + " response discarded, not sent again (" + e.getMessage() + ")");
+			operationFailed(new Response(Response.ERROR_UNEXPECTED, "Response too large (" + e.getMessage() + ")", null));
+		}catch(ResponseParseException e) {
+			Log.e(ToucanClient.LOG_TAG, "Error parsing server response for operation '" + opname.toUpperCase() + "' request to Toucan API (" + e.getMessage() + ")", e);
+			operationDone(false, null);
+		}catch(Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "Error in operation " + opname.toUpperCase() + " request to Toucan API (" + e.getMessage() + ")", e);
+			operationDone(false, null);
+		}
+	}
+	
+	/**
+	 * Gets the server response decoded while it was read.
+	 * 
+	 * @param response
 	 * @return
 	 */
-	protected Response parseResponse(String jsonResponse) throws ResponseParseException {
-		Response result = null;
-    	try{
-    		result = GsonProcessor.getInstance().getGsonWithExposedFilter().fromJson(jsonResponse, Response.class);
-    		if(result==null) {
-    			Log.e(ToucanClient.LOG_TAG, "Operation done but response could not be parsed");
-    			throw new ResponseParseException("Response could not be parsed");
-    		}
-    	}catch(Exception e) {
-    		Log.e(ToucanClient.LOG_TAG, "Operation done but response parsing exception happened [" +e.getMessage() +"]", e);
-    		throw new ResponseParseException("Response could not be parsed [" + e.getMessage() + "]", e);
-    	}
-    	
-    	return result;
+	protected Response parseResponse(TransportResponse response) throws ResponseParseException {
+		if(response.getDecodedBody() instanceof Response) {
+			return (Response)response.getDecodedBody();
+		}
+		
+		Log.e(ToucanClient.LOG_TAG, "Operation done but response could not be parsed [" + response.getBodyExcerpt() + "]");
+		throw new ResponseParseException("Response could not be parsed");
 	}
 	
 	
@@ -306,8 +690,13 @@ public abstract class ToucanWorker extends Thread implements Runnable {
 		
 		ToucanWorker temp = GsonProcessor.getInstance().getGsonWithExposedFilter().fromJson(jsonData, ToucanPostWorker.class);
 		res = new ToucanPostWorker(temp);
+		res.chainKey = temp.chainKey;
+		//Keep the name of the pending file, so it is deleted once delivered.
+		if(temp.jobName!=null)
+			res.jobName = temp.jobName;
 		if(temp.callbackString!=null && temp.callbackString.length()>0)
 			res.callbackString = temp.callbackString;
+		res.batchCallbackStrings = temp.batchCallbackStrings;
 		
 		return res;
 	}
@@ -323,6 +712,10 @@ public abstract class ToucanWorker extends Thread implements Runnable {
 		
 		ToucanWorker temp = GsonProcessor.getInstance().getGsonWithExposedFilter().fromJson(jsonData, ToucanGetWorker.class);
 		res = new ToucanGetWorker(temp);		
+		res.chainKey = temp.chainKey;
+		//Keep the name of the pending file, so it is deleted once delivered.
+		if(temp.jobName!=null)
+			res.jobName = temp.jobName;
 		if(temp.callbackString!=null && temp.callbackString.length()>0)
 			res.callbackString = temp.callbackString;
 		
@@ -340,15 +733,18 @@ public abstract class ToucanWorker extends Thread implements Runnable {
 	 * afterwards delivery try.
 	 * 
 	 * @param operation
+	 * @return	TRUE if saved.
 	 */
-	private void cacheOperationRequest(ToucanWorker operation) {
+	private boolean cacheOperationRequest(ToucanWorker operation) {
 		try{
 			String jsonData = GsonProcessor.getInstance().getGsonWithExposedFilter().toJson(operation);
 			String fileName = operation.getJobId();			
 			ToolBox.storage_storeDataInInternalStorage(context, fileName, jsonData.getBytes());
 			Log.i(ToucanClient.LOG_TAG, "Saved pending operation request to disk (" + operation.getOperationName() + "/" + operation.getJobId() + ")");
+			return true;
 		}catch(Exception e) {
 			Log.e(ToucanClient.LOG_TAG, "Error cacheOperationRequest() - Operation request could not be cached [" + e.getMessage() + "].",e);
+			return false;
 		}
 	}
 }
@@ -0,0 +1,192 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.callback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+
+/**
+ * Delivers the {@link ResponseCallback} of the finished operations.<br><br>
+ *
+ * The integrator chooses where callbacks are run:
+ * <ul>
+ * 	<li>MAIN_LOOPER: in the application main thread.</li>
+ * 	<li>POOL: in a thread shared by all the callbacks (default).</li>
+ * 	<li>DIRECT: in the thread that finished the operation.</li>
+ * </ul>
+ * Callbacks arriving while a delivery is already scheduled are added to it,
+ * so a burst of callbacks is handed off once. In the main thread, each
+ * handoff only runs the callbacks pending when it started, letting the
+ * application process its own messages between batches.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class CallbackDispatcher {
+
+	/** Where the callbacks are run. */
+	public static enum CALLBACK_DELIVERY_MODE {MAIN_LOOPER, POOL, DIRECT};
+
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+	private static final String THREAD_NAME = "ToucanCallback";
+
+	/** The shared callback dispatcher instance */
+	private static volatile CallbackDispatcher callbackDispatcher;
+
+	private volatile CALLBACK_DELIVERY_MODE deliveryMode = CALLBACK_DELIVERY_MODE.POOL;
+
+	private final Object lock = new Object();
+	private final List<ResponseCallback> pendingCallbacks = new ArrayList<ResponseCallback>();
+	private boolean deliveryScheduled = false;
+	private CALLBACK_DELIVERY_MODE scheduledMode;
+
+	private final ThreadPoolExecutor pool;
+	private Handler mainHandler;
+
+	private final Runnable deliveryTask = new Runnable() {
+		@Override
+		public void run() {
+			deliverPending();
+		}
+	};
+
+
+	public static CallbackDispatcher getInstance() {
+		if(callbackDispatcher==null) {
+			synchronized (CallbackDispatcher.class) {
+				if(callbackDispatcher==null) {
+					callbackDispatcher = new CallbackDispatcher();
+				}
+			}
+		}
+		return callbackDispatcher;
+	}
+
+	private CallbackDispatcher() {
+		pool = new ThreadPoolExecutor(1, 1,
+				THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, THREAD_NAME);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+
+	public CALLBACK_DELIVERY_MODE getDeliveryMode() {
+		return deliveryMode;
+	}
+	public void setDeliveryMode(CALLBACK_DELIVERY_MODE deliveryMode) {
+		if(deliveryMode!=null)
+			this.deliveryMode = deliveryMode;
+	}
+
+	/**
+	 * Runs the callback following the current delivery mode.
+	 *
+	 * @param callback	The callback, with its response already set.
+	 */
+	public void deliver(ResponseCallback callback) {
+		CALLBACK_DELIVERY_MODE mode = deliveryMode;
+		if(mode==CALLBACK_DELIVERY_MODE.DIRECT) {
+			runCallback(callback);
+			return;
+		}
+
+		synchronized (lock) {
+			pendingCallbacks.add(callback);
+			if(deliveryScheduled)
+				return;
+			deliveryScheduled = true;
+			scheduledMode = mode;
+		}
+		handOff(mode);
+	}
+
+
+	// AUXILIAR
+
+	private void deliverPending() {
+		List<ResponseCallback> batch;
+		synchronized (lock) {
+			batch = new ArrayList<ResponseCallback>(pendingCallbacks);
+			pendingCallbacks.clear();
+		}
+
+		for(ResponseCallback callback:batch) {
+			runCallback(callback);
+		}
+
+		CALLBACK_DELIVERY_MODE mode;
+		synchronized (lock) {
+			if(pendingCallbacks.isEmpty()) {
+				deliveryScheduled = false;
+				return;
+			}
+			mode = scheduledMode;
+		}
+		//More callbacks arrived meanwhile, they go in the next handoff.
+		handOff(mode);
+	}
+
+	private void handOff(CALLBACK_DELIVERY_MODE mode) {
+		try {
+			if(mode==CALLBACK_DELIVERY_MODE.MAIN_LOOPER) {
+				getMainHandler().post(deliveryTask);
+			}else{
+				pool.execute(deliveryTask);
+			}
+		}catch(Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "Callbacks could not be handed off, running them here (" + e.getMessage() + ")", e);
+			deliverPending();
+		}
+	}
+
+	private synchronized Handler getMainHandler() {
+		if(mainHandler==null) {
+			mainHandler = new Handler(Looper.getMainLooper());
+		}
+		return mainHandler;
+	}
+
+	private static void runCallback(ResponseCallback callback) {
+		try {
+			callback.run();
+		}catch(Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "Callback " + callback.getCallbackClassName() + " execution error! :: " + e.getMessage(), e);
+		}
+	}
+
+}
@@ -30,13 +30,16 @@ import es.javocsoft.android.lib.toucan.client.response.Response;
 
 
 /**
- * If a callback is needed, extend this class to achieve it.
+ * If a callback is needed, extend this class to achieve it.<br><br>
+ * 
+ * Callbacks are run by the {@link CallbackDispatcher}, see 
+ * {@link CallbackDispatcher.CALLBACK_DELIVERY_MODE}.
  *
  * @author JavocSoft, 2017
  * @since 2017
  *
  */
-public abstract class ResponseCallback extends Thread implements Runnable {
+public abstract class ResponseCallback implements Runnable {
 
 	protected static final String TAG = ToucanClient.LOG_TAG + "::CALLBACK";
 	
@@ -72,6 +75,14 @@ public abstract class ResponseCallback extends Thread implements Runnable {
 		callback();
 	}
 	
+	/**
+	 * Delivers the callback through the {@link CallbackDispatcher}. No
+	 * new thread is created.
+	 */
+	public void start() {
+		CallbackDispatcher.getInstance().deliver(this);
+	}
+	
 	public String getCallbackClassName() {
 		return callbackClassName;
 	}	
@@ -0,0 +1,216 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_DEPENDENCY;
+
+/**
+ * Bounds the number of operations, and the bytes of their serialized data, 
+ * that are kept in memory by the dispatcher (queued, waiting for another 
+ * operation or running).<br><br>
+ * 
+ * When an operation does not fit, the dispatcher applies the configured
+ * {@link ADMISSION_OVERFLOW_POLICY}.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class AdmissionController {
+
+	/** 
+	 * What to do with an operation that does not fit:
+	 * <ul>
+	 * 	<li>SPILL_TO_DISK: it is saved as a pending operation and sent later 
+	 * 	by the pending operations delivery service (default).</li>
+	 * 	<li>DROP_OLDEST_ACK: the oldest queued ACK is discarded to make room. 
+	 * 	If there is no ACK to discard, the operation is spilled to disk.</li>
+	 * 	<li>REJECT: the operation is not run and its call is rejected.</li>
+	 * </ul>
+	 */
+	public static enum ADMISSION_OVERFLOW_POLICY {SPILL_TO_DISK, DROP_OLDEST_ACK, REJECT};
+	
+	public static final int DEFAULT_MAX_OPERATIONS = 256;
+	public static final long DEFAULT_MAX_BYTES = 512 * 1024;
+	
+	private volatile int maxOperations = DEFAULT_MAX_OPERATIONS;
+	private volatile long maxBytes = DEFAULT_MAX_BYTES;
+	private volatile ADMISSION_OVERFLOW_POLICY overflowPolicy = ADMISSION_OVERFLOW_POLICY.SPILL_TO_DISK;
+	
+	private final Object lock = new Object();
+	/** Admitted operations not yet running, oldest first. */
+	private final Set<ToucanWorker> queued = new LinkedHashSet<ToucanWorker>();
+	/** Admitted operations being run. */
+	private final Set<ToucanWorker> running = new LinkedHashSet<ToucanWorker>();
+	private int admittedCount = 0;
+	private long admittedBytes = 0;
+	private long overflowCount = 0;
+	
+	
+	AdmissionController() {}
+	
+	
+	/**
+	 * Sets the admission limits.
+	 * 
+	 * @param maxOperations	Maximum number of operations kept in memory.
+	 * @param maxBytes		Maximum bytes of serialized data kept in memory.
+	 * @param overflowPolicy	What to do when an operation does not fit.
+	 */
+	public void setLimits(int maxOperations, long maxBytes, ADMISSION_OVERFLOW_POLICY overflowPolicy) {
+		this.maxOperations = Math.max(1, maxOperations);
+		this.maxBytes = Math.max(1, maxBytes);
+		if(overflowPolicy!=null)
+			this.overflowPolicy = overflowPolicy;
+	}
+	
+	public int getMaxOperations() {
+		return maxOperations;
+	}
+	
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	public ADMISSION_OVERFLOW_POLICY getOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	public int getAdmittedCount() {
+		synchronized (lock) {
+			return admittedCount;
+		}
+	}
+	
+	public long getAdmittedBytes() {
+		synchronized (lock) {
+			return admittedBytes;
+		}
+	}
+	
+	/**
+	 * Gets how many operations did not fit since the start.
+	 * 
+	 * @return
+	 */
+	public long getOverflowCount() {
+		synchronized (lock) {
+			return overflowCount;
+		}
+	}
+	
+	
+	// DISPATCHER OPERATIONS
+	
+	/**
+	 * Admits the operation if it fits in the limits.
+	 * 
+	 * @param operation	The operation.
+	 * @return	TRUE if admitted.
+	 */
+	boolean tryAdmit(ToucanWorker operation) {
+		int size = operation.getPayloadSize();
+		synchronized (lock) {
+			//An empty dispatcher always admits, even an operation bigger than the limit.
+			if(admittedCount>0 && 
+					(admittedCount + 1 > maxOperations || admittedBytes + size > maxBytes)) {
+				overflowCount++;
+				return false;
+			}
+			
+			queued.add(operation);
+			admittedCount++;
+			admittedBytes += size;
+			return true;
+		}
+	}
+	
+	/**
+	 * Takes out of the admitted operations the oldest ACK not yet running.
+	 * 
+	 * @return	The removed ACK or null if there is none.
+	 */
+	ToucanWorker evictOldestQueuedACK() {
+		synchronized (lock) {
+			Iterator<ToucanWorker> it = queued.iterator();
+			while(it.hasNext()) {
+				ToucanWorker operation = it.next();
+				if(operation.getDependencyType()==TOUCAN_WORKER_DEPENDENCY.ACK) {
+					it.remove();
+					admittedCount--;
+					admittedBytes -= operation.getPayloadSize();
+					return operation;
+				}
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Notifies that an admitted operation started to run.
+	 * 
+	 * @param operation	The operation.
+	 * @return	FALSE if the operation is no longer admitted (it was evicted).
+	 */
+	boolean started(ToucanWorker operation) {
+		synchronized (lock) {
+			if(!queued.remove(operation))
+				return false;
+			running.add(operation);
+			return true;
+		}
+	}
+	
+	/**
+	 * Gets the admitted operations, running ones first and then the 
+	 * queued ones, oldest first.
+	 * 
+	 * @return
+	 */
+	List<ToucanWorker> getAdmittedOperations() {
+		synchronized (lock) {
+			List<ToucanWorker> operations = new ArrayList<ToucanWorker>(running);
+			operations.addAll(queued);
+			return operations;
+		}
+	}
+	
+	/**
+	 * Frees the room used by a finished operation.
+	 * 
+	 * @param operation	The operation.
+	 */
+	void release(ToucanWorker operation) {
+		synchronized (lock) {
+			running.remove(operation);
+			admittedCount--;
+			admittedBytes -= operation.getPayloadSize();
+		}
+	}
+	
+}
@@ -0,0 +1,189 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+
+/**
+ * Pause asked by the server when it is overloaded. While it lasts, the 
+ * dispatcher does not start any operation, they stay queued, and the 
+ * pending operations delivery service keeps the saved ones on disk, so 
+ * the devices back off together instead of making the overload worse.
+ * <br><br>
+ * The server asks for a pause with:
+ * <ul>
+ * 	<li>HTTP 429 or 503. The pause is the one in the Retry-After header 
+ * 	(seconds or HTTP date), up to {@link #MAX_RETRY_AFTER_MILLIS}.</li>
+ * 	<li>{@code Response.ERROR_SYSTEM} or {@code Response.ERROR_DB}.</li>
+ * </ul>
+ * With no Retry-After, the pause starts at {@link #DEFAULT_INITIAL_PAUSE_MILLIS} 
+ * and doubles with each consecutive overload answer, up to the maximum 
+ * pause. It is randomized between half and all of it, so the devices do not
+ * come back all at once. A good answer resets it.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class BackpressureGate {
+
+	/** HTTP 429 Too Many Requests, not in {@link HttpURLConnection} */
+	public static final int HTTP_TOO_MANY_REQUESTS = 429;
+	
+	public static final long DEFAULT_INITIAL_PAUSE_MILLIS = 5 * 1000;
+	public static final long DEFAULT_MAX_PAUSE_MILLIS = 5 * 60 * 1000;
+	/** Longest pause taken from a Retry-After header. */
+	public static final long MAX_RETRY_AFTER_MILLIS = 60 * 60 * 1000;
+	
+	private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+	
+	private long initialPauseMillis = DEFAULT_INITIAL_PAUSE_MILLIS;
+	private long maxPauseMillis = DEFAULT_MAX_PAUSE_MILLIS;
+	/** {@link System#currentTimeMillis()} when the pause is over. */
+	private long pausedUntil = 0;
+	private int consecutiveOverloads = 0;
+	private long pauseCount = 0;
+	
+	
+	BackpressureGate() {}
+	
+	
+	/**
+	 * Sets the pause taken when the server gives none.
+	 * 
+	 * @param initialPauseMillis	Pause on the first overload answer.
+	 * @param maxPauseMillis		Maximum pause, after consecutive ones.
+	 */
+	public synchronized void configure(long initialPauseMillis, long maxPauseMillis) {
+		this.initialPauseMillis = Math.max(0, initialPauseMillis);
+		this.maxPauseMillis = Math.max(this.initialPauseMillis, maxPauseMillis);
+	}
+	
+	/**
+	 * Learns from a server answer whether it asks for a pause.
+	 * 
+	 * @param httpStatus	The HTTP status code.
+	 * @param retryAfter	The Retry-After header, may be null.
+	 * @param response		The API response, null if there is none.
+	 * @return	TRUE if the answer started or extended a pause.
+	 */
+	public boolean onResponse(int httpStatus, String retryAfter, Response response) {
+		boolean overloaded = httpStatus==HTTP_TOO_MANY_REQUESTS || 
+				httpStatus==HttpURLConnection.HTTP_UNAVAILABLE ||
+				(response!=null && (response.getCode()==Response.ERROR_SYSTEM || response.getCode()==Response.ERROR_DB));
+		
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			if(!overloaded) {
+				if(response!=null)
+					consecutiveOverloads = 0;
+				return false;
+			}
+			
+			consecutiveOverloads++;
+			long pause = parseRetryAfter(retryAfter, now);
+			if(pause<0) {
+				pause = backoff();
+			}
+			pause = Math.min(pause, MAX_RETRY_AFTER_MILLIS);
+			if(now + pause<=pausedUntil)
+				return false;
+			
+			pausedUntil = now + pause;
+			pauseCount++;
+		}
+		Log.w(ToucanClient.LOG_TAG, "Server overloaded (HTTP " + httpStatus + (response!=null?", code " + response.getCode():"") + 
+				"), operations paused for " + getRemainingMillis() + "ms.");
+		return true;
+	}
+	
+	public boolean isPaused() {
+		return getRemainingMillis()>0;
+	}
+	
+	/**
+	 * Gets the time left of the pause.
+	 * 
+	 * @return	The time, 0 if there is no pause.
+	 */
+	public synchronized long getRemainingMillis() {
+		return Math.max(0, pausedUntil - System.currentTimeMillis());
+	}
+	
+	/**
+	 * Gets how many times the server paused the operations since the start.
+	 * 
+	 * @return
+	 */
+	public synchronized long getPauseCount() {
+		return pauseCount;
+	}
+	
+	
+	/**
+	 * Parses a Retry-After header value.
+	 * 
+	 * @param retryAfter	The value, seconds or an HTTP date.
+	 * @param now			The current time.
+	 * @return	The pause in milliseconds, or -1 if there is no valid value.
+	 */
+	static long parseRetryAfter(String retryAfter, long now) {
+		if(retryAfter==null || retryAfter.trim().length()==0)
+			return -1;
+		
+		String value = retryAfter.trim();
+		try {
+			long seconds = Long.parseLong(value);
+			return seconds>=0?Math.min(seconds, MAX_RETRY_AFTER_MILLIS/1000) * 1000:-1;
+		}catch(NumberFormatException e) {
+			//Not seconds, it should be a date.
+		}
+		
+		try {
+			SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			return Math.max(0, format.parse(value).getTime() - now);
+		}catch(ParseException e) {
+			return -1;
+		}
+	}
+	
+	
+	// AUXILIAR
+	
+	private long backoff() {
+		long pause = initialPauseMillis;
+		for(int i=1;i<consecutiveOverloads && pause<maxPauseMillis;i++) {
+			pause *= 2;
+		}
+		pause = Math.min(pause, maxPauseMillis);
+		return pause/2 + (long)(Math.random() * (pause/2));
+	}
+	
+}
@@ -0,0 +1,191 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+/**
+ * Adaptive limit of the operations sent at the same time to the Toucan 
+ * API.<br><br>
+ * 
+ * The limit is driven by the latency and the failures of the finished 
+ * operations (AIMD with a latency gradient):
+ * <ul>
+ * 	<li>While the smoothed latency stays close to the best latency seen, the
+ * 	limit grows by one every time a whole limit of operations succeeds.</li>
+ * 	<li>When the smoothed latency grows over {@link #LATENCY_TOLERANCE} times 
+ * 	the best latency, the limit is slightly reduced.</li>
+ * 	<li>When an operation fails (network error or {@code Response.ERROR_SYSTEM}) 
+ * 	the limit is halved, at most once per latency period.</li>
+ * </ul>
+ * Operations over the limit stay queued until a running one finishes.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class ConcurrencyLimiter {
+
+	/** Latency over the best one, times, considered as congestion */
+	public static final double LATENCY_TOLERANCE = 2.0;
+	
+	private static final double LATENCY_SMOOTHING = 0.2;
+	/** The best latency slowly forgets, so route or server changes are learnt. */
+	private static final double BEST_LATENCY_DECAY = 1.01;
+	private static final double DECREASE_ON_FAILURE = 0.5;
+	private static final double DECREASE_ON_LATENCY = 0.9;
+	
+	private final Object lock = new Object();
+	private int minLimit;
+	private int maxLimit;
+	private double limit;
+	private int inFlight = 0;
+	private long rejectedCount = 0;
+	
+	private double smoothedLatency = -1;
+	private double bestLatency = -1;
+	private long lastDecreaseTime = 0;
+	
+	
+	ConcurrencyLimiter(int minLimit, int maxLimit) {
+		configure(minLimit, maxLimit);
+		this.limit = Math.max(this.minLimit, this.maxLimit/2);
+	}
+	
+	
+	/**
+	 * Sets the range where the limit can move.
+	 * 
+	 * @param minLimit	Minimum operations at the same time (at least 1).
+	 * @param maxLimit	Maximum operations at the same time. There are never 
+	 * 					more than {@link ToucanDispatcher#DEFAULT_POOL_SIZE}.
+	 */
+	public void configure(int minLimit, int maxLimit) {
+		synchronized (lock) {
+			this.minLimit = Math.max(1, minLimit);
+			this.maxLimit = Math.max(this.minLimit, maxLimit);
+			this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, limit));
+		}
+	}
+	
+	/**
+	 * Gets the current limit of operations at the same time.
+	 * 
+	 * @return
+	 */
+	public int getLimit() {
+		synchronized (lock) {
+			return (int)limit;
+		}
+	}
+	
+	public int getInFlight() {
+		synchronized (lock) {
+			return inFlight;
+		}
+	}
+	
+	/**
+	 * Gets how many times an operation had to wait because the limit was 
+	 * reached.
+	 * 
+	 * @return
+	 */
+	public long getRejectedCount() {
+		synchronized (lock) {
+			return rejectedCount;
+		}
+	}
+	
+	/**
+	 * Gets the smoothed latency of the operations, in milliseconds.
+	 * 
+	 * @return	The latency or -1 if no operation finished yet.
+	 */
+	public long getSmoothedLatency() {
+		synchronized (lock) {
+			return (long)smoothedLatency;
+		}
+	}
+	
+	
+	// DISPATCHER OPERATIONS
+	
+	boolean tryAcquire() {
+		synchronized (lock) {
+			if(inFlight>=(int)limit) {
+				rejectedCount++;
+				return false;
+			}
+			inFlight++;
+			return true;
+		}
+	}
+	
+	void release() {
+		synchronized (lock) {
+			inFlight--;
+		}
+	}
+	
+	/**
+	 * Gets how many more operations can be started right now.
+	 * 
+	 * @return
+	 */
+	int available() {
+		synchronized (lock) {
+			return Math.max(0, (int)limit - inFlight);
+		}
+	}
+	
+	/**
+	 * Learns from a finished operation.
+	 * 
+	 * @param latency	Time the operation took, in milliseconds.
+	 * @param failed	If the operation failed or the server reported a 
+	 * 					system error.
+	 */
+	void onSample(long latency, boolean failed) {
+		long now = System.currentTimeMillis();
+		synchronized (lock) {
+			if(failed) {
+				if(now - lastDecreaseTime > Math.max(smoothedLatency, 0)) {
+					limit = Math.max(minLimit, limit*DECREASE_ON_FAILURE);
+					lastDecreaseTime = now;
+				}
+				return;
+			}
+			
+			smoothedLatency = smoothedLatency<0?latency:
+					(1-LATENCY_SMOOTHING)*smoothedLatency + LATENCY_SMOOTHING*latency;
+			bestLatency = bestLatency<0?latency:Math.min(bestLatency*BEST_LATENCY_DECAY, latency);
+			
+			if(smoothedLatency > bestLatency*LATENCY_TOLERANCE) {
+				if(now - lastDecreaseTime > smoothedLatency) {
+					limit = Math.max(minLimit, limit*DECREASE_ON_LATENCY);
+					lastDecreaseTime = now;
+				}
+			}else{
+				limit = Math.min(maxLimit, limit + 1/limit);
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,106 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_PRIORITY;
+
+/**
+ * Total time budget of the operations, by operation class. The budget
+ * starts when the operation is dispatched and covers the time queued,
+ * waiting for the previous operations of its chain, connecting, sending
+ * and reading the response.<br><br>
+ *
+ * An operation out of time is not sent, or its request is aborted, and it
+ * is saved for a later delivery as any other failed operation. The
+ * classes are the {@link TOUCAN_WORKER_PRIORITY} of the operations:
+ * <ul>
+ * 	<li>CRITICAL: registration, un-registration and enabling.</li>
+ * 	<li>HIGH: install referral and tag changes.</li>
+ * 	<li>NORMAL: tag listing.</li>
+ * 	<li>LOW: notification ACKs.</li>
+ * </ul>
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class DeadlinePolicy {
+
+	public static final long DEFAULT_REGISTRATION_BUDGET_MILLIS = 60 * 1000;
+	public static final long DEFAULT_TAGS_BUDGET_MILLIS = 45 * 1000;
+	public static final long DEFAULT_LIST_BUDGET_MILLIS = 20 * 1000;
+	public static final long DEFAULT_ACK_BUDGET_MILLIS = 30 * 1000;
+
+	private final Map<TOUCAN_WORKER_PRIORITY, Long> budgets =
+			new EnumMap<TOUCAN_WORKER_PRIORITY, Long>(TOUCAN_WORKER_PRIORITY.class);
+	private final AtomicLong expiredCount = new AtomicLong();
+
+
+	DeadlinePolicy() {
+		budgets.put(TOUCAN_WORKER_PRIORITY.CRITICAL, DEFAULT_REGISTRATION_BUDGET_MILLIS);
+		budgets.put(TOUCAN_WORKER_PRIORITY.HIGH, DEFAULT_TAGS_BUDGET_MILLIS);
+		budgets.put(TOUCAN_WORKER_PRIORITY.NORMAL, DEFAULT_LIST_BUDGET_MILLIS);
+		budgets.put(TOUCAN_WORKER_PRIORITY.LOW, DEFAULT_ACK_BUDGET_MILLIS);
+	}
+
+
+	/**
+	 * Sets the total time budget of a class of operations.
+	 *
+	 * @param operationClass	The class of operations.
+	 * @param budgetMillis		The budget. With 0 or less, they have no deadline.
+	 */
+	public synchronized void setBudget(TOUCAN_WORKER_PRIORITY operationClass, long budgetMillis) {
+		budgets.put(operationClass, Math.max(0, budgetMillis));
+	}
+
+	/**
+	 * Gets the total time budget of a class of operations.
+	 *
+	 * @param operationClass	The class of operations.
+	 * @return	The budget, 0 if they have no deadline.
+	 */
+	public synchronized long getBudget(TOUCAN_WORKER_PRIORITY operationClass) {
+		Long budget = budgets.get(operationClass);
+		return budget!=null?budget:0;
+	}
+
+	/**
+	 * Gets how many operations ran out of time since the start.
+	 *
+	 * @return
+	 */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	/**
+	 * Notifies that an operation ran out of time.
+	 */
+	public void onExpired() {
+		expiredCount.incrementAndGet();
+	}
+
+}
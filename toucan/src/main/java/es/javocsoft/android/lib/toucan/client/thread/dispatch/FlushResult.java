@@ -0,0 +1,82 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+/**
+ * What happened to the operations in memory when the dispatcher was 
+ * flushed.
+ * <ul>
+ * 	<li>sent: delivered before the timeout.</li>
+ * 	<li>persisted: saved to disk to be sent by the pending operations 
+ * 	delivery service.</li>
+ * 	<li>running: still being sent when the time was over. They are saved 
+ * 	to disk by themselves if they fail.</li>
+ * 	<li>dropped: cancelled, rejected or that could not be saved.</li>
+ * </ul>
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class FlushResult {
+
+	private final int sent;
+	private final int persisted;
+	private final int running;
+	private final int dropped;
+	private final long elapsedMillis;
+	
+	
+	FlushResult(int sent, int persisted, int running, int dropped, long elapsedMillis) {
+		this.sent = sent;
+		this.persisted = persisted;
+		this.running = running;
+		this.dropped = dropped;
+		this.elapsedMillis = elapsedMillis;
+	}
+	
+	
+	public int getSent() {
+		return sent;
+	}
+	
+	public int getPersisted() {
+		return persisted;
+	}
+	
+	public int getRunning() {
+		return running;
+	}
+	
+	public int getDropped() {
+		return dropped;
+	}
+	
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+	
+	@Override
+	public String toString() {
+		return "FlushResult [sent=" + sent + ", persisted=" + persisted + ", running=" + running + ", dropped=" + dropped + ", elapsedMillis=" + elapsedMillis + "]";
+	}
+	
+}
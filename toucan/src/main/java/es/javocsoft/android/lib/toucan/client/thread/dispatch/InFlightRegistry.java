@@ -0,0 +1,178 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.CompletionListener;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+
+/**
+ * Operations dispatched and not yet settled, by content. An operation 
+ * identical to one in flight (same {@link ToucanWorker#getContentKey()}) 
+ * is attached to it instead of being sent: it is settled with its result
+ * and its own callback is run. It takes no thread nor connection.<br><br>
+ * 
+ * Only shareable operations are attached (see {@link ToucanWorker#isShareable()}),
+ * and only when the one in flight is still the last operation launched in 
+ * their chain. Otherwise, an operation launched in between could change 
+ * the result, for example tags added between two tag lists.<br><br>
+ * 
+ * When the operation in flight is cancelled, the attached ones are sent on
+ * their own.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class InFlightRegistry {
+
+	private final ToucanDispatcher dispatcher;
+	private volatile boolean enabled = true;
+	
+	private final Object lock = new Object();
+	/** Shareable operations not yet settled, by content key */
+	private final Map<String, ToucanWorker> inFlight = new HashMap<String, ToucanWorker>();
+	/** The last operation launched in each chain, while not settled */
+	private final Map<String, ToucanWorker> lastOfChain = new HashMap<String, ToucanWorker>();
+	
+	private final AtomicLong sharedCount = new AtomicLong();
+	
+	
+	InFlightRegistry(ToucanDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+	
+	
+	/**
+	 * Enables or disables the sharing of identical operations. It is 
+	 * enabled by default.
+	 * 
+	 * @param enabled
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Gets the number of operations settled with the result of an 
+	 * identical one, without being sent.
+	 * 
+	 * @return
+	 */
+	public long getSharedCount() {
+		return sharedCount.get();
+	}
+	
+	public int getInFlightCount() {
+		synchronized (lock) {
+			return inFlight.size();
+		}
+	}
+	
+	
+	// AUXILIAR
+	
+	/**
+	 * Registers an operation being dispatched, or attaches it to an 
+	 * identical one in flight.
+	 * 
+	 * @param operation	The operation.
+	 * @return	TRUE if it was attached and must not be sent.
+	 */
+	boolean attach(ToucanWorker operation) {
+		return register(operation, enabled && operation.isShareable());
+	}
+	
+	/**
+	 * Registers an operation run in the calling thread, it is never 
+	 * attached to another one.
+	 * 
+	 * @param operation	The operation.
+	 */
+	void track(ToucanWorker operation) {
+		register(operation, false);
+	}
+	
+	private boolean register(final ToucanWorker operation, boolean share) {
+		final String chain = operation.getChainKey()!=null?operation.getChainKey():"";
+		final String contentKey = share?operation.getContentKey():null;
+		ToucanWorker original = null;
+		synchronized (lock) {
+			if(share) {
+				ToucanWorker candidate = inFlight.get(contentKey);
+				//Settled ones are unregistered by a listener, a bit later.
+				if(candidate!=null && candidate==lastOfChain.get(chain) && !candidate.getCall().isSettled()) {
+					original = candidate;
+				}else{
+					inFlight.put(contentKey, operation);
+				}
+			}
+			if(original==null)
+				lastOfChain.put(chain, operation);
+		}
+		
+		if(original!=null) {
+			attach(operation, original);
+			return true;
+		}
+		
+		operation.getCall().addCompletionListener(new CompletionListener() {
+			@Override
+			public void onComplete(ToucanCall call) {
+				synchronized (lock) {
+					if(contentKey!=null && inFlight.get(contentKey)==operation)
+						inFlight.remove(contentKey);
+					if(lastOfChain.get(chain)==operation)
+						lastOfChain.remove(chain);
+				}
+			}
+		});
+		return false;
+	}
+	
+	private void attach(final ToucanWorker duplicate, ToucanWorker original) {
+		Log.i(ToucanClient.LOG_TAG, "Operation " + duplicate.getOperationName() + " identical to one in flight, sharing its response.");
+		//Added after the listener that unregisters the original, so it is 
+		//no longer in flight when the duplicate is sent on its own.
+		original.getCall().addCompletionListener(new CompletionListener() {
+			@Override
+			public void onComplete(ToucanCall call) {
+				if(call.isCancelled()) {
+					dispatcher.dispatch(duplicate);
+				}else{
+					sharedCount.incrementAndGet();
+					duplicate.operationShared(call);
+				}
+			}
+		});
+	}
+	
+}
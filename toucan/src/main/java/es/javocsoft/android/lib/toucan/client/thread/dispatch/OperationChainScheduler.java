@@ -0,0 +1,254 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_DEPENDENCY;
+
+/**
+ * Orders the operations of the same chain (the device unique id) following
+ * their {@link TOUCAN_WORKER_DEPENDENCY}, so a registration always reaches
+ * the server before the tags and ACKs launched after it.<br><br>
+ *
+ * Only dependent operations wait. Lifecycle operations do not wait for
+ * previous ACKs, ACKs run in parallel between them,
+ * operations of different chains never wait for each other and operations
+ * without chain key are run as soon as they arrive.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+class OperationChainScheduler {
+
+	private final ToucanDispatcher dispatcher;
+
+	private final Object lock = new Object();
+	private final Map<String, Chain> chains = new HashMap<String, Chain>();
+	private int waitingCount = 0;
+
+
+	OperationChainScheduler(ToucanDispatcher dispatcher) {
+		this.dispatcher = dispatcher;
+	}
+
+
+	/**
+	 * Runs the operation once all the operations it depends on are done.
+	 *
+	 * @param operation	The operation.
+	 */
+	void submit(ToucanWorker operation) {
+		ChainedOperation node = new ChainedOperation(operation, false);
+		if(enqueue(node)) {
+			dispatcher.execute(node, operation.getPriority());
+		}
+	}
+	
+	/**
+	 * Waits, in the calling thread, until all the operations the given 
+	 * operation depends on are done.
+	 * 
+	 * @param operation		The operation.
+	 * @param timeoutMillis	Maximum time to wait.
+	 * @return	The task that runs the operation, to be run by the caller, 
+	 * 			or null if its turn did not come in time. In that case, the 
+	 * 			operation is left in the chain and run (if it still can) by 
+	 * 			the pool once its turn comes, so the rest of the chain goes on.
+	 * @throws InterruptedException
+	 */
+	Runnable awaitTurn(ToucanWorker operation, long timeoutMillis) throws InterruptedException {
+		ChainedOperation node = new ChainedOperation(operation, true);
+		if(enqueue(node))
+			return node;
+		
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		synchronized (lock) {
+			try {
+				while(node.waitingFor>0) {
+					long remaining = deadline - System.nanoTime();
+					if(remaining<=0) {
+						node.blocking = false;
+						return null;
+					}
+					TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+				}
+			}catch(InterruptedException e) {
+				node.blocking = false;
+				throw e;
+			}
+			return node;
+		}
+	}
+	
+	/**
+	 * Adds the operation to its chain.
+	 * 
+	 * @param node	The operation.
+	 * @return	TRUE if it does not have to wait for any other operation.
+	 */
+	private boolean enqueue(ChainedOperation node) {
+		ToucanWorker operation = node.operation;
+
+		String key = operation.getChainKey();
+		if(key!=null) {
+			synchronized (lock) {
+				Chain chain = chains.get(key);
+				if(chain==null) {
+					chain = new Chain();
+					chains.put(key, chain);
+				}
+
+				List<ChainedOperation> dependencies = new ArrayList<ChainedOperation>();
+				switch (operation.getDependencyType()) {
+					case LIFECYCLE:
+						//ACKs are about notifications already received, they
+						//never need to reach the server before a lifecycle change.
+						for(ChainedOperation previous:chain.unfinished) {
+							if(previous.operation.getDependencyType()!=TOUCAN_WORKER_DEPENDENCY.ACK)
+								dependencies.add(previous);
+						}
+						chain.lastLifecycle = node;
+						chain.lastTags = null;
+						break;
+					case TAGS:
+						addIfUnfinished(dependencies, chain.lastLifecycle);
+						addIfUnfinished(dependencies, chain.lastTags);
+						chain.lastTags = node;
+						break;
+					default:
+						addIfUnfinished(dependencies, chain.lastLifecycle);
+						break;
+				}
+
+				node.chain = chain;
+				chain.unfinished.add(node);
+				for(ChainedOperation dependency:dependencies) {
+					dependency.dependents.add(node);
+					node.waitingFor++;
+				}
+				if(node.waitingFor>0) {
+					waitingCount++;
+					return false;
+				}
+			}
+		}
+		
+		return true;
+	}
+
+	/**
+	 * Gets the number of operations waiting for other operations to finish.
+	 *
+	 * @return
+	 */
+	int getWaitingCount() {
+		synchronized (lock) {
+			return waitingCount;
+		}
+	}
+
+
+	// AUXILIAR
+
+	private void operationFinished(ChainedOperation node) {
+		if(node.chain==null)
+			return;
+
+		List<ChainedOperation> ready = new ArrayList<ChainedOperation>();
+		synchronized (lock) {
+			node.done = true;
+			node.chain.unfinished.remove(node);
+			if(node.chain.unfinished.isEmpty()) {
+				chains.remove(node.operation.getChainKey());
+			}
+
+			for(ChainedOperation dependent:node.dependents) {
+				dependent.waitingFor--;
+				if(dependent.waitingFor==0) {
+					waitingCount--;
+					if(dependent.blocking) {
+						//Its caller is waiting to run it.
+						lock.notifyAll();
+					}else{
+						ready.add(dependent);
+					}
+				}
+			}
+			node.dependents.clear();
+		}
+
+		for(ChainedOperation dependent:ready) {
+			dispatcher.execute(dependent, dependent.operation.getPriority());
+		}
+	}
+
+	private static void addIfUnfinished(List<ChainedOperation> dependencies, ChainedOperation node) {
+		if(node!=null && !node.done) {
+			dependencies.add(node);
+		}
+	}
+
+	/** Operations of a chain still not finished. */
+	private static class Chain {
+		private final Set<ChainedOperation> unfinished = new LinkedHashSet<ChainedOperation>();
+		private ChainedOperation lastLifecycle;
+		private ChainedOperation lastTags;
+	}
+
+	private class ChainedOperation implements Runnable {
+
+		private final ToucanWorker operation;
+		private final List<ChainedOperation> dependents = new ArrayList<ChainedOperation>();
+		private Chain chain;
+		private int waitingFor = 0;
+		private boolean done = false;
+		/** Run by the thread that launched it instead of by the pool. */
+		private boolean blocking;
+
+		ChainedOperation(ToucanWorker operation, boolean blocking) {
+			this.operation = operation;
+			this.blocking = blocking;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if(blocking) {
+					dispatcher.runBlockingOperation(operation);
+				}else{
+					dispatcher.runOperation(operation);
+				}
+			}finally{
+				operationFinished(this);
+			}
+		}
+	}
+
+}
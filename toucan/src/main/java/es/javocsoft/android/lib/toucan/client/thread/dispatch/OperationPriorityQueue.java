@@ -0,0 +1,109 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import java.util.ArrayDeque;
+
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_PRIORITY;
+
+/**
+ * Queue of operations ready to run, ordered by {@link TOUCAN_WORKER_PRIORITY}.
+ * <br><br>
+ * To avoid starvation, operations age: every {@link #DEFAULT_AGING_STEP_MILLIS}
+ * waiting in the queue an operation competes as if it had one priority 
+ * class more, so low priority ACKs are still sent while registrations and
+ * tags keep arriving. Within the same class, the oldest goes first.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+class OperationPriorityQueue<T> {
+
+	public static final long DEFAULT_AGING_STEP_MILLIS = 2000;
+	
+	private final ArrayDeque<Entry<T>>[] levels;
+	private final long agingStepMillis;
+	private int size = 0;
+	
+	
+	@SuppressWarnings("unchecked")
+	OperationPriorityQueue(long agingStepMillis) {
+		this.agingStepMillis = Math.max(1, agingStepMillis);
+		levels = new ArrayDeque[TOUCAN_WORKER_PRIORITY.values().length];
+		for(int i=0;i<levels.length;i++) {
+			levels[i] = new ArrayDeque<Entry<T>>();
+		}
+	}
+	
+	
+	synchronized void offer(T item, TOUCAN_WORKER_PRIORITY priority) {
+		levels[priority.ordinal()].addLast(new Entry<T>(item, System.currentTimeMillis()));
+		size++;
+	}
+	
+	/**
+	 * Takes the operation with the best priority, once aged.
+	 * 
+	 * @return	The operation or null if the queue is empty.
+	 */
+	synchronized T poll() {
+		if(size==0)
+			return null;
+		
+		long now = System.currentTimeMillis();
+		int bestLevel = -1;
+		long bestEffective = Long.MAX_VALUE;
+		long bestEnqueued = Long.MAX_VALUE;
+		for(int i=0;i<levels.length;i++) {
+			Entry<T> head = levels[i].peekFirst();
+			if(head==null)
+				continue;
+			
+			long effective = Math.max(0, i - (now - head.enqueuedAt)/agingStepMillis);
+			if(effective<bestEffective || 
+					(effective==bestEffective && head.enqueuedAt<bestEnqueued)) {
+				bestLevel = i;
+				bestEffective = effective;
+				bestEnqueued = head.enqueuedAt;
+			}
+		}
+		
+		size--;
+		return levels[bestLevel].pollFirst().item;
+	}
+	
+	synchronized int size() {
+		return size;
+	}
+	
+	
+	private static class Entry<T> {
+		private final T item;
+		private final long enqueuedAt;
+		
+		Entry(T item, long enqueuedAt) {
+			this.item = item;
+			this.enqueuedAt = enqueuedAt;
+		}
+	}
+	
+}
@@ -0,0 +1,659 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import es.javocsoft.android.lib.toolbox.ToolBox;
+import es.javocsoft.android.lib.toolbox.json.GsonProcessor;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.service.PendingOperationsDeliveryService;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_PRIORITY;
+
+/**
+ * Dispatch engine for Toucan API operations.<br><br>
+ *
+ * Operations ({@link ToucanWorker} instances) are plain task records that
+ * are run by a bounded pool of threads sized after the number of CPU cores
+ * of the device, so the number of threads does not grow with the number of
+ * operations. Idle threads are released after a while.<br><br>
+ *
+ * Operations of the same device are ordered by an {@link OperationChainScheduler}
+ * so, for example, tags are not sent before the device registration. The
+ * memory used by queued operations is bounded by an {@link AdmissionController}.
+ * Free threads take first the operations with better priority, see 
+ * {@link TOUCAN_WORKER_PRIORITY}, and the number of operations sent at the
+ * same time adapts to the network and server by a {@link ConcurrencyLimiter}.
+ * While the server asks to wait, see {@link BackpressureGate}, no operation
+ * is started.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class ToucanDispatcher {
+
+	/** Number of threads used to run operations. */
+	public static final int DEFAULT_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+	private static final String THREAD_NAME_PREFIX = "ToucanWorker-";
+	private static final String TIMER_THREAD_NAME = "ToucanTimer";
+	
+	/** Tells apart the batch files saved in the same millisecond. */
+	private static final AtomicInteger batchFileCount = new AtomicInteger();
+
+	/** The shared dispatcher instance */
+	private static volatile ToucanDispatcher dispatcher;
+
+	private final ThreadPoolExecutor executor;
+	private final OperationChainScheduler scheduler;
+	private final OperationPriorityQueue<Runnable> readyQueue;
+	private final AdmissionController admission;
+	private final ConcurrencyLimiter limiter;
+	private final DeadlinePolicy deadlines;
+	private final BackpressureGate backpressure;
+	private final InFlightRegistry inFlight;
+	/** Runs the delayed tasks, created on first use */
+	private ScheduledThreadPoolExecutor timer;
+	
+	/** One of these is queued in the pool for each ready operation */
+	private final Runnable runNextTask = new Runnable() {
+		@Override
+		public void run() {
+			if(backpressure.isPaused()) {
+				//The server asked to wait, it stays ready until the pause is over.
+				holdUntilResumed();
+				return;
+			}
+			if(!limiter.tryAcquire()) {
+				//Over the limit, it stays ready until a running one finishes.
+				return;
+			}
+			
+			try {
+				Runnable task = readyQueue.poll();
+				if(task!=null)
+					task.run();
+			}finally{
+				limiter.release();
+			}
+			scheduleReady();
+		}
+	};
+	
+	/** Runs in the timer when a server pause ends and resumes the operations */
+	private final Runnable resumeAfterPause = new Runnable() {
+		@Override
+		public void run() {
+			//The pause may have been extended meanwhile.
+			long pause = backpressure.getRemainingMillis();
+			if(pause>0) {
+				schedule(this, pause);
+				return;
+			}
+			synchronized (ToucanDispatcher.this) {
+				resumeScheduled = false;
+			}
+			
+			Log.i(ToucanClient.LOG_TAG, "Server pause over, resuming the operations.");
+			scheduleReady();
+			startDeliveryOfSpilled();
+		}
+	};
+	
+	/** Context of the last spilled operation, to start the delivery service. */
+	private Context spilledContext = null;
+	private boolean resumeScheduled = false;
+
+
+	/**
+	 * Gets the dispatcher shared by the Toucan client and the pending
+	 * operations delivery service.
+	 *
+	 * @return
+	 */
+	public static ToucanDispatcher getInstance() {
+		if(dispatcher==null) {
+			synchronized (ToucanDispatcher.class) {
+				if(dispatcher==null) {
+					dispatcher = new ToucanDispatcher(DEFAULT_POOL_SIZE);
+				}
+			}
+		}
+		return dispatcher;
+	}
+
+	private ToucanDispatcher(int poolSize) {
+		executor = new ThreadPoolExecutor(poolSize, poolSize,
+				THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ToucanThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		readyQueue = new OperationPriorityQueue<Runnable>(OperationPriorityQueue.DEFAULT_AGING_STEP_MILLIS);
+		scheduler = new OperationChainScheduler(this);
+		admission = new AdmissionController();
+		limiter = new ConcurrencyLimiter(1, poolSize);
+		deadlines = new DeadlinePolicy();
+		backpressure = new BackpressureGate();
+		inFlight = new InFlightRegistry(this);
+	}
+
+
+	/**
+	 * Queues an operation to be run by the pool once the previous operations
+	 * of its chain it depends on are done.
+	 *
+	 * @param operation	The operation to run.
+	 */
+	public void dispatch(ToucanWorker operation) {
+		try {
+			if(inFlight.attach(operation)) {
+				//Settled with the response of the identical one in flight.
+				return;
+			}
+			operation.startDeadline(deadlines.getBudget(operation.getPriority()));
+			if(admission.tryAdmit(operation) || makeRoom(operation)) {
+				scheduler.submit(operation);
+			}
+		}catch(Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "Operation " + operation.getOperationName() + " could not be dispatched (" + e.getMessage() + ")", e);
+		}
+	}
+	
+	/**
+	 * Runs an operation in the calling thread, with no thread handoff, once
+	 * the previous operations of its chain it depends on are done. Use it 
+	 * from threads already in background.<br><br>
+	 * 
+	 * If its turn does not come in time, or it can not be delivered, the
+	 * operation is saved to disk for a later delivery, as any other one.
+	 * 
+	 * @param operation		The operation to run.
+	 * @param timeoutMillis	Maximum time to wait for its turn and send it. It 
+	 * 						is its deadline when shorter than its budget.
+	 * @return	The server response or null if the operation was not delivered.
+	 */
+	public Response runBlocking(ToucanWorker operation, long timeoutMillis) {
+		Runnable task = null;
+		try {
+			long budget = deadlines.getBudget(operation.getPriority());
+			operation.startDeadline(timeoutMillis>0 && (budget<=0 || timeoutMillis<budget)?timeoutMillis:budget);
+			if(backpressure.isPaused()) {
+				Log.i(ToucanClient.LOG_TAG, "Operation " + operation.getOperationName() + " not sent, the server asked to wait.");
+				operation.spillToDisk();
+				deliverPendingWhenResumed(operation.getContext());
+				return null;
+			}
+			inFlight.track(operation);
+			task = scheduler.awaitTurn(operation, Math.max(0, timeoutMillis));
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}catch(Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "Operation " + operation.getOperationName() + " could not be run (" + e.getMessage() + ")", e);
+		}
+		
+		if(task==null) {
+			Log.i(ToucanClient.LOG_TAG, "Operation " + operation.getOperationName() + " turn did not come in time, saved for later delivery.");
+			operation.spillToDisk();
+		}else{
+			task.run();
+		}
+		
+		ToucanCall call = operation.getCall();
+		return call.getStatus()==TOUCAN_CALL_STATUS.DONE?call.getResponse():null;
+	}
+	
+	/**
+	 * Waits, up to the given time, for the operations in memory to be sent.
+	 * Operations still not sent when the time is over are saved to disk, all
+	 * in one file, so the pending operations delivery service sends them 
+	 * later. Queued operations saved this way are not run. Those already 
+	 * saved in a file of their own stay there, and those recovered from an
+	 * older batch file are moved to the new one, so no operation is on disk
+	 * twice. Running ones can not be stopped, they are not saved here but
+	 * by themselves if they fail, so they never reach the server twice.
+	 * <br><br>
+	 * Operations dispatched while flushing are not included.
+	 * 
+	 * @param timeoutMillis	Time to wait for the operations to be sent.
+	 * @return	The number of operations sent, persisted, still running and 
+	 * 			dropped.
+	 */
+	public FlushResult flush(long timeoutMillis) {
+		long start = System.currentTimeMillis();
+		long deadline = start + Math.max(0, timeoutMillis);
+		List<ToucanWorker> operations = admission.getAdmittedOperations();
+		
+		try {
+			for(ToucanWorker operation:operations) {
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining<=0)
+					break;
+				operation.getCall().await(remaining, TimeUnit.MILLISECONDS);
+			}
+		}catch(InterruptedException e) {
+			Log.w(ToucanClient.LOG_TAG, "Flush interrupted, saving the operations not yet sent.");
+			Thread.currentThread().interrupt();
+		}
+		
+		//Operations not yet started, and not on disk yet.
+		List<ToucanWorker> unsent = new ArrayList<ToucanWorker>();
+		for(ToucanWorker operation:operations) {
+			if(operation.getCall().markCachedIfQueued() && !operation.isOnDisk())
+				unsent.add(operation);
+		}
+		boolean saved = unsent.isEmpty() || savePendingBatch(unsent);
+		
+		int sent = 0, persisted = 0, running = 0, dropped = 0;
+		for(ToucanWorker operation:operations) {
+			if(unsent.contains(operation)) {
+				if(saved) { 
+					persisted++; 
+				}else{ 
+					dropped++;
+				}
+				continue;
+			}
+			
+			switch (operation.getCall().getStatus()) {
+				case DONE:
+					sent++;
+					break;
+				case CACHED:
+					persisted++;
+					break;
+				case IN_FLIGHT:
+					running++;
+					break;
+				default:
+					dropped++;
+					break;
+			}
+		}
+		
+		FlushResult result = new FlushResult(sent, persisted, running, dropped, System.currentTimeMillis() - start);
+		Log.i(ToucanClient.LOG_TAG, "Dispatcher flushed: " + result);
+		return result;
+	}
+	
+	/**
+	 * Runs a short maintenance task (not an operation) in the pool, for 
+	 * example, a connection pre-warm.
+	 * 
+	 * @param task	The task.
+	 */
+	public void runInBackground(Runnable task) {
+		executor.execute(task);
+	}
+	
+	/**
+	 * Runs a short task (not an operation) after a delay, for example, to 
+	 * close a batching window. The task runs in a single timer thread, so 
+	 * it must not block.
+	 * 
+	 * @param task			The task.
+	 * @param delayMillis	The delay.
+	 */
+	public void schedule(Runnable task, long delayMillis) {
+		getTimer().schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Gets the admission controller, to configure its limits.
+	 * 
+	 * @return
+	 */
+	public AdmissionController getAdmissionController() {
+		return admission;
+	}
+	
+	/**
+	 * Gets the time budgets of the operations, to configure them.
+	 * 
+	 * @return
+	 */
+	public DeadlinePolicy getDeadlinePolicy() {
+		return deadlines;
+	}
+	
+	/**
+	 * Gets the pause asked by the server when it is overloaded.
+	 * 
+	 * @return
+	 */
+	public BackpressureGate getBackpressureGate() {
+		return backpressure;
+	}
+	
+	/**
+	 * Gets the operations in flight, to configure how identical ones share
+	 * their response.
+	 * 
+	 * @return
+	 */
+	public InFlightRegistry getInFlightRegistry() {
+		return inFlight;
+	}
+	
+	/**
+	 * Starts the pending operations delivery service once the server pause
+	 * is over.
+	 * 
+	 * @param context	The context to start the service.
+	 */
+	public void deliverPendingWhenResumed(Context context) {
+		if(context!=null) {
+			synchronized (this) {
+				spilledContext = context;
+			}
+		}
+		holdUntilResumed();
+	}
+	
+	/**
+	 * Gets the adaptive limit of operations sent at the same time, to 
+	 * check or tune it.
+	 * 
+	 * @return
+	 */
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Gets the number of operations waiting for a free thread.
+	 *
+	 * @return
+	 */
+	public int getQueuedCount() {
+		return readyQueue.size();
+	}
+
+	/**
+	 * Gets the number of operations waiting for a previous operation
+	 * of the same device to finish.
+	 *
+	 * @return
+	 */
+	public int getWaitingCount() {
+		return scheduler.getWaitingCount();
+	}
+
+	/**
+	 * Gets the number of operations being run right now.
+	 *
+	 * @return
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	public int getPoolSize() {
+		return executor.getMaximumPoolSize();
+	}
+
+
+	/**
+	 * Queues an operation ready to run. Each free thread takes the ready
+	 * operation with the best priority at that moment.
+	 * 
+	 * @param task		The task running the operation.
+	 * @param priority	The operation priority.
+	 */
+	void execute(Runnable task, TOUCAN_WORKER_PRIORITY priority) {
+		readyQueue.offer(task, priority);
+		executor.execute(runNextTask);
+	}
+	
+	/**
+	 * Runs an operation whose turn has come.
+	 * 
+	 * @param operation	The operation.
+	 */
+	void runOperation(ToucanWorker operation) {
+		if(!admission.started(operation)) {
+			//Evicted while queued, it is already cancelled.
+			return;
+		}
+		
+		//Saved by a flush meanwhile, it does not reach the server.
+		boolean sent = operation.getCall().getStatus()==TOUCAN_CALL_STATUS.QUEUED;
+		long start = System.currentTimeMillis();
+		try {
+			operation.run();
+		}finally{
+			if(sent && !operation.getCall().isCancelled()) {
+				limiter.onSample(System.currentTimeMillis() - start, hasFailed(operation));
+			}
+			admission.release(operation);
+			if(admission.getAdmittedCount()==0) {
+				startDeliveryOfSpilled();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Runs, in the calling thread, an operation whose turn has come. It is 
+	 * not counted by the admission controller nor the concurrency limit, 
+	 * the caller thread is already there, but its latency is.
+	 * 
+	 * @param operation	The operation.
+	 */
+	void runBlockingOperation(ToucanWorker operation) {
+		boolean sent = operation.getCall().getStatus()==TOUCAN_CALL_STATUS.QUEUED;
+		long start = System.currentTimeMillis();
+		operation.run();
+		if(sent) {
+			limiter.onSample(System.currentTimeMillis() - start, hasFailed(operation));
+		}
+	}
+	
+	
+	// AUXILIAR
+	
+	/**
+	 * Starts as many ready operations as the concurrency limit allows.
+	 */
+	private void scheduleReady() {
+		int toStart = Math.min(readyQueue.size(), limiter.available());
+		for(int i=0;i<toStart;i++) {
+			executor.execute(runNextTask);
+		}
+	}
+	
+	/**
+	 * Schedules, in the timer, the resume of the operations at the end of 
+	 * the server pause. No thread of the pool waits meanwhile.
+	 */
+	private void holdUntilResumed() {
+		synchronized (this) {
+			if(resumeScheduled)
+				return;
+			resumeScheduled = true;
+		}
+		schedule(resumeAfterPause, backpressure.getRemainingMillis());
+	}
+	
+	/**
+	 * An operation failed when it could not be delivered (it is cached 
+	 * again) or when the server answered with a system error.
+	 * 
+	 * @param operation	The finished operation.
+	 * @return
+	 */
+	private static boolean hasFailed(ToucanWorker operation) {
+		ToucanCall call = operation.getCall();
+		if(call.getStatus()!=TOUCAN_CALL_STATUS.DONE)
+			return true;
+		
+		Response response = call.getResponse();
+		return response!=null && response.getCode()==Response.ERROR_SYSTEM;
+	}
+	
+	/**
+	 * Applies the overflow policy to an operation that does not fit.
+	 * 
+	 * @param operation	The operation.
+	 * @return	TRUE if room was made and the operation is now admitted.
+	 */
+	private boolean makeRoom(ToucanWorker operation) {
+		switch (admission.getOverflowPolicy()) {
+			case REJECT:
+				Log.w(ToucanClient.LOG_TAG, "Operation " + operation.getOperationName() + " rejected, too many pending operations.");
+				operation.getCall().markRejected("Too many pending operations");
+				return false;
+			case DROP_OLDEST_ACK:
+				ToucanWorker oldestAck = admission.evictOldestQueuedACK();
+				if(oldestAck!=null) {
+					Log.w(ToucanClient.LOG_TAG, "Oldest queued ACK dropped to make room (" + oldestAck.getJobId() + ")");
+					oldestAck.getCall().cancel();
+					if(admission.tryAdmit(operation))
+						return true;
+				}
+				//No room yet, we keep it on disk.
+			default:
+				Log.i(ToucanClient.LOG_TAG, "Operation " + operation.getOperationName() + " spilled to disk, too many pending operations.");
+				operation.spillToDisk();
+				synchronized (this) {
+					spilledContext = operation.getContext();
+				}
+				return false;
+		}
+	}
+	
+	/**
+	 * Saves in one pending operations file, as a JSON array, the given
+	 * operations. The older batch files they were recovered from are then 
+	 * deleted, the new one takes their place.
+	 * 
+	 * @param operations	The operations.
+	 * @return	TRUE if saved.
+	 */
+	private static boolean savePendingBatch(List<ToucanWorker> operations) {
+		Context context = null;
+		StringBuilder jsonData = new StringBuilder("[");
+		for(ToucanWorker operation:operations) {
+			if(context==null)
+				context = operation.getContext();
+			if(!operation.isPersistable())
+				continue;
+			if(jsonData.length()>1)
+				jsonData.append(',');
+			jsonData.append(GsonProcessor.getInstance().getGsonWithExposedFilter().toJson(operation));
+		}
+		jsonData.append(']');
+		if(jsonData.length()==2)
+			return true;
+		
+		if(context==null) {
+			Log.e(ToucanClient.LOG_TAG, "Pending operations could not be saved, no context available.");
+			return false;
+		}
+		
+		try {
+			String fileName = ToucanClient.CACHED_REQUEST_FILE_PREFIX + "batch_" + System.currentTimeMillis() + 
+					"_" + batchFileCount.incrementAndGet();
+			ToolBox.storage_storeDataInInternalStorage(context, fileName, jsonData.toString().getBytes());
+			Log.i(ToucanClient.LOG_TAG, "Saved " + operations.size() + " pending operation requests to disk (" + fileName + ")");
+		}catch(Exception e) {
+			Log.e(ToucanClient.LOG_TAG, "Pending operations could not be saved [" + e.getMessage() + "].", e);
+			return false;
+		}
+		
+		for(ToucanWorker operation:operations) {
+			String batchFile = operation.getBatchFile();
+			if(operation.isPersistable() && batchFile!=null && 
+					ToolBox.storage_checkIfFileExistsInInternalStorage(context, batchFile)) {
+				try {
+					ToolBox.storage_deleteDataFromInternalStorage(context, batchFile);
+					Log.i(ToucanClient.LOG_TAG, "Older pending operations batch replaced, deleted from disk (" + batchFile + ")");
+				}catch(Exception e) {
+					Log.e(ToucanClient.LOG_TAG, "Older pending operations batch file could not be deleted [" + e.getMessage() + "].", e);
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Once the dispatcher is empty, the pending operations delivery service
+	 * sends the operations spilled to disk.
+	 */
+	private void startDeliveryOfSpilled() {
+		Context context;
+		synchronized (this) {
+			context = spilledContext;
+			spilledContext = null;
+		}
+		
+		if(context!=null) {
+			try {
+				context.startService(new Intent(context, PendingOperationsDeliveryService.class));
+			}catch(Exception e) {
+				Log.e(ToucanClient.LOG_TAG, "Pending operations delivery service could not be started (" + e.getMessage() + ")", e);
+			}
+		}
+	}
+
+	private synchronized ScheduledThreadPoolExecutor getTimer() {
+		if(timer==null) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, TIMER_THREAD_NAME);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			timer.setKeepAliveTime(THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+			timer.allowCoreThreadTimeOut(true);
+		}
+		return timer;
+	}
+
+	private static class ToucanThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, THREAD_NAME_PREFIX + threadCount.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
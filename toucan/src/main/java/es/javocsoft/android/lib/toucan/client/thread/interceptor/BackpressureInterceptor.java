@@ -0,0 +1,49 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import java.io.IOException;
+
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.BackpressureGate;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+
+/**
+ * Passes every server answer to the {@link BackpressureGate}, so the 
+ * operations are paused when the server says it is overloaded.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+final class BackpressureInterceptor implements OperationInterceptor {
+
+	@Override
+	public TransportResponse intercept(OperationChain chain) throws IOException {
+		TransportResponse response = chain.proceed(chain.getRequest());
+		Object decoded = response.getDecodedBody();
+		ToucanDispatcher.getInstance().getBackpressureGate().onResponse(response.getStatusCode(), 
+				response.getHeader("Retry-After"), decoded instanceof Response?(Response)decoded:null);
+		return response;
+	}
+	
+}
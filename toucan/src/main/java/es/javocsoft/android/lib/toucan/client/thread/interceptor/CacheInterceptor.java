@@ -0,0 +1,95 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+
+import es.javocsoft.android.lib.toolbox.json.GsonProcessor;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.transport.ResponseCache;
+import es.javocsoft.android.lib.toucan.client.transport.TransportManager;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest.HTTP_METHOD;
+
+/**
+ * Sends the requests of read-only operations (the tag listing) as 
+ * conditional requests when there is a cached response, and answers with 
+ * the cached response when the server says it was not modified. See 
+ * {@link ResponseCache}.<br><br>
+ * 
+ * Other GET operations, as the unregistration or the enabling of a device, 
+ * change the device state, so they always reach the server.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+final class CacheInterceptor implements OperationInterceptor {
+
+	/** Operations that only read, so their responses can be cached. */
+	private static final Set<String> READ_ONLY_OPERATIONS = 
+			Collections.singleton(ToucanClient.API_OPERATION_LIST_TAGS);
+	
+	@Override
+	public TransportResponse intercept(OperationChain chain) throws IOException {
+		TransportRequest request = chain.getRequest();
+		String opname = chain.getOperation().getOperationName();
+		if(request.getMethod()!=HTTP_METHOD.GET || !READ_ONLY_OPERATIONS.contains(opname))
+			return chain.proceed(request);
+		
+		String cacheKey = chain.getOperation().getApiToken() + " " + request.getUrl();
+		ResponseCache cache = TransportManager.getInstance().getResponseCache();
+		cache.prepareConditional(cacheKey, request);
+		
+		TransportResponse response = chain.proceed(request);
+		
+		byte[] cachedBody = cache.getNotModifiedBody(cacheKey, response);
+		if(cachedBody!=null) {
+			Response cached = null;
+			try {
+				cached = GsonProcessor.getInstance().getGsonWithExposedFilter().fromJson(new String(cachedBody, "UTF-8"), Response.class);
+			}catch(JsonParseException e) {
+				cache.remove(cacheKey);
+			}
+			Log.i(ToucanClient.LOG_TAG, opname.toUpperCase() + ". Not modified, cached response used.");
+			return new TransportResponse(response.getStatusCode(), response.getHeaders(), null, cached, response.getBodyExcerpt());
+		}
+		
+		if(response.getDecodedBody() instanceof Response && 
+				((Response)response.getDecodedBody()).getCode()==Response.RESULT_OK) {
+			//Kept serialized, so each call gets its own response object.
+			cache.store(cacheKey, response, GsonProcessor.getInstance().getGsonWithExposedFilter()
+					.toJson(response.getDecodedBody()).getBytes("UTF-8"));
+		}else{
+			cache.remove(cacheKey);
+		}
+		return response;
+	}
+	
+}
@@ -0,0 +1,129 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+
+/**
+ * First stage of the pipeline: counts the requests of each operation, 
+ * the failed ones and the time they took, retries included.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public final class MetricsInterceptor implements OperationInterceptor {
+
+	private final ConcurrentHashMap<String, OperationStats> stats = new ConcurrentHashMap<String, OperationStats>();
+	
+	
+	MetricsInterceptor() {}
+	
+	
+	@Override
+	public TransportResponse intercept(OperationChain chain) throws IOException {
+		OperationStats operationStats = getStats(chain.getOperation().getOperationName());
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			TransportResponse response = chain.proceed(chain.getRequest());
+			failed = !(response.getDecodedBody() instanceof Response);
+			return response;
+		}finally{
+			operationStats.requests.incrementAndGet();
+			operationStats.totalNanos.addAndGet(System.nanoTime() - start);
+			if(failed)
+				operationStats.failures.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Gets the state of each operation, to be logged.
+	 * 
+	 * @return
+	 */
+	public List<String> getOperationStats() {
+		List<String> state = new ArrayList<String>();
+		for(Map.Entry<String, OperationStats> entry:stats.entrySet()) {
+			state.add(entry.getKey() + " " + entry.getValue());
+		}
+		return state;
+	}
+	
+	/**
+	 * Gets the number of requests of an operation.
+	 * 
+	 * @param operationName	The operation name.
+	 * @return
+	 */
+	public long getRequestCount(String operationName) {
+		OperationStats operationStats = stats.get(operationName);
+		return operationStats!=null?operationStats.requests.get():0;
+	}
+	
+	/**
+	 * Gets the number of requests of an operation that got no API response.
+	 * 
+	 * @param operationName	The operation name.
+	 * @return
+	 */
+	public long getFailureCount(String operationName) {
+		OperationStats operationStats = stats.get(operationName);
+		return operationStats!=null?operationStats.failures.get():0;
+	}
+	
+	
+	// AUXILIAR
+	
+	private OperationStats getStats(String operationName) {
+		OperationStats operationStats = stats.get(operationName);
+		if(operationStats==null) {
+			operationStats = new OperationStats();
+			OperationStats previous = stats.putIfAbsent(operationName, operationStats);
+			if(previous!=null)
+				operationStats = previous;
+		}
+		return operationStats;
+	}
+	
+	private static class OperationStats {
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		
+		@Override
+		public String toString() {
+			long count = requests.get();
+			return "[requests=" + count + ", failures=" + failures.get() + ", avgMillis=" + 
+					(count>0?TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count):0) + "]";
+		}
+	}
+	
+}
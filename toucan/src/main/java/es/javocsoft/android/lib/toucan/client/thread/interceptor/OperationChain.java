@@ -0,0 +1,81 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import java.io.IOException;
+import java.util.List;
+
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+
+/**
+ * The stages of the {@link OperationPipeline} still to go through by a 
+ * request.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public final class OperationChain {
+
+	private final ToucanWorker operation;
+	private final List<OperationInterceptor> interceptors;
+	private final int index;
+	private final TransportRequest request;
+	
+	
+	OperationChain(ToucanWorker operation, List<OperationInterceptor> interceptors, int index, TransportRequest request) {
+		this.operation = operation;
+		this.interceptors = interceptors;
+		this.index = index;
+		this.request = request;
+	}
+	
+	
+	/**
+	 * Gets the operation the request belongs to.
+	 * 
+	 * @return
+	 */
+	public ToucanWorker getOperation() {
+		return operation;
+	}
+	
+	public TransportRequest getRequest() {
+		return request;
+	}
+	
+	/**
+	 * Passes the request to the next stage. It can be called more than 
+	 * once, to send a request again.
+	 * 
+	 * @param request	The request.
+	 * @return	The response of the next stages.
+	 * @throws IOException
+	 */
+	public TransportResponse proceed(TransportRequest request) throws IOException {
+		if(index>=interceptors.size())
+			throw new IllegalStateException("No stage of the pipeline sent the request");
+		return interceptors.get(index).intercept(new OperationChain(operation, interceptors, index + 1, request));
+	}
+	
+}
@@ -0,0 +1,49 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import java.io.IOException;
+
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+
+/**
+ * A stage of the {@link OperationPipeline} every operation request goes 
+ * through. An interceptor can change the request, pass it on with 
+ * {@link OperationChain#proceed(es.javocsoft.android.lib.toucan.client.transport.TransportRequest)}, 
+ * look at or replace the response, or answer by itself without passing 
+ * it on, so the rest of the stages and the network are skipped.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public interface OperationInterceptor {
+
+	/**
+	 * Handles the request of an operation.
+	 * 
+	 * @param chain	The rest of the pipeline, with the operation and its request.
+	 * @return	The response. Its decoded body is the API response, if any.
+	 * @throws IOException
+	 */
+	public TransportResponse intercept(OperationChain chain) throws IOException;
+	
+}
@@ -0,0 +1,170 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.BackpressureGate;
+import es.javocsoft.android.lib.toucan.client.transport.TransportManager;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+
+/**
+ * The ordered stages every operation request goes through, from the 
+ * worker to the network:
+ * <ol>
+ * 	<li>Metrics: requests, failures and time of each operation.</li>
+ * 	<li>The interceptors added by {@link #addInterceptor(String, OperationInterceptor)}, 
+ * 	for all the operations or for one of them.</li>
+ * 	<li>Caching: conditional GET requests, see {@link CacheInterceptor}.</li>
+ * 	<li>Retry: failed GET requests are sent again while there is time.</li>
+ * 	<li>Wire format: the POST data is encoded as the body, see 
+ * 	{@link WireFormatInterceptor}.</li>
+ * 	<li>Auth: the API token.</li>
+ * 	<li>Compression: see {@link TransportManager#getCompressionPolicy()}.</li>
+ * 	<li>Backpressure: the server answers that ask to wait pause the 
+ * 	operations, see {@link BackpressureGate}.</li>
+ * 	<li>Transport: the request is sent and the response decoded.</li>
+ * </ol>
+ * Any stage can answer by itself, so the later ones and the network are 
+ * skipped. The request signatures are part of the data of the operations, 
+ * so there is no signing stage; an added interceptor can sign the requests
+ * if the server ever asks for it.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class OperationPipeline {
+
+	/** The shared pipeline instance */
+	private static volatile OperationPipeline pipeline;
+	
+	private final MetricsInterceptor metrics = new MetricsInterceptor();
+	private final RetryInterceptor retry = new RetryInterceptor();
+	private final List<OperationInterceptor> networkStages = new ArrayList<OperationInterceptor>();
+	private final List<AddedInterceptor> addedInterceptors = new CopyOnWriteArrayList<AddedInterceptor>();
+	
+	
+	public static OperationPipeline getInstance() {
+		if(pipeline==null) {
+			synchronized (OperationPipeline.class) {
+				if(pipeline==null) {
+					pipeline = new OperationPipeline();
+				}
+			}
+		}
+		return pipeline;
+	}
+	
+	OperationPipeline() {
+		networkStages.add(new CacheInterceptor());
+		networkStages.add(retry);
+		networkStages.add(new WireFormatInterceptor());
+		networkStages.add(new AuthInterceptor());
+		networkStages.add(new CompressionInterceptor());
+		networkStages.add(new BackpressureInterceptor());
+		networkStages.add(new TransportInterceptor());
+	}
+	
+	
+	/**
+	 * Adds an interceptor, run after the ones added before and before the 
+	 * caching stage.
+	 * 
+	 * @param operationName	The operation it applies to, or null for all.
+	 * @param interceptor	The interceptor.
+	 */
+	public void addInterceptor(String operationName, OperationInterceptor interceptor) {
+		addedInterceptors.add(new AddedInterceptor(operationName, interceptor));
+	}
+	
+	/**
+	 * Removes an added interceptor.
+	 * 
+	 * @param interceptor	The interceptor.
+	 * @return	TRUE if it was added.
+	 */
+	public boolean removeInterceptor(OperationInterceptor interceptor) {
+		for(AddedInterceptor added:addedInterceptors) {
+			if(added.interceptor==interceptor) {
+				return addedInterceptors.remove(added);
+			}
+		}
+		return false;
+	}
+	
+	public MetricsInterceptor getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Sets how many times a failed GET request is sent again.
+	 * 
+	 * @param maxRetries	The number of retries, 0 for none.
+	 */
+	public void setMaxRetries(int maxRetries) {
+		retry.setMaxRetries(maxRetries);
+	}
+	
+	/**
+	 * Runs the request of an operation through the pipeline, with the SSL 
+	 * policy and the deadline of the operation.
+	 * 
+	 * @param operation	The operation.
+	 * @param request	The request. The body of POST operations is set by
+	 * 					the pipeline.
+	 * @return	The response. Its decoded body is the API response, if any.
+	 * @throws IOException
+	 */
+	public TransportResponse execute(ToucanWorker operation, TransportRequest request) throws IOException {
+		request.setIgnoreSSLErrors(operation.isIgnoreSSLErrors());
+		request.setMaxResponseBytes(TransportManager.getInstance().getMaxResponseBytes());
+		request.setDeadline(operation.getDeadline());
+		
+		List<OperationInterceptor> interceptors = new ArrayList<OperationInterceptor>(networkStages.size() + 1 + addedInterceptors.size());
+		interceptors.add(metrics);
+		for(AddedInterceptor added:addedInterceptors) {
+			if(added.operationName==null || added.operationName.equals(operation.getOperationName()))
+				interceptors.add(added.interceptor);
+		}
+		interceptors.addAll(networkStages);
+		return new OperationChain(operation, interceptors, 0, request).proceed(request);
+	}
+	
+	
+	// AUXILIAR
+	
+	private static class AddedInterceptor {
+		private final String operationName;
+		private final OperationInterceptor interceptor;
+		
+		private AddedInterceptor(String operationName, OperationInterceptor interceptor) {
+			this.operationName = operationName;
+			this.interceptor = interceptor;
+		}
+	}
+	
+}
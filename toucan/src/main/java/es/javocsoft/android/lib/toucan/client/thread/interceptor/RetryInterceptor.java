@@ -0,0 +1,79 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import java.io.IOException;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.transport.DeadlineExceededException;
+import es.javocsoft.android.lib.toucan.client.transport.ResponseTooLargeException;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest.HTTP_METHOD;
+
+/**
+ * Sends again, right away, the GET requests that failed with a network 
+ * error while the operation has time left. POST requests are not sent 
+ * again here, as the server may have done them: a failed POST operation 
+ * is saved and delivered later, as before.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+final class RetryInterceptor implements OperationInterceptor {
+
+	/** Default number of times a failed request is sent again. */
+	public static final int DEFAULT_MAX_RETRIES = 1;
+	
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	
+	
+	@Override
+	public TransportResponse intercept(OperationChain chain) throws IOException {
+		TransportRequest request = chain.getRequest();
+		if(request.getMethod()!=HTTP_METHOD.GET)
+			return chain.proceed(request);
+		
+		int retries = 0;
+		while(true) {
+			//Later stages change the request, each attempt starts from it as it is now.
+			TransportRequest attempt = request.copy();
+			try {
+				return chain.proceed(attempt);
+			}catch(IOException e) {
+				if(e instanceof DeadlineExceededException || e instanceof ResponseTooLargeException || 
+						retries>=maxRetries || request.getRemainingMillis()<=0) {
+					throw e;
+				}
+				retries++;
+				Log.w(ToucanClient.LOG_TAG, chain.getOperation().getOperationName().toUpperCase() + 
+						". Request failed (" + e.getMessage() + "), sending it again.");
+			}
+		}
+	}
+	
+	void setMaxRetries(int maxRetries) {
+		this.maxRetries = Math.max(0, maxRetries);
+	}
+	
+}
@@ -0,0 +1,109 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+
+import android.util.Log;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import es.javocsoft.android.lib.toolbox.json.GsonProcessor;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.transport.ResponseBodyHandler;
+import es.javocsoft.android.lib.toucan.client.transport.ResponseTooLargeException;
+import es.javocsoft.android.lib.toucan.client.transport.TransportManager;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+import es.javocsoft.android.lib.toucan.client.wire.ToucanCborCodec;
+import es.javocsoft.android.lib.toucan.client.wire.WireFormatNegotiator;
+import es.javocsoft.android.lib.toucan.client.wire.WireFormatNegotiator.WIRE_FORMAT;
+
+/**
+ * Last stage of the pipeline: sends the request through the shared 
+ * transport and decodes the API response as it is read.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+final class TransportInterceptor implements OperationInterceptor {
+
+	/** 
+	 * Decodes the API response as it comes from the connection, without 
+	 * keeping the whole body in memory. 
+	 */
+	private static final ResponseBodyHandler RESPONSE_DECODER = new ResponseBodyHandler() {
+		@Override
+		public Object handle(int statusCode, String contentType, InputStream body) throws IOException {
+			if(statusCode==HttpURLConnection.HTTP_NOT_MODIFIED)
+				return null;
+			
+			if(WireFormatNegotiator.isCbor(contentType)) {
+				try {
+					return ToucanCborCodec.decodeResponse(body);
+				}catch(IOException e) {
+					if(e instanceof InterruptedIOException || e instanceof ResponseTooLargeException)
+						throw e;
+					//Not an API response, the worker logs the excerpt.
+					return null;
+				}
+			}
+			try {
+				JsonReader reader = new JsonReader(new InputStreamReader(body, "UTF-8"));
+				return GsonProcessor.getInstance().getGsonWithExposedFilter().fromJson(reader, Response.class);
+			}catch(JsonParseException e) {
+				//Gson wraps the errors of the stream.
+				if(e.getCause() instanceof InterruptedIOException || e.getCause() instanceof ResponseTooLargeException)
+					throw (IOException)e.getCause();
+				//Not an API response, the worker logs the excerpt.
+				return null;
+			}
+		}
+	};
+	
+	
+	@Override
+	public TransportResponse intercept(OperationChain chain) throws IOException {
+		TransportRequest request = chain.getRequest();
+		String opname = chain.getOperation().getOperationName().toUpperCase();
+		request.setBodyHandler(RESPONSE_DECODER);
+		
+		Log.i(ToucanClient.LOG_TAG, opname + ". Sent to Toucan API. IgnoreSSL? " + request.isIgnoreSSLErrors());
+		String url = request.getUrl();
+		TransportResponse response = TransportManager.getInstance().execute(request);
+		WireFormatNegotiator.getInstance().onResponse(url, 
+				WireFormatNegotiator.isCbor(request.getHeader("Content-Type"))?WIRE_FORMAT.CBOR:WIRE_FORMAT.JSON, response);
+		
+		if(!response.isSuccessful() && response.getStatusCode()!=HttpURLConnection.HTTP_NOT_MODIFIED) {
+			Log.w(ToucanClient.LOG_TAG, opname + ". HTTP status " + response.getStatusCode());
+		}
+		Log.i(ToucanClient.LOG_TAG, opname + ". Call response '" + response.getBodyExcerpt() + "'");
+		return response;
+	}
+	
+}
@@ -0,0 +1,82 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toolbox.json.GsonProcessor;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+import es.javocsoft.android.lib.toucan.client.wire.ToucanCborCodec;
+import es.javocsoft.android.lib.toucan.client.wire.WireFormatNegotiator;
+import es.javocsoft.android.lib.toucan.client.wire.WireFormatNegotiator.WIRE_FORMAT;
+
+/**
+ * Encodes the data of POST operations as the request body, in CBOR if the
+ * server was seen to support it or in JSON otherwise. A CBOR request 
+ * rejected by the server is sent again as JSON. See 
+ * {@link WireFormatNegotiator}.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+final class WireFormatInterceptor implements OperationInterceptor {
+
+	private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+	
+	
+	@Override
+	public TransportResponse intercept(OperationChain chain) throws IOException {
+		TransportRequest request = chain.getRequest();
+		WireFormatNegotiator negotiator = WireFormatNegotiator.getInstance();
+		request.setHeader("Accept", negotiator.getAcceptHeader());
+		
+		ToucanWorker operation = chain.getOperation();
+		if(request.getBody()!=null || operation.getData()==null)
+			return chain.proceed(request);
+		
+		String opname = operation.getOperationName().toUpperCase();
+		byte[] cborData = null;
+		if(negotiator.getRequestFormat(request.getUrl())==WIRE_FORMAT.CBOR) {
+			cborData = ToucanCborCodec.encodeRequest(operation.getData());
+		}
+		if(cborData!=null) {
+			TransportRequest original = request.copy();
+			Log.i(ToucanClient.LOG_TAG, opname + ". Request <<CBOR, " + cborData.length + " bytes>>.");
+			TransportResponse response = chain.proceed(request.setBody(cborData, WireFormatNegotiator.CONTENT_TYPE_CBOR));
+			if(response.getStatusCode()!=HttpURLConnection.HTTP_UNSUPPORTED_TYPE)
+				return response;
+			
+			//The server does not take CBOR (any more), send it again as JSON.
+			request = original;
+		}
+		
+		String jsonData = GsonProcessor.getInstance().getGsonWithExposedFilter().toJson(operation.getData());
+		Log.i(ToucanClient.LOG_TAG, opname + ". Request <<" + jsonData + ">>.");
+		return chain.proceed(request.setBody(jsonData.getBytes("UTF-8"), CONTENT_TYPE_JSON));
+	}
+	
+}
@@ -0,0 +1,135 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Reads at most a number of bytes from a stream, failing with 
+ * {@link ResponseTooLargeException} beyond them, and keeps a copy of the 
+ * first bytes read to be logged. Reading after the deadline of the request
+ * fails with {@link DeadlineExceededException}.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+class BoundedInputStream extends FilterInputStream {
+
+	private final long maxBytes;
+	private final long deadlineNanos;
+	private final byte[] excerpt;
+	private int excerptLength = 0;
+	private long count = 0;
+	
+	
+	BoundedInputStream(InputStream in, long maxBytes, long deadlineNanos, int excerptBytes) {
+		super(in);
+		this.maxBytes = maxBytes;
+		this.deadlineNanos = deadlineNanos;
+		this.excerpt = new byte[Math.max(0, excerptBytes)];
+	}
+	
+	
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		int read = read(one, 0, 1);
+		return read==-1?-1:(one[0] & 0xff);
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(deadlineNanos!=0 && System.nanoTime() - deadlineNanos>=0) {
+			throw new DeadlineExceededException("Response not read in time");
+		}
+		if(count>maxBytes) {
+			//Already over the limit, nothing more is read.
+			throw new ResponseTooLargeException("Response bigger than " + maxBytes + " bytes");
+		}
+		int read = super.read(b, off, (int)Math.min(len, maxBytes - count + 1));
+		if(read>0) {
+			count += read;
+			if(count>maxBytes) {
+				throw new ResponseTooLargeException("Response bigger than " + maxBytes + " bytes");
+			}
+			int toCopy = Math.min(read, excerpt.length - excerptLength);
+			if(toCopy>0) {
+				System.arraycopy(b, off, excerpt, excerptLength, toCopy);
+				excerptLength += toCopy;
+			}
+		}
+		return read;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] buffer = new byte[(int)Math.min(n, 1024)];
+		long skipped = 0;
+		while(skipped<n) {
+			int read = read(buffer, 0, (int)Math.min(buffer.length, n - skipped));
+			if(read==-1)
+				break;
+			skipped += read;
+		}
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+	
+	/**
+	 * Reads, and discards, the rest of the stream.
+	 * 
+	 * @throws IOException
+	 */
+	void drain() throws IOException {
+		byte[] buffer = new byte[1024];
+		while(read(buffer, 0, buffer.length)!=-1) {
+			//Discarded
+		}
+	}
+	
+	long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Gets the beginning of the data read, as text.
+	 * 
+	 * @return
+	 */
+	String getExcerpt() {
+		String text;
+		try {
+			text = new String(excerpt, 0, excerptLength, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			text = new String(excerpt, 0, excerptLength);
+		}
+		return count>excerptLength?text + "...(" + count + " bytes)":text;
+	}
+	
+}
@@ -0,0 +1,140 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+
+/**
+ * Decides which request bodies are sent gzip compressed, by operation 
+ * name (see the API_OPERATION_* names of {@link ToucanClient}) and body 
+ * size, and whether compressed responses are accepted.<br><br>
+ * 
+ * By default, registrations and tag operations are compressed when their 
+ * body reaches {@link #DEFAULT_MIN_SIZE_BYTES}. ACKs are small, they are
+ * sent as they are. The notification server must accept 
+ * "Content-Encoding: gzip" request bodies to enable it.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class CompressionPolicy {
+
+	/** Smaller bodies do not gain enough to pay the gzip header and time. */
+	public static final int DEFAULT_MIN_SIZE_BYTES = 512;
+	
+	private volatile Set<String> compressedOperations;
+	private volatile int minSizeBytes = DEFAULT_MIN_SIZE_BYTES;
+	private volatile boolean acceptCompressedResponses = true;
+	
+	private final AtomicLong bytesBeforeCompression = new AtomicLong();
+	private final AtomicLong bytesAfterCompression = new AtomicLong();
+	
+	
+	CompressionPolicy() {
+		Set<String> operations = new HashSet<String>();
+		operations.add(ToucanClient.API_OPERATION_DEVICE_REGISTRATION);
+		operations.add(ToucanClient.API_OPERATION_INFORM_REFERRAL);
+		operations.add(ToucanClient.API_OPERATION_ADD_TAGS);
+		operations.add(ToucanClient.API_OPERATION_REMOVE_TAGS);
+		operations.add(ToucanClient.API_OPERATION_RESET_TAGS);
+		compressedOperations = Collections.unmodifiableSet(operations);
+	}
+	
+	
+	/**
+	 * Sets whether the request body of an operation is compressed.
+	 * 
+	 * @param operationName	The operation name.
+	 * @param compressed	TRUE to compress it.
+	 */
+	public synchronized void setCompressed(String operationName, boolean compressed) {
+		Set<String> operations = new HashSet<String>(compressedOperations);
+		if(compressed) {
+			operations.add(operationName);
+		}else{
+			operations.remove(operationName);
+		}
+		compressedOperations = Collections.unmodifiableSet(operations);
+	}
+	
+	public boolean isCompressed(String operationName) {
+		return compressedOperations.contains(operationName);
+	}
+	
+	/**
+	 * Sets the minimum body size to compress it.
+	 * 
+	 * @param minSizeBytes	The size, in bytes.
+	 */
+	public void setMinSizeBytes(int minSizeBytes) {
+		this.minSizeBytes = Math.max(0, minSizeBytes);
+	}
+	
+	public int getMinSizeBytes() {
+		return minSizeBytes;
+	}
+	
+	/**
+	 * Sets whether the server is told, by "Accept-Encoding: gzip", that it 
+	 * can send the responses compressed.
+	 * 
+	 * @param acceptCompressedResponses
+	 */
+	public void setAcceptCompressedResponses(boolean acceptCompressedResponses) {
+		this.acceptCompressedResponses = acceptCompressedResponses;
+	}
+	
+	public boolean isAcceptCompressedResponses() {
+		return acceptCompressedResponses;
+	}
+	
+	/**
+	 * Checks whether a request body must be compressed.
+	 * 
+	 * @param operationName	The operation name.
+	 * @param bodySize		The body size, in bytes.
+	 * @return
+	 */
+	public boolean shouldCompress(String operationName, int bodySize) {
+		return bodySize>=minSizeBytes && isCompressed(operationName);
+	}
+	
+	/**
+	 * Gets the request bytes not sent thanks to the compression.
+	 * 
+	 * @return
+	 */
+	public long getBytesSaved() {
+		return bytesBeforeCompression.get() - bytesAfterCompression.get();
+	}
+	
+	void onCompressed(int originalSize, int compressedSize) {
+		bytesBeforeCompression.addAndGet(originalSize);
+		bytesAfterCompression.addAndGet(compressedSize);
+	}
+	
+}
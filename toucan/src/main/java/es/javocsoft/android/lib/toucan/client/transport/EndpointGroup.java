@@ -0,0 +1,337 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+
+/**
+ * Base URLs of the same Toucan API (for example, one per region) used as
+ * one. The latency and the errors of the requests sent to each of them are
+ * tracked, so:
+ * <ul>
+ * 	<li>Requests go to the healthy endpoints, weighted towards the fastest
+ * 	one. Slower endpoints still get a few requests, so their latency is
+ * 	known when they get better.</li>
+ * 	<li>A request that can not be sent to an endpoint, or gets a gateway
+ * 	error (502, 503 or 504) from it, is sent again to the next one while
+ * 	there is time left. A POST is only sent again when the endpoint surely
+ * 	did not get it: it could not be connected to, or it answered 502 or
+ * 	503. Otherwise the error is given back, so a POST is never run twice.</li>
+ * 	<li>An endpoint that fails {@link #FAILURES_TO_MARK_DOWN} times in a row
+ * 	is marked as down. Once the re-probe interval is over, a single request
+ * 	is sent to it again to check it. If it fails, it stays down.</li>
+ * </ul>
+ * Operation URLs are built with the first base URL, the primary one. It is
+ * replaced by the selected base URL when the request is sent.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class EndpointGroup {
+
+	public static final int FAILURES_TO_MARK_DOWN = 2;
+	public static final long DEFAULT_REPROBE_INTERVAL_MILLIS = 30 * 1000;
+
+	private static final double SMOOTHING = 0.3;
+	/** Each error rate point weighs as this many times the latency. */
+	private static final double ERROR_PENALTY = 10.0;
+
+	private final List<Endpoint> endpoints;
+	private final Random random = new Random();
+	private volatile long reprobeIntervalMillis = DEFAULT_REPROBE_INTERVAL_MILLIS;
+
+
+	/**
+	 * Creates the group.
+	 *
+	 * @param baseUrls	The base URLs, the first one is the primary one.
+	 */
+	EndpointGroup(List<String> baseUrls) {
+		List<Endpoint> list = new ArrayList<Endpoint>();
+		for(String baseUrl:baseUrls) {
+			list.add(new Endpoint(baseUrl));
+		}
+		endpoints = Collections.unmodifiableList(list);
+	}
+
+
+	public String getPrimaryBaseUrl() {
+		return endpoints.get(0).baseUrl;
+	}
+
+	public void setReprobeIntervalMillis(long reprobeIntervalMillis) {
+		this.reprobeIntervalMillis = Math.max(0, reprobeIntervalMillis);
+	}
+
+	/**
+	 * Gets whether the URL belongs to this group, that is, whether it is the
+	 * primary base URL or a path below it.
+	 *
+	 * @param url	The URL, built with the primary base URL.
+	 * @return
+	 */
+	public boolean matches(String url) {
+		String baseUrl = getPrimaryBaseUrl();
+		if(url==null || !url.startsWith(baseUrl))
+			return false;
+		if(url.length()==baseUrl.length() || baseUrl.endsWith("/"))
+			return true;
+		char next = url.charAt(baseUrl.length());
+		return next=='/' || next=='?' || next=='#';
+	}
+
+	/**
+	 * Sends the request to the best endpoint, and to the next ones if it
+	 * fails, while there is time left. A POST is only sent to the next one
+	 * if the failed endpoint did not get it.
+	 *
+	 * @param transport	The transport.
+	 * @param request	The request, with a URL built with the primary base URL.
+	 * @return	The response of the last endpoint tried.
+	 * @throws IOException	The error of the last endpoint tried.
+	 */
+	public TransportResponse execute(ToucanTransport transport, TransportRequest request) throws IOException {
+		String path = request.getUrl().substring(getPrimaryBaseUrl().length());
+		List<Endpoint> tried = new ArrayList<Endpoint>();
+
+		while(true) {
+			Endpoint endpoint = select(tried);
+			tried.add(endpoint);
+			boolean last = tried.size()==endpoints.size();
+			request.setUrl(endpoint.baseUrl + path);
+
+			long start = System.nanoTime();
+			try {
+				TransportResponse response = transport.execute(request);
+				long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				if(!isGatewayError(response.getStatusCode())) {
+					onSuccess(endpoint, latencyMillis);
+					return response;
+				}
+
+				onFailure(endpoint);
+				if(last || request.getRemainingMillis()<=0 || 
+						(!isIdempotent(request) && !isNotProcessed(response.getStatusCode())))
+					return response;
+				Log.w(ToucanClient.LOG_TAG, "Endpoint " + endpoint.baseUrl + " answered " + response.getStatusCode() + ", trying the next one.");
+
+			}catch(ResponseTooLargeException e) {
+				//The endpoint is fine, the response is not.
+				onSuccess(endpoint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				throw e;
+			}catch(IOException e) {
+				onFailure(endpoint);
+				if(last || request.getRemainingMillis()<=0 || 
+						(!isIdempotent(request) && !isNotConnected(e)))
+					throw e;
+				Log.w(ToucanClient.LOG_TAG, "Endpoint " + endpoint.baseUrl + " failed (" + e.getMessage() + "), trying the next one.");
+			}
+		}
+	}
+
+	/**
+	 * Gets the state of the endpoints, for diagnostics.
+	 *
+	 * @return
+	 */
+	public synchronized List<String> getEndpointsState() {
+		List<String> states = new ArrayList<String>();
+		for(Endpoint endpoint:endpoints) {
+			states.add(endpoint.toString());
+		}
+		return states;
+	}
+
+
+	// AUXILIAR
+
+	/**
+	 * Selects an endpoint not tried yet. Healthy endpoints, and down ones
+	 * due to be probed again, are chosen at random weighted by their score.
+	 * If all are down, the one that will be probed first is chosen.
+	 */
+	private synchronized Endpoint select(List<Endpoint> tried) {
+		long now = System.nanoTime();
+		List<Endpoint> candidates = new ArrayList<Endpoint>();
+		Endpoint probe = null;
+		Endpoint leastDown = null;
+		for(Endpoint endpoint:endpoints) {
+			if(tried.contains(endpoint))
+				continue;
+
+			if(!endpoint.isDown()) {
+				candidates.add(endpoint);
+			}else if(now - endpoint.downUntilNanos>=0) {
+				if(probe==null)
+					probe = endpoint;
+			}else if(leastDown==null || endpoint.downUntilNanos - leastDown.downUntilNanos<0) {
+				leastDown = endpoint;
+			}
+		}
+
+		if(probe!=null) {
+			//Only this request probes it, the next ones wait for its result.
+			probe.downUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(reprobeIntervalMillis);
+			return probe;
+		}
+		if(candidates.isEmpty())
+			return leastDown;
+		if(candidates.size()==1)
+			return candidates.get(0);
+
+		double knownLatency = 0;
+		int known = 0;
+		for(Endpoint endpoint:candidates) {
+			if(endpoint.latencyMillis>=0) {
+				knownLatency += endpoint.latencyMillis;
+				known++;
+			}
+		}
+		//Endpoints never used are taken as the average, so they are tried.
+		double defaultLatency = known>0?knownLatency/known:1;
+
+		double[] weights = new double[candidates.size()];
+		double total = 0;
+		for(int i=0;i<candidates.size();i++) {
+			weights[i] = candidates.get(i).getWeight(defaultLatency);
+			total += weights[i];
+		}
+		double point = random.nextDouble() * total;
+		for(int i=0;i<candidates.size();i++) {
+			point -= weights[i];
+			if(point<=0)
+				return candidates.get(i);
+		}
+		return candidates.get(candidates.size()-1);
+	}
+
+	private synchronized void onSuccess(Endpoint endpoint, long latencyMillis) {
+		endpoint.onSuccess(latencyMillis);
+	}
+	
+	private synchronized void onFailure(Endpoint endpoint) {
+		endpoint.onFailure(reprobeIntervalMillis);
+	}
+	
+	private static boolean isGatewayError(int statusCode) {
+		return statusCode==HttpURLConnection.HTTP_BAD_GATEWAY ||
+				statusCode==HttpURLConnection.HTTP_UNAVAILABLE ||
+				statusCode==HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+	}
+
+	private static boolean isIdempotent(TransportRequest request) {
+		return request.getMethod()==TransportRequest.HTTP_METHOD.GET;
+	}
+
+	/** 
+	 * A gateway that answers 502 or 503 did not pass the request on. With a 
+	 * 504 it did, and it may have been run. 
+	 */
+	private static boolean isNotProcessed(int statusCode) {
+		return statusCode==HttpURLConnection.HTTP_BAD_GATEWAY ||
+				statusCode==HttpURLConnection.HTTP_UNAVAILABLE;
+	}
+
+	/** 
+	 * The endpoint could not be connected to, so it did not get the request.
+	 * The transport reports a connect timeout as a {@link ConnectException}. 
+	 */
+	private static boolean isNotConnected(IOException e) {
+		return e instanceof ConnectException || e instanceof NoRouteToHostException || 
+				e instanceof UnknownHostException;
+	}
+
+	/** Passive health of a base URL, guarded by the group. */
+	private static class Endpoint {
+
+		private final String baseUrl;
+		/** Smoothed latency of the successful requests, -1 if unknown. */
+		private double latencyMillis = -1;
+		/** Smoothed rate, from 0 to 1, of failed requests. */
+		private double errorRate = 0;
+		private int consecutiveFailures = 0;
+		private boolean connected = false;
+		private long downUntilNanos = 0;
+
+		Endpoint(String baseUrl) {
+			this.baseUrl = baseUrl;
+		}
+
+		boolean isDown() {
+			return consecutiveFailures>=FAILURES_TO_MARK_DOWN;
+		}
+
+		void onSuccess(long latency) {
+			if(!connected) {
+				//The first request pays the DNS, TCP and TLS setup, it does 
+				//not tell the latency of the endpoint.
+				connected = true;
+			}else{
+				latencyMillis = latencyMillis<0?latency:(latencyMillis + SMOOTHING * (latency - latencyMillis));
+			}
+			errorRate = errorRate * (1 - SMOOTHING);
+			if(isDown()) {
+				Log.i(ToucanClient.LOG_TAG, "Endpoint " + baseUrl + " is up again.");
+			}
+			consecutiveFailures = 0;
+		}
+
+		void onFailure(long reprobeIntervalMillis) {
+			errorRate = errorRate + SMOOTHING * (1 - errorRate);
+			consecutiveFailures++;
+			//The failed connection is discarded.
+			connected = false;
+			if(consecutiveFailures==FAILURES_TO_MARK_DOWN) {
+				Log.w(ToucanClient.LOG_TAG, "Endpoint " + baseUrl + " marked as down.");
+			}
+			if(isDown()) {
+				downUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reprobeIntervalMillis);
+			}
+		}
+
+		/** The faster and the fewer errors, the bigger. */
+		double getWeight(double defaultLatency) {
+			double latency = Math.max(1, latencyMillis>=0?latencyMillis:defaultLatency);
+			double cost = latency * (1 + ERROR_PENALTY * errorRate);
+			return 1 / (cost * cost);
+		}
+
+		@Override
+		public String toString() {
+			return baseUrl + " [latencyMillis=" + Math.round(latencyMillis) + ", errorRate=" +
+					Math.round(errorRate * 100) + "%, down=" + isDown() + "]";
+		}
+	}
+
+}
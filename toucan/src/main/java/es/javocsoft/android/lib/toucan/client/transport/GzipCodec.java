@@ -0,0 +1,73 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip encoding of the HTTP bodies.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public final class GzipCodec {
+
+	public static final String ENCODING_GZIP = "gzip";
+	
+	
+	private GzipCodec() {}
+	
+	
+	/**
+	 * Compresses the data.
+	 * 
+	 * @param data	The data.
+	 * @return	The gzip compressed data.
+	 * @throws IOException
+	 */
+	public static byte[] compress(byte[] data) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		try {
+			gzip.write(data);
+		}finally{
+			gzip.close();
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Wraps a stream of gzip compressed data.
+	 * 
+	 * @param in	The compressed stream.
+	 * @return	The stream of uncompressed data.
+	 * @throws IOException
+	 */
+	public static InputStream decompress(InputStream in) throws IOException {
+		return new GZIPInputStream(in);
+	}
+	
+}
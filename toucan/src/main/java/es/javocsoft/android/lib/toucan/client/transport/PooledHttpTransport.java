@@ -0,0 +1,430 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+
+/**
+ * Default {@link ToucanTransport}. It keeps the connections to each host 
+ * alive between requests so back-to-back operations (for example, a burst 
+ * of ACKs) reuse the same TCP connection and TLS session instead of paying 
+ * a new handshake each time.<br><br>
+ * 
+ * Connections are pooled by the platform HTTP stack. The transport makes 
+ * sure they can be reused: responses are always fully read and closed, and
+ * a connection is only discarded when it fails.<br><br>
+ * 
+ * The transport does not own that pool. Its size and the time idle 
+ * connections are kept are those of the platform, shared by the whole 
+ * application, and are left as the application sets them. What the 
+ * transport sets is:
+ * <ul>
+ * 	<li>A cap on the requests sent at the same time to each host. Requests 
+ * 	over it wait for a running one, instead of opening connections that 
+ * 	the pool would close after one use.</li>
+ * 	<li>Whether connections are kept alive at all. Without keep-alive, each
+ * 	request asks the server to close its connection.</li>
+ * </ul>
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class PooledHttpTransport implements ToucanTransport {
+
+	public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+	public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+	
+	private static final int BUFFER_SIZE = 4096;
+	/** Bytes of each response kept to be logged. */
+	private static final int LOG_EXCERPT_BYTES = 256;
+	/** Time a host without requests is remembered. */
+	private static final long HOST_IDLE_MILLIS = 5 * 60 * 1000;
+	
+	private final int maxRequestsPerHost;
+	private final boolean keepAlive;
+	private final int connectTimeoutMillis;
+	private final int readTimeoutMillis;
+	
+	/** Requests in progress per host, by "protocol://host:port" */
+	private final Map<String, HostPermits> hosts = new ConcurrentHashMap<String, HostPermits>();
+	private SSLSocketFactory trustAllSocketFactory;
+	
+	
+	public PooledHttpTransport() {
+		this(DEFAULT_MAX_REQUESTS_PER_HOST, true, 
+				DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+	}
+	
+	/**
+	 * Creates the transport.
+	 * 
+	 * @param maxRequestsPerHost	Requests sent at the same time, per host.
+	 * @param keepAlive				If FALSE, connections are closed after 
+	 * 								each request.
+	 * @param connectTimeoutMillis	Maximum time to connect.
+	 * @param readTimeoutMillis		Maximum time to wait for response data.
+	 */
+	public PooledHttpTransport(int maxRequestsPerHost, boolean keepAlive, 
+			int connectTimeoutMillis, int readTimeoutMillis) {
+		this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+		this.keepAlive = keepAlive;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+	
+	
+	@Override
+	public TransportResponse execute(TransportRequest request) throws IOException {
+		URL url = new URL(request.getUrl());
+		HostPermits host = getHostPermits(url);
+		try {
+			long remainingMillis = request.getRemainingMillis();
+			if(remainingMillis==Long.MAX_VALUE) {
+				host.permits.acquire();
+			}else if(remainingMillis<=0 || !host.permits.tryAcquire(remainingMillis, TimeUnit.MILLISECONDS)) {
+				throw new DeadlineExceededException("Out of time waiting for a request slot to " + url.getHost());
+			}
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for a request slot to " + url.getHost());
+		}
+		
+		try {
+			return send(url, request);
+		}finally{
+			host.lastUsed = System.currentTimeMillis();
+			host.permits.release();
+		}
+	}
+	
+	/**
+	 * Resolves the host and sends a HEAD request to it. The connection, and
+	 * its TLS session, stay in the pool for the next request. TLS sessions 
+	 * are kept by the SSL context of the connections, so connections opened
+	 * later to the same host resume them instead of doing a full handshake.
+	 */
+	@Override
+	public PrewarmResult prewarm(String url, boolean ignoreSSLErrors) {
+		String host = url;
+		long dnsCostMillis = 0;
+		long handshakeCostMillis = 0;
+		HttpURLConnection connection = null;
+		try {
+			URL target = new URL(url);
+			host = target.getHost();
+			
+			long start = System.currentTimeMillis();
+			InetAddress.getAllByName(host);
+			dnsCostMillis = System.currentTimeMillis() - start;
+			
+			HostPermits permits = getHostPermits(target);
+			permits.permits.acquire();
+			try {
+				connection = (HttpURLConnection)target.openConnection();
+				connection.setConnectTimeout(connectTimeoutMillis);
+				connection.setReadTimeout(readTimeoutMillis);
+				connection.setUseCaches(false);
+				if(ignoreSSLErrors && connection instanceof HttpsURLConnection) {
+					((HttpsURLConnection)connection).setSSLSocketFactory(getTrustAllSocketFactory());
+					((HttpsURLConnection)connection).setHostnameVerifier(TRUST_ALL_HOSTNAMES);
+				}
+				connection.setRequestMethod("HEAD");
+				
+				start = System.currentTimeMillis();
+				connection.connect();
+				handshakeCostMillis = System.currentTimeMillis() - start;
+				
+				//Any answer is fine, the connection goes back to the pool once read.
+				int statusCode = connection.getResponseCode();
+				readFully(statusCode>=400?connection.getErrorStream():connection.getInputStream());
+			}finally{
+				permits.lastUsed = System.currentTimeMillis();
+				permits.permits.release();
+			}
+			
+			PrewarmResult result = new PrewarmResult(host, true, dnsCostMillis, handshakeCostMillis, null);
+			Log.i(ToucanClient.LOG_TAG, "Connection pre-warmed: " + result);
+			return result;
+			
+		}catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new PrewarmResult(host, false, dnsCostMillis, handshakeCostMillis, "Interrupted");
+		}catch(Exception e) {
+			if(connection!=null)
+				connection.disconnect();
+			Log.w(ToucanClient.LOG_TAG, "Connection could not be pre-warmed (" + e.getMessage() + ")");
+			return new PrewarmResult(host, false, dnsCostMillis, handshakeCostMillis, e.getMessage());
+		}
+	}
+	
+	public int getMaxRequestsPerHost() {
+		return maxRequestsPerHost;
+	}
+	
+	public boolean isKeepAlive() {
+		return keepAlive;
+	}
+	
+	
+	// AUXILIAR
+	
+	private TransportResponse send(URL url, TransportRequest request) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		try {
+			connection.setConnectTimeout(boundedTimeout(connectTimeoutMillis, request));
+			connection.setReadTimeout(boundedTimeout(readTimeoutMillis, request));
+			connection.setUseCaches(false);
+			if(!isKeepAlive()) {
+				connection.setRequestProperty("Connection", "close");
+			}
+			if(request.isIgnoreSSLErrors() && connection instanceof HttpsURLConnection) {
+				((HttpsURLConnection)connection).setSSLSocketFactory(getTrustAllSocketFactory());
+				((HttpsURLConnection)connection).setHostnameVerifier(TRUST_ALL_HOSTNAMES);
+			}
+			for(Map.Entry<String, String> header:request.getHeaders().entrySet()) {
+				connection.setRequestProperty(header.getKey(), header.getValue());
+			}
+			
+			connection.setRequestMethod(request.getMethod().name());
+			byte[] body = request.getBody();
+			if(body!=null) {
+				connection.setDoOutput(true);
+				connection.setFixedLengthStreamingMode(body.length);
+			}
+			connect(connection, request);
+			if(body!=null) {
+				OutputStream out = connection.getOutputStream();
+				try {
+					out.write(body);
+				}finally{
+					out.close();
+				}
+			}
+			
+			int statusCode = connection.getResponseCode();
+			checkDeadline(request);
+			//Reading the rest can not take longer than the time left.
+			connection.setReadTimeout(boundedTimeout(readTimeoutMillis, request));
+			InputStream in = statusCode>=400?connection.getErrorStream():connection.getInputStream();
+			if(in!=null && connection.getContentLength()!=0 && 
+					GzipCodec.ENCODING_GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+				//We asked for it, so the platform leaves it to us.
+				in = GzipCodec.decompress(in);
+			}
+			if(in==null) {
+				return new TransportResponse(statusCode, connection.getHeaderFields(), null);
+			}
+			
+			BoundedInputStream bodyStream = new BoundedInputStream(in, request.getMaxResponseBytes(), request.getDeadline(), LOG_EXCERPT_BYTES);
+			try {
+				ResponseBodyHandler bodyHandler = request.getBodyHandler();
+				if(bodyHandler!=null) {
+					Object decodedBody = bodyHandler.handle(statusCode, connection.getContentType(), bodyStream);
+					//The rest must be read for the connection to be reused.
+					bodyStream.drain();
+					return new TransportResponse(statusCode, connection.getHeaderFields(), null, decodedBody, bodyStream.getExcerpt());
+				}
+				
+				byte[] responseBody = readFully(bodyStream);
+				return new TransportResponse(statusCode, connection.getHeaderFields(), responseBody, null, bodyStream.getExcerpt());
+			}finally{
+				bodyStream.close();
+			}
+			
+		}catch(SocketTimeoutException e) {
+			connection.disconnect();
+			if(request.getRemainingMillis()<=0) {
+				//The timeout was cut down to the time left of the request.
+				throw new DeadlineExceededException("Request out of time (" + request.getUrl() + ")");
+			}
+			throw e;
+		}catch(IOException e) {
+			//A failed connection must not go back to the pool.
+			connection.disconnect();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Connects, so a timeout here is told apart from one waiting for the 
+	 * response: the server did not get the request.
+	 * 
+	 * @throws ConnectException	If the connection timed out.
+	 */
+	private static void connect(HttpURLConnection connection, TransportRequest request) throws IOException {
+		try {
+			connection.connect();
+		}catch(SocketTimeoutException e) {
+			if(request.getRemainingMillis()<=0)
+				throw e;
+			ConnectException connectException = new ConnectException("Connect timed out (" + request.getUrl() + ")");
+			connectException.initCause(e);
+			throw connectException;
+		}
+	}
+	
+	/**
+	 * Gets a connection timeout that does not go beyond the request deadline.
+	 * 
+	 * @param timeoutMillis	The timeout of the transport.
+	 * @param request		The request.
+	 * @return
+	 * @throws DeadlineExceededException	If the request is already out of time.
+	 */
+	private static int boundedTimeout(int timeoutMillis, TransportRequest request) throws DeadlineExceededException {
+		long remainingMillis = checkDeadline(request);
+		//Zero is no timeout for the platform.
+		return (int)Math.max(1, Math.min(timeoutMillis>0?timeoutMillis:Integer.MAX_VALUE, remainingMillis));
+	}
+	
+	private static long checkDeadline(TransportRequest request) throws DeadlineExceededException {
+		long remainingMillis = request.getRemainingMillis();
+		if(remainingMillis<=0)
+			throw new DeadlineExceededException("Request out of time (" + request.getUrl() + ")");
+		return remainingMillis;
+	}
+	
+	/**
+	 * Reads and closes the response stream. A connection goes back to the
+	 * pool only once its response has been fully read.
+	 */
+	private static byte[] readFully(InputStream in) throws IOException {
+		if(in==null)
+			return new byte[0];
+		
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while((read = in.read(buffer))!=-1) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}finally{
+			in.close();
+		}
+	}
+	
+	private HostPermits getHostPermits(URL url) {
+		String key = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+		HostPermits host = hosts.get(key);
+		if(host==null) {
+			evictIdleHosts();
+			synchronized (hosts) {
+				host = hosts.get(key);
+				if(host==null) {
+					host = new HostPermits(maxRequestsPerHost);
+					hosts.put(key, host);
+				}
+			}
+		}
+		return host;
+	}
+	
+	/**
+	 * Forgets the hosts without requests for a while.
+	 */
+	private void evictIdleHosts() {
+		long now = System.currentTimeMillis();
+		synchronized (hosts) {
+			Iterator<HostPermits> it = hosts.values().iterator();
+			while(it.hasNext()) {
+				HostPermits host = it.next();
+				if(now - host.lastUsed > HOST_IDLE_MILLIS && 
+						host.permits.availablePermits()==maxRequestsPerHost) {
+					it.remove();
+				}
+			}
+		}
+	}
+	
+	private synchronized SSLSocketFactory getTrustAllSocketFactory() throws IOException {
+		if(trustAllSocketFactory==null) {
+			try {
+				//One context for all the connections, so TLS sessions are reused.
+				SSLContext sslContext = SSLContext.getInstance("TLS");
+				sslContext.init(null, new TrustManager[]{TRUST_ALL_CERTIFICATES}, new SecureRandom());
+				trustAllSocketFactory = sslContext.getSocketFactory();
+			}catch(Exception e) {
+				Log.e(ToucanClient.LOG_TAG, "SSL context could not be created [" + e.getMessage() + "]", e);
+				throw new IOException("SSL context could not be created [" + e.getMessage() + "]");
+			}
+		}
+		return trustAllSocketFactory;
+	}
+	
+	private static class HostPermits {
+		private final Semaphore permits;
+		private volatile long lastUsed = System.currentTimeMillis();
+		
+		HostPermits(int maxRequests) {
+			this.permits = new Semaphore(maxRequests, true);
+		}
+	}
+	
+	private static final X509TrustManager TRUST_ALL_CERTIFICATES = new X509TrustManager() {
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) {}
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) {}
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return new X509Certificate[0];
+		}
+	};
+	
+	private static final HostnameVerifier TRUST_ALL_HOSTNAMES = new HostnameVerifier() {
+		@Override
+		public boolean verify(String hostname, SSLSession session) {
+			return true;
+		}
+	};
+	
+}
@@ -0,0 +1,99 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+/**
+ * What a connection pre-warm did and what it cost: the time spent 
+ * resolving the host name and opening the connection (TCP and TLS 
+ * handshakes). The first operation sent to the host while the warm 
+ * connection is alive skips these steps, but how much it saves is not 
+ * measured, it depends on the caches of the platform.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class PrewarmResult {
+
+	private final String host;
+	private final boolean success;
+	private final long dnsCostMillis;
+	private final long handshakeCostMillis;
+	private final String error;
+	
+	
+	PrewarmResult(String host, boolean success, long dnsCostMillis, long handshakeCostMillis, String error) {
+		this.host = host;
+		this.success = success;
+		this.dnsCostMillis = dnsCostMillis;
+		this.handshakeCostMillis = handshakeCostMillis;
+		this.error = error;
+	}
+	
+	
+	public String getHost() {
+		return host;
+	}
+	
+	public boolean isSuccess() {
+		return success;
+	}
+	
+	/**
+	 * Gets the time the pre-warm spent resolving the host name.
+	 * 
+	 * @return
+	 */
+	public long getDnsCostMillis() {
+		return dnsCostMillis;
+	}
+	
+	/**
+	 * Gets the time the pre-warm spent opening the connection (TCP and, for
+	 * HTTPS, TLS).
+	 * 
+	 * @return
+	 */
+	public long getHandshakeCostMillis() {
+		return handshakeCostMillis;
+	}
+	
+	/**
+	 * Gets the time the pre-warm spent resolving the host and connecting.
+	 * 
+	 * @return
+	 */
+	public long getCostMillis() {
+		return dnsCostMillis + handshakeCostMillis;
+	}
+	
+	public String getError() {
+		return error;
+	}
+	
+	@Override
+	public String toString() {
+		return "PrewarmResult [host=" + host + ", success=" + success + ", dnsCostMillis=" + dnsCostMillis + 
+				", handshakeCostMillis=" + handshakeCostMillis + ", costMillis=" + getCostMillis() + 
+				(error!=null?", error=" + error:"") + "]";
+	}
+	
+}
@@ -0,0 +1,49 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a response body straight from the connection stream, so the 
+ * body is never held whole in memory. See 
+ * {@link TransportRequest#setBodyHandler(ResponseBodyHandler)}.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public interface ResponseBodyHandler {
+
+	/**
+	 * Decodes the response body.
+	 * 
+	 * @param statusCode	The HTTP status code.
+	 * @param contentType	The Content-Type header, may be null.
+	 * @param body	The body stream, already uncompressed and limited to the
+	 * 				maximum response size. It is closed by the transport.
+	 * @return	The decoded body, available by {@link TransportResponse#getDecodedBody()}.
+	 * @throws IOException
+	 */
+	public Object handle(int statusCode, String contentType, InputStream body) throws IOException;
+	
+}
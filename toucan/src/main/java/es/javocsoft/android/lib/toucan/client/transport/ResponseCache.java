@@ -0,0 +1,197 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.net.HttpURLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In memory cache of GET responses that came with validators (ETag or
+ * Last-Modified).<br><br>
+ *
+ * A cached response is never used as it is. The request is sent with
+ * If-None-Match/If-Modified-Since and, when the server answers
+ * "304 Not Modified" without body, the cached one is used. Responses
+ * marked as "no-store" are not kept. The least recently used entries are
+ * evicted once the cached bodies exceed the maximum size.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class ResponseCache {
+
+	public static final long DEFAULT_MAX_BYTES = 128 * 1024;
+
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	private long size = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+
+
+	ResponseCache() {}
+
+
+	/**
+	 * Sets the maximum bytes of cached bodies. Zero disables the cache.
+	 *
+	 * @param maxBytes	The size, in bytes.
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = Math.max(0, maxBytes);
+		evict();
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Gets the bytes of the cached bodies.
+	 *
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets how many requests were answered with a cached body.
+	 *
+	 * @return
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Gets how many requests had to receive the full body.
+	 *
+	 * @return
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Adds to the request the validators of the cached response, if any.
+	 *
+	 * @param key		The cache key of the request.
+	 * @param request	The request.
+	 * @return	TRUE if there is a cached response.
+	 */
+	public synchronized boolean prepareConditional(String key, TransportRequest request) {
+		Entry entry = entries.get(key);
+		if(entry==null)
+			return false;
+
+		if(entry.etag!=null)
+			request.setHeader("If-None-Match", entry.etag);
+		if(entry.lastModified!=null)
+			request.setHeader("If-Modified-Since", entry.lastModified);
+		return true;
+	}
+
+	/**
+	 * Gets the cached body if the server answered that it did not change.
+	 *
+	 * @param key		The cache key of the request.
+	 * @param response	The server response.
+	 * @return	The cached body or null if the response has its own body.
+	 */
+	public synchronized byte[] getNotModifiedBody(String key, TransportResponse response) {
+		if(response.getStatusCode()==HttpURLConnection.HTTP_NOT_MODIFIED) {
+			Entry entry = entries.get(key);
+			if(entry!=null) {
+				hitCount++;
+				return entry.body;
+			}
+		}
+		missCount++;
+		return null;
+	}
+
+	/**
+	 * Keeps the body of a response if the server sent validators for it.
+	 *
+	 * @param key		The cache key of the request.
+	 * @param response	The server response.
+	 * @param body		The body to keep.
+	 */
+	public synchronized void store(String key, TransportResponse response, byte[] body) {
+		String etag = response.getHeader("ETag");
+		String lastModified = response.getHeader("Last-Modified");
+		String cacheControl = response.getHeader("Cache-Control");
+		if((etag==null && lastModified==null) || body==null || body.length>maxBytes ||
+				(cacheControl!=null && cacheControl.toLowerCase().contains("no-store"))) {
+			remove(key);
+			return;
+		}
+
+		remove(key);
+		entries.put(key, new Entry(etag, lastModified, body));
+		size += body.length;
+		evict();
+	}
+
+	/**
+	 * Removes the cached response of a request.
+	 *
+	 * @param key	The cache key of the request.
+	 */
+	public synchronized void remove(String key) {
+		Entry entry = entries.remove(key);
+		if(entry!=null)
+			size -= entry.body.length;
+	}
+
+
+	// AUXILIAR
+
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while(size>maxBytes && it.hasNext()) {
+			size -= it.next().body.length;
+			it.remove();
+		}
+	}
+
+	private static class Entry {
+		private final String etag;
+		private final String lastModified;
+		private final byte[] body;
+
+		Entry(String etag, String lastModified, byte[] body) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.body = body;
+		}
+	}
+
+}
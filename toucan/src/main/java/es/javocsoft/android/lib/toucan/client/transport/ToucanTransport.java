@@ -0,0 +1,61 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.io.IOException;
+
+/**
+ * Sends the HTTP requests of the Toucan API operations.<br><br>
+ * 
+ * By default, a {@link PooledHttpTransport} is used. A different one can be
+ * set by {@link TransportManager#setTransport(ToucanTransport)}. 
+ * Implementations must be thread-safe, they are shared by all the operations
+ * and clients.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public interface ToucanTransport {
+
+	/**
+	 * Sends the request and reads the full response.
+	 * 
+	 * @param request	The request.
+	 * @return	The response, whatever its status code is.
+	 * @throws IOException	If the request could not be sent or the response 
+	 * 						could not be read.
+	 */
+	public TransportResponse execute(TransportRequest request) throws IOException;
+	
+	/**
+	 * Resolves the host of the URL and leaves a connection to it open and 
+	 * ready (TCP and TLS handshakes done), so the first request to the host 
+	 * does not pay for it. Transports without connection reuse can do 
+	 * nothing.
+	 * 
+	 * @param url	Any URL of the host.
+	 * @param ignoreSSLErrors	The SSL policy of the requests to the host.
+	 * @return	What was done.
+	 */
+	public PrewarmResult prewarm(String url, boolean ignoreSSLErrors);
+	
+}
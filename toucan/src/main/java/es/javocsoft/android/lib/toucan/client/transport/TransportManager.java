@@ -0,0 +1,172 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the {@link ToucanTransport} shared by all the operations and 
+ * clients, so all of them use the same connection pool.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class TransportManager {
+
+	/** The shared transport manager instance */
+	private static volatile TransportManager transportManager;
+	
+	private volatile ToucanTransport transport;
+	private final CompressionPolicy compressionPolicy = new CompressionPolicy();
+	private final ResponseCache responseCache = new ResponseCache();
+	private volatile long maxResponseBytes = TransportRequest.DEFAULT_MAX_RESPONSE_BYTES;
+	/** Groups of base URLs of the same API, by primary base URL. */
+	private final Map<String, EndpointGroup> endpointGroups = new ConcurrentHashMap<String, EndpointGroup>();
+	
+	
+	public static TransportManager getInstance() {
+		if(transportManager==null) {
+			synchronized (TransportManager.class) {
+				if(transportManager==null) {
+					transportManager = new TransportManager();
+				}
+			}
+		}
+		return transportManager;
+	}
+	
+	private TransportManager() {}
+	
+	
+	/**
+	 * Gets the transport, a {@link PooledHttpTransport} with the default 
+	 * settings if none was set.
+	 * 
+	 * @return
+	 */
+	public ToucanTransport getTransport() {
+		ToucanTransport current = transport;
+		if(current==null) {
+			synchronized (this) {
+				if(transport==null) {
+					transport = new PooledHttpTransport();
+				}
+				current = transport;
+			}
+		}
+		return current;
+	}
+	
+	/**
+	 * Registers the base URLs of the same API, so requests to the first one
+	 * (the primary one) are sent to the best of them. A group with the same
+	 * primary base URL is kept if it already exists.
+	 * 
+	 * @param baseUrls	The base URLs, at least two.
+	 * @return	The group.
+	 */
+	public EndpointGroup registerEndpoints(List<String> baseUrls) {
+		synchronized (endpointGroups) {
+			EndpointGroup group = endpointGroups.get(baseUrls.get(0));
+			if(group==null) {
+				group = new EndpointGroup(baseUrls);
+				endpointGroups.put(group.getPrimaryBaseUrl(), group);
+			}
+			return group;
+		}
+	}
+	
+	/**
+	 * Gets the group of base URLs a URL belongs to.
+	 * 
+	 * @param url	The URL.
+	 * @return	The group or null if the URL is not in any group.
+	 */
+	public EndpointGroup getEndpointGroup(String url) {
+		for(EndpointGroup group:endpointGroups.values()) {
+			if(group.matches(url))
+				return group;
+		}
+		return null;
+	}
+	
+	/**
+	 * Sends the request through the transport. If its URL belongs to a group 
+	 * of base URLs, it is sent to the best one of the group.
+	 * 
+	 * @param request	The request.
+	 * @return	The response.
+	 * @throws IOException
+	 */
+	public TransportResponse execute(TransportRequest request) throws IOException {
+		EndpointGroup group = endpointGroups.isEmpty()?null:getEndpointGroup(request.getUrl());
+		if(group!=null)
+			return group.execute(getTransport(), request);
+		return getTransport().execute(request);
+	}
+	
+	/**
+	 * Gets the policy that decides which request bodies are compressed.
+	 * 
+	 * @return
+	 */
+	public CompressionPolicy getCompressionPolicy() {
+		return compressionPolicy;
+	}
+	
+	/**
+	 * Gets the cache of GET responses revalidated with conditional requests.
+	 * 
+	 * @return
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+	
+	public long getMaxResponseBytes() {
+		return maxResponseBytes;
+	}
+	
+	/**
+	 * Sets the maximum size of the API responses. Operations with bigger 
+	 * responses fail for good, they are not sent again.
+	 * 
+	 * @param maxResponseBytes	The size, in bytes.
+	 */
+	public void setMaxResponseBytes(long maxResponseBytes) {
+		this.maxResponseBytes = Math.max(0, maxResponseBytes);
+	}
+	
+	/**
+	 * Sets the transport used by the operations sent from now on.
+	 * 
+	 * @param transport	The transport.
+	 */
+	public void setTransport(ToucanTransport transport) {
+		if(transport!=null)
+			this.transport = transport;
+	}
+	
+}
@@ -0,0 +1,224 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An HTTP request to the Toucan API.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class TransportRequest {
+
+	/** The HTTP methods used by the API. */
+	public static enum HTTP_METHOD {GET, POST};
+	
+	/** Default maximum size of the response body. */
+	public static final long DEFAULT_MAX_RESPONSE_BYTES = 1024 * 1024;
+	
+	private final HTTP_METHOD method;
+	private String url;
+	private final Map<String, String> headers = new LinkedHashMap<String, String>();
+	private byte[] body;
+	private boolean ignoreSSLErrors = false;
+	private long maxResponseBytes = DEFAULT_MAX_RESPONSE_BYTES;
+	/** {@link System#nanoTime()} when the request runs out of time, 0 for none. */
+	private long deadlineNanos = 0;
+	private ResponseBodyHandler bodyHandler;
+	
+	
+	public TransportRequest(HTTP_METHOD method, String url) {
+		this.method = method;
+		this.url = url;
+	}
+	
+	
+	public HTTP_METHOD getMethod() {
+		return method;
+	}
+	
+	public String getUrl() {
+		return url;
+	}
+	
+	/**
+	 * Changes the URL, to send the request to another endpoint.
+	 * 
+	 * @param url	The new URL.
+	 */
+	void setUrl(String url) {
+		this.url = url;
+	}
+	
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+	
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+	
+	public TransportRequest setHeader(String name, String value) {
+		headers.put(name, value);
+		return this;
+	}
+	
+	public byte[] getBody() {
+		return body;
+	}
+	
+	/**
+	 * Sets the request body.
+	 * 
+	 * @param body	The body bytes.
+	 * @param contentType	The body content type.
+	 * @return
+	 */
+	public TransportRequest setBody(byte[] body, String contentType) {
+		this.body = body;
+		if(contentType!=null)
+			headers.put("Content-Type", contentType);
+		return this;
+	}
+	
+	/**
+	 * Compresses the body, when the given policy says so for the operation.
+	 * 
+	 * @param operationName	The operation name.
+	 * @param policy	The compression policy.
+	 * @return
+	 * @throws IOException
+	 */
+	public TransportRequest compressBody(String operationName, CompressionPolicy policy) throws IOException {
+		if(body!=null && !headers.containsKey("Content-Encoding") && 
+				policy.shouldCompress(operationName, body.length)) {
+			byte[] compressed = GzipCodec.compress(body);
+			if(compressed.length<body.length) {
+				policy.onCompressed(body.length, compressed.length);
+				body = compressed;
+				headers.put("Content-Encoding", GzipCodec.ENCODING_GZIP);
+			}
+		}
+		if(policy.isAcceptCompressedResponses()) {
+			headers.put("Accept-Encoding", GzipCodec.ENCODING_GZIP);
+		}
+		return this;
+	}
+	
+	public boolean isIgnoreSSLErrors() {
+		return ignoreSSLErrors;
+	}
+	
+	public TransportRequest setIgnoreSSLErrors(boolean ignoreSSLErrors) {
+		this.ignoreSSLErrors = ignoreSSLErrors;
+		return this;
+	}
+	
+	public long getMaxResponseBytes() {
+		return maxResponseBytes;
+	}
+	
+	/**
+	 * Sets the maximum size of the response body. Bigger responses fail 
+	 * with {@link ResponseTooLargeException}.
+	 * 
+	 * @param maxResponseBytes	The size, in bytes, after decompression.
+	 * @return
+	 */
+	public TransportRequest setMaxResponseBytes(long maxResponseBytes) {
+		this.maxResponseBytes = Math.max(0, maxResponseBytes);
+		return this;
+	}
+	
+	/**
+	 * Sets when the request runs out of time. Waiting for a connection, 
+	 * connecting, sending and reading the response must be done by then,
+	 * otherwise it fails with {@link DeadlineExceededException}.
+	 * 
+	 * @param deadlineNanos	The {@link System#nanoTime()} of the deadline, 
+	 * 						0 for none.
+	 * @return
+	 */
+	public TransportRequest setDeadline(long deadlineNanos) {
+		this.deadlineNanos = deadlineNanos;
+		return this;
+	}
+	
+	public long getDeadline() {
+		return deadlineNanos;
+	}
+	
+	/**
+	 * Gets the time left until the deadline.
+	 * 
+	 * @return	The time left, {@link Long#MAX_VALUE} if there is no deadline.
+	 */
+	public long getRemainingMillis() {
+		if(deadlineNanos==0)
+			return Long.MAX_VALUE;
+		return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+	}
+	
+	public ResponseBodyHandler getBodyHandler() {
+		return bodyHandler;
+	}
+	
+	/**
+	 * Sets the decoder of the response body. It reads the body as it comes
+	 * from the connection instead of receiving it whole.
+	 * 
+	 * @param bodyHandler	The body decoder.
+	 * @return
+	 */
+	public TransportRequest setBodyHandler(ResponseBodyHandler bodyHandler) {
+		this.bodyHandler = bodyHandler;
+		return this;
+	}
+	
+	/**
+	 * Copies the request as it is now, to send it again after the original
+	 * was changed on its way (compressed, sent to another endpoint...).
+	 *
+	 * @return
+	 */
+	public TransportRequest copy() {
+		TransportRequest copy = new TransportRequest(method, url);
+		copy.headers.putAll(headers);
+		copy.body = body;
+		copy.ignoreSSLErrors = ignoreSSLErrors;
+		copy.maxResponseBytes = maxResponseBytes;
+		copy.deadlineNanos = deadlineNanos;
+		copy.bodyHandler = bodyHandler;
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return "TransportRequest [method=" + method + ", url=" + url + ", bodyLength=" + (body!=null?body.length:0) + "]";
+	}
+	
+}
@@ -0,0 +1,131 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The HTTP response to a {@link TransportRequest}, fully read.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class TransportResponse {
+
+	private final int statusCode;
+	private final Map<String, List<String>> headers;
+	private final byte[] body;
+	private final Object decodedBody;
+	private final String bodyExcerpt;
+	
+	
+	public TransportResponse(int statusCode, Map<String, List<String>> headers, byte[] body) {
+		this(statusCode, headers, body, null, null);
+	}
+	
+	/**
+	 * Creates a response.
+	 * 
+	 * @param statusCode	The HTTP status code.
+	 * @param headers		The response headers.
+	 * @param body			The body, if it was read as it is.
+	 * @param decodedBody	The body, if it was decoded by a {@link ResponseBodyHandler}.
+	 * @param bodyExcerpt	The beginning of the body, to be logged.
+	 */
+	public TransportResponse(int statusCode, Map<String, List<String>> headers, byte[] body, 
+			Object decodedBody, String bodyExcerpt) {
+		this.statusCode = statusCode;
+		this.headers = headers!=null?headers:Collections.<String, List<String>>emptyMap();
+		this.body = body!=null?body:new byte[0];
+		this.decodedBody = decodedBody;
+		this.bodyExcerpt = bodyExcerpt;
+	}
+	
+	
+	public int getStatusCode() {
+		return statusCode;
+	}
+	
+	public boolean isSuccessful() {
+		return statusCode>=200 && statusCode<300;
+	}
+	
+	public Map<String, List<String>> getHeaders() {
+		return headers;
+	}
+	
+	/**
+	 * Gets the first value of a header. Header names are not case sensitive.
+	 * 
+	 * @param name	The header name.
+	 * @return	The value or null if not present.
+	 */
+	public String getHeader(String name) {
+		for(Map.Entry<String, List<String>> header:headers.entrySet()) {
+			if(header.getKey()!=null && header.getKey().equalsIgnoreCase(name) && 
+					header.getValue()!=null && !header.getValue().isEmpty()) {
+				return header.getValue().get(0);
+			}
+		}
+		return null;
+	}
+	
+	public byte[] getBody() {
+		return body;
+	}
+	
+	/**
+	 * Gets the body decoded by the {@link ResponseBodyHandler} of the 
+	 * request. In that case, {@link #getBody()} is empty.
+	 * 
+	 * @return
+	 */
+	public Object getDecodedBody() {
+		return decodedBody;
+	}
+	
+	/**
+	 * Gets the beginning of the body, to be logged.
+	 * 
+	 * @return
+	 */
+	public String getBodyExcerpt() {
+		return bodyExcerpt!=null?bodyExcerpt:getBodyAsString();
+	}
+	
+	public String getBodyAsString() {
+		try {
+			return new String(body, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return new String(body);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "TransportResponse [statusCode=" + statusCode + ", bodyLength=" + body.length + "]";
+	}
+	
+}
@@ -0,0 +1,260 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.wire;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.internal.LinkedTreeMap;
+
+/**
+ * Minimal CBOR (RFC 7049) decoder, reading the items as they come from
+ * the stream. Items are read as the same Java types Gson gives to an
+ * untyped value, so callers see the same objects whatever the wire format:
+ * <ul>
+ * 	<li>Maps: {@link LinkedTreeMap} with text keys.</li>
+ * 	<li>Arrays: {@link ArrayList}.</li>
+ * 	<li>Numbers: {@link Double}.</li>
+ * 	<li>Text: {@link String}. Byte strings: byte[].</li>
+ * 	<li>Dates (tag 1): {@link Date}. Other tags are ignored.</li>
+ * </ul>
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public final class CborReader {
+
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_NEGATIVE = 1;
+	private static final int MAJOR_BYTES = 2;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+	private static final int MAJOR_TAG = 6;
+	private static final int MAJOR_SIMPLE = 7;
+
+	private static final int INDEFINITE = 31;
+	private static final int BREAK = 0xff;
+	private static final int TAG_EPOCH_DATE = 1;
+	/** Nesting allowed, so a malicious response can not overflow the stack. */
+	private static final int MAX_DEPTH = 64;
+	private static final int BUFFER_SIZE = 4096;
+
+	/** Marks the end of an indefinite length item. */
+	private static final Object BREAK_MARK = new Object();
+
+	private final InputStream in;
+	private int depth = 0;
+
+
+	public CborReader(InputStream in) {
+		this.in = in;
+	}
+
+
+	/**
+	 * Reads the next item.
+	 *
+	 * @return	The item, as described in the class.
+	 * @throws IOException	If the data is not valid CBOR.
+	 */
+	public Object readItem() throws IOException {
+		Object item = readAny();
+		if(item==BREAK_MARK)
+			throw new IOException("Unexpected CBOR break");
+		return item;
+	}
+
+
+	// AUXILIAR
+
+	private Object readAny() throws IOException {
+		int initial = readByte();
+		if(initial==BREAK)
+			return BREAK_MARK;
+
+		int major = initial>>>5;
+		int info = initial & 0x1f;
+		switch (major) {
+			case MAJOR_UNSIGNED:
+				return (double)readLength(info);
+			case MAJOR_NEGATIVE:
+				return (double)(-1 - readLength(info));
+			case MAJOR_BYTES:
+				return readBytes(MAJOR_BYTES, info);
+			case MAJOR_TEXT:
+				return new String(readBytes(MAJOR_TEXT, info), "UTF-8");
+			case MAJOR_ARRAY:
+				return readArray(info);
+			case MAJOR_MAP:
+				return readMap(info);
+			case MAJOR_TAG:
+				long tag = readLength(info);
+				Object tagged = readItem();
+				if(tag==TAG_EPOCH_DATE && tagged instanceof Double) {
+					return new Date(Math.round((Double)tagged * 1000));
+				}
+				return tagged;
+			default:
+				return readSimple(info);
+		}
+	}
+
+	private List<Object> readArray(int info) throws IOException {
+		enter();
+		List<Object> list = new ArrayList<Object>();
+		if(info==INDEFINITE) {
+			Object item;
+			while((item = readAny())!=BREAK_MARK) {
+				list.add(item);
+			}
+		}else{
+			long size = readLength(info);
+			for(long i=0;i<size;i++) {
+				list.add(readItem());
+			}
+		}
+		depth--;
+		return list;
+	}
+
+	private Map<String, Object> readMap(int info) throws IOException {
+		enter();
+		Map<String, Object> map = new LinkedTreeMap<String, Object>();
+		long size = info==INDEFINITE?-1:readLength(info);
+		for(long i=0;size<0 || i<size;i++) {
+			Object key = readAny();
+			if(key==BREAK_MARK) {
+				if(size<0)
+					break;
+				throw new IOException("Unexpected CBOR break");
+			}
+			map.put(String.valueOf(key), readItem());
+		}
+		depth--;
+		return map;
+	}
+
+	private byte[] readBytes(int major, int info) throws IOException {
+		if(info==INDEFINITE) {
+			//Chunks of the same type until the break.
+			ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+			int initial;
+			while((initial = readByte())!=BREAK) {
+				if(initial>>>5!=major || (initial & 0x1f)==INDEFINITE)
+					throw new IOException("Invalid CBOR string chunk");
+				byte[] chunk = readBytes(major, initial & 0x1f);
+				chunks.write(chunk, 0, chunk.length);
+			}
+			return chunks.toByteArray();
+		}
+
+		long length = readLength(info);
+		if(length>Integer.MAX_VALUE)
+			throw new IOException("CBOR string too long");
+		//Read in steps, a broken length must not allocate it all at once.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int)Math.min(length, BUFFER_SIZE));
+		byte[] buffer = new byte[(int)Math.min(length, BUFFER_SIZE)];
+		long remaining = length;
+		while(remaining>0) {
+			int read = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+			if(read==-1)
+				throw new EOFException("Truncated CBOR string");
+			bytes.write(buffer, 0, read);
+			remaining -= read;
+		}
+		return bytes.toByteArray();
+	}
+	
+	private Object readSimple(int info) throws IOException {
+		switch (info) {
+			case 20:
+				return Boolean.FALSE;
+			case 21:
+				return Boolean.TRUE;
+			case 22:
+			case 23:
+				return null;
+			case 25:
+				return halfToDouble((int)readLength(25));
+			case 26:
+				return (double)Float.intBitsToFloat((int)readLength(26));
+			case 27:
+				return Double.longBitsToDouble(readLength(27));
+			default:
+				throw new IOException("Unsupported CBOR simple value " + info);
+		}
+	}
+
+	private long readLength(int info) throws IOException {
+		if(info<24)
+			return info;
+
+		int bytes;
+		switch (info) {
+			case 24: bytes = 1; break;
+			case 25: bytes = 2; break;
+			case 26: bytes = 4; break;
+			case 27: bytes = 8; break;
+			default:
+				throw new IOException("Invalid CBOR length " + info);
+		}
+		long value = 0;
+		for(int i=0;i<bytes;i++) {
+			value = (value << 8) | readByte();
+		}
+		return value;
+	}
+
+	private int readByte() throws IOException {
+		int value = in.read();
+		if(value==-1)
+			throw new EOFException("Truncated CBOR data");
+		return value;
+	}
+
+	private void enter() throws IOException {
+		if(++depth>MAX_DEPTH)
+			throw new IOException("CBOR data nested too deep");
+	}
+
+	private static double halfToDouble(int half) {
+		int exponent = (half >> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		double value;
+		if(exponent==0) {
+			value = mantissa * Math.pow(2, -24);
+		}else if(exponent==31) {
+			value = mantissa==0?Double.POSITIVE_INFINITY:Double.NaN;
+		}else{
+			value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+		}
+		return (half & 0x8000)!=0?-value:value;
+	}
+
+}
@@ -0,0 +1,201 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.wire;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+
+/**
+ * Minimal CBOR (RFC 7049) encoder, enough for the Toucan API requests:
+ * maps with text keys, text, integers, floating point numbers, booleans,
+ * arrays and dates (tag 1, seconds since the epoch).<br><br>
+ *
+ * Maps are written with indefinite length, so fields can be skipped (null
+ * values are not written, as Gson does) without counting them first.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public final class CborWriter {
+
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_NEGATIVE = 1;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_TAG = 6;
+
+	private static final int INDEFINITE_MAP = 0xbf;
+	private static final int BREAK = 0xff;
+	private static final int FALSE = 0xf4;
+	private static final int TRUE = 0xf5;
+	private static final int NULL = 0xf6;
+	private static final int DOUBLE = 0xfb;
+
+	private static final int TAG_EPOCH_DATE = 1;
+
+	private final ByteArrayOutputStream out;
+
+
+	public CborWriter() {
+		this(128);
+	}
+
+	public CborWriter(int initialSize) {
+		out = new ByteArrayOutputStream(initialSize);
+	}
+
+
+	/** Starts a map, ended by {@link #endMap()}. */
+	public CborWriter beginMap() {
+		out.write(INDEFINITE_MAP);
+		return this;
+	}
+
+	public CborWriter endMap() {
+		out.write(BREAK);
+		return this;
+	}
+
+	/** Starts an array of the given number of items. */
+	public CborWriter beginArray(int size) {
+		writeHeader(MAJOR_ARRAY, size);
+		return this;
+	}
+
+	public CborWriter writeString(String value) {
+		if(value==null)
+			return writeNull();
+
+		byte[] bytes = utf8(value);
+		writeHeader(MAJOR_TEXT, bytes.length);
+		out.write(bytes, 0, bytes.length);
+		return this;
+	}
+
+	public CborWriter writeLong(long value) {
+		if(value>=0) {
+			writeHeader(MAJOR_UNSIGNED, value);
+		}else{
+			writeHeader(MAJOR_NEGATIVE, -1 - value);
+		}
+		return this;
+	}
+
+	public CborWriter writeDouble(double value) {
+		out.write(DOUBLE);
+		long bits = Double.doubleToLongBits(value);
+		for(int shift=56;shift>=0;shift-=8) {
+			out.write((int)(bits >>> shift) & 0xff);
+		}
+		return this;
+	}
+
+	public CborWriter writeBoolean(boolean value) {
+		out.write(value?TRUE:FALSE);
+		return this;
+	}
+
+	public CborWriter writeNull() {
+		out.write(NULL);
+		return this;
+	}
+
+	public CborWriter writeDate(Date value) {
+		if(value==null)
+			return writeNull();
+
+		writeHeader(MAJOR_TAG, TAG_EPOCH_DATE);
+		long millis = value.getTime();
+		if(millis%1000==0) {
+			return writeLong(millis/1000);
+		}
+		return writeDouble(millis/1000.0);
+	}
+
+
+	// Map fields, skipped when null as Gson does.
+
+	public CborWriter field(String name, String value) {
+		if(value!=null)
+			writeString(name).writeString(value);
+		return this;
+	}
+
+	public CborWriter field(String name, long value) {
+		writeString(name).writeLong(value);
+		return this;
+	}
+
+	public CborWriter field(String name, Date value) {
+		if(value!=null)
+			writeString(name).writeDate(value);
+		return this;
+	}
+
+	/** Writes the name of a field whose value is written next. */
+	public CborWriter name(String name) {
+		return writeString(name);
+	}
+
+
+	public byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+
+	// AUXILIAR
+
+	private void writeHeader(int majorType, long length) {
+		int major = majorType << 5;
+		if(length<24) {
+			out.write(major | (int)length);
+		}else if(length<=0xff) {
+			out.write(major | 24);
+			out.write((int)length);
+		}else if(length<=0xffff) {
+			out.write(major | 25);
+			out.write((int)(length >>> 8) & 0xff);
+			out.write((int)length & 0xff);
+		}else if(length<=0xffffffffL) {
+			out.write(major | 26);
+			for(int shift=24;shift>=0;shift-=8) {
+				out.write((int)(length >>> shift) & 0xff);
+			}
+		}else{
+			out.write(major | 27);
+			for(int shift=56;shift>=0;shift-=8) {
+				out.write((int)(length >>> shift) & 0xff);
+			}
+		}
+	}
+
+	private static byte[] utf8(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		}catch(UnsupportedEncodingException e) {
+			//UTF-8 is always supported.
+			return value.getBytes();
+		}
+	}
+
+}
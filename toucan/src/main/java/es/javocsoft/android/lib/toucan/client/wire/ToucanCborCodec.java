@@ -0,0 +1,175 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.wire;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import es.javocsoft.android.lib.toucan.client.request.ACKBatchRequest;
+import es.javocsoft.android.lib.toucan.client.request.ACKRequest;
+import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
+import es.javocsoft.android.lib.toucan.client.request.DeviceRegistrationRequest;
+import es.javocsoft.android.lib.toucan.client.request.bean.DeviceRegistrationBean;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+
+/**
+ * CBOR encoding of the Toucan API requests and responses. Fields are
+ * written and read one by one, with no reflection, using the same names
+ * and skipping the same null values as the JSON encoding.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public final class ToucanCborCodec {
+
+	private ToucanCborCodec() {}
+
+
+	/**
+	 * Encodes the data of a request.
+	 *
+	 * @param data	An {@link ACKRequest}, {@link ACKBatchRequest}, 
+	 * 				{@link DeviceRegistrationRequest} or 
+	 * 				{@link AppDevTagsOperationRequest}.
+	 * @return	The CBOR data or null if the data type has no CBOR encoding.
+	 */
+	public static byte[] encodeRequest(Object data) {
+		if(data instanceof ACKRequest) {
+			return encode((ACKRequest)data);
+		}else if(data instanceof ACKBatchRequest) {
+			return encode((ACKBatchRequest)data);
+		}else if(data instanceof DeviceRegistrationRequest) {
+			return encode((DeviceRegistrationRequest)data);
+		}else if(data instanceof AppDevTagsOperationRequest) {
+			return encode((AppDevTagsOperationRequest)data);
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes a response as it comes from the stream.
+	 *
+	 * @param in	The stream.
+	 * @return	The response.
+	 * @throws IOException	If the data is not a valid CBOR response.
+	 */
+	public static Response decodeResponse(InputStream in) throws IOException {
+		Object item = new CborReader(in).readItem();
+		if(!(item instanceof Map))
+			throw new IOException("CBOR response is not a map");
+
+		Map<?, ?> fields = (Map<?, ?>)item;
+		Response response = new Response(intValue(fields.get("code"), Response.ERROR_UNEXPECTED));
+		Object msg = fields.get("msg");
+		response.setMsg(msg!=null?msg.toString():null);
+		response.setResult(fields.get("data"));
+		if(fields.get("ts") instanceof Number)
+			response.setTs(((Number)fields.get("ts")).longValue());
+		if(fields.get("appVersion") instanceof Number)
+			response.setAppVersion(((Number)fields.get("appVersion")).intValue());
+		return response;
+	}
+
+
+	// AUXILIAR
+
+	private static byte[] encode(ACKRequest request) {
+		return writeACK(new CborWriter(), request).toByteArray();
+	}
+
+	private static byte[] encode(ACKBatchRequest request) {
+		CborWriter writer = new CborWriter(128 * Math.max(1, request.size())).beginMap();
+		if(request.getAcks()!=null) {
+			writer.name("acks").beginArray(request.size());
+			for(ACKRequest ack:request.getAcks()) {
+				writeACK(writer, ack);
+			}
+		}
+		return writer.endMap().toByteArray();
+	}
+
+	private static CborWriter writeACK(CborWriter writer, ACKRequest request) {
+		return writer
+				.beginMap()
+				.field("token", request.getToken())
+				.field("nId", request.getnId())
+				.field("nRef", request.getnRef())
+				.field("message", request.getMessage())
+				.field("appKey", request.getAppKey())
+				.field("appHashSignature", request.getAppHashSignature())
+				.endMap();
+	}
+
+	private static byte[] encode(DeviceRegistrationRequest request) {
+		CborWriter writer = new CborWriter(512)
+				.beginMap()
+				.field("appKey", request.getAppKey())
+				.field("appHashSignature", request.getAppHashSignature())
+				.field("hashSignature", request.getHashSignature());
+
+		DeviceRegistrationBean data = request.getData();
+		if(data!=null) {
+			writer.name("data")
+				.beginMap()
+				.field("id", data.getId())
+				.field("appVersion", data.getAppVersion())
+				.field("extId", data.getExtId())
+				.field("groupId", data.getGroupId())
+				.field("notToken", data.getNotToken())
+				.field("devId", data.getDevId())
+				.field("devOs", data.getDevOs())
+				.field("devExtra", data.getDevExtra())
+				.field("devLocale", data.getDevLocale())
+				.field("devResType", data.getDevResType())
+				.field("installReferral", data.getInstallReferral())
+				.field("tsCreation", data.getTsCreation())
+				.field("tsUpdate", data.getTsUpdate())
+				.endMap();
+		}
+		return writer.endMap().toByteArray();
+	}
+
+	private static byte[] encode(AppDevTagsOperationRequest request) {
+		CborWriter writer = new CborWriter(256)
+				.beginMap()
+				.field("appKey", request.getAppKey())
+				.field("devId", request.getDevId())
+				.field("appHashSignature", request.getAppHashSignature())
+				.field("hashSignature", request.getHashSignature());
+
+		List<String> tags = request.getTags();
+		if(tags!=null) {
+			writer.name("tags").beginArray(tags.size());
+			for(String tag:tags) {
+				writer.writeString(tag);
+			}
+		}
+		return writer.endMap().toByteArray();
+	}
+
+	private static int intValue(Object value, int defaultValue) {
+		return value instanceof Number?((Number)value).intValue():defaultValue;
+	}
+
+}
@@ -0,0 +1,175 @@
+/**
+ * JavocSoft Toucan API Client Library.
+ *
+ *   Copyright (C) 2013 JavocSoft - Javier González Serrano.
+ *
+ *   This file is part of JavcoSoft Toucan API client Library.
+ *
+ *   This library is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   JavocSoft Toucan Client Library is distributed in the hope that it will 
+ *   be useful, but WITHOUT ANY WARRANTY; without even the implied warranty 
+ *   of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with JavocSoft Toucan API Client Library. If not, 
+ *   see <http://www.gnu.org/licenses/>.
+ */
+package es.javocsoft.android.lib.toucan.client.wire;
+
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.util.Log;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+
+/**
+ * Negotiates, per notification server, the encoding of the request and
+ * response bodies. JSON is used by default, CBOR only once it is set as the
+ * preferred format, and then only with the servers that support it.<br><br>
+ *
+ * With CBOR preferred, every request asks for CBOR responses (with JSON as 
+ * the fallback) in the Accept header. Requests are sent as JSON until the 
+ * server answers
+ * with a CBOR response. From then on they are sent as CBOR too, unless the
+ * server rejects one with "415 Unsupported Media Type", in which case it
+ * goes back to JSON for good. Its CBOR responses are still accepted, a 
+ * server may send CBOR but not read it.
+ *
+ * @author JavocSoft, 2017
+ * @since 2017
+ */
+public class WireFormatNegotiator {
+
+	/** Body encodings of the API. */
+	public static enum WIRE_FORMAT {JSON, CBOR};
+
+	public static final String CONTENT_TYPE_CBOR = "application/cbor";
+	public static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+
+	private static final String ACCEPT_CBOR = CONTENT_TYPE_CBOR + ", application/json;q=0.5";
+	private static final String ACCEPT_JSON = "application/json";
+
+	/** The shared negotiator instance */
+	private static volatile WireFormatNegotiator negotiator;
+
+	private volatile WIRE_FORMAT preferredFormat = WIRE_FORMAT.JSON;
+	/** Servers that answer in CBOR, by "protocol://host:port" */
+	private final Set<String> cborResponseServers = 
+			Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/** Servers that rejected a CBOR request, by "protocol://host:port" */
+	private final Set<String> cborRequestRejectingServers = 
+			Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+
+	public static WireFormatNegotiator getInstance() {
+		if(negotiator==null) {
+			synchronized (WireFormatNegotiator.class) {
+				if(negotiator==null) {
+					negotiator = new WireFormatNegotiator();
+				}
+			}
+		}
+		return negotiator;
+	}
+
+	WireFormatNegotiator() {}
+
+
+	/**
+	 * Sets the preferred format. With JSON, the default, CBOR is never 
+	 * negotiated.
+	 *
+	 * @param preferredFormat	The format.
+	 */
+	public void setPreferredFormat(WIRE_FORMAT preferredFormat) {
+		if(preferredFormat!=null) {
+			this.preferredFormat = preferredFormat;
+			cborResponseServers.clear();
+			cborRequestRejectingServers.clear();
+		}
+	}
+
+	public WIRE_FORMAT getPreferredFormat() {
+		return preferredFormat;
+	}
+
+	/**
+	 * Gets the format to encode a request body to the given URL.
+	 *
+	 * @param url	The request URL.
+	 * @return
+	 */
+	public WIRE_FORMAT getRequestFormat(String url) {
+		if(preferredFormat==WIRE_FORMAT.JSON)
+			return WIRE_FORMAT.JSON;
+		String key = serverKey(url);
+		return cborResponseServers.contains(key) && !cborRequestRejectingServers.contains(key)?
+				WIRE_FORMAT.CBOR:WIRE_FORMAT.JSON;
+	}
+
+	/**
+	 * Gets the Accept header of the requests.
+	 *
+	 * @return
+	 */
+	public String getAcceptHeader() {
+		return preferredFormat==WIRE_FORMAT.CBOR?ACCEPT_CBOR:ACCEPT_JSON;
+	}
+
+	/**
+	 * Learns the format supported by the server from a response.
+	 *
+	 * @param url			The URL the request was sent to.
+	 * @param sentFormat	The format of the request body.
+	 * @param response		The response.
+	 * @return	TRUE if the server did not accept the CBOR request, it must
+	 * 			be sent again as JSON.
+	 */
+	public boolean onResponse(String url, WIRE_FORMAT sentFormat, TransportResponse response) {
+		String key = serverKey(url);
+		if(sentFormat==WIRE_FORMAT.CBOR && response.getStatusCode()==HttpURLConnection.HTTP_UNSUPPORTED_TYPE) {
+			Log.i(ToucanClient.LOG_TAG, "Server " + key + " does not accept CBOR requests, using JSON.");
+			cborRequestRejectingServers.add(key);
+			return true;
+		}
+
+		if(preferredFormat==WIRE_FORMAT.CBOR && isCbor(response.getHeader("Content-Type")) &&
+				cborResponseServers.add(key) && !cborRequestRejectingServers.contains(key)) {
+			Log.i(ToucanClient.LOG_TAG, "Server " + key + " supports CBOR, using it.");
+		}
+		return false;
+	}
+
+	/**
+	 * Gets whether a content type is CBOR.
+	 *
+	 * @param contentType	The content type, may be null.
+	 * @return
+	 */
+	public static boolean isCbor(String contentType) {
+		return contentType!=null && contentType.toLowerCase().startsWith(CONTENT_TYPE_CBOR);
+	}
+
+
+	// AUXILIAR
+
+	private static String serverKey(String url) {
+		try {
+			URL target = new URL(url);
+			return target.getProtocol() + "://" + target.getHost() + ":" + target.getPort();
+		}catch(MalformedURLException e) {
+			return url;
+		}
+	}
+
+}
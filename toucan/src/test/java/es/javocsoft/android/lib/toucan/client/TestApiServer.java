@@ -0,0 +1,127 @@
+package es.javocsoft.android.lib.toucan.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP server that stands in for the Toucan API in the unit tests.
+ * Each exchange is handled in its own thread, so slow answers do not hold
+ * the others back.
+ */
+public class TestApiServer {
+
+    public static final String OK_RESPONSE = "{\"code\":0,\"msg\":\"OK\"}";
+
+    static {
+        //Otherwise the server delays each response of a kept alive
+        //connection until the client acknowledges the headers.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    public TestApiServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param port The port, 0 for any free one.
+     */
+    public TestApiServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(executor);
+    }
+
+    public TestApiServer handle(String path, HttpHandler handler) {
+        server.createContext(path, handler);
+        return this;
+    }
+
+    public TestApiServer start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The base URL of the server, with no trailing slash.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+
+    public static String readBody(HttpExchange exchange) throws IOException {
+        return new String(readAll(exchange.getRequestBody()), "UTF-8");
+    }
+
+    public static void drain(HttpExchange exchange) throws IOException {
+        readAll(exchange.getRequestBody());
+    }
+
+    public static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /** Answers with a JSON body. */
+    public static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        closeIfAsked(exchange);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /** Answers with no body. */
+    public static void respondEmpty(HttpExchange exchange, int status) throws IOException {
+        closeIfAsked(exchange);
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    /**
+     * Says the connection is closed when the client asks for it, as real
+     * servers do. The JDK server closes it silently, and the JDK client
+     * would keep it and sometimes send the next request on it.
+     */
+    private static void closeIfAsked(HttpExchange exchange) {
+        if ("close".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Connection"))) {
+            exchange.getResponseHeaders().set("Connection", "close");
+        }
+    }
+
+    public static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
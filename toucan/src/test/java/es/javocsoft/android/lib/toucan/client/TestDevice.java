@@ -0,0 +1,33 @@
+package es.javocsoft.android.lib.toucan.client;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowNetworkInfo;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * The device the unit tests run on: the Robolectric application context and
+ * its network state, as seen by the operations through
+ * {@code ToolBox.net_isNetworkAvailable}. The tests using it run with the
+ * {@code RobolectricTestRunner}.
+ */
+public final class TestDevice {
+
+    private TestDevice() {
+    }
+
+    public static Context context() {
+        return RuntimeEnvironment.application;
+    }
+
+    public static void setNetworkConnected(boolean connected) {
+        ConnectivityManager connectivity = (ConnectivityManager) context().getSystemService(Context.CONNECTIVITY_SERVICE);
+        shadowOf(connectivity).setActiveNetworkInfo(ShadowNetworkInfo.newInstance(
+                connected ? NetworkInfo.DetailedState.CONNECTED : NetworkInfo.DetailedState.DISCONNECTED,
+                ConnectivityManager.TYPE_WIFI, 0, true, connected));
+    }
+}
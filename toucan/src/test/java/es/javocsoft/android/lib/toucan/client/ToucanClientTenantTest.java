@@ -0,0 +1,52 @@
+package es.javocsoft.android.lib.toucan.client;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how {@link ToucanClient#getTenantInstance} tells tenants apart.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ToucanClientTenantTest {
+
+    private static final String APP_KEY = "tenant-test-app-key";
+    private static final String API_URL = "https://tenant-test.toucan.javocsoft.es";
+
+    @Test
+    public void theSameApplicationWithAnotherApiTokenIsAnotherTenant() {
+        ToucanClient client = ToucanClient.getTenantInstance(TestDevice.context(), config("token-1", false));
+
+        assertSame(client, ToucanClient.getTenantInstance(TestDevice.context(), config("token-1", false)));
+        assertNotSame(client, ToucanClient.getTenantInstance(TestDevice.context(), config("token-2", false)));
+        assertFalse(config("token-1", false).getTenantKey().contains("token-1"));
+    }
+
+    @Test
+    public void aTenantCanNotBeConfiguredTwiceWithOtherSettings() {
+        ToucanClient.getTenantInstance(TestDevice.context(), config("token-3", false));
+
+        try {
+            ToucanClient.getTenantInstance(TestDevice.context(), config("token-3", true));
+            fail("Another SSL policy is rejected");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+        try {
+            ToucanClient.getTenantInstance(TestDevice.context(), new ToucanClientConfig("token-3", APP_KEY,
+                    Arrays.asList(API_URL, "https://eu.tenant-test.toucan.javocsoft.es"), false, false));
+            fail("Other base URLs are rejected");
+        } catch (IllegalArgumentException e) {
+            //Expected
+        }
+    }
+
+
+    private static ToucanClientConfig config(String apiToken, boolean ignoreSSLErrors) {
+        return new ToucanClientConfig(apiToken, APP_KEY, API_URL, ignoreSSLErrors);
+    }
+}
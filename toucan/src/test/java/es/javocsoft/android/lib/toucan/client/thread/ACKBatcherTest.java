@@ -0,0 +1,222 @@
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import es.javocsoft.android.lib.toolbox.ToolBox;
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.TestDevice;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.ACKRequest;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends ACKs through an {@link ACKBatcher} to a local HTTP server that
+ * stands in for the Toucan API.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ACKBatcherTest {
+
+    private static final String API_TOKEN = "test-api-token";
+
+    private TestApiServer server;
+    private String endpoint;
+    private volatile String batchResponse = "{\"code\":0,\"msg\":\"OK\"}";
+    private final List<String> uris = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private final ACKBatcher batcher = new ACKBatcher(new OperationLauncher() {
+        @Override
+        public ToucanCall launch(ToucanWorker operation) {
+            ToucanDispatcher.getInstance().dispatch(operation);
+            return operation.getCall();
+        }
+    });
+
+    @Before
+    public void setUp() throws Exception {
+        TestDevice.setNetworkConnected(true);
+        server = new TestApiServer().handle("/PushNOTApi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                uris.add(exchange.getRequestURI().toString());
+                bodies.add(TestApiServer.readBody(exchange));
+                String query = exchange.getRequestURI().getQuery();
+                TestApiServer.respond(exchange, 200, query.contains(ACKBatcher.BATCH_PARAMETER) ? batchResponse
+                        : TestApiServer.OK_RESPONSE);
+            }
+        }).start();
+        endpoint = server.getBaseUrl() + "/PushNOTApi/ackreport?op=2";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void aFullWindowIsSentAsOneRequestWithAResultPerACK() throws Exception {
+        batchResponse = "{\"code\":0,\"msg\":\"OK\",\"data\":[{\"code\":0,\"msg\":\"OK\"},"
+                + "{\"code\":-10,\"msg\":\"Unknown notification\"},{\"code\":0,\"msg\":\"OK\"}]}";
+        batcher.configure(3, 60 * 1000);
+
+        List<ToucanCall> calls = new ArrayList<ToucanCall>();
+        for (int i = 0; i < 3; i++) {
+            calls.add(batcher.add(ack("n" + i)));
+        }
+        for (ToucanCall call : calls) {
+            assertTrue(call.await(5, TimeUnit.SECONDS));
+            assertEquals(TOUCAN_CALL_STATUS.DONE, call.getStatus());
+        }
+
+        assertEquals(1, uris.size());
+        assertTrue(uris.get(0), uris.get(0).endsWith("?op=2&batch=1"));
+        assertTrue(bodies.get(0), bodies.get(0).startsWith("{\"acks\":[{"));
+        assertTrue(bodies.get(0).contains("\"n0\"") && bodies.get(0).contains("\"n2\""));
+        assertEquals(Response.RESULT_OK, calls.get(0).getResponse().getCode());
+        assertEquals(Response.ERROR_BAD_REQUEST, calls.get(1).getResponse().getCode());
+        assertEquals("Unknown notification", calls.get(1).getResponse().getMsg());
+        assertEquals(1, batcher.getBatchesSent());
+        assertEquals(3, batcher.getAcksBatched());
+    }
+
+    @Test
+    public void aWindowIsSentWhenItsTimeIsOver() throws Exception {
+        batcher.configure(20, 300);
+
+        long start = System.nanoTime();
+        ToucanCall first = batcher.add(ack("n0"));
+        ToucanCall second = batcher.add(ack("n1"));
+        assertEquals(2, batcher.getPendingCount());
+
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(String.valueOf(waitedMillis), waitedMillis >= 250);
+        assertEquals(1, uris.size());
+        assertEquals("Without per ACK results, all get the batch response",
+                Response.RESULT_OK, second.getResponse().getCode());
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    @Test
+    public void aSingleOrFlushedACKIsSentAlone() throws Exception {
+        batcher.configure(20, 60 * 1000);
+
+        ToucanCall call = batcher.add(ack("n0"));
+        assertEquals(1, batcher.flushAll());
+        assertTrue(call.await(5, TimeUnit.SECONDS));
+
+        assertEquals(TOUCAN_CALL_STATUS.DONE, call.getStatus());
+        assertTrue(uris.get(0), uris.get(0).endsWith("?op=2"));
+        assertFalse(bodies.get(0), bodies.get(0).contains("acks"));
+        assertEquals(0, batcher.getBatchesSent());
+    }
+
+    @Test
+    public void cancelledACKsAreLeftOutOfTheBatch() throws Exception {
+        batcher.configure(3, 60 * 1000);
+
+        ToucanCall first = batcher.add(ack("n0"));
+        assertTrue(batcher.add(ack("n1")).cancel());
+        ToucanCall third = batcher.add(ack("n2"));
+        assertTrue(third.await(5, TimeUnit.SECONDS));
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+
+        assertFalse(bodies.get(0), bodies.get(0).contains("\"n1\""));
+        assertEquals(2, batcher.getAcksBatched());
+    }
+
+    @Test
+    public void windowedACKsAreOnDiskUntilTheyAreDelivered() throws Exception {
+        batcher.configure(20, 60 * 1000);
+
+        List<ToucanPostWorker> acks = Arrays.asList(ack("n0"), ack("n1"));
+        for (ToucanPostWorker ack : acks) {
+            batcher.add(ack);
+            assertTrue(isOnDisk(ack));
+            assertTrue(ACKBatcher.isPending(ack.getJobId()));
+        }
+        batcher.flushAll();
+
+        for (ToucanPostWorker ack : acks) {
+            assertTrue(ack.getCall().await(5, TimeUnit.SECONDS));
+            assertEquals(TOUCAN_CALL_STATUS.DONE, ack.getCall().getStatus());
+            assertTrue(isDeletedFromDisk(ack));
+            assertFalse(ACKBatcher.isPending(ack.getJobId()));
+        }
+    }
+
+    @Test
+    public void aBatchNotDeliveredIsSavedInstead() throws Exception {
+        batcher.configure(20, 60 * 1000);
+        endpoint = "http://127.0.0.1:1/PushNOTApi/ackreport?op=2";
+
+        List<ToucanPostWorker> acks = Arrays.asList(ack("n0"), ack("n1"));
+        for (ToucanPostWorker ack : acks) {
+            batcher.add(ack);
+        }
+        batcher.flushAll();
+
+        for (ToucanPostWorker ack : acks) {
+            assertTrue(ack.getCall().await(10, TimeUnit.SECONDS));
+            assertEquals(TOUCAN_CALL_STATUS.CACHED, ack.getCall().getStatus());
+            assertTrue("The saved batch takes its place", isDeletedFromDisk(ack));
+        }
+    }
+
+    @Test
+    public void unexpectedBatchResultsGiveTheBatchResponseToAll() {
+        Response batch = new Response(Response.RESULT_OK, "OK", Arrays.asList("a", "b"));
+        List<Response> split = ACKBatcher.splitResponse(batch, 3);
+        assertEquals(3, split.size());
+        assertSame(batch, split.get(2));
+
+        Map<String, Object> item = new HashMap<String, Object>();
+        item.put("code", 0.0);
+        split = ACKBatcher.splitResponse(new Response(Response.RESULT_OK, "OK", Arrays.asList(item, "b")), 2);
+        assertEquals(Response.RESULT_OK, split.get(0).getCode());
+        assertEquals("OK", split.get(1).getMsg());
+    }
+
+
+    private static boolean isOnDisk(ToucanWorker operation) {
+        return ToolBox.storage_checkIfFileExistsInInternalStorage(TestDevice.context(), operation.getJobId());
+    }
+
+    /** Waits for the completion listeners, they run after the call is settled. */
+    private static boolean isDeletedFromDisk(ToucanWorker operation) {
+        for (int i = 0; i < 100 && isOnDisk(operation); i++) {
+            TestApiServer.sleep(50);
+        }
+        return !isOnDisk(operation);
+    }
+
+    private ToucanPostWorker ack(String notificationRef) {
+        ACKRequest request = new ACKRequest();
+        request.setToken("token");
+        request.setnRef(notificationRef);
+        return new ToucanPostWorker(TestDevice.context(), API_TOKEN, request, TOUCAN_WORKER_POST_DATA_TYPE.ACK, endpoint,
+                ToucanClient.API_OPERATION_ACK_RECEIVED, false, null);
+    }
+}
@@ -0,0 +1,211 @@
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.TestDevice;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.ACKRequest;
+import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drains a backlog of pending operations through {@link EnvelopePacker}
+ * against a local HTTP server that stands in for the Toucan API.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EnvelopePackerTest {
+
+    private static final String API_TOKEN = "test-api-token";
+
+    private TestApiServer server;
+    private String baseUrl;
+    private volatile boolean envelopesSupported = true;
+    private volatile boolean envelopesFail = false;
+    private final List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private final EnvelopePacker packer = EnvelopePacker.getInstance();
+
+    @Before
+    public void setUp() throws Exception {
+        TestDevice.setNetworkConnected(true);
+        server = new TestApiServer().handle("/PushNOTApi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().toString();
+                String body = TestApiServer.readBody(exchange);
+                paths.add(path);
+                bodies.add(body);
+                if (path.endsWith(EnvelopePacker.ENVELOPE_PATH) && !envelopesSupported) {
+                    TestApiServer.respondEmpty(exchange, 404);
+                    return;
+                }
+                if (path.endsWith(EnvelopePacker.ENVELOPE_PATH) && envelopesFail) {
+                    TestApiServer.respond(exchange, 200, "{\"code\":" + Response.ERROR_BAD_REQUEST + ",\"msg\":\"Bad request\"}");
+                    return;
+                }
+                TestApiServer.respond(exchange, 200, path.endsWith(EnvelopePacker.ENVELOPE_PATH) ? envelopeResponse(body)
+                        : TestApiServer.OK_RESPONSE);
+            }
+        }).start();
+        baseUrl = server.getBaseUrl();
+        packer.configure(true, EnvelopePacker.DEFAULT_MAX_OPERATIONS);
+    }
+
+    @After
+    public void tearDown() {
+        packer.configure(false, EnvelopePacker.DEFAULT_MAX_OPERATIONS);
+        server.stop();
+    }
+
+    @Test
+    public void aMixedBacklogIsSentInOneRequestWithAResultPerOperation() throws Exception {
+        List<ToucanWorker> backlog = new ArrayList<ToucanWorker>();
+        backlog.add(tags(ToucanClient.API_OPERATION_ADD_TAGS, "?dta"));
+        backlog.add(new ToucanGetWorker(TestDevice.context(), API_TOKEN, baseUrl + "/PushNOTApi/NOTPushApi?dtl",
+                ToucanClient.API_OPERATION_LIST_TAGS, false, null));
+        backlog.add(tags(ToucanClient.API_OPERATION_REMOVE_TAGS, "?dtr"));
+        for (int i = 0; i < 3; i++) {
+            backlog.add(ack("n" + i));
+        }
+
+        List<ToucanWorker> toSend = packer.pack(backlog);
+        assertEquals(2, toSend.size());
+        assertTrue(toSend.get(0) instanceof ToucanEnvelopeWorker);
+        assertTrue("The GET operation is sent on its own", backlog.get(1) == toSend.get(1));
+
+        dispatchAndAwait(toSend, backlog);
+
+        assertEquals(2, paths.size());
+        String envelope = bodies.get(paths.indexOf("/PushNOTApi/envelope"));
+        assertTrue(envelope, envelope.contains("\"url\":\"/PushNOTApi/NOTPushApi?dtr\""));
+        assertTrue(envelope, envelope.contains("\"tags\":[\"sports\"]"));
+        assertEquals(Response.RESULT_OK, backlog.get(0).getCall().getResponse().getCode());
+        assertEquals(Response.ERROR_BAD_REQUEST, backlog.get(2).getCall().getResponse().getCode());
+        assertEquals("n2", backlog.get(5).getCall().getResponse().getMsg());
+    }
+
+    @Test
+    public void operationsOfAChainAreNotPackedAcrossAnOperationSentOnItsOwn() throws Exception {
+        ToucanWorker unregister = new ToucanGetWorker(TestDevice.context(), API_TOKEN, baseUrl + "/PushNOTApi/NOTPushApi?du",
+                ToucanClient.API_OPERATION_DEVICE_UNREGISTRATION, false, null);
+        List<ToucanWorker> backlog = new ArrayList<ToucanWorker>(Arrays.asList(
+                tags(ToucanClient.API_OPERATION_ADD_TAGS, "?dta"), ack("n0"), unregister,
+                tags(ToucanClient.API_OPERATION_ADD_TAGS, "?dta"), ack("n1")));
+        for (ToucanWorker operation : backlog) {
+            operation.setChainKey("device-1");
+        }
+
+        List<ToucanWorker> toSend = packer.pack(backlog);
+
+        assertEquals(3, toSend.size());
+        assertEquals(2, ((ToucanEnvelopeWorker) toSend.get(0)).getOperations().size());
+        assertTrue(toSend.get(1) == unregister);
+        assertEquals(2, ((ToucanEnvelopeWorker) toSend.get(2)).getOperations().size());
+    }
+
+    @Test
+    public void bigBacklogsAreSplitInSeveralEnvelopes() throws Exception {
+        packer.configure(true, 40);
+        List<ToucanWorker> backlog = new ArrayList<ToucanWorker>();
+        for (int i = 0; i < 201; i++) {
+            backlog.add(ack("n" + i));
+        }
+
+        dispatchAndAwait(packer.pack(backlog), backlog);
+
+        assertEquals("5 envelopes of 40 and the last ACK alone", 6, paths.size());
+        assertEquals("n199", backlog.get(199).getCall().getResponse().getMsg());
+    }
+
+    @Test
+    public void operationsAreSentOnTheirOwnWhenTheServerDoesNotSupportEnvelopes() throws Exception {
+        envelopesSupported = false;
+        List<ToucanWorker> backlog = new ArrayList<ToucanWorker>(Arrays.asList(ack("n0"), ack("n1"), ack("n2")));
+
+        dispatchAndAwait(packer.pack(backlog), backlog);
+
+        assertEquals("1 envelope and 3 ACKs", 4, paths.size());
+        assertEquals(Response.RESULT_OK, backlog.get(2).getCall().getResponse().getCode());
+        assertEquals("The server is no longer sent envelopes", backlog, packer.pack(backlog));
+    }
+
+    @Test
+    public void operationsAreKeptWhenTheEnvelopeFails() throws Exception {
+        envelopesFail = true;
+        List<ToucanWorker> backlog = new ArrayList<ToucanWorker>(Arrays.asList(ack("n0"), ack("n1")));
+
+        List<ToucanWorker> toSend = packer.pack(backlog);
+        ToucanDispatcher.getInstance().dispatch(toSend.get(0));
+        for (ToucanWorker operation : backlog) {
+            assertTrue(operation.getCall().await(10, TimeUnit.SECONDS));
+            assertEquals(TOUCAN_CALL_STATUS.CACHED, operation.getCall().getStatus());
+        }
+
+        assertEquals("Only the envelope is sent", 1, paths.size());
+        assertEquals("The server is still sent envelopes", 1, packer.pack(backlog).size());
+    }
+
+
+    private void dispatchAndAwait(List<ToucanWorker> toSend, List<ToucanWorker> backlog) throws InterruptedException {
+        for (ToucanWorker operation : toSend) {
+            ToucanDispatcher.getInstance().dispatch(operation);
+        }
+        for (ToucanWorker operation : backlog) {
+            assertTrue(operation.getCall().await(10, TimeUnit.SECONDS));
+            assertEquals(TOUCAN_CALL_STATUS.DONE, operation.getCall().getStatus());
+        }
+    }
+
+    /** Answers each operation with its ACK reference, and remove tags with an error. */
+    private static String envelopeResponse(String body) {
+        List<?> ops = (List<?>) new Gson().fromJson(body, Map.class).get("ops");
+        StringBuilder res = new StringBuilder("{\"code\":0,\"msg\":\"OK\",\"data\":[");
+        for (int i = 0; i < ops.size(); i++) {
+            Map<?, ?> op = (Map<?, ?>) ops.get(i);
+            Map<?, ?> data = (Map<?, ?>) op.get("data");
+            boolean removeTags = ToucanClient.API_OPERATION_REMOVE_TAGS.equals(op.get("op"));
+            res.append(i > 0 ? "," : "")
+                    .append("{\"code\":").append(removeTags ? Response.ERROR_BAD_REQUEST : Response.RESULT_OK)
+                    .append(",\"msg\":\"").append(data.containsKey("nRef") ? data.get("nRef") : "OK").append("\"}");
+        }
+        return res.append("]}").toString();
+    }
+
+    private ToucanPostWorker tags(String opname, String query) {
+        AppDevTagsOperationRequest request = new AppDevTagsOperationRequest();
+        request.setDevId("device-1");
+        request.setTags(Arrays.asList("sports"));
+        return new ToucanPostWorker(TestDevice.context(), API_TOKEN, request, TOUCAN_WORKER_POST_DATA_TYPE.TAGS,
+                baseUrl + "/PushNOTApi/NOTPushApi" + query, opname, false, null);
+    }
+
+    private ToucanPostWorker ack(String notificationRef) {
+        ACKRequest request = new ACKRequest();
+        request.setToken("token");
+        request.setnRef(notificationRef);
+        return new ToucanPostWorker(TestDevice.context(), API_TOKEN, request, TOUCAN_WORKER_POST_DATA_TYPE.ACK,
+                baseUrl + "/PushNOTApi/ackreport?op=2", ToucanClient.API_OPERATION_ACK_RECEIVED, false, null);
+    }
+}
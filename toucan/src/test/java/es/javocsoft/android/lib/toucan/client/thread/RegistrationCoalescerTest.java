@@ -0,0 +1,139 @@
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.TestDevice;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.DeviceRegistrationRequest;
+import es.javocsoft.android.lib.toucan.client.request.bean.DeviceRegistrationBean;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.ToucanDispatcher;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends registration updates through a {@link RegistrationCoalescer} to a
+ * local HTTP server that stands in for the Toucan API.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RegistrationCoalescerTest {
+
+    private static final String API_TOKEN = "test-api-token";
+    private static final String APP_KEY = "app-key";
+
+    private TestApiServer server;
+    private String endpoint;
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private final RegistrationCoalescer coalescer = new RegistrationCoalescer(new OperationLauncher() {
+        @Override
+        public ToucanCall launch(ToucanWorker operation) {
+            ToucanDispatcher.getInstance().dispatch(operation);
+            return operation.getCall();
+        }
+    });
+
+    @Before
+    public void setUp() throws Exception {
+        TestDevice.setNetworkConnected(true);
+        server = new TestApiServer().handle("/PushNOTApi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                bodies.add(TestApiServer.readBody(exchange));
+                TestApiServer.respond(exchange, 200, TestApiServer.OK_RESPONSE);
+            }
+        }).start();
+        endpoint = server.getBaseUrl() + "/PushNOTApi/NOTPushApi?devreg";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void updatesLaunchedCloseInTimeAreSentAsOneRegistration() throws Exception {
+        coalescer.configure(200);
+
+        List<ToucanCall> calls = new ArrayList<ToucanCall>();
+        calls.add(coalescer.add(update(ToucanClient.API_OPERATION_DEVICE_REGISTRATION, "token-1", 0, 0, null)));
+        calls.add(coalescer.add(update(ToucanClient.API_OPERATION_DEVICE_REGISTRATION, "token-2", 7, 0, null)));
+        calls.add(coalescer.add(update(ToucanClient.API_OPERATION_INFORM_REFERRAL, "token-2", 0, 3, "campaign")));
+        for (ToucanCall call : calls) {
+            assertTrue(call.await(5, TimeUnit.SECONDS));
+            assertEquals(TOUCAN_CALL_STATUS.DONE, call.getStatus());
+            assertEquals(Response.RESULT_OK, call.getResponse().getCode());
+        }
+
+        assertEquals(1, bodies.size());
+        String body = bodies.get(0);
+        assertTrue(body, body.contains("\"notToken\":\"token-2\""));
+        assertTrue(body, body.contains("\"extId\":7"));
+        assertTrue(body, body.contains("\"groupId\":3"));
+        assertTrue(body, body.contains("\"installReferral\":\"campaign\""));
+        assertEquals(1, coalescer.getRegistrationsSent());
+        assertEquals(3, coalescer.getUpdatesMerged());
+    }
+
+    @Test
+    public void theMergedRegistrationIsSignedAgain() {
+        DeviceRegistrationBean first = bean("token-1", 5, 0, null);
+        DeviceRegistrationBean second = bean("token-2", 0, 0, "");
+
+        DeviceRegistrationBean merged = RegistrationCoalescer.merge(Arrays.asList(first, second));
+
+        assertEquals("token-2", merged.getNotToken());
+        assertEquals(5, merged.getExtId());
+        assertNull(merged.getInstallReferral());
+        assertFalse(first.getSecurityHash(APP_KEY).equals(merged.getSecurityHash(APP_KEY)));
+    }
+
+    @Test
+    public void aSingleOrFlushedUpdateIsSentAsItIs() throws Exception {
+        coalescer.configure(60 * 1000);
+
+        ToucanCall call = coalescer.add(update(ToucanClient.API_OPERATION_INFORM_REFERRAL, "token-1", 0, 0, "campaign"));
+        assertEquals(1, coalescer.getPendingCount());
+        assertEquals(1, coalescer.flush());
+        assertTrue(call.await(5, TimeUnit.SECONDS));
+
+        assertEquals(TOUCAN_CALL_STATUS.DONE, call.getStatus());
+        assertEquals(1, bodies.size());
+        assertEquals(0, coalescer.getRegistrationsSent());
+    }
+
+
+    private ToucanPostWorker update(String opname, String token, int extId, int groupId, String installReferral) {
+        DeviceRegistrationBean data = bean(token, extId, groupId, installReferral);
+        DeviceRegistrationRequest request = new DeviceRegistrationRequest(APP_KEY, data, "app-hash", data.getSecurityHash(APP_KEY));
+        return new ToucanPostWorker(TestDevice.context(), API_TOKEN, request, TOUCAN_WORKER_POST_DATA_TYPE.REGISTRATION, endpoint,
+                opname, false, null);
+    }
+
+    private static DeviceRegistrationBean bean(String token, int extId, int groupId, String installReferral) {
+        DeviceRegistrationBean data = new DeviceRegistrationBean();
+        data.setDevId("device-1");
+        data.setAppVersion(1);
+        data.setNotToken(token);
+        data.setExtId(extId);
+        data.setGroupId(groupId);
+        data.setInstallReferral(installReferral);
+        return data;
+    }
+}
@@ -0,0 +1,122 @@
+package es.javocsoft.android.lib.toucan.client.thread;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import es.javocsoft.android.lib.toucan.client.TestDevice;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+
+import static org.junit.Assert.*;
+
+/**
+ * Folds pending tag changes with {@link TagOperationCoalescer}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TagOperationCoalescerTest {
+
+    private static final String API_TOKEN = "test-api-token";
+    private static final String APP_KEY = "app-key";
+    private static final String PUSH_API = "https://toucan.javocsoft.es/PushNOTApi/NOTPushApi";
+
+    @Test
+    public void theLastChangeOfEachTagWins() {
+        List<ToucanWorker> backlog = new ArrayList<ToucanWorker>();
+        for (int i = 0; i < 10; i++) {
+            backlog.add(tags(ToucanClient.API_OPERATION_ADD_TAGS, "device-1", "sports"));
+            backlog.add(tags(ToucanClient.API_OPERATION_REMOVE_TAGS, "device-1", "sports"));
+        }
+        backlog.add(tags(ToucanClient.API_OPERATION_ADD_TAGS, "device-1", "news", "music"));
+        backlog.add(tags(ToucanClient.API_OPERATION_REMOVE_TAGS, "device-1", "music"));
+
+        List<ToucanWorker> net = TagOperationCoalescer.coalesce(backlog);
+
+        assertEquals(2, net.size());
+        assertChange(net.get(0), ToucanClient.API_OPERATION_REMOVE_TAGS, "sports", "music");
+        assertChange(net.get(1), ToucanClient.API_OPERATION_ADD_TAGS, "news");
+        for (ToucanWorker folded : backlog) {
+            assertEquals(TOUCAN_CALL_STATUS.CACHED, folded.getCall().getStatus());
+        }
+    }
+
+    @Test
+    public void aResetAbsorbsThePreviousChanges() {
+        ToucanWorker listTags = new ToucanGetWorker(TestDevice.context(), API_TOKEN, PUSH_API + "?dtl", ToucanClient.API_OPERATION_LIST_TAGS, false, null);
+        List<ToucanWorker> backlog = new ArrayList<ToucanWorker>(Arrays.asList(
+                tags(ToucanClient.API_OPERATION_ADD_TAGS, "device-1", "sports"),
+                listTags,
+                tags(ToucanClient.API_OPERATION_RESET_TAGS, "device-1", "news", "music"),
+                tags(ToucanClient.API_OPERATION_ADD_TAGS, "device-1", "cinema"),
+                tags(ToucanClient.API_OPERATION_REMOVE_TAGS, "device-1", "music")));
+
+        List<ToucanWorker> net = TagOperationCoalescer.coalesce(backlog);
+
+        assertEquals(2, net.size());
+        assertChange(net.get(0), ToucanClient.API_OPERATION_RESET_TAGS, "news", "cinema");
+        assertTrue(net.get(0).endpoint.endsWith("?dtrs"));
+        assertTrue("Other operations keep their place", net.get(1) == listTags);
+    }
+
+    @Test
+    public void eachDeviceHasItsOwnNetChange() {
+        ToucanWorker single = tags(ToucanClient.API_OPERATION_ADD_TAGS, "device-2", "news");
+        List<ToucanWorker> backlog = new ArrayList<ToucanWorker>(Arrays.asList(
+                tags(ToucanClient.API_OPERATION_ADD_TAGS, "device-1", "sports"),
+                single,
+                tags(ToucanClient.API_OPERATION_ADD_TAGS, "device-1", "news")));
+
+        List<ToucanWorker> net = TagOperationCoalescer.coalesce(backlog);
+
+        assertEquals(2, net.size());
+        assertChange(net.get(0), ToucanClient.API_OPERATION_ADD_TAGS, "sports", "news");
+        assertTrue("A single change is sent as it is", net.get(1) == single);
+        assertEquals(TOUCAN_CALL_STATUS.QUEUED, single.getCall().getStatus());
+    }
+
+    @Test
+    public void changesAreNotFoldedAcrossALifecycleOperation() {
+        ToucanWorker unregister = new ToucanGetWorker(TestDevice.context(), API_TOKEN, PUSH_API + "?du", ToucanClient.API_OPERATION_DEVICE_UNREGISTRATION, false, null);
+        ToucanWorker enable = new ToucanGetWorker(TestDevice.context(), API_TOKEN, PUSH_API + "?de", ToucanClient.API_OPERATION_DEVICE_ENABLE, false, null);
+        ToucanWorker before = tags(ToucanClient.API_OPERATION_ADD_TAGS, "device-1", "sports");
+        ToucanWorker after = tags(ToucanClient.API_OPERATION_ADD_TAGS, "device-1", "news");
+        List<ToucanWorker> backlog = new ArrayList<ToucanWorker>(Arrays.asList(before, unregister, enable, after));
+        for (ToucanWorker operation : backlog) {
+            operation.setChainKey("device-1");
+        }
+
+        List<ToucanWorker> net = TagOperationCoalescer.coalesce(backlog);
+
+        assertEquals(backlog, net);
+        assertEquals(TOUCAN_CALL_STATUS.QUEUED, before.getCall().getStatus());
+        assertEquals(TOUCAN_CALL_STATUS.QUEUED, after.getCall().getStatus());
+    }
+
+
+    private static void assertChange(ToucanWorker operation, String opname, String... tags) {
+        AppDevTagsOperationRequest request = (AppDevTagsOperationRequest) operation.getData();
+        assertEquals(opname, operation.getOperationName());
+        assertEquals(Arrays.asList(tags), request.getTags());
+        assertNotNull(request.getHashSignature());
+        assertEquals(request.getSecurityHash(APP_KEY), request.getHashSignature());
+    }
+
+    private static ToucanPostWorker tags(String opname, String devId, String... tags) {
+        String query = ToucanClient.API_OPERATION_ADD_TAGS.equals(opname) ? "?dta"
+                : ToucanClient.API_OPERATION_REMOVE_TAGS.equals(opname) ? "?dtr" : "?dtrs";
+        AppDevTagsOperationRequest request = new AppDevTagsOperationRequest();
+        request.setAppKey(APP_KEY);
+        request.setDevId(devId);
+        request.setAppHashSignature("app-hash");
+        request.setTags(new ArrayList<String>(Arrays.asList(tags)));
+        request.setHashSignature(request.getSecurityHash(APP_KEY));
+        return new ToucanPostWorker(TestDevice.context(), API_TOKEN, request, TOUCAN_WORKER_POST_DATA_TYPE.TAGS,
+                PUSH_API + query, opname, false, null);
+    }
+}
@@ -0,0 +1,211 @@
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.javocsoft.android.lib.toolbox.ToolBox;
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.TestDevice;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.ACKRequest;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanGetWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanPostWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+import es.javocsoft.android.lib.toucan.client.thread.dispatch.AdmissionController.ADMISSION_OVERFLOW_POLICY;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the budgets of the {@link AdmissionController} and, through the
+ * {@link ToucanDispatcher} and a local HTTP server that holds its answers,
+ * what each overflow policy does with an operation that does not fit.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AdmissionControllerTest {
+
+    private static final String API_TOKEN = "test-api-token";
+
+    private TestApiServer server;
+    private String baseUrl;
+    private final AtomicInteger requests = new AtomicInteger();
+    /** Holds the server answers until released */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        TestDevice.setNetworkConnected(true);
+        server = new TestApiServer().handle("/PushNOTApi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                TestApiServer.drain(exchange);
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                TestApiServer.respond(exchange, 200, TestApiServer.OK_RESPONSE);
+            }
+        }).start();
+        baseUrl = server.getBaseUrl() + "/PushNOTApi";
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        ToucanDispatcher dispatcher = ToucanDispatcher.getInstance();
+        while (dispatcher.getQueuedCount() > 0 || dispatcher.getActiveCount() > 0) {
+            TestApiServer.sleep(10);
+        }
+        server.stop();
+        dispatcher.getAdmissionController().setLimits(AdmissionController.DEFAULT_MAX_OPERATIONS,
+                AdmissionController.DEFAULT_MAX_BYTES, ADMISSION_OVERFLOW_POLICY.SPILL_TO_DISK);
+        dispatcher.getConcurrencyLimiter().configure(1, dispatcher.getPoolSize());
+    }
+
+    @Test
+    public void operationsBeyondTheCountBudgetDoNotFit() {
+        AdmissionController admission = new AdmissionController();
+        admission.setLimits(2, AdmissionController.DEFAULT_MAX_BYTES, ADMISSION_OVERFLOW_POLICY.SPILL_TO_DISK);
+        ToucanWorker first = operation("?de&n=1");
+
+        assertTrue(admission.tryAdmit(first));
+        assertTrue(admission.tryAdmit(operation("?de&n=2")));
+        assertFalse(admission.tryAdmit(operation("?de&n=3")));
+        assertEquals(2, admission.getAdmittedCount());
+        assertEquals(1, admission.getOverflowCount());
+
+        //A finished operation frees its room.
+        assertTrue(admission.started(first));
+        admission.release(first);
+        assertTrue(admission.tryAdmit(operation("?de&n=3")));
+    }
+
+    @Test
+    public void operationsBeyondTheByteBudgetDoNotFit() {
+        AdmissionController admission = new AdmissionController();
+        ToucanWorker first = operation("?de&n=1");
+        ToucanWorker second = operation("?de&n=2");
+        admission.setLimits(AdmissionController.DEFAULT_MAX_OPERATIONS,
+                first.getPayloadSize() + second.getPayloadSize() - 1, ADMISSION_OVERFLOW_POLICY.SPILL_TO_DISK);
+
+        assertTrue(admission.tryAdmit(first));
+        assertFalse(admission.tryAdmit(second));
+        assertEquals(first.getPayloadSize(), admission.getAdmittedBytes());
+        assertEquals(1, admission.getOverflowCount());
+
+        //With nothing admitted, even an operation bigger than the budget fits.
+        admission = new AdmissionController();
+        admission.setLimits(AdmissionController.DEFAULT_MAX_OPERATIONS, 1, ADMISSION_OVERFLOW_POLICY.SPILL_TO_DISK);
+        assertTrue(admission.tryAdmit(first));
+        assertFalse(admission.tryAdmit(second));
+    }
+
+    @Test
+    public void onlyTheOldestQueuedACKIsEvicted() {
+        AdmissionController admission = new AdmissionController();
+        ToucanWorker lifecycle = operation("?de&n=1");
+        ToucanWorker runningAck = ack(1);
+        ToucanWorker oldestQueuedAck = ack(2);
+        ToucanWorker newestQueuedAck = ack(3);
+        for (ToucanWorker operation : Arrays.asList(lifecycle, runningAck, oldestQueuedAck, newestQueuedAck)) {
+            assertTrue(admission.tryAdmit(operation));
+        }
+        admission.started(runningAck);
+
+        assertSame(oldestQueuedAck, admission.evictOldestQueuedACK());
+        assertEquals(3, admission.getAdmittedCount());
+        assertFalse("An evicted operation is not run", admission.started(oldestQueuedAck));
+        assertSame(newestQueuedAck, admission.evictOldestQueuedACK());
+        assertNull(admission.evictOldestQueuedACK());
+    }
+
+    @Test
+    public void spillToDiskSavesTheOperationThatDoesNotFit() throws Exception {
+        ToucanWorker overflowing = operation("?de&spilled");
+
+        dispatchWhenFull(ADMISSION_OVERFLOW_POLICY.SPILL_TO_DISK, operation("?de&queued"), overflowing);
+
+        assertEquals(TOUCAN_CALL_STATUS.CACHED, overflowing.getCall().getStatus());
+        assertTrue(ToolBox.storage_checkIfFileExistsInInternalStorage(TestDevice.context(), overflowing.getJobId()));
+    }
+
+    @Test
+    public void rejectRejectsTheOperationThatDoesNotFit() throws Exception {
+        ToucanWorker overflowing = operation("?de&rejected");
+
+        dispatchWhenFull(ADMISSION_OVERFLOW_POLICY.REJECT, operation("?de&queued"), overflowing);
+
+        assertEquals(TOUCAN_CALL_STATUS.REJECTED, overflowing.getCall().getStatus());
+        assertFalse(ToolBox.storage_checkIfFileExistsInInternalStorage(TestDevice.context(), overflowing.getJobId()));
+    }
+
+    @Test
+    public void dropOldestAckMakesRoomByCancellingAQueuedACK() throws Exception {
+        ToucanWorker queuedAck = ack(1);
+        ToucanWorker overflowing = operation("?de&admitted");
+
+        dispatchWhenFull(ADMISSION_OVERFLOW_POLICY.DROP_OLDEST_ACK, queuedAck, overflowing);
+
+        assertEquals(TOUCAN_CALL_STATUS.CANCELLED, queuedAck.getCall().getStatus());
+        assertEquals(TOUCAN_CALL_STATUS.QUEUED, overflowing.getCall().getStatus());
+        release.countDown();
+        assertTrue(overflowing.getCall().await(5, TimeUnit.SECONDS));
+        assertEquals(TOUCAN_CALL_STATUS.DONE, overflowing.getCall().getStatus());
+    }
+
+    @Test
+    public void dropOldestAckSpillsToDiskWhenThereIsNoACK() throws Exception {
+        ToucanWorker overflowing = operation("?de&spilled");
+
+        dispatchWhenFull(ADMISSION_OVERFLOW_POLICY.DROP_OLDEST_ACK, operation("?de&queued"), overflowing);
+
+        assertEquals(TOUCAN_CALL_STATUS.CACHED, overflowing.getCall().getStatus());
+    }
+
+
+    private ToucanWorker operation(String query) {
+        return new ToucanGetWorker(TestDevice.context(), API_TOKEN, baseUrl + "/NOTPushApi" + query,
+                ToucanClient.API_OPERATION_DEVICE_ENABLE, false, null);
+    }
+
+    private ToucanWorker ack(int notificationId) {
+        ACKRequest request = new ACKRequest();
+        request.setToken("token-" + notificationId);
+        return new ToucanPostWorker(TestDevice.context(), API_TOKEN, request, TOUCAN_WORKER_POST_DATA_TYPE.ACK,
+                baseUrl + "/ackreport?op=2", ToucanClient.API_OPERATION_ACK_RECEIVED, false, null);
+    }
+
+    /**
+     * Dispatches the overflowing operation once the dispatcher, limited to
+     * two operations and one at a time, has one running and the given one
+     * queued.
+     */
+    private void dispatchWhenFull(ADMISSION_OVERFLOW_POLICY policy, ToucanWorker queued, ToucanWorker overflowing) throws Exception {
+        ToucanDispatcher dispatcher = ToucanDispatcher.getInstance();
+        dispatcher.getConcurrencyLimiter().configure(1, 1);
+        dispatcher.getAdmissionController().setLimits(2, AdmissionController.DEFAULT_MAX_BYTES, policy);
+        dispatcher.dispatch(operation("?de&running"));
+        while (requests.get() == 0) {
+            TestApiServer.sleep(10);
+        }
+        dispatcher.dispatch(queued);
+        assertEquals(TOUCAN_CALL_STATUS.QUEUED, queued.getCall().getStatus());
+
+        dispatcher.dispatch(overflowing);
+    }
+}
@@ -0,0 +1,121 @@
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.TestDevice;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanGetWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the pauses asked by an overloaded server, and that the dispatcher
+ * holds the operations back while they last.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BackpressureGateTest {
+
+    @Test
+    public void retryAfterIsReadAsSecondsOrDate() throws Exception {
+        long now = System.currentTimeMillis();
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        assertEquals(120 * 1000, BackpressureGate.parseRetryAfter("120", now));
+        long fromDate = BackpressureGate.parseRetryAfter(format.format(new Date(now + 90 * 1000)), now);
+        assertTrue(String.valueOf(fromDate), fromDate > 88 * 1000 && fromDate <= 90 * 1000);
+        assertEquals(-1, BackpressureGate.parseRetryAfter("soon", now));
+        assertEquals(BackpressureGate.MAX_RETRY_AFTER_MILLIS, BackpressureGate.parseRetryAfter("999999999", now));
+    }
+
+    @Test
+    public void overloadAnswersPauseAndBackOffUntilAGoodAnswer() {
+        BackpressureGate gate = new BackpressureGate();
+        gate.configure(1000, 4000);
+
+        assertFalse(gate.onResponse(200, null, new Response(Response.RESULT_OK)));
+        assertFalse(gate.isPaused());
+
+        assertTrue(gate.onResponse(200, null, new Response(Response.ERROR_DB)));
+        long first = gate.getRemainingMillis();
+        assertTrue(String.valueOf(first), first > 0 && first <= 1000);
+
+        //Consecutive overloads double the pause, up to the maximum.
+        for (int i = 0; i < 5; i++) {
+            gate.onResponse(BackpressureGate.HTTP_TOO_MANY_REQUESTS, null, null);
+        }
+        long longest = gate.getRemainingMillis();
+        assertTrue(String.valueOf(longest), longest >= 2000 && longest <= 4000);
+
+        //The server pause wins over a shorter one of ours.
+        assertTrue(gate.onResponse(503, "30", null));
+        assertTrue(gate.getRemainingMillis() > 29 * 1000);
+
+        //A good answer resets the back-off, not the current pause.
+        gate.onResponse(200, null, new Response(Response.RESULT_OK));
+        assertTrue(gate.isPaused());
+    }
+
+    @Test
+    public void operationsAreHeldWhileTheServerAsksToWait() throws Exception {
+        final AtomicBoolean overloaded = new AtomicBoolean(true);
+        final List<Long> arrivals = new CopyOnWriteArrayList<Long>();
+        TestDevice.setNetworkConnected(true);
+        TestApiServer server = new TestApiServer().handle("/PushNOTApi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                arrivals.add(System.nanoTime());
+                TestApiServer.drain(exchange);
+                if (overloaded.getAndSet(false)) {
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                    TestApiServer.respondEmpty(exchange, 503);
+                    return;
+                }
+                TestApiServer.respond(exchange, 200, TestApiServer.OK_RESPONSE);
+            }
+        }).start();
+        try {
+            String url = server.getBaseUrl() + "/PushNOTApi/pushApi";
+            ToucanDispatcher dispatcher = ToucanDispatcher.getInstance();
+
+            ToucanWorker first = listTags(url);
+            dispatcher.dispatch(first);
+            assertTrue(first.getCall().await(5, TimeUnit.SECONDS));
+            assertTrue(dispatcher.getBackpressureGate().isPaused());
+
+            ToucanWorker second = listTags(url);
+            dispatcher.dispatch(second);
+            assertTrue(second.getCall().await(5, TimeUnit.SECONDS));
+
+            assertEquals(2, arrivals.size());
+            long heldMillis = TimeUnit.NANOSECONDS.toMillis(arrivals.get(1) - arrivals.get(0));
+            assertTrue(String.valueOf(heldMillis), heldMillis >= 900);
+            assertEquals(Response.RESULT_OK, second.getCall().getResponse().getCode());
+        } finally {
+            server.stop();
+        }
+    }
+
+
+    private static ToucanWorker listTags(String url) {
+        return new ToucanGetWorker(TestDevice.context(), "test-api-token", url, ToucanClient.API_OPERATION_LIST_TAGS, false, null);
+    }
+}
@@ -0,0 +1,83 @@
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds latency and failure samples to a {@link ConcurrencyLimiter} and
+ * checks how its limit moves.
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final long LATENCY_MILLIS = 1000;
+
+    @Test
+    public void operationsOverTheLimitHaveToWait() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 2);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(0, limiter.available());
+        assertEquals(1, limiter.getRejectedCount());
+
+        limiter.release();
+        assertEquals(1, limiter.available());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void aFailureHalvesTheLimitOncePerLatencyPeriod() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 16);
+        limiter.onSample(LATENCY_MILLIS, false);
+        assertEquals(8, limiter.getLimit());
+
+        limiter.onSample(LATENCY_MILLIS, true);
+        assertEquals(4, limiter.getLimit());
+
+        //The failures of the operations sent with the old limit are not counted again.
+        limiter.onSample(LATENCY_MILLIS, true);
+        limiter.onSample(LATENCY_MILLIS, true);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void theLimitIsNeverBelowTheMinimum() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(3, 4);
+
+        limiter.onSample(0, true);
+
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void aLatencyOverTheToleranceReducesTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 16);
+        limiter.onSample(10, false);
+        assertEquals(8, limiter.getLimit());
+
+        limiter.onSample(10 * 100, false);
+
+        assertTrue(limiter.getSmoothedLatency() > 10 * ConcurrencyLimiter.LATENCY_TOLERANCE);
+        assertEquals(7, limiter.getLimit());
+    }
+
+    @Test
+    public void successesRecoverTheLimitUpToTheMaximum() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 16);
+        limiter.onSample(LATENCY_MILLIS, true);
+        assertEquals(4, limiter.getLimit());
+
+        //One more each time a whole limit of operations succeeds.
+        for (int i = 0; i < 4 + 5 + 6 + 7; i++) {
+            limiter.onSample(LATENCY_MILLIS, false);
+        }
+        assertTrue("Limit " + limiter.getLimit(), limiter.getLimit() >= 7);
+
+        for (int i = 0; i < 1000; i++) {
+            limiter.onSample(LATENCY_MILLIS, false);
+        }
+        assertEquals(16, limiter.getLimit());
+    }
+}
@@ -0,0 +1,155 @@
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.TestDevice;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanGetWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanPostWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+
+import static org.junit.Assert.*;
+
+/**
+ * Dispatches identical operations while one of them is in flight, against
+ * a local HTTP server that stands in for the Toucan API.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InFlightRegistryTest {
+
+    private static final String API_TOKEN = "test-api-token";
+
+    private TestApiServer server;
+    private String baseUrl;
+    private final AtomicInteger listRequests = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    /** Holds the server answers until released */
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private final ToucanDispatcher dispatcher = ToucanDispatcher.getInstance();
+
+    @Before
+    public void setUp() throws Exception {
+        TestDevice.setNetworkConnected(true);
+        server = new TestApiServer().handle("/PushNOTApi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                if (exchange.getRequestURI().toString().contains("dtl")) {
+                    listRequests.incrementAndGet();
+                }
+                TestApiServer.drain(exchange);
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                TestApiServer.respond(exchange, 200, "{\"code\":0,\"msg\":\"OK\",\"data\":[\"sports\"]}");
+            }
+        }).start();
+        baseUrl = server.getBaseUrl() + "/PushNOTApi/NOTPushApi";
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop();
+    }
+
+    @Test
+    public void identicalOperationsInFlightAreSentOnceAndShareTheResponse() throws Exception {
+        release = new CountDownLatch(1);
+        long sharedBefore = dispatcher.getInFlightRegistry().getSharedCount();
+
+        List<ToucanWorker> lists = new ArrayList<ToucanWorker>();
+        for (int i = 0; i < 5; i++) {
+            lists.add(listTags("chain-1"));
+            dispatcher.dispatch(lists.get(i));
+        }
+        release.countDown();
+
+        for (ToucanWorker list : lists) {
+            ToucanCall call = list.getCall();
+            assertTrue(call.await(5, TimeUnit.SECONDS));
+            assertEquals(TOUCAN_CALL_STATUS.DONE, call.getStatus());
+        }
+        assertEquals(1, listRequests.get());
+        assertTrue("The same response is shared",
+                lists.get(0).getCall().getResponse() == lists.get(4).getCall().getResponse());
+        assertEquals(4, dispatcher.getInFlightRegistry().getSharedCount() - sharedBefore);
+        assertEquals(0, dispatcher.getInFlightRegistry().getInFlightCount());
+    }
+
+    @Test
+    public void anOperationLaunchedInBetweenIsNotSkipped() throws Exception {
+        release = new CountDownLatch(1);
+
+        ToucanWorker first = listTags("chain-2");
+        ToucanWorker add = new ToucanPostWorker(TestDevice.context(), API_TOKEN, tags(), TOUCAN_WORKER_POST_DATA_TYPE.TAGS,
+                baseUrl + "?dta", ToucanClient.API_OPERATION_ADD_TAGS, false, null);
+        add.setChainKey("chain-2");
+        ToucanWorker second = listTags("chain-2");
+        dispatcher.dispatch(first);
+        dispatcher.dispatch(add);
+        dispatcher.dispatch(second);
+        release.countDown();
+
+        assertTrue(second.getCall().await(5, TimeUnit.SECONDS));
+        assertEquals("The tags added may change the list", 2, listRequests.get());
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void attachedOperationsAreSentWhenTheOneInFlightIsCancelled() throws Exception {
+        //Keeps the chain busy, so the first list stays queued and can be cancelled.
+        release = new CountDownLatch(1);
+        ToucanWorker add = new ToucanPostWorker(TestDevice.context(), API_TOKEN, tags(), TOUCAN_WORKER_POST_DATA_TYPE.TAGS,
+                baseUrl + "?dta", ToucanClient.API_OPERATION_ADD_TAGS, false, null);
+        add.setChainKey("chain-3");
+        dispatcher.dispatch(add);
+
+        ToucanWorker first = listTags("chain-3");
+        ToucanWorker second = listTags("chain-3");
+        dispatcher.dispatch(first);
+        dispatcher.dispatch(second);
+        assertTrue(first.getCall().cancel());
+        release.countDown();
+
+        assertTrue(second.getCall().await(5, TimeUnit.SECONDS));
+        assertEquals(TOUCAN_CALL_STATUS.DONE, second.getCall().getStatus());
+        assertEquals(Response.RESULT_OK, second.getCall().getResponse().getCode());
+        assertEquals(1, listRequests.get());
+    }
+
+
+    private ToucanWorker listTags(String chainKey) {
+        ToucanWorker list = new ToucanGetWorker(TestDevice.context(), API_TOKEN, baseUrl + "?dtl", ToucanClient.API_OPERATION_LIST_TAGS, false, null);
+        list.setChainKey(chainKey);
+        return list;
+    }
+
+    private static AppDevTagsOperationRequest tags() {
+        AppDevTagsOperationRequest request = new AppDevTagsOperationRequest();
+        request.setDevId("device-1");
+        return request;
+    }
+}
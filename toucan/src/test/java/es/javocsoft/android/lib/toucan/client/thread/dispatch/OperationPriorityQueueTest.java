@@ -0,0 +1,66 @@
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import org.junit.Test;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_PRIORITY;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the order in which the {@link OperationPriorityQueue} gives out
+ * the operations, and how waiting ones age.
+ */
+public class OperationPriorityQueueTest {
+
+    private static final long NO_AGING_MILLIS = 60 * 60 * 1000;
+    private static final long AGING_STEP_MILLIS = 20;
+
+    @Test
+    public void betterClassesGoFirstAndTheOldestWithinAClass() {
+        OperationPriorityQueue<String> queue = new OperationPriorityQueue<String>(NO_AGING_MILLIS);
+        queue.offer("ack-1", TOUCAN_WORKER_PRIORITY.LOW);
+        queue.offer("tags", TOUCAN_WORKER_PRIORITY.HIGH);
+        queue.offer("ack-2", TOUCAN_WORKER_PRIORITY.LOW);
+        queue.offer("registration", TOUCAN_WORKER_PRIORITY.CRITICAL);
+
+        assertEquals(4, queue.size());
+        assertEquals("registration", queue.poll());
+        assertEquals("tags", queue.poll());
+        assertEquals("ack-1", queue.poll());
+        assertEquals("ack-2", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void aLowOperationWaitingThreeAgingStepsCompetesAsCritical() {
+        OperationPriorityQueue<String> queue = new OperationPriorityQueue<String>(AGING_STEP_MILLIS);
+        queue.offer("ack", TOUCAN_WORKER_PRIORITY.LOW);
+        TestApiServer.sleep(3 * AGING_STEP_MILLIS + 5);
+        queue.offer("registration", TOUCAN_WORKER_PRIORITY.CRITICAL);
+
+        assertEquals("Older within the same class", "ack", queue.poll());
+        assertEquals("registration", queue.poll());
+    }
+
+    @Test
+    public void aStarvedLowOperationIsPromotedWhileCriticalOnesKeepArriving() {
+        OperationPriorityQueue<String> queue = new OperationPriorityQueue<String>(AGING_STEP_MILLIS);
+        long start = System.currentTimeMillis();
+        queue.offer("ack", TOUCAN_WORKER_PRIORITY.LOW);
+
+        int criticalFirst = 0;
+        while (true) {
+            queue.offer("registration", TOUCAN_WORKER_PRIORITY.CRITICAL);
+            if ("ack".equals(queue.poll())) {
+                break;
+            }
+            criticalFirst++;
+            assertTrue("The ACK is starved", System.currentTimeMillis() - start < 5000);
+            TestApiServer.sleep(2);
+        }
+
+        assertTrue("Critical operations went first while it aged", criticalFirst > 0);
+        assertTrue(System.currentTimeMillis() - start >= 3 * AGING_STEP_MILLIS);
+    }
+}
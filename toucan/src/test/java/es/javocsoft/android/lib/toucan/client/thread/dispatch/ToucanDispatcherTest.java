@@ -0,0 +1,225 @@
+package es.javocsoft.android.lib.toucan.client.thread.dispatch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.javocsoft.android.lib.toolbox.ToolBox;
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.TestDevice;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanCall.TOUCAN_CALL_STATUS;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanGetWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.transport.TransportManager;
+
+import static org.junit.Assert.*;
+
+/**
+ * Flushes the {@link ToucanDispatcher} against a local HTTP server that
+ * stands in for the Toucan API.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ToucanDispatcherTest {
+
+    private static final String API_TOKEN = "test-api-token";
+
+    private TestApiServer server;
+    private String baseUrl;
+    private final AtomicInteger requests = new AtomicInteger();
+    /** The next answer asks to wait a second */
+    private final AtomicBoolean overloaded = new AtomicBoolean();
+    /** Holds the server answers until released */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        TestDevice.setNetworkConnected(true);
+        server = new TestApiServer().handle("/PushNOTApi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                TestApiServer.drain(exchange);
+                if (overloaded.getAndSet(false)) {
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                    TestApiServer.respondEmpty(exchange, 503);
+                    return;
+                }
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                TestApiServer.respond(exchange, 200, TestApiServer.OK_RESPONSE);
+            }
+        }).start();
+        baseUrl = server.getBaseUrl() + "/PushNOTApi/NOTPushApi";
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop();
+        ToucanDispatcher dispatcher = ToucanDispatcher.getInstance();
+        dispatcher.getConcurrencyLimiter().configure(1, dispatcher.getPoolSize());
+    }
+
+    @Test
+    public void flushDoesNotSaveTheOperationsInFlight() throws Exception {
+        ToucanWorker operation = new ToucanGetWorker(TestDevice.context(), API_TOKEN, baseUrl + "?de",
+                ToucanClient.API_OPERATION_DEVICE_ENABLE, false, null);
+        ToucanDispatcher.getInstance().dispatch(operation);
+        while (requests.get() == 0) {
+            TestApiServer.sleep(10);
+        }
+
+        FlushResult result = ToucanDispatcher.getInstance().flush(100);
+
+        assertEquals(1, result.getRunning());
+        assertEquals(0, result.getPersisted());
+        assertEquals(0, result.getDropped());
+        release.countDown();
+        assertTrue(operation.getCall().await(5, TimeUnit.SECONDS));
+        assertEquals(TOUCAN_CALL_STATUS.DONE, operation.getCall().getStatus());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void theTimeoutOfABlockingOperationCoversItsSend() throws Exception {
+        ToucanWorker operation = new ToucanGetWorker(TestDevice.context(), API_TOKEN, baseUrl + "?de",
+                ToucanClient.API_OPERATION_DEVICE_ENABLE, false, null);
+
+        long start = System.currentTimeMillis();
+        Response response = ToucanDispatcher.getInstance().runBlocking(operation, 300);
+
+        assertNull(response);
+        assertTrue("Returned after " + (System.currentTimeMillis() - start) + "ms",
+                System.currentTimeMillis() - start < 3000);
+        assertEquals(TOUCAN_CALL_STATUS.CACHED, operation.getCall().getStatus());
+    }
+
+    @Test
+    public void anOperationWithATooLargeResponseFailsAndIsNotSentAgain() throws Exception {
+        release.countDown();
+        long maxResponseBytes = TransportManager.getInstance().getMaxResponseBytes();
+        TransportManager.getInstance().setMaxResponseBytes(10);
+        try {
+            ToucanWorker operation = new ToucanGetWorker(TestDevice.context(), API_TOKEN, baseUrl + "?de",
+                    ToucanClient.API_OPERATION_DEVICE_ENABLE, false, null);
+            ToucanDispatcher.getInstance().dispatch(operation);
+
+            assertTrue(operation.getCall().await(5, TimeUnit.SECONDS));
+            assertEquals(TOUCAN_CALL_STATUS.FAILED, operation.getCall().getStatus());
+            assertEquals(Response.ERROR_UNEXPECTED, operation.getCall().getResponse().getCode());
+            assertEquals(1, requests.get());
+        } finally {
+            TransportManager.getInstance().setMaxResponseBytes(maxResponseBytes);
+        }
+    }
+
+    @Test
+    public void flushKeepsTheOperationsAlreadyOnDiskInTheirFile() throws Exception {
+        ToucanWorker recovered = operation("?de&n=1");
+        ToolBox.storage_storeDataInInternalStorage(TestDevice.context(), recovered.getJobId(), "{}".getBytes());
+        List<String> batches = batchFiles();
+
+        FlushResult result = flushWhileQueued(recovered);
+
+        assertEquals(1, result.getPersisted());
+        assertEquals(TOUCAN_CALL_STATUS.CACHED, recovered.getCall().getStatus());
+        assertTrue(ToolBox.storage_checkIfFileExistsInInternalStorage(TestDevice.context(), recovered.getJobId()));
+        assertEquals("No batch file is saved", batches, batchFiles());
+    }
+
+    @Test
+    public void flushMovesTheOperationsOfAnOlderBatchToTheNewOne() throws Exception {
+        String olderBatch = ToucanClient.CACHED_REQUEST_FILE_PREFIX + "batch_1";
+        ToolBox.storage_storeDataInInternalStorage(TestDevice.context(), olderBatch, "[]".getBytes());
+        ToucanWorker recovered = operation("?de&n=2");
+        recovered.setBatchFile(olderBatch);
+        List<String> batches = batchFiles();
+
+        FlushResult result = flushWhileQueued(recovered);
+
+        assertEquals(1, result.getPersisted());
+        assertFalse(ToolBox.storage_checkIfFileExistsInInternalStorage(TestDevice.context(), olderBatch));
+        batches.remove(olderBatch);
+        assertEquals("A new batch file is saved", batches.size() + 1, batchFiles().size());
+    }
+
+    @Test
+    public void aFlushedOperationDoesNotLowerTheConcurrencyLimit() throws Exception {
+        release.countDown();
+        ToucanDispatcher dispatcher = ToucanDispatcher.getInstance();
+        overloaded.set(true);
+        ToucanWorker first = operation("?de&n=3");
+        dispatcher.dispatch(first);
+        assertTrue(first.getCall().await(5, TimeUnit.SECONDS));
+        while (dispatcher.getActiveCount() > 0) {
+            TestApiServer.sleep(10);
+        }
+        assertTrue(dispatcher.getBackpressureGate().isPaused());
+
+        //Flushed while it waits for the end of the server pause.
+        ConcurrencyLimiter limiter = dispatcher.getConcurrencyLimiter();
+        limiter.configure(2, 2);
+        limiter.configure(1, 2);
+        ToucanWorker flushed = operation("?de&n=4");
+        dispatcher.dispatch(flushed);
+        dispatcher.flush(0);
+        assertEquals(TOUCAN_CALL_STATUS.CACHED, flushed.getCall().getStatus());
+        while (dispatcher.getQueuedCount() > 0 || dispatcher.getActiveCount() > 0) {
+            TestApiServer.sleep(10);
+        }
+
+        assertEquals(1, requests.get());
+        assertEquals(2, limiter.getLimit());
+    }
+
+
+    private ToucanWorker operation(String query) {
+        return new ToucanGetWorker(TestDevice.context(), API_TOKEN, baseUrl + query,
+                ToucanClient.API_OPERATION_DEVICE_ENABLE, false, null);
+    }
+
+    /**
+     * Flushes while the given operation is queued behind a running one, 
+     * with a concurrency limit of one.
+     */
+    private FlushResult flushWhileQueued(ToucanWorker operation) throws Exception {
+        ToucanDispatcher dispatcher = ToucanDispatcher.getInstance();
+        dispatcher.getConcurrencyLimiter().configure(1, 1);
+        dispatcher.dispatch(operation("?de&running"));
+        while (requests.get() == 0) {
+            TestApiServer.sleep(10);
+        }
+        dispatcher.dispatch(operation);
+        assertEquals(TOUCAN_CALL_STATUS.QUEUED, operation.getCall().getStatus());
+
+        return dispatcher.flush(50);
+    }
+
+    private static List<String> batchFiles() {
+        List<String> res = new ArrayList<String>();
+        for (String file : TestDevice.context().fileList()) {
+            if (file.startsWith(ToucanClient.CACHED_REQUEST_FILE_PREFIX + "batch_")) {
+                res.add(file);
+            }
+        }
+        return res;
+    }
+}
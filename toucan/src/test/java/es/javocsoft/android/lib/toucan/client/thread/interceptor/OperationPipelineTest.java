@@ -0,0 +1,151 @@
+package es.javocsoft.android.lib.toucan.client.thread.interceptor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.TestDevice;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanGetWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanPostWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker;
+import es.javocsoft.android.lib.toucan.client.thread.ToucanWorker.TOUCAN_WORKER_POST_DATA_TYPE;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest.HTTP_METHOD;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs GET and POST operations through an {@link OperationPipeline} against
+ * a local HTTP server that stands in for the Toucan API.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OperationPipelineTest {
+
+    private static final String API_TOKEN = "test-api-token";
+    private static final String ETAG = "\"v1\"";
+
+    private TestApiServer server;
+    private String baseUrl;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger connectionsToDrop = new AtomicInteger();
+    private final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> ifNoneMatches = Collections.synchronizedList(new ArrayList<String>());
+    private final OperationPipeline pipeline = new OperationPipeline();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestApiServer().handle("/PushNOTApi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                bodies.add(TestApiServer.readBody(exchange));
+                authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+                ifNoneMatches.add(String.valueOf(exchange.getRequestHeaders().getFirst("If-None-Match")));
+                if (connectionsToDrop.getAndDecrement() > 0) {
+                    //Closed with no response, as a dropped connection.
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                TestApiServer.respond(exchange, 200, TestApiServer.OK_RESPONSE);
+            }
+        }).start();
+        baseUrl = server.getBaseUrl() + "/PushNOTApi";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void postDataIsEncodedAndSentWithTheApiToken() throws Exception {
+        AppDevTagsOperationRequest tags = new AppDevTagsOperationRequest();
+        tags.setDevId("device-1");
+        tags.setTags(Arrays.asList("sports", "news"));
+        ToucanWorker operation = new ToucanPostWorker(TestDevice.context(), API_TOKEN, tags, TOUCAN_WORKER_POST_DATA_TYPE.TAGS,
+                baseUrl + "/tags?op=1", ToucanClient.API_OPERATION_ADD_TAGS, false, null);
+
+        TransportResponse response = pipeline.execute(operation, new TransportRequest(HTTP_METHOD.POST, baseUrl + "/tags?op=1"));
+
+        assertEquals(Response.RESULT_OK, ((Response) response.getDecodedBody()).getCode());
+        assertEquals("ttmSecTKN " + API_TOKEN, authorizations.get(0));
+        assertTrue(bodies.get(0), bodies.get(0).contains("\"tags\":[\"sports\",\"news\"]"));
+        assertEquals(1, pipeline.getMetrics().getRequestCount(ToucanClient.API_OPERATION_ADD_TAGS));
+    }
+
+    @Test
+    public void anInterceptorCanAnswerWithoutReachingTheNetwork() throws Exception {
+        final Response canned = new Response(Response.RESULT_OK);
+        pipeline.addInterceptor(ToucanClient.API_OPERATION_LIST_TAGS, new OperationInterceptor() {
+            @Override
+            public TransportResponse intercept(OperationChain chain) {
+                return new TransportResponse(200, null, null, canned, null);
+            }
+        });
+
+        TransportResponse listed = pipeline.execute(listTags(), new TransportRequest(HTTP_METHOD.GET, baseUrl + "/pushApi"));
+        assertSame(canned, listed.getDecodedBody());
+        assertEquals(0, requests.get());
+
+        //Only the given operation is answered by the interceptor.
+        ToucanWorker ack = new ToucanPostWorker(TestDevice.context(), API_TOKEN, new AppDevTagsOperationRequest(), TOUCAN_WORKER_POST_DATA_TYPE.ACK,
+                baseUrl + "/ackreport", ToucanClient.API_OPERATION_ACK_RECEIVED, false, null);
+        pipeline.execute(ack, new TransportRequest(HTTP_METHOD.POST, baseUrl + "/ackreport"));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void failedGetRequestsAreSentAgain() throws Exception {
+        connectionsToDrop.set(1);
+
+        TransportResponse response = pipeline.execute(listTags(), new TransportRequest(HTTP_METHOD.GET, baseUrl + "/pushApi"));
+
+        assertEquals(Response.RESULT_OK, ((Response) response.getDecodedBody()).getCode());
+        assertTrue(requests.get() >= 2);
+        assertEquals(0, pipeline.getMetrics().getFailureCount(ToucanClient.API_OPERATION_LIST_TAGS));
+    }
+
+    @Test
+    public void onlyTagListingsAreRevalidated() throws Exception {
+        pipeline.execute(listTags(), new TransportRequest(HTTP_METHOD.GET, baseUrl + "/pushApi?dtl=device-1"));
+        pipeline.execute(listTags(), new TransportRequest(HTTP_METHOD.GET, baseUrl + "/pushApi?dtl=device-1"));
+        assertEquals(Arrays.asList("null", ETAG), ifNoneMatches);
+
+        //They change the device state, the server must always run them.
+        ifNoneMatches.clear();
+        String[][] operations = {
+                {ToucanClient.API_OPERATION_DEVICE_UNREGISTRATION, baseUrl + "/pushApi?du=device-1"},
+                {ToucanClient.API_OPERATION_DEVICE_ENABLE, baseUrl + "/pushApi?de=device-1"}};
+        for (String[] operation : operations) {
+            for (int i = 0; i < 2; i++) {
+                ToucanWorker worker = new ToucanGetWorker(TestDevice.context(), API_TOKEN, operation[1], operation[0], false, null);
+                pipeline.execute(worker, new TransportRequest(HTTP_METHOD.GET, operation[1]));
+            }
+        }
+        assertEquals(Arrays.asList("null", "null", "null", "null"), ifNoneMatches);
+    }
+
+
+    private ToucanWorker listTags() {
+        return new ToucanGetWorker(TestDevice.context(), API_TOKEN, baseUrl + "/pushApi", ToucanClient.API_OPERATION_LIST_TAGS, false, null);
+    }
+}
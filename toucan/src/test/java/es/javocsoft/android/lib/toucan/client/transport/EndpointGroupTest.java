@@ -0,0 +1,224 @@
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest.HTTP_METHOD;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends ACKs through an {@link EndpointGroup} of two local HTTP servers that
+ * stand in for two regions of the Toucan API, one of them slower.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EndpointGroupTest {
+
+    private static final int OPERATIONS = 60;
+    private static final long SLOW_REGION_DELAY_MILLIS = 40;
+    private static final String ACK_PATH = "/PushNOTApi/ackreport?op=2";
+
+    private TestApiServer fastRegion;
+    private TestApiServer slowRegion;
+    private int fastPort;
+    private final AtomicInteger fastRequests = new AtomicInteger();
+    private final AtomicInteger slowRequests = new AtomicInteger();
+    private EndpointGroup group;
+    private final PooledHttpTransport transport = new PooledHttpTransport();
+
+    @Before
+    public void setUp() throws Exception {
+        fastRegion = startRegion(0, fastRequests, 0);
+        fastPort = fastRegion.getPort();
+        slowRegion = startRegion(0, slowRequests, SLOW_REGION_DELAY_MILLIS);
+        group = new EndpointGroup(Arrays.asList(
+                slowRegion.getBaseUrl(),
+                fastRegion.getBaseUrl()));
+    }
+
+    @After
+    public void tearDown() {
+        fastRegion.stop();
+        slowRegion.stop();
+    }
+
+    @Test
+    public void mostOperationsGoToTheFastestRegion() throws Exception {
+        sendAcks(OPERATIONS);
+
+        assertEquals(OPERATIONS, fastRequests.get() + slowRequests.get());
+        assertTrue("Fast " + fastRequests + ", slow " + slowRequests + " " + group.getEndpointsState(), fastRequests.get() > OPERATIONS * 3 / 4);
+    }
+
+    @Test
+    public void operationsFailOverWhenARegionIsDownAndComeBackOnceItIsUp() throws Exception {
+        group.setReprobeIntervalMillis(200);
+        sendAcks(10);
+
+        fastRegion.stop();
+        int slowBefore = slowRequests.get();
+        //Every operation is still delivered, the fast region is soon marked as down.
+        sendAcks(OPERATIONS);
+        assertEquals(OPERATIONS, slowRequests.get() - slowBefore);
+        assertTrue(group.getEndpointsState().toString(), group.getEndpointsState().get(1).contains("down=true"));
+
+        fastRegion = startRegion(fastPort, fastRequests, 0);
+        //Once the re-probe interval is over, an operation probes it.
+        long deadline = System.currentTimeMillis() + 5000;
+        int fastBefore = fastRequests.get();
+        while (fastRequests.get() == fastBefore && System.currentTimeMillis() < deadline) {
+            sendAcks(1);
+            TestApiServer.sleep(10);
+        }
+        fastBefore = fastRequests.get();
+        sendAcks(OPERATIONS);
+
+        assertTrue("The fast region is probed and used again", fastRequests.get() - fastBefore > OPERATIONS / 2);
+        assertTrue(group.getEndpointsState().get(1).contains("down=false"));
+    }
+
+    @Test
+    public void gatewayErrorsAreSentToTheNextRegion() throws Exception {
+        TestApiServer failing = new TestApiServer().handle("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                TestApiServer.drain(exchange);
+                TestApiServer.respondEmpty(exchange, 503);
+            }
+        }).start();
+        try {
+            group = new EndpointGroup(Arrays.asList(failing.getBaseUrl(), fastRegion.getBaseUrl()));
+
+            sendAcks(OPERATIONS);
+
+            assertEquals(OPERATIONS, fastRequests.get());
+        } finally {
+            failing.stop();
+        }
+    }
+
+    @Test
+    public void aPostIsNotSentAgainWhenTheRegionMayHaveRunIt() throws Exception {
+        final AtomicBoolean hang = new AtomicBoolean();
+        TestApiServer hanging = new TestApiServer().handle("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                TestApiServer.drain(exchange);
+                if (!hang.get()) {
+                    TestApiServer.respondEmpty(exchange, 503);
+                    return;
+                }
+                TestApiServer.sleep(1000);
+                TestApiServer.respond(exchange, 200, TestApiServer.OK_RESPONSE);
+            }
+        }).start();
+        try {
+            group = new EndpointGroup(Arrays.asList(hanging.getBaseUrl(), fastRegion.getBaseUrl()));
+            //Once down, it is probed first by every request.
+            group.setReprobeIntervalMillis(0);
+            while (!group.getEndpointsState().get(0).contains("down=true")) {
+                sendAcks(1);
+            }
+            hang.set(true);
+            PooledHttpTransport shortTimeout = new PooledHttpTransport(PooledHttpTransport.DEFAULT_MAX_REQUESTS_PER_HOST, true, 1000, 200);
+            int fastBefore = fastRequests.get();
+
+            try {
+                group.execute(shortTimeout, ack(0));
+                fail("The read timeout is given back");
+            } catch (SocketTimeoutException e) {
+                //Expected
+            }
+            assertEquals(fastBefore, fastRequests.get());
+
+            //A GET can be sent again.
+            TransportRequest get = new TransportRequest(HTTP_METHOD.GET, group.getPrimaryBaseUrl() + ACK_PATH)
+                    .setDeadline(System.nanoTime() + 5000 * 1000000L);
+            assertEquals(200, group.execute(shortTimeout, get).getStatusCode());
+            assertEquals(fastBefore + 1, fastRequests.get());
+        } finally {
+            hanging.stop();
+        }
+    }
+
+    @Test
+    public void aPostIsNotSentAgainAfterAGatewayTimeout() throws Exception {
+        TestApiServer timingOut = new TestApiServer().handle("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                TestApiServer.drain(exchange);
+                TestApiServer.respondEmpty(exchange, 504);
+            }
+        }).start();
+        try {
+            group = new EndpointGroup(Arrays.asList(timingOut.getBaseUrl(), fastRegion.getBaseUrl()));
+
+            //Until the region is chosen, the fast one answers.
+            for (int i = 0; i < OPERATIONS; i++) {
+                int fastBefore = fastRequests.get();
+                TransportResponse response = group.execute(transport, ack(i));
+                if (response.getStatusCode() != 200) {
+                    assertEquals(504, response.getStatusCode());
+                    assertEquals(fastBefore, fastRequests.get());
+                    return;
+                }
+            }
+            fail("The region is never chosen " + group.getEndpointsState());
+        } finally {
+            timingOut.stop();
+        }
+    }
+
+    @Test
+    public void onlyUrlsBelowThePrimaryBaseUrlMatch() {
+        EndpointGroup api = new EndpointGroup(Arrays.asList("https://api.x", "https://eu.api.x"));
+
+        assertTrue(api.matches("https://api.x"));
+        assertTrue(api.matches("https://api.x/PushNOTApi/ackreport?op=2"));
+        assertTrue(api.matches("https://api.x?op=2"));
+        assertFalse(api.matches("https://api.xyz/PushNOTApi/ackreport"));
+        assertFalse(api.matches("https://eu.api.x/PushNOTApi/ackreport"));
+        assertFalse(api.matches(null));
+        assertTrue(new EndpointGroup(Arrays.asList("https://api.x/")).matches("https://api.x/PushNOTApi"));
+    }
+
+
+    private void sendAcks(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            TransportResponse response = group.execute(transport, ack(i));
+            assertEquals(200, response.getStatusCode());
+            assertEquals(TestApiServer.OK_RESPONSE, response.getBodyAsString());
+        }
+    }
+
+    private TransportRequest ack(int notificationId) throws IOException {
+        return new TransportRequest(HTTP_METHOD.POST, group.getPrimaryBaseUrl() + ACK_PATH)
+                .setBody(("{\"nId\":" + notificationId + "}").getBytes("UTF-8"), "application/json; charset=UTF-8")
+                .setDeadline(System.nanoTime() + 5000 * 1000000L);
+    }
+
+    private static TestApiServer startRegion(int port, final AtomicInteger requests, final long delayMillis) throws IOException {
+        return new TestApiServer(port).handle("/PushNOTApi/ackreport", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                TestApiServer.drain(exchange);
+                TestApiServer.sleep(delayMillis);
+                TestApiServer.respond(exchange, 200, TestApiServer.OK_RESPONSE);
+            }
+        }).start();
+    }
+}
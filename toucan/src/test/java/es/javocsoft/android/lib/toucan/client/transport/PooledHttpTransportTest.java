@@ -0,0 +1,245 @@
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest.HTTP_METHOD;
+
+import static es.javocsoft.android.lib.toucan.client.TestApiServer.OK_RESPONSE;
+import static es.javocsoft.android.lib.toucan.client.TestApiServer.drain;
+import static es.javocsoft.android.lib.toucan.client.TestApiServer.respond;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the {@link PooledHttpTransport} against a local HTTP server that
+ * stands in for the Toucan API and counts the TCP connections it accepts.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PooledHttpTransportTest {
+
+    private static final int OPERATIONS = 20;
+    private static final int BIG_RESPONSE_CHARS = 64 * 1024;
+    private static final long STALL_MILLIS = 3000;
+    private static final long BUDGET_MILLIS = 300;
+
+    private TestApiServer server;
+    private String baseUrl;
+    private final Set<Integer> connections = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestApiServer();
+        server.handle("/PushNOTApi/ackreport", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                //Each client port is a different TCP connection.
+                connections.add(exchange.getRemoteAddress().getPort());
+                requests.incrementAndGet();
+                drain(exchange);
+                respond(exchange, 200, OK_RESPONSE);
+            }
+        });
+        server.handle("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                connections.add(exchange.getRemoteAddress().getPort());
+                drain(exchange);
+                TestApiServer.respondEmpty(exchange, 404);
+            }
+        });
+        server.handle("/PushNOTApi/error", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange);
+                respond(exchange, 500, "{\"code\":-100,\"msg\":\"System error\"}");
+            }
+        });
+        server.handle("/PushNOTApi/big", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                connections.add(exchange.getRemoteAddress().getPort());
+                drain(exchange);
+                StringBuilder body = new StringBuilder("{\"code\":0,\"msg\":\"");
+                for (int i = 0; i < BIG_RESPONSE_CHARS; i++) {
+                    body.append('x');
+                }
+                respond(exchange, 200, body.append("\"}").toString());
+            }
+        });
+        server.handle("/PushNOTApi/stalled", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange);
+                TestApiServer.sleep(STALL_MILLIS);
+                respond(exchange, 200, OK_RESPONSE);
+            }
+        });
+        server.start();
+        baseUrl = server.getBaseUrl();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void backToBackOperationsReuseOneConnection() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport();
+
+        sendAcks(transport);
+
+        assertEquals(OPERATIONS, requests.get());
+        assertEquals("Only the first operation opens a connection", 1, connections.size());
+    }
+
+    @Test
+    public void withoutKeepAliveEveryOperationOpensAConnection() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport(
+                PooledHttpTransport.DEFAULT_MAX_REQUESTS_PER_HOST, false,
+                PooledHttpTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                PooledHttpTransport.DEFAULT_READ_TIMEOUT_MILLIS);
+
+        sendAcks(transport);
+
+        assertEquals(OPERATIONS, requests.get());
+        assertEquals(OPERATIONS, connections.size());
+    }
+
+    @Test
+    public void prewarmedConnectionIsUsedByTheFirstOperation() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport();
+
+        PrewarmResult result = transport.prewarm(baseUrl, false);
+        assertTrue(result.isSuccess());
+        assertEquals(1, connections.size());
+
+        sendAcks(transport);
+
+        assertEquals("The operations use the pre-warmed connection", 1, connections.size());
+    }
+
+    @Test
+    public void errorResponsesAreFullyRead() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport();
+
+        TransportResponse response = transport.execute(
+                new TransportRequest(HTTP_METHOD.GET, baseUrl + "/PushNOTApi/error"));
+
+        assertEquals(500, response.getStatusCode());
+        assertFalse(response.isSuccessful());
+        assertTrue(response.getBodyAsString().contains("-100"));
+    }
+
+    @Test
+    public void bodyHandlerReadsTheStreamAndOnlyAnExcerptIsKept() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport();
+        final long[] handled = new long[1];
+
+        TransportResponse response = transport.execute(
+                new TransportRequest(HTTP_METHOD.GET, baseUrl + "/PushNOTApi/big")
+                        .setBodyHandler(new ResponseBodyHandler() {
+                            @Override
+                            public Object handle(int statusCode, String contentType, InputStream body) throws IOException {
+                                //Reads only the beginning, the transport drains the rest.
+                                byte[] head = new byte[8];
+                                handled[0] = body.read(head);
+                                return new String(head, 0, (int) handled[0], "UTF-8");
+                            }
+                        }));
+
+        assertEquals("{\"code\":", response.getDecodedBody());
+        assertEquals(0, response.getBody().length);
+        assertTrue(response.getBodyExcerpt().length() < 300);
+        assertTrue(response.getBodyExcerpt().endsWith("bytes)"));
+
+        //The drained connection is reused.
+        sendAcks(transport);
+        assertEquals(1, connections.size());
+    }
+
+    @Test
+    public void responsesOverTheLimitAreRejected() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport();
+
+        try {
+            transport.execute(new TransportRequest(HTTP_METHOD.GET, baseUrl + "/PushNOTApi/big")
+                    .setMaxResponseBytes(1024));
+            fail("The response is bigger than the limit");
+        } catch (ResponseTooLargeException e) {
+            //Expected
+        }
+
+        TransportResponse response = transport.execute(
+                new TransportRequest(HTTP_METHOD.GET, baseUrl + "/PushNOTApi/big"));
+        assertEquals(BIG_RESPONSE_CHARS + 19, response.getBody().length);
+    }
+
+    @Test
+    public void stalledServerFailsTheRequestWithinItsDeadline() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport(1, true,
+                PooledHttpTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                PooledHttpTransport.DEFAULT_READ_TIMEOUT_MILLIS);
+
+        long start = System.currentTimeMillis();
+        try {
+            transport.execute(new TransportRequest(HTTP_METHOD.GET, baseUrl + "/PushNOTApi/stalled")
+                    .setDeadline(System.nanoTime() + BUDGET_MILLIS * 1000000L));
+            fail("The server answers after the deadline");
+        } catch (DeadlineExceededException e) {
+            //Expected, the read timeout is cut down to the time left.
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + "ms", elapsed < BUDGET_MILLIS + 500);
+
+        //The connection slot is free again.
+        TransportResponse response = transport.execute(
+                new TransportRequest(HTTP_METHOD.GET, baseUrl + "/PushNOTApi/error")
+                        .setDeadline(System.nanoTime() + BUDGET_MILLIS * 1000000L));
+        assertEquals(500, response.getStatusCode());
+    }
+
+    @Test
+    public void requestOutOfTimeIsNotSent() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport();
+
+        try {
+            transport.execute(new TransportRequest(HTTP_METHOD.GET, baseUrl + "/PushNOTApi/error")
+                    .setDeadline(System.nanoTime() - 1));
+            fail("The request is already out of time");
+        } catch (DeadlineExceededException e) {
+            //Expected
+        }
+        assertEquals(0, connections.size());
+    }
+
+
+    private void sendAcks(ToucanTransport transport) throws Exception {
+        for (int i = 0; i < OPERATIONS; i++) {
+            TransportRequest request = new TransportRequest(HTTP_METHOD.POST, baseUrl + "/PushNOTApi/ackreport?op=2")
+                    .setHeader("Authorization", "ttmSecTKN test")
+                    .setBody(("{\"nId\":" + i + "}").getBytes("UTF-8"), "application/json; charset=UTF-8");
+
+            TransportResponse response = transport.execute(request);
+
+            assertEquals(200, response.getStatusCode());
+            assertEquals(OK_RESPONSE, response.getBodyAsString());
+        }
+    }
+}
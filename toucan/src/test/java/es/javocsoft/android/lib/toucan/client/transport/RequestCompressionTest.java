@@ -0,0 +1,157 @@
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.ToucanClient;
+import es.javocsoft.android.lib.toucan.client.request.ACKRequest;
+import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
+import es.javocsoft.android.lib.toucan.client.request.DeviceRegistrationRequest;
+import es.javocsoft.android.lib.toucan.client.request.bean.DeviceRegistrationBean;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest.HTTP_METHOD;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the gzip compression of typical operation payloads.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RequestCompressionTest {
+
+    private static final String APP_KEY = "a4f5c2b7d9e1f3a6b8c0d2e4f6a8b0c2";
+    private static final String SHA1 = "2fd4e1c67a2d28fced849ee1bb76e7391b93eb12";
+    private static final String DEVICE_ID = "ffffffff-c5a8-9d31-0000-00004b3c9e21";
+    private static final String FCM_TOKEN = "eX3mPl3T0k3n:APA91bHun4MxP5egoKMwt2KZFBaFUH-1RYqx2Q8uXbXzG"
+            + "7qeCRB6Tq0nS0Bb9xfgIVFJ9JpXcuIq1a7xhA0OQ3Y4s8nmhPh_TaH6cG9C1Rfq1jh7JbCwkZ2K3";
+
+    private final Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
+
+    @Test
+    public void typicalPayloadsAreCompressedButACKs() throws Exception {
+        CompressionPolicy policy = new CompressionPolicy();
+
+        long registration = bytesSaved(policy, ToucanClient.API_OPERATION_DEVICE_REGISTRATION, gson.toJson(registration()));
+        long tags = bytesSaved(policy, ToucanClient.API_OPERATION_ADD_TAGS, gson.toJson(tags(40)));
+        long ack = bytesSaved(policy, ToucanClient.API_OPERATION_ACK_RECEIVED, gson.toJson(ack()));
+
+        assertTrue("Registrations are compressed", registration > 0);
+        assertTrue("Tag lists are compressed", tags > 0);
+        assertEquals("ACKs are sent as they are", 0, ack);
+        assertEquals(registration + tags, policy.getBytesSaved());
+    }
+
+    /**
+     * Measures the request bytes saved on the registration and 40-tag 
+     * payloads, and prints it. Gzip output is the same on every run.
+     */
+    @Test
+    public void bytesSavedOnTypicalPayloadsAreReported() throws Exception {
+        CompressionPolicy policy = new CompressionPolicy();
+
+        int registration = reportBytesSaved(policy, ToucanClient.API_OPERATION_DEVICE_REGISTRATION, gson.toJson(registration()));
+        int tags = reportBytesSaved(policy, ToucanClient.API_OPERATION_ADD_TAGS, gson.toJson(tags(40)));
+
+        assertTrue("Registrations shrink by a quarter at least, " + registration + "%", registration >= 25);
+        assertTrue("Tag lists shrink by two thirds at least, " + tags + "%", tags >= 66);
+    }
+
+    @Test
+    public void compressedBodyDecodesToTheOriginal() throws Exception {
+        byte[] original = gson.toJson(registration()).getBytes("UTF-8");
+        TransportRequest request = new TransportRequest(HTTP_METHOD.POST, "http://localhost/")
+                .setBody(original, "application/json; charset=UTF-8")
+                .compressBody(ToucanClient.API_OPERATION_DEVICE_REGISTRATION, new CompressionPolicy());
+
+        assertEquals(GzipCodec.ENCODING_GZIP, request.getHeader("Content-Encoding"));
+        assertEquals(GzipCodec.ENCODING_GZIP, request.getHeader("Accept-Encoding"));
+        assertArrayEquals(original, TestApiServer.readAll(GzipCodec.decompress(new ByteArrayInputStream(request.getBody()))));
+    }
+
+    @Test
+    public void smallBodiesAreNotCompressed() throws Exception {
+        CompressionPolicy policy = new CompressionPolicy();
+        policy.setMinSizeBytes(64 * 1024);
+        byte[] original = gson.toJson(tags(10)).getBytes("UTF-8");
+
+        TransportRequest request = new TransportRequest(HTTP_METHOD.POST, "http://localhost/")
+                .setBody(original, "application/json; charset=UTF-8")
+                .compressBody(ToucanClient.API_OPERATION_ADD_TAGS, policy);
+
+        assertNull(request.getHeader("Content-Encoding"));
+        assertArrayEquals(original, request.getBody());
+    }
+
+
+    private static long bytesSaved(CompressionPolicy policy, String operation, String json) throws Exception {
+        byte[] body = json.getBytes("UTF-8");
+        TransportRequest request = new TransportRequest(HTTP_METHOD.POST, "http://localhost/")
+                .setBody(body, "application/json; charset=UTF-8")
+                .compressBody(operation, policy);
+        return body.length - request.getBody().length;
+    }
+
+    /** @return The percentage of the body saved. */
+    private static int reportBytesSaved(CompressionPolicy policy, String operation, String json) throws Exception {
+        int size = json.getBytes("UTF-8").length;
+        long saved = bytesSaved(policy, operation, json);
+        int percentage = (int) (saved * 100 / size);
+        System.out.println(String.format("%-32s %5d bytes, %5d gzipped, %3d%% saved", operation, size, size - saved, percentage));
+        return percentage;
+    }
+
+    private static DeviceRegistrationRequest registration() {
+        DeviceRegistrationBean bean = new DeviceRegistrationBean();
+        bean.setAppVersion(118);
+        bean.setNotToken(FCM_TOKEN);
+        bean.setDevId(DEVICE_ID);
+        bean.setDevOs("Android 8.1.0 - (API Level 27)");
+        bean.setDevExtra("Brand: samsung, Device: dreamlte, Model: SM-G950F, Manufacturer: samsung, "
+                + "Product: dreamltexx, Board: universal8895, Hardware: samsungexynos8895, "
+                + "Display: R16NW.G950FXXU1CRAP, Fingerprint: samsung/dreamltexx/dreamlte:8.0.0/"
+                + "R16NW/G950FXXU1CRAP:user/release-keys, Host: SWDG6511, Id: R16NW, "
+                + "Bootloader: G950FXXU1CRAP, Radio: G950FXXU1CRAP, Tags: release-keys, Type: user");
+        bean.setDevLocale("es_ES");
+        bean.setDevResType("xxxhdpi");
+        bean.setInstallReferral("utm_source=google-play&utm_medium=organic&utm_campaign=spring_launch");
+        bean.setTsCreation(new Date(1514764800000L));
+
+        DeviceRegistrationRequest request = new DeviceRegistrationRequest();
+        request.setAppKey(APP_KEY);
+        request.setAppHashSignature(SHA1);
+        request.setHashSignature(SHA1);
+        request.setData(bean);
+        return request;
+    }
+
+    private static AppDevTagsOperationRequest tags(int count) {
+        List<String> tags = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            tags.add("interest_category_" + (i % 8) + "_topic_" + i);
+        }
+        AppDevTagsOperationRequest request = new AppDevTagsOperationRequest();
+        request.setAppKey(APP_KEY);
+        request.setDevId(DEVICE_ID);
+        request.setAppHashSignature(SHA1);
+        request.setHashSignature(SHA1);
+        request.setTags(tags);
+        return request;
+    }
+
+    private static ACKRequest ack() {
+        ACKRequest request = new ACKRequest();
+        request.setAppKey(APP_KEY);
+        request.setAppHashSignature(SHA1);
+        request.setToken(FCM_TOKEN);
+        return request;
+    }
+}
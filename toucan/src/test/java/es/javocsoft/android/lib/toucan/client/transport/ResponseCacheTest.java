@@ -0,0 +1,130 @@
+package es.javocsoft.android.lib.toucan.client.transport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.javocsoft.android.lib.toucan.client.TestApiServer;
+import es.javocsoft.android.lib.toucan.client.transport.TransportRequest.HTTP_METHOD;
+
+import static org.junit.Assert.*;
+
+/**
+ * Lists the tags of a device repeatedly against a local HTTP server that
+ * honours If-None-Match, as the Toucan API would with ETags.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ResponseCacheTest {
+
+    private static final int LISTINGS = 20;
+    private static final String ETAG = "\"tags-v1\"";
+
+    private TestApiServer server;
+    private String listTagsUrl;
+    private String tagsResponse;
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder tags = new StringBuilder("{\"code\":0,\"msg\":\"OK\",\"data\":[");
+        for (int i = 0; i < 50; i++) {
+            tags.append(i == 0 ? "" : ",").append("\"tag-").append(i).append("\"");
+        }
+        tagsResponse = tags.append("]}").toString();
+
+        server = new TestApiServer().handle("/PushNOTApi/pushApi", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    TestApiServer.respondEmpty(exchange, 304);
+                    return;
+                }
+                bytesSent.addAndGet(tagsResponse.getBytes("UTF-8").length);
+                TestApiServer.respond(exchange, 200, tagsResponse);
+            }
+        }).start();
+        listTagsUrl = server.getBaseUrl() + "/PushNOTApi/pushApi?dtl=device";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void repeatedListingsAreRevalidatedInsteadOfDownloaded() throws Exception {
+        PooledHttpTransport transport = new PooledHttpTransport();
+
+        for (int i = 0; i < LISTINGS; i++) {
+            assertEquals(tagsResponse, listTags(transport, null));
+        }
+        assertEquals("Without cache every listing downloads the tags",
+                LISTINGS * tagsResponse.length(), bytesSent.getAndSet(0));
+
+        ResponseCache cache = new ResponseCache();
+        for (int i = 0; i < LISTINGS; i++) {
+            assertEquals(tagsResponse, listTags(transport, cache));
+        }
+
+        assertEquals("Only the first listing downloads the tags", tagsResponse.length(), bytesSent.get());
+        assertEquals(LISTINGS - 1, cache.getHitCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted() {
+        ResponseCache cache = new ResponseCache();
+        cache.setMaxBytes(250);
+        TransportResponse withETag = new TransportResponse(200,
+                Collections.singletonMap("ETag", Collections.singletonList(ETAG)), null);
+
+        cache.store("a", withETag, new byte[100]);
+        cache.store("b", withETag, new byte[100]);
+        //"a" is used, so "b" is the least recently used one.
+        assertTrue(cache.prepareConditional("a", new TransportRequest(HTTP_METHOD.GET, listTagsUrl)));
+        cache.store("c", withETag, new byte[100]);
+
+        assertEquals(200, cache.getSize());
+        assertTrue(cache.prepareConditional("a", new TransportRequest(HTTP_METHOD.GET, listTagsUrl)));
+        assertFalse(cache.prepareConditional("b", new TransportRequest(HTTP_METHOD.GET, listTagsUrl)));
+        assertTrue(cache.prepareConditional("c", new TransportRequest(HTTP_METHOD.GET, listTagsUrl)));
+    }
+
+    @Test
+    public void responsesWithoutValidatorsAreNotCached() {
+        ResponseCache cache = new ResponseCache();
+
+        cache.store("a", new TransportResponse(200, null, null), new byte[10]);
+
+        assertEquals(0, cache.getSize());
+        assertFalse(cache.prepareConditional("a", new TransportRequest(HTTP_METHOD.GET, listTagsUrl)));
+    }
+
+
+    private String listTags(ToucanTransport transport, ResponseCache cache) throws Exception {
+        TransportRequest request = new TransportRequest(HTTP_METHOD.GET, listTagsUrl);
+        if (cache != null) {
+            cache.prepareConditional(listTagsUrl, request);
+        }
+        TransportResponse response = transport.execute(request);
+        if (cache == null) {
+            return response.getBodyAsString();
+        }
+
+        byte[] cachedBody = cache.getNotModifiedBody(listTagsUrl, response);
+        if (cachedBody != null) {
+            return new String(cachedBody, "UTF-8");
+        }
+        cache.store(listTagsUrl, response, response.getBody());
+        return response.getBodyAsString();
+    }
+}
@@ -0,0 +1,252 @@
+package es.javocsoft.android.lib.toucan.client.wire;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import es.javocsoft.android.lib.toucan.client.request.ACKBatchRequest;
+import es.javocsoft.android.lib.toucan.client.request.ACKRequest;
+import es.javocsoft.android.lib.toucan.client.request.AppDevTagsOperationRequest;
+import es.javocsoft.android.lib.toucan.client.request.DeviceRegistrationRequest;
+import es.javocsoft.android.lib.toucan.client.request.bean.DeviceRegistrationBean;
+import es.javocsoft.android.lib.toucan.client.response.Response;
+import es.javocsoft.android.lib.toucan.client.transport.TransportResponse;
+import es.javocsoft.android.lib.toucan.client.wire.WireFormatNegotiator.WIRE_FORMAT;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the CBOR and JSON wire formats on typical operation payloads,
+ * and checks how the format of each server is negotiated.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WireFormatTest {
+
+    private static final String APP_KEY = "a4f5c2b7d9e1f3a6b8c0d2e4f6a8b0c2";
+    private static final String SHA1 = "2fd4e1c67a2d28fced849ee1bb76e7391b93eb12";
+    private static final String DEVICE_ID = "ffffffff-c5a8-9d31-0000-00004b3c9e21";
+    private static final String FCM_TOKEN = "eX3mPl3T0k3n:APA91bHun4MxP5egoKMwt2KZFBaFUH-1RYqx2Q8uXbXzG"
+            + "7qeCRB6Tq0nS0Bb9xfgIVFJ9JpXcuIq1a7xhA0OQ3Y4s8nmhPh_TaH6cG9C1Rfq1jh7JbCwkZ2K3";
+    private static final String API_URL = "https://toucan.javocsoft.es/PushNOTApi/ackreport";
+
+    private final Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
+
+    @Test
+    public void typicalPayloadsAreSmallerInCbor() throws Exception {
+        assertSmallerInCbor("Registration", registration());
+        assertSmallerInCbor("Tags (40)", tags(40));
+        assertSmallerInCbor("ACK", ack());
+    }
+
+    @Test
+    public void cborRequestsCarryTheSameFieldsAsJson() throws Exception {
+        for (Object request : Arrays.asList(registration(), tags(40), ack(), new ACKBatchRequest(Arrays.asList(ack(), ack())))) {
+            Map<?, ?> json = gson.fromJson(gson.toJson(request), Map.class);
+            Map<?, ?> cbor = (Map<?, ?>) readCbor(ToucanCborCodec.encodeRequest(request));
+
+            assertEquals(json.keySet(), cbor.keySet());
+            for (Object key : json.keySet()) {
+                if (!"data".equals(key)) {
+                    assertEquals(String.valueOf(key), json.get(key), cbor.get(key));
+                }
+            }
+        }
+
+        Map<?, ?> data = (Map<?, ?>) ((Map<?, ?>) readCbor(ToucanCborCodec.encodeRequest(registration()))).get("data");
+        assertEquals(FCM_TOKEN, data.get("notToken"));
+        assertEquals(118.0, data.get("appVersion"));
+        assertEquals(new Date(1514764800000L), data.get("tsCreation"));
+    }
+
+    @Test
+    public void cborResponsesDecodeLikeJsonOnes() throws Exception {
+        byte[] cbor = new CborWriter()
+                .beginMap()
+                .field("code", 0)
+                .field("msg", "OK")
+                .name("data").beginArray(2).writeString("sports").writeString("news")
+                .field("ts", 1514764800000L)
+                .endMap()
+                .toByteArray();
+        String json = "{\"code\":0,\"msg\":\"OK\",\"data\":[\"sports\",\"news\"],\"ts\":1514764800000}";
+
+        Response fromCbor = ToucanCborCodec.decodeResponse(new ByteArrayInputStream(cbor));
+        Response fromJson = gson.fromJson(json, Response.class);
+
+        assertEquals(fromJson.getCode(), fromCbor.getCode());
+        assertEquals(fromJson.getMsg(), fromCbor.getMsg());
+        assertEquals(fromJson.getResult(), fromCbor.getResult());
+        assertEquals(fromJson.getTs(), fromCbor.getTs());
+        assertTrue(cbor.length < json.getBytes("UTF-8").length);
+    }
+
+    /**
+     * Times, on this machine, the encoding of the requests and the decoding
+     * of a response in both formats, and prints it. The times are not
+     * checked, they depend on the machine.
+     */
+    @Test
+    public void encodingAndDecodingTimesAreReported() throws Exception {
+        final String json = "{\"code\":0,\"msg\":\"OK\",\"data\":[\"sports\",\"news\"],\"ts\":1514764800000}";
+        final byte[] cbor = new CborWriter()
+                .beginMap()
+                .field("code", 0)
+                .field("msg", "OK")
+                .name("data").beginArray(2).writeString("sports").writeString("news")
+                .field("ts", 1514764800000L)
+                .endMap()
+                .toByteArray();
+
+        for (final Object request : Arrays.asList(registration(), tags(40), ack())) {
+            report("Encode " + request.getClass().getSimpleName(), new Work() {
+                @Override
+                public void run() throws Exception {
+                    gson.toJson(request).getBytes("UTF-8");
+                }
+            }, new Work() {
+                @Override
+                public void run() throws Exception {
+                    ToucanCborCodec.encodeRequest(request);
+                }
+            });
+        }
+        report("Decode Response", new Work() {
+            @Override
+            public void run() throws Exception {
+                gson.fromJson(json, Response.class);
+            }
+        }, new Work() {
+            @Override
+            public void run() throws Exception {
+                ToucanCborCodec.decodeResponse(new ByteArrayInputStream(cbor));
+            }
+        });
+    }
+
+    @Test
+    public void jsonIsUsedUnlessCborIsPreferred() {
+        WireFormatNegotiator negotiator = new WireFormatNegotiator();
+        assertEquals(WIRE_FORMAT.JSON, negotiator.getPreferredFormat());
+        assertEquals("application/json", negotiator.getAcceptHeader());
+
+        negotiator.onResponse(API_URL, WIRE_FORMAT.JSON, response(200, WireFormatNegotiator.CONTENT_TYPE_CBOR));
+        assertEquals(WIRE_FORMAT.JSON, negotiator.getRequestFormat(API_URL));
+    }
+
+    @Test
+    public void cborIsUsedOnceTheServerAnswersInCborAndDroppedOn415() {
+        WireFormatNegotiator negotiator = new WireFormatNegotiator();
+        negotiator.setPreferredFormat(WIRE_FORMAT.CBOR);
+        assertEquals(WIRE_FORMAT.JSON, negotiator.getRequestFormat(API_URL));
+
+        negotiator.onResponse(API_URL, WIRE_FORMAT.JSON, response(200, WireFormatNegotiator.CONTENT_TYPE_CBOR));
+        assertEquals(WIRE_FORMAT.CBOR, negotiator.getRequestFormat(API_URL));
+        assertEquals("Other servers are not affected", WIRE_FORMAT.JSON,
+                negotiator.getRequestFormat("https://eu.toucan.javocsoft.es/PushNOTApi/ackreport"));
+
+        assertTrue(negotiator.onResponse(API_URL, WIRE_FORMAT.CBOR, response(415, "text/plain")));
+        assertEquals(WIRE_FORMAT.JSON, negotiator.getRequestFormat(API_URL));
+        negotiator.onResponse(API_URL, WIRE_FORMAT.JSON, response(200, WireFormatNegotiator.CONTENT_TYPE_CBOR));
+        assertEquals("CBOR responses do not bring back CBOR requests", WIRE_FORMAT.JSON,
+                negotiator.getRequestFormat(API_URL));
+
+        negotiator.setPreferredFormat(WIRE_FORMAT.JSON);
+        negotiator.onResponse(API_URL, WIRE_FORMAT.JSON, response(200, WireFormatNegotiator.CONTENT_TYPE_CBOR));
+        assertEquals(WIRE_FORMAT.JSON, negotiator.getRequestFormat(API_URL));
+        assertEquals("application/json", negotiator.getAcceptHeader());
+    }
+
+
+    private void assertSmallerInCbor(String name, Object request) throws Exception {
+        byte[] json = gson.toJson(request).getBytes("UTF-8");
+        byte[] cbor = ToucanCborCodec.encodeRequest(request);
+        assertTrue(name + " is smaller in CBOR", cbor.length < json.length);
+        assertEquals(name + " decodes to the same fields", gson.fromJson(new String(json, "UTF-8"), Map.class).keySet(),
+                ((Map<?, ?>) readCbor(cbor)).keySet());
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    private static void report(String name, Work json, Work cbor) throws Exception {
+        long jsonNanos = nanosPerRun(json);
+        long cborNanos = nanosPerRun(cbor);
+        System.out.println(String.format("%-40s JSON %7d ns, CBOR %7d ns", name, jsonNanos, cborNanos));
+    }
+
+    private static long nanosPerRun(Work work) throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            work.run();
+        }
+        int runs = 20000;
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            work.run();
+        }
+        return (System.nanoTime() - start) / runs;
+    }
+
+    private static Object readCbor(byte[] cbor) throws Exception {
+        return new CborReader(new ByteArrayInputStream(cbor)).readItem();
+    }
+
+    private static TransportResponse response(int status, String contentType) {
+        return new TransportResponse(status,
+                Collections.singletonMap("Content-Type", Collections.singletonList(contentType)), null);
+    }
+
+    private static DeviceRegistrationRequest registration() {
+        DeviceRegistrationBean bean = new DeviceRegistrationBean();
+        bean.setAppVersion(118);
+        bean.setNotToken(FCM_TOKEN);
+        bean.setDevId(DEVICE_ID);
+        bean.setDevOs("Android 8.1.0 - (API Level 27)");
+        bean.setDevExtra("Brand: samsung, Device: dreamlte, Model: SM-G950F, Manufacturer: samsung, "
+                + "Product: dreamltexx, Board: universal8895, Hardware: samsungexynos8895");
+        bean.setDevLocale("es_ES");
+        bean.setDevResType("xxxhdpi");
+        bean.setInstallReferral("utm_source=google-play&utm_medium=organic&utm_campaign=spring_launch");
+        bean.setTsCreation(new Date(1514764800000L));
+
+        DeviceRegistrationRequest request = new DeviceRegistrationRequest();
+        request.setAppKey(APP_KEY);
+        request.setAppHashSignature(SHA1);
+        request.setHashSignature(SHA1);
+        request.setData(bean);
+        return request;
+    }
+
+    private static AppDevTagsOperationRequest tags(int count) {
+        List<String> tags = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            tags.add("interest_category_" + (i % 8) + "_topic_" + i);
+        }
+        AppDevTagsOperationRequest request = new AppDevTagsOperationRequest();
+        request.setAppKey(APP_KEY);
+        request.setDevId(DEVICE_ID);
+        request.setAppHashSignature(SHA1);
+        request.setHashSignature(SHA1);
+        request.setTags(tags);
+        return request;
+    }
+
+    private static ACKRequest ack() {
+        ACKRequest request = new ACKRequest();
+        request.setAppKey(APP_KEY);
+        request.setAppHashSignature(SHA1);
+        request.setToken(FCM_TOKEN);
+        return request;
+    }
+}